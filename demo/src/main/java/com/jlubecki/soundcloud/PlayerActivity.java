@@ -25,8 +25,6 @@
 package com.jlubecki.soundcloud;
 
 import android.content.SharedPreferences;
-import android.media.AudioManager;
-import android.media.MediaPlayer;
 import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.text.Editable;
@@ -41,13 +39,14 @@ import android.widget.ListView;
 import com.jlubecki.soundcloud.webapi.android.SoundCloudAPI;
 import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
 import com.jlubecki.soundcloud.webapi.android.models.Track;
-import com.jlubecki.soundcloud.webapi.android.query.TrackQuery;
+import com.jlubecki.soundcloud.webapi.android.search.TrackSearchPipeline;
+import com.jlubecki.soundcloud.webapi.android.stream.PlaybackQueue;
+import com.jlubecki.soundcloud.webapi.android.stream.StreamCache;
+import com.jlubecki.soundcloud.webapi.android.stream.StreamProxy;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import retrofit2.Call;
-import retrofit2.Callback;
-import retrofit2.Response;
 
 import static com.jlubecki.soundcloud.Constants.AUTH_TOKEN_KEY;
 import static com.jlubecki.soundcloud.Constants.CLIENT_ID;
@@ -60,16 +59,15 @@ public class PlayerActivity extends AppCompatActivity {
 
     private static final String TAG = "PlayerActivity";
 
-    private SoundCloudService soundcloud;
+    private TrackSearchPipeline searchPipeline;
+    private StreamProxy streamProxy;
+    private PlaybackQueue playbackQueue;
     private List<Track> tracks;
 
     private String searchString;
     private final ArrayList<String> trackTitles = new ArrayList<>();
-    private final ArrayList<String> trackUrls = new ArrayList<>();
+    private final ArrayList<Track> playableTracks = new ArrayList<>();
     private ArrayAdapter<String> songsListAdapter;
-    private int currentTrack = -1;
-
-    private final MediaPlayer player = new MediaPlayer();
 
     private ImageButton playPauseButton;
 
@@ -87,7 +85,48 @@ public class PlayerActivity extends AppCompatActivity {
             api.setToken(token);
         }
 
-        soundcloud = api.getService();
+        SoundCloudService soundcloud = api.getService();
+
+        try {
+            StreamCache streamCache = new StreamCache(new File(getCacheDir(), "streams"), StreamCache.MAX_BYTES_DEFAULT);
+            streamProxy = new StreamProxy(api.getMediaClient(), streamCache);
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't start the stream cache, playback is unavailable.", e);
+        }
+
+        if (streamProxy != null) {
+            playbackQueue = new PlaybackQueue.Builder(streamProxy, new PlaybackQueue.Listener() {
+                @Override
+                public void onTrackChanged(int index, Track track) {
+                    Log.i(TAG, "Playing " + track.title);
+                    playPauseButton.setImageResource(android.R.drawable.ic_media_pause);
+                }
+
+                @Override
+                public void onPlaybackError(Track track, int what, int extra) {
+                    Log.e(TAG, "Couldn't play " + track.title + " (" + what + ", " + extra + ").");
+                }
+
+                @Override
+                public void onQueueFinished() {
+                    playPauseButton.setImageResource(android.R.drawable.ic_media_play);
+                }
+            }).setService(soundcloud).build();
+        }
+
+        searchPipeline = new TrackSearchPipeline.Builder(soundcloud, new TrackSearchPipeline.Listener() {
+            @Override
+            public void onSearchResults(String query, List<Track> results, boolean fromCache) {
+                tracks = results;
+
+                createSongList();
+            }
+
+            @Override
+            public void onSearchFailed(String query, Throwable throwable) {
+                Log.e(TAG, "Failed to load tracks.", throwable);
+            }
+        }).build();
 
         EditText searchBox = (EditText) findViewById(R.id.search_box);
         searchBox.addTextChangedListener(new TextWatcher() {
@@ -104,6 +143,7 @@ public class PlayerActivity extends AppCompatActivity {
             @Override
             public void afterTextChanged(Editable s) {
                 searchString = s.toString();
+                searchPipeline.onQueryChanged(searchString);
             }
         });
 
@@ -113,11 +153,9 @@ public class PlayerActivity extends AppCompatActivity {
         songsList.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                Log.i(TAG, trackUrls.get(position));
-
-                currentTrack = position;
-
-                playTrack(trackUrls.get(position));
+                if (playbackQueue != null) {
+                    playbackQueue.play(playableTracks, position);
+                }
             }
         });
 
@@ -131,14 +169,14 @@ public class PlayerActivity extends AppCompatActivity {
 
     private void createSongList() {
         trackTitles.clear();
-        trackUrls.clear();
+        playableTracks.clear();
 
         if(tracks != null) {
             for (Track track : tracks) {
                 if (track.title != null && !track.title.isEmpty()) {
                     if (track.is_streamable) {
                         trackTitles.add(track.title);
-                        trackUrls.add(track.stream_url);
+                        playableTracks.add(track);
                     } else {
                         Log.w(TAG, "Error getting track title.", new IllegalStateException());
                     }
@@ -151,78 +189,41 @@ public class PlayerActivity extends AppCompatActivity {
         songsListAdapter.notifyDataSetChanged();
     }
 
-    private void playTrack(String trackUrl) {
-        player.reset();
-        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
-        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
-            @Override
-            public void onPrepared(MediaPlayer mp) {
-                if (!player.isPlaying()) {
-                    player.start();
-                    playPauseButton.setImageResource(android.R.drawable.ic_media_pause);
-                }
-            }
-        });
-        player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
-            @Override
-            public void onCompletion(MediaPlayer mp) {
-                currentTrack++;
-                if (currentTrack > trackTitles.size() - 1) {
-                    currentTrack = -1;
-                } else {
-                    playTrack(trackUrls.get(currentTrack));
-                }
-            }
-        });
-        String dataString = trackUrl + "?client_id=" + CLIENT_ID;
-        try {
-            player.setDataSource(dataString);
-        } catch (IOException e) {
-            Log.e(TAG, "Couldn't parse URI.", e);
+    private void togglePlayPause() {
+        if (playbackQueue == null) {
+            return;
         }
-        player.prepareAsync();
-    }
 
-    private void togglePlayPause() {
-        if (player.isPlaying()) {
-            player.pause();
+        if (playbackQueue.isPlaying()) {
+            playbackQueue.pause();
             playPauseButton.setImageResource(android.R.drawable.ic_media_play);
-        } else if (trackUrls.size() > 0 && !player.isPlaying() && currentTrack == -1) {
-            playTrack(trackUrls.get(0));
-        } else {
-            player.start();
-
-            if(player.isPlaying()) {
-                playPauseButton.setImageResource(android.R.drawable.ic_media_pause);
+        } else if (playbackQueue.getIndex() == -1) {
+            if (playableTracks.size() > 0) {
+                playbackQueue.play(playableTracks, 0);
             }
+        } else {
+            playbackQueue.resume();
+            playPauseButton.setImageResource(android.R.drawable.ic_media_pause);
         }
     }
 
     public void searchTracks(View view) {
-        TrackQuery query = new TrackQuery.Builder()
-                .setQuery(searchString)
-                .build();
-
-        soundcloud.searchTracks(query.createMap()).enqueue(new Callback<List<Track>>() {
-            @Override
-            public void onResponse(Call<List<Track>> call, Response<List<Track>> response) {
-                tracks = response.body();
-
-                Log.i(TAG, response.raw().toString());
-
-                createSongList();
-            }
-
-            @Override
-            public void onFailure(Call<List<Track>> call, Throwable t) {
-                Log.e(TAG, "Failed to load tracks.", t);
-            }
-        });
+        if (searchString != null) {
+            searchPipeline.search(searchString);
+        }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        player.release();
+        searchPipeline.release();
+
+        if (playbackQueue != null) {
+            playbackQueue.release();
+        }
+
+        if (streamProxy != null) {
+            streamProxy.shutdown();
+        }
     }
 }
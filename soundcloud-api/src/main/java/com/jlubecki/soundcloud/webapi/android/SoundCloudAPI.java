@@ -29,6 +29,9 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.internal.bind.DateTypeAdapter;
 import com.jlubecki.soundcloud.webapi.android.auth.chrometabs.ChromeTabsSoundCloudAuthenticator;
+import com.jlubecki.soundcloud.webapi.android.cache.CacheInterceptor;
+import com.jlubecki.soundcloud.webapi.android.cache.CachingConverterFactory;
+import com.jlubecki.soundcloud.webapi.android.cache.EntityCache;
 
 import java.io.IOException;
 import java.util.Date;
@@ -50,9 +53,13 @@ public class SoundCloudAPI {
 
     public static final String SOUNDCLOUD_API_ENDPOINT = "https://api.soundcloud.com/";
 
+    private static final String API_HOST = HttpUrl.parse(SOUNDCLOUD_API_ENDPOINT).host();
+
     private final SoundCloudService service;
+    private final OkHttpClient mediaClient;
 
     private final String clientId;
+    private final EntityCache cache;
     private String token;
 
     /**
@@ -61,20 +68,58 @@ public class SoundCloudAPI {
      * @param clientId Client ID provided by SoundCloud.
      */
     public SoundCloudAPI(String clientId) {
+        this(clientId, null);
+    }
+
+    /**
+     * Creates a {@link SoundCloudService} that stores every track, user, playlist and group it
+     * receives in an {@link EntityCache}, and writes successful mutations such as
+     * {@link SoundCloudService#postUpload} through to it. Serializes with JSON.
+     *
+     * @param clientId Client ID provided by SoundCloud.
+     * @param cache    Cache to fill from responses, or null to disable caching.
+     */
+    public SoundCloudAPI(String clientId, EntityCache cache) {
         this.clientId = clientId;
+        this.cache = cache;
 
         Gson gson = new GsonBuilder()
                 .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
                 .registerTypeAdapter(Date.class, new DateTypeAdapter())
                 .create();
 
-        OkHttpClient client = new OkHttpClient.Builder()
+        OkHttpClient.Builder clientBuilder = new OkHttpClient.Builder();
+
+        // Cache interceptors see requests before the client ID and token are added.
+        if (cache != null) {
+            clientBuilder.addInterceptor(new CacheInterceptor(cache));
+
+            if (cache.getNegativeCache() != null) {
+                clientBuilder.addInterceptor(cache.getNegativeCache());
+            }
+        }
+
+        OkHttpClient client = clientBuilder
                 .addInterceptor(new SoundCloudInterceptor())
                 .build();
 
-        Retrofit adapter = new Retrofit.Builder()
+        // Audio does not go through the cache interceptors, but shares the API's connection pool.
+        OkHttpClient.Builder mediaBuilder = client.newBuilder();
+        mediaBuilder.interceptors().clear();
+
+        mediaClient = mediaBuilder
+                .addInterceptor(new MediaInterceptor())
+                .build();
+
+        Retrofit.Builder builder = new Retrofit.Builder()
                 .client(client)
-                .baseUrl(SOUNDCLOUD_API_ENDPOINT)
+                .baseUrl(SOUNDCLOUD_API_ENDPOINT);
+
+        if (cache != null) {
+            builder.addConverterFactory(new CachingConverterFactory(cache));
+        }
+
+        Retrofit adapter = builder
                 .addConverterFactory(GsonConverterFactory.create(gson))
                 .build();
 
@@ -90,13 +135,30 @@ public class SoundCloudAPI {
         return service;
     }
 
+    /**
+     * Gives access to a client for fetching audio from a track's download_url or stream_url. It
+     * adds the client ID and token to requests to the API like the service does, and follows the
+     * redirects to the media servers. Requests to any other host, such as the URL a redirect led
+     * to, are sent without them.
+     *
+     * @return The client for media requests.
+     */
+    public OkHttpClient getMediaClient() {
+        return mediaClient;
+    }
+
     /**
      * Sets the auth token needed by the service in order to make authenticated requests.
      *
      * @param token The OAuth token to use for authenticated requests.
      */
     public void setToken(String token) {
+        boolean changed = token != null ? !token.equals(this.token) : this.token != null;
         this.token = token;
+
+        if (cache != null && changed) {
+            cache.clearAccount();
+        }
     }
 
     private class SoundCloudInterceptor implements Interceptor {
@@ -119,4 +181,33 @@ public class SoundCloudAPI {
             return chain.proceed(newRequest);
         }
     }
+
+    /**
+     * Adds the client ID and token to requests to the API only, so they never reach the media
+     * servers. The URL of an earlier response may already carry them, so they are replaced.
+     */
+    private class MediaInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Interceptor.Chain chain) throws IOException {
+
+            Request request = chain.request();
+
+            if (!API_HOST.equals(request.url().host())) {
+                return chain.proceed(request);
+            }
+
+            HttpUrl.Builder urlBuilder = request.url().newBuilder()
+                    .setEncodedQueryParameter("client_id", clientId);
+
+            if (token != null) {
+                urlBuilder.setEncodedQueryParameter("oauth_token", token);
+            }
+
+            Request newRequest = request.newBuilder()
+                    .url(urlBuilder.build())
+                    .build();
+
+            return chain.proceed(newRequest);
+        }
+    }
 }
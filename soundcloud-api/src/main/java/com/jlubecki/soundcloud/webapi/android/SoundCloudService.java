@@ -33,13 +33,17 @@ import com.jlubecki.soundcloud.webapi.android.models.SecretToken;
 import com.jlubecki.soundcloud.webapi.android.models.Track;
 import com.jlubecki.soundcloud.webapi.android.models.User;
 import com.jlubecki.soundcloud.webapi.android.models.WebProfile;
+import com.jlubecki.soundcloud.webapi.android.query.QueryParameters;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import okhttp3.RequestBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.POST;
 import retrofit2.http.Path;
 import retrofit2.http.Query;
@@ -93,6 +97,18 @@ public interface SoundCloudService {
     @GET("tracks")
     Call<List<Track>> searchTracks(@QueryMap HashMap<String, String> queries);
 
+    /**
+     * Returns a call that can provide a list of {@link Track}s for a page of a
+     * {@link com.jlubecki.soundcloud.webapi.android.query.TrackQuery}. The page is already URL
+     * encoded, so it is appended to the URL as it is.
+     *
+     * @param page A page created by {@link com.jlubecki.soundcloud.webapi.android.query.Query#page(int, int)}
+     *             or a {@link com.jlubecki.soundcloud.webapi.android.query.Pager}.
+     * @return The call that can be used to get the data.
+     */
+    @GET("tracks")
+    Call<List<Track>> searchTracks(@QueryMap(encoded = true) QueryParameters.Page page);
+
     /**
      * Get a {@link Track} with a given ID.
      *
@@ -111,6 +127,21 @@ public interface SoundCloudService {
     @GET("tracks/{id}/comments")
     Call<List<Comment>> getTrackComments(@Path("id") String trackId);
 
+    /**
+     * Returns a page of {@link Comment} items for a given track ID. The request is conditional when
+     * an ETag is given.
+     *
+     * @param trackId ID of track.
+     * @param page    Map containing the "limit" and "offset" of the page to get.
+     * @param eTag    ETag of an earlier response for the same page, or null. The server answers
+     *                with 304 Not Modified if the page has not changed since.
+     * @return The call that can be used to get the data.
+     */
+    @GET("tracks/{id}/comments")
+    Call<List<Comment>> getTrackComments(@Path("id") String trackId,
+                                         @QueryMap(encoded = true) Map<String, String> page,
+                                         @Header("If-None-Match") String eTag);
+
     /**
      * Get a {@link Comment} for a given track.
      *
@@ -158,6 +189,16 @@ public interface SoundCloudService {
     @POST("tracks")
     Call<Track> postUpload(@Body Track track);
 
+    /**
+     * Uploads an audio file to the user's SoundCloud account as a multipart request. The file is
+     * streamed from disk rather than held in memory.
+     *
+     * @param body a multipart body built by {@link com.jlubecki.soundcloud.webapi.android.upload.TrackUpload}.
+     * @return The call that can be used to get the uploaded track.
+     */
+    @POST("tracks")
+    Call<Track> postUpload(@Body RequestBody body);
+
     /**
      * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
      *
@@ -175,6 +216,16 @@ public interface SoundCloudService {
     @GET("users")
     Call<List<User>> searchUsers(@Query("q") String query);
 
+    /**
+     * Returns a call that can provide a list of {@link User}s from a given set of query parameters.
+     *
+     * @param queries Map of URL encoded query params and values, usually a page created by a
+     *                {@link com.jlubecki.soundcloud.webapi.android.query.UserQuery}.
+     * @return The call that can be used to get the data.
+     */
+    @GET("users")
+    Call<List<User>> searchUsers(@QueryMap(encoded = true) Map<String, String> queries);
+
     /**
      * Gets a {@link User} with a given ID.
      *
@@ -211,6 +262,16 @@ public interface SoundCloudService {
     @GET("users/{id}/followings")
     Call<List<User>> getUserFollowings(@Path("id") String userId);
 
+    /**
+     * Returns a page of {@link User}s followed by a user with a given ID.
+     *
+     * @param userId ID of the user to get the followings for.
+     * @param page   Map containing the "limit" and "offset" of the page to get.
+     * @return The call that can be used to get the data.
+     */
+    @GET("users/{id}/followings")
+    Call<List<User>> getUserFollowings(@Path("id") String userId, @QueryMap(encoded = true) Map<String, String> page);
+
     /**
      * Returns a call that can provide a {@link User} with a given ID followed by another user with a given ID.
      *
@@ -230,6 +291,16 @@ public interface SoundCloudService {
     @GET("users/{id}/followers")
     Call<List<User>> getUserFollowers(@Path("id") String userId);
 
+    /**
+     * Returns a page of {@link User}s following a user with a given ID.
+     *
+     * @param userId ID of a user to get the followers for.
+     * @param page   Map containing the "limit" and "offset" of the page to get.
+     * @return The call that can be used to get the data.
+     */
+    @GET("users/{id}/followers")
+    Call<List<User>> getUserFollowers(@Path("id") String userId, @QueryMap(encoded = true) Map<String, String> page);
+
     /**
      * Returns a call that can provide a {@link User} followed by a user with a given ID.
      *
@@ -314,6 +385,36 @@ public interface SoundCloudService {
     @GET("playlists")
     Call<List<Playlist>> getPlaylists(@Query("q") String query, @Query("representation") String representation);
 
+    /**
+     * Returns a call that can provide a list of {@link Playlist} items from a given set of query parameters.
+     *
+     * @param queries Map of URL encoded query params and values, usually a page created by a
+     *                {@link com.jlubecki.soundcloud.webapi.android.query.PlaylistQuery}.
+     * @return The call that can be used to get the data.
+     */
+    @GET("playlists")
+    Call<List<Playlist>> getPlaylists(@QueryMap(encoded = true) Map<String, String> queries);
+
+    /**
+     * Returns a call that can provide a {@link Playlist} with a given ID.
+     *
+     * @param id ID of the playlist to get.
+     * @return The call that can be used to get the data.
+     */
+    @GET("playlists/{id}")
+    Call<Playlist> getPlaylist(@Path("id") String id);
+
+    /**
+     * Returns a call that can provide a {@link Playlist} with a given ID with a representation parameter.
+     *
+     * @param id             ID of the playlist to get.
+     * @param representation Accepted values: "compact" or "id". With "id", the tracks of the playlist
+     *                       only have their IDs set.
+     * @return The call that can be used to get the data.
+     */
+    @GET("playlists/{id}")
+    Call<Playlist> getPlaylist(@Path("id") String id, @Query("representation") String representation);
+
     /**
      * Returns a call that can provide a secret token for a {@link Playlist}.
      *
@@ -340,6 +441,16 @@ public interface SoundCloudService {
     @GET("groups")
     Call<List<Group>> searchGroups(@Query("q") String query);
 
+    /**
+     * Returns {@link Groups} from a given set of query parameters.
+     *
+     * @param queries Map of URL encoded query params and values, usually a page created by a
+     *                {@link com.jlubecki.soundcloud.webapi.android.query.GroupQuery}.
+     * @return The call that can be used to get the data.
+     */
+    @GET("groups")
+    Call<List<Group>> searchGroups(@QueryMap(encoded = true) Map<String, String> queries);
+
     /**
      * Returns a call that can provide a {@link Group} with a given ID.
      *
@@ -451,6 +562,17 @@ public interface SoundCloudService {
     @GET("me/tracks")
     Call<List<Track>> getMyTracks();
 
+    /**
+     * Returns a page of the {@link Track} items of the authenticated user. The request is conditional when an ETag is given.
+     *
+     * @param page Map containing the "limit" and "offset" of the page to get.
+     * @param eTag ETag of an earlier response for the same page, or null. The server answers with
+     *             304 Not Modified if the page has not changed since.
+     * @return The call that can be used to get the data.
+     */
+    @GET("me/tracks")
+    Call<List<Track>> getMyTracks(@QueryMap(encoded = true) Map<String, String> page, @Header("If-None-Match") String eTag);
+
     /**
      * Returns a call that can provide a list of {@link Playlist} items for the authenticated user.
      *
@@ -459,6 +581,17 @@ public interface SoundCloudService {
     @GET("me/playlists")
     Call<List<Playlist>> getMyPlaylists();
 
+    /**
+     * Returns a page of the {@link Playlist} items of the authenticated user. The request is conditional when an ETag is given.
+     *
+     * @param page Map containing the "limit" and "offset" of the page to get.
+     * @param eTag ETag of an earlier response for the same page, or null. The server answers with
+     *             304 Not Modified if the page has not changed since.
+     * @return The call that can be used to get the data.
+     */
+    @GET("me/playlists")
+    Call<List<Playlist>> getMyPlaylists(@QueryMap(encoded = true) Map<String, String> page, @Header("If-None-Match") String eTag);
+
     /**
      * Returns {@link User}s followed by the authenticated user.
      *
@@ -467,6 +600,17 @@ public interface SoundCloudService {
     @GET("me/followings")
     Call<List<User>> getMyFollowings();
 
+    /**
+     * Returns a page of the {@link User}s followed by the authenticated user. The request is conditional when an ETag is given.
+     *
+     * @param page Map containing the "limit" and "offset" of the page to get.
+     * @param eTag ETag of an earlier response for the same page, or null. The server answers with
+     *             304 Not Modified if the page has not changed since.
+     * @return The call that can be used to get the data.
+     */
+    @GET("me/followings")
+    Call<List<User>> getMyFollowings(@QueryMap(encoded = true) Map<String, String> page, @Header("If-None-Match") String eTag);
+
     /**
      * Returns a call that can provide a {@link User} followed by the authenticated user.
      *
@@ -484,6 +628,17 @@ public interface SoundCloudService {
     @GET("me/followers")
     Call<List<User>> getMyFollowers();
 
+    /**
+     * Returns a page of the {@link User}s following the authenticated user. The request is conditional when an ETag is given.
+     *
+     * @param page Map containing the "limit" and "offset" of the page to get.
+     * @param eTag ETag of an earlier response for the same page, or null. The server answers with
+     *             304 Not Modified if the page has not changed since.
+     * @return The call that can be used to get the data.
+     */
+    @GET("me/followers")
+    Call<List<User>> getMyFollowers(@QueryMap(encoded = true) Map<String, String> page, @Header("If-None-Match") String eTag);
+
     /**
      * Returns a call that can provide a {@link User} followed by the authenticated user.
      *
@@ -501,6 +656,17 @@ public interface SoundCloudService {
     @GET("me/comments")
     Call<List<Comment>> getMyComments();
 
+    /**
+     * Returns a page of the {@link Comment} items of the authenticated user. The request is conditional when an ETag is given.
+     *
+     * @param page Map containing the "limit" and "offset" of the page to get.
+     * @param eTag ETag of an earlier response for the same page, or null. The server answers with
+     *             304 Not Modified if the page has not changed since.
+     * @return The call that can be used to get the data.
+     */
+    @GET("me/comments")
+    Call<List<Comment>> getMyComments(@QueryMap(encoded = true) Map<String, String> page, @Header("If-None-Match") String eTag);
+
     /**
      * Returns a call that can provide a list of favorited {@link Track} items for the authenticated user.
      *
@@ -509,6 +675,17 @@ public interface SoundCloudService {
     @GET("me/favorites")
     Call<List<Track>> getMyFavorites();
 
+    /**
+     * Returns a page of the favorited {@link Track} items of the authenticated user. The request is conditional when an ETag is given.
+     *
+     * @param page Map containing the "limit" and "offset" of the page to get.
+     * @param eTag ETag of an earlier response for the same page, or null. The server answers with
+     *             304 Not Modified if the page has not changed since.
+     * @return The call that can be used to get the data.
+     */
+    @GET("me/favorites")
+    Call<List<Track>> getMyFavorites(@QueryMap(encoded = true) Map<String, String> page, @Header("If-None-Match") String eTag);
+
     /**
      * Returns a call that can provide a favorited {@link Track} for the authenticated user.
      *
@@ -0,0 +1,232 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.batch;
+
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.cache.CachedEntity;
+import com.jlubecki.soundcloud.webapi.android.cache.EntityCache;
+import com.jlubecki.soundcloud.webapi.android.cache.EntityType;
+import com.jlubecki.soundcloud.webapi.android.models.Playlist;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A playlist whose tracks are known by ID and loaded in chunks as they are needed. Report the
+ * visible rows with {@link #onVisibleRangeChanged(int, int)}, for example from a scroll listener,
+ * and the chunks around them are hydrated: from the {@link EntityCache} when possible, otherwise
+ * through a {@link TrackBatchLoader}, which fetches each chunk with as few "tracks?ids=" requests as
+ * possible.
+ * <p/>
+ * Created by {@link PlaylistLoader}. All methods must be called on the main thread, where the
+ * {@link Listener} is notified as well.
+ */
+public class LazyPlaylist {
+
+    private static final int NOT_LOADED = 0;
+    private static final int LOADING = 1;
+    private static final int LOADED = 2;
+
+    private final Playlist playlist;
+    private final List<String> trackIds;
+    private final Track[] tracks;
+    private final int[] chunkStates;
+    private final int chunkSize;
+    private final TrackBatchLoader batchLoader;
+    private final EntityCache cache;
+
+    private Listener listener;
+
+    LazyPlaylist(Playlist playlist, List<String> trackIds, int chunkSize, TrackBatchLoader batchLoader,
+                 @Nullable EntityCache cache) {
+        this.playlist = playlist;
+        this.trackIds = Collections.unmodifiableList(trackIds);
+        this.tracks = new Track[trackIds.size()];
+        this.chunkStates = new int[(trackIds.size() + chunkSize - 1) / chunkSize];
+        this.chunkSize = chunkSize;
+        this.batchLoader = batchLoader;
+        this.cache = cache;
+    }
+
+    /**
+     * @return The playlist as fetched, whose tracks only have their IDs set.
+     */
+    public Playlist getPlaylist() {
+        return playlist;
+    }
+
+    public int size() {
+        return trackIds.size();
+    }
+
+    /**
+     * @return The IDs of the tracks, in playlist order.
+     */
+    public List<String> getTrackIds() {
+        return trackIds;
+    }
+
+    /**
+     * @param position Position of the track in the playlist.
+     * @return The track, or null if it has not been loaded yet or is no longer available.
+     */
+    @Nullable
+    @MainThread
+    public Track getTrack(int position) {
+        return tracks[position];
+    }
+
+    /**
+     * @param position Position of the track in the playlist.
+     * @return Whether the chunk holding the track has been loaded.
+     */
+    @MainThread
+    public boolean isLoaded(int position) {
+        return chunkStates[position / chunkSize] == LOADED;
+    }
+
+    @MainThread
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Loads the chunks holding the visible tracks, and the chunk after them so scrolling on does
+     * not show empty rows.
+     *
+     * @param first Position of the first visible track.
+     * @param last  Position of the last visible track.
+     */
+    @MainThread
+    public void onVisibleRangeChanged(int first, int last) {
+        if (chunkStates.length == 0) {
+            return;
+        }
+
+        int firstChunk = Math.max(0, first / chunkSize);
+        int lastChunk = Math.min(chunkStates.length - 1, last / chunkSize + 1);
+
+        for (int chunk = firstChunk; chunk <= lastChunk; chunk++) {
+            if (chunkStates[chunk] == NOT_LOADED) {
+                hydrate(chunk);
+            }
+        }
+    }
+
+    private void hydrate(final int chunk) {
+        final int from = chunk * chunkSize;
+        final int to = Math.min(trackIds.size(), from + chunkSize);
+        List<String> missing = new ArrayList<>();
+
+        for (int i = from; i < to; i++) {
+            CachedEntity<Track> cached = cache != null ? cache.peek(EntityType.TRACK, trackIds.get(i)) : null;
+
+            if (cached != null) {
+                tracks[i] = cached.getValue();
+            } else if (!missing.contains(trackIds.get(i))) {
+                missing.add(trackIds.get(i));
+            }
+        }
+
+        if (missing.isEmpty()) {
+            loaded(chunk, from, to);
+            return;
+        }
+
+        chunkStates[chunk] = LOADING;
+
+        final int[] remaining = {missing.size()};
+        final Throwable[] failure = {null};
+
+        batchLoader.loadAll(missing, new TrackBatchLoader.Callback() {
+            @Override
+            public void onTrackLoaded(String trackId, @Nullable Track track) {
+                if (track != null) {
+                    for (int i = from; i < to; i++) {
+                        if (trackIds.get(i).equals(trackId)) {
+                            tracks[i] = track;
+                        }
+                    }
+
+                    if (cache != null) {
+                        cache.put(track);
+                    }
+                }
+
+                done();
+            }
+
+            @Override
+            public void onTrackFailed(String trackId, Throwable throwable) {
+                failure[0] = throwable;
+                done();
+            }
+
+            private void done() {
+                if (--remaining[0] > 0) {
+                    return;
+                }
+
+                if (failure[0] == null) {
+                    loaded(chunk, from, to);
+                    return;
+                }
+
+                // Loaded again the next time it becomes visible.
+                chunkStates[chunk] = NOT_LOADED;
+
+                if (listener != null) {
+                    listener.onLoadFailed(LazyPlaylist.this, from, to, failure[0]);
+                }
+            }
+        });
+    }
+
+    private void loaded(int chunk, int from, int to) {
+        chunkStates[chunk] = LOADED;
+
+        if (listener != null) {
+            listener.onTracksLoaded(this, from, to);
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * Called when the tracks in a range have been loaded, for example to rebind those rows.
+         *
+         * @param from Position of the first loaded track.
+         * @param to   Position after the last loaded track.
+         */
+        void onTracksLoaded(@NonNull LazyPlaylist playlist, int from, int to);
+
+        void onLoadFailed(@NonNull LazyPlaylist playlist, int from, int to, @NonNull Throwable throwable);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.batch;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.cache.EntityCache;
+import com.jlubecki.soundcloud.webapi.android.models.Playlist;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.query.PlaylistQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Loads playlists with the "id" representation, which lists the tracks by ID only, and returns them
+ * as {@link LazyPlaylist}s that load track details as they scroll into view. A playlist of 500
+ * tracks is then a response of a few kilobytes followed by a request per visible chunk, instead of
+ * one response with every track embedded.
+ * <p/>
+ * Callbacks are delivered the same way as Retrofit callbacks, on the main thread on Android.
+ */
+public class PlaylistLoader {
+
+    public static final int CHUNK_SIZE_DEFAULT = 50;
+
+    private final SoundCloudService service;
+    private final TrackBatchLoader batchLoader;
+    private final EntityCache cache;
+    private final int chunkSize;
+
+    private PlaylistLoader(Builder builder) {
+        service = builder.service;
+        batchLoader = builder.batchLoader != null ? builder.batchLoader : new TrackBatchLoader.Builder(service).build();
+        cache = builder.cache;
+        chunkSize = builder.chunkSize;
+    }
+
+    /**
+     * Fetches the track IDs of a playlist.
+     *
+     * @param playlistId ID of the playlist to load.
+     * @param callback   Notified with the playlist.
+     */
+    public void load(@NonNull String playlistId, @NonNull final Callback callback) {
+        service.getPlaylist(playlistId, PlaylistQuery.Representation.ID.toString())
+                .enqueue(new retrofit2.Callback<Playlist>() {
+                    @Override
+                    public void onResponse(Call<Playlist> call, Response<Playlist> response) {
+                        Playlist playlist = response.body();
+
+                        if (!response.isSuccessful() || playlist == null) {
+                            callback.onPlaylistFailed(
+                                    new IllegalStateException("Playlist request failed with HTTP " + response.code()));
+                            return;
+                        }
+
+                        List<String> trackIds = new ArrayList<>();
+
+                        if (playlist.tracks != null) {
+                            for (Track track : playlist.tracks) {
+                                if (track != null && track.id != null) {
+                                    trackIds.add(track.id);
+                                }
+                            }
+                        }
+
+                        callback.onPlaylistLoaded(new LazyPlaylist(playlist, trackIds, chunkSize, batchLoader, cache));
+                    }
+
+                    @Override
+                    public void onFailure(Call<Playlist> call, Throwable t) {
+                        callback.onPlaylistFailed(t);
+                    }
+                });
+    }
+
+    public interface Callback {
+
+        /**
+         * Called with the playlist. No tracks are loaded until
+         * {@link LazyPlaylist#onVisibleRangeChanged(int, int)} is called.
+         */
+        void onPlaylistLoaded(@NonNull LazyPlaylist playlist);
+
+        void onPlaylistFailed(@NonNull Throwable throwable);
+    }
+
+    public static class Builder {
+
+        private final SoundCloudService service;
+        private TrackBatchLoader batchLoader;
+        private EntityCache cache;
+        private int chunkSize = CHUNK_SIZE_DEFAULT;
+
+        public Builder(@NonNull SoundCloudService service) {
+            this.service = service;
+        }
+
+        /**
+         * Sets the loader that fetches tracks, so lookups are shared with other parts of the app.
+         * By default each playlist loader creates its own.
+         *
+         * @param batchLoader The loader to fetch tracks with.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setBatchLoader(@Nullable TrackBatchLoader batchLoader) {
+            this.batchLoader = batchLoader;
+
+            return this;
+        }
+
+        /**
+         * Sets a cache that is checked before tracks are fetched and that fetched tracks are added to.
+         *
+         * @param cache The cache to use.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setEntityCache(@Nullable EntityCache cache) {
+            this.cache = cache;
+
+            return this;
+        }
+
+        /**
+         * Sets how many tracks are loaded together.
+         *
+         * @param chunkSize Number of tracks per chunk, up to the API's page size limit.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setChunkSize(@IntRange(from = 1, to = 200) int chunkSize) {
+            this.chunkSize = chunkSize;
+
+            return this;
+        }
+
+        public PlaylistLoader build() {
+            return new PlaylistLoader(this);
+        }
+    }
+}
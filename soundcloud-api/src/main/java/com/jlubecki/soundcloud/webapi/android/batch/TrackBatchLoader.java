@@ -0,0 +1,320 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.batch;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.query.Pager;
+import com.jlubecki.soundcloud.webapi.android.query.TrackQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Coalesces individual track lookups into "tracks?ids=" requests. Every {@link #load(String, Callback)}
+ * made within a short window is collected, duplicate IDs are merged, and the batch is sent as as
+ * few requests as the URL length and page size allow. Each caller is then notified with its own
+ * track. Lookups for an ID that is already being fetched join the request in flight.
+ * <p/>
+ * Callbacks are delivered the same way as Retrofit callbacks, on the main thread on Android.
+ */
+public class TrackBatchLoader {
+
+    public static final long WINDOW_DEFAULT_MILLIS = 16;
+
+    /**
+     * Budget for the encoded "ids" parameter. Keeps the full URL, including the client ID and
+     * token added by {@link com.jlubecki.soundcloud.webapi.android.SoundCloudAPI}, well under the
+     * common 2048 character limit.
+     */
+    public static final int MAX_IDS_LENGTH_DEFAULT = 1500;
+
+    /**
+     * Length of the encoded ", " separator used by {@link TrackQuery.Builder#setIds(String...)}.
+     */
+    private static final int SEPARATOR_LENGTH = "%2C%20".length();
+
+    private final SoundCloudService service;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final int maxIdsLength;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<String, List<Callback>> pending = new LinkedHashMap<>();
+    private final Map<String, List<Callback>> inFlight = new HashMap<>();
+    private boolean flushScheduled;
+
+    private TrackBatchLoader(Builder builder) {
+        service = builder.service;
+        windowMillis = builder.windowMillis;
+        maxBatchSize = builder.maxBatchSize;
+        maxIdsLength = builder.maxIdsLength;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "TrackBatchLoader");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Requests a single track. The request is sent with any other lookups made in the same window.
+     *
+     * @param trackId  ID of the track to load.
+     * @param callback Notified once the track has been loaded.
+     */
+    public void load(@NonNull String trackId, @NonNull Callback callback) {
+        boolean flushNow;
+
+        synchronized (this) {
+            List<Callback> waiting = inFlight.get(trackId);
+
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+
+            waiting = pending.get(trackId);
+
+            if (waiting == null) {
+                waiting = new ArrayList<>(1);
+                pending.put(trackId, waiting);
+            }
+
+            waiting.add(callback);
+
+            flushNow = pending.size() >= maxBatchSize;
+
+            if (!flushNow && !flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (flushNow) {
+            flush();
+        }
+    }
+
+    /**
+     * Requests several tracks at once. Equivalent to calling {@link #load(String, Callback)} for
+     * each ID.
+     *
+     * @param trackIds IDs of the tracks to load.
+     * @param callback Notified once for each ID.
+     */
+    public void loadAll(@NonNull Collection<String> trackIds, @NonNull Callback callback) {
+        for (String trackId : trackIds) {
+            load(trackId, callback);
+        }
+    }
+
+    /**
+     * Sends every pending lookup immediately instead of waiting for the window to close.
+     */
+    public void flush() {
+        List<List<String>> chunks = new ArrayList<>();
+
+        synchronized (this) {
+            flushScheduled = false;
+
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            List<String> chunk = new ArrayList<>();
+            int length = 0;
+
+            for (Map.Entry<String, List<Callback>> entry : pending.entrySet()) {
+                String id = entry.getKey();
+                int idLength = id.length() + SEPARATOR_LENGTH;
+
+                if (!chunk.isEmpty() && (chunk.size() >= maxBatchSize || length + idLength > maxIdsLength)) {
+                    chunks.add(chunk);
+                    chunk = new ArrayList<>();
+                    length = 0;
+                }
+
+                chunk.add(id);
+                length += idLength;
+                inFlight.put(id, entry.getValue());
+            }
+
+            chunks.add(chunk);
+            pending.clear();
+        }
+
+        for (List<String> ids : chunks) {
+            send(ids);
+        }
+    }
+
+    /**
+     * Stops the scheduler. Pending lookups are sent before it stops.
+     */
+    public void shutdown() {
+        flush();
+        scheduler.shutdown();
+    }
+
+    private void send(final List<String> ids) {
+        TrackQuery query = new TrackQuery.Builder()
+                .setIds(ids.toArray(new String[ids.size()]))
+                .build();
+
+        service.searchTracks(query.page(ids.size(), 0)).enqueue(new retrofit2.Callback<List<Track>>() {
+            @Override
+            public void onResponse(Call<List<Track>> call, Response<List<Track>> response) {
+                if (!response.isSuccessful()) {
+                    fail(ids, new IllegalStateException("Batch request failed with HTTP " + response.code()));
+                    return;
+                }
+
+                Map<String, Track> tracks = new HashMap<>();
+                List<Track> body = response.body();
+
+                if (body != null) {
+                    for (Track track : body) {
+                        if (track != null && track.id != null) {
+                            tracks.put(track.id, track);
+                        }
+                    }
+                }
+
+                for (String id : ids) {
+                    for (Callback callback : complete(id)) {
+                        callback.onTrackLoaded(id, tracks.get(id));
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Call<List<Track>> call, Throwable t) {
+                fail(ids, t);
+            }
+        });
+    }
+
+    private void fail(List<String> ids, Throwable throwable) {
+        for (String id : ids) {
+            for (Callback callback : complete(id)) {
+                callback.onTrackFailed(id, throwable);
+            }
+        }
+    }
+
+    private synchronized List<Callback> complete(String id) {
+        List<Callback> callbacks = inFlight.remove(id);
+
+        return callbacks != null ? callbacks : new ArrayList<Callback>(0);
+    }
+
+    public interface Callback {
+
+        /**
+         * Called with the loaded track, or null if the API did not return a track with that ID
+         * because it does not exist or is not visible to the current user.
+         */
+        void onTrackLoaded(String trackId, @Nullable Track track);
+
+        void onTrackFailed(String trackId, Throwable throwable);
+    }
+
+    public static class Builder {
+
+        private final SoundCloudService service;
+        private long windowMillis = WINDOW_DEFAULT_MILLIS;
+        private int maxBatchSize = Pager.LIMIT_MAX;
+        private int maxIdsLength = MAX_IDS_LENGTH_DEFAULT;
+
+        public Builder(@NonNull SoundCloudService service) {
+            this.service = service;
+        }
+
+        /**
+         * Sets how long lookups are collected before a batch is sent.
+         *
+         * @param windowMillis Length of the window in milliseconds.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setWindow(long windowMillis) {
+            this.windowMillis = windowMillis;
+
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of IDs per request. A full batch is sent without waiting for the
+         * window to close.
+         *
+         * @param maxBatchSize Number of IDs per request, up to the API's page size limit.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setMaxBatchSize(@IntRange(from = 1, to = 200) int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+
+            return this;
+        }
+
+        /**
+         * Sets the maximum length of the encoded "ids" parameter of a single request.
+         *
+         * @param maxIdsLength Number of characters.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setMaxIdsLength(@IntRange(from = 1) int maxIdsLength) {
+            this.maxIdsLength = maxIdsLength;
+
+            return this;
+        }
+
+        public TrackBatchLoader build() {
+            return new TrackBatchLoader(this);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Connects an {@link EntityCache} to the requests of a client. GET requests are remembered so
+ * that the {@link CachingConverterFactory} can key the list it decodes by the request's path.
+ * Successful mutations are written through to the cache:
+ * <ul>
+ * <li>POST /tracks adds the created track to the cached track lists of its owner.</li>
+ * <li>PUT or POST /{type}/{id} replaces the entity, DELETE removes it from the cache and every
+ * cached list.</li>
+ * <li>Any other mutation drops the cached lists of the collection it changed, for example
+ * PUT /me/favorites/{id} drops "/me/favorites".</li>
+ * </ul>
+ */
+public class CacheInterceptor implements Interceptor {
+
+    private static final long MAX_PEEK_BYTES = 1024 * 1024;
+
+    /**
+     * The GET request whose response is being decoded on this thread. Retrofit decodes responses
+     * on the thread that ran the interceptors.
+     */
+    private static final ThreadLocal<Request> CURRENT_READ = new ThreadLocal<>();
+
+    private final EntityCache cache;
+    private final Gson gson = new Gson();
+
+    public CacheInterceptor(@NonNull EntityCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean read = "GET".equals(request.method());
+
+        if (read) {
+            CURRENT_READ.set(request);
+        } else {
+            CURRENT_READ.remove();
+        }
+
+        Response response = chain.proceed(request);
+
+        if (!read && response.isSuccessful()) {
+            writeThrough(request, response);
+        }
+
+        return response;
+    }
+
+    /**
+     * Returns and forgets the GET request whose response is being decoded on this thread.
+     */
+    static Request takeCurrentRead() {
+        Request request = CURRENT_READ.get();
+        CURRENT_READ.remove();
+
+        return request;
+    }
+
+    private void writeThrough(Request request, Response response) {
+        List<String> segments = request.url().pathSegments();
+        String method = request.method();
+        EntityType<?> type = EntityType.forName(segments.get(0));
+
+        if (type != null && segments.size() == 1 && "POST".equals(method)) {
+            Object created = parse(response, type);
+
+            if (created != null) {
+                cache.onCreated(created);
+                return;
+            }
+        } else if (type != null && segments.size() == 2) {
+            String id = segments.get(1);
+
+            if ("DELETE".equals(method)) {
+                cache.onDeleted(type, id);
+            } else {
+                cache.onUpdated(type, id, parse(response, type));
+            }
+
+            return;
+        }
+
+        // Unknown relationship: drop the changed collection, which is the path itself for
+        // "/me/tracks" and its parent for "/me/favorites/123".
+        String path = request.url().encodedPath();
+        String last = segments.get(segments.size() - 1);
+
+        if (segments.size() > 2 && isId(last)) {
+            path = path.substring(0, path.length() - last.length() - 1);
+        }
+
+        cache.invalidate(path);
+    }
+
+    private Object parse(Response response, EntityType<?> type) {
+        try {
+            return gson.fromJson(response.peekBody(MAX_PEEK_BYTES).string(), type.getModelClass());
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    private static boolean isId(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+
+        return !segment.isEmpty();
+    }
+}
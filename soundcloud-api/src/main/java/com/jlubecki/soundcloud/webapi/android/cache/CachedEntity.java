@@ -0,0 +1,73 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+/**
+ * An entity held by an {@link EntityCache}, with the time it was fetched.
+ *
+ * @param <T> The model class of the entity.
+ */
+public final class CachedEntity<T> {
+
+    private final T value;
+    private final long fetchedAt;
+    private final long freshUntil;
+    private final long expiresAt;
+    final long bytes;
+
+    CachedEntity(T value, long fetchedAt, long ttlMillis, long staleMillis) {
+        this(value, fetchedAt, ttlMillis, staleMillis, SizeEstimator.estimate(value));
+    }
+
+    CachedEntity(T value, long fetchedAt, long ttlMillis, long staleMillis, long bytes) {
+        this.value = value;
+        this.fetchedAt = fetchedAt;
+        this.freshUntil = fetchedAt + ttlMillis;
+        this.expiresAt = freshUntil + staleMillis;
+        this.bytes = bytes;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * @return The wall clock time the entity was fetched at, in milliseconds.
+     */
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return true if the TTL has passed and the entity should be refreshed before it is trusted.
+     */
+    public boolean isStale() {
+        return System.currentTimeMillis() > freshUntil;
+    }
+
+    boolean isExpired(long now) {
+        return now > expiresAt;
+    }
+}
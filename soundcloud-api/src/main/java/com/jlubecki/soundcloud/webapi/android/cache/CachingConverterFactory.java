@@ -0,0 +1,103 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.models.User;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+import okhttp3.Request;
+import okhttp3.ResponseBody;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+/**
+ * Converter factory that fills an {@link EntityCache} with every entity decoded from a response,
+ * including the entities of list responses. Must be added before the converter that does the
+ * actual decoding, which it delegates to.
+ * <p/>
+ * When the client also runs a {@link CacheInterceptor}, list responses are stored as lists keyed by
+ * the path and query of their request, and responses requested with a "representation" parameter
+ * are not cached, as their entities are incomplete.
+ */
+public class CachingConverterFactory extends Converter.Factory {
+
+    private static final String REPRESENTATION = "representation";
+
+    private final EntityCache cache;
+
+    public CachingConverterFactory(@NonNull EntityCache cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations,
+                                                            Retrofit retrofit) {
+        final Converter<ResponseBody, ?> delegate = retrofit.nextResponseBodyConverter(this, type, annotations);
+        final EntityType<?> elementType = listElementType(type);
+
+        return new Converter<ResponseBody, Object>() {
+            @Override
+            public Object convert(ResponseBody value) throws IOException {
+                Object body = delegate.convert(value);
+                Request request = CacheInterceptor.takeCurrentRead();
+
+                if (request != null && request.url().queryParameter(REPRESENTATION) != null) {
+                    return body;
+                }
+
+                cache.putAll(body);
+
+                if (request != null) {
+                    String path = request.url().encodedPath();
+
+                    if (elementType != null && body instanceof List) {
+                        cache.putList(path, request.url().encodedQuery(), elementType, (List<?>) body);
+                    } else if ("/me".equals(path) && body instanceof User) {
+                        cache.setMyId(((User) body).id);
+                    }
+                }
+
+                return body;
+            }
+        };
+    }
+
+    private static EntityType<?> listElementType(Type type) {
+        if (!(type instanceof ParameterizedType) || ((ParameterizedType) type).getRawType() != List.class) {
+            return null;
+        }
+
+        Type element = ((ParameterizedType) type).getActualTypeArguments()[0];
+
+        return element instanceof Class ? EntityType.forClass((Class<?>) element) : null;
+    }
+}
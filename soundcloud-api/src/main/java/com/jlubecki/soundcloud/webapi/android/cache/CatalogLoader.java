@@ -0,0 +1,375 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Playlist;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.models.User;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Loads the authenticated user, their favorites and their playlists snapshot first. The last known
+ * catalog is read from a memory-mapped {@link CatalogSnapshot} and delivered right away, then the
+ * three resources are fetched in parallel. When the fetched catalog differs from the snapshot it is
+ * delivered as well and the snapshot is rewritten, so time to first content does not depend on the
+ * network after the first launch.
+ * <p/>
+ * Results are delivered on the main thread.
+ */
+public class CatalogLoader {
+
+    static final String LIST_ME = "me";
+    static final String LIST_FAVORITES = "me/favorites";
+    static final String LIST_PLAYLISTS = "me/playlists";
+
+    private final SoundCloudService service;
+    private final File file;
+    private final EntityCodec codec;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+
+    private CatalogSnapshot snapshot;
+    private boolean snapshotRead;
+    private int generation; // Bumped by clear(), loads started before it deliver nothing.
+
+    /**
+     * @param service The service to refresh the catalog with.
+     * @param file    The snapshot file, such as a file in {@link android.content.Context#getFilesDir()}.
+     */
+    public CatalogLoader(@NonNull SoundCloudService service, @NonNull File file) {
+        this(service, file, new BinaryEntityCodec());
+    }
+
+    /**
+     * @param service The service to refresh the catalog with.
+     * @param file    The snapshot file.
+     * @param codec   Encodes the entities of the snapshot.
+     */
+    public CatalogLoader(@NonNull SoundCloudService service, @NonNull File file, @NonNull EntityCodec codec) {
+        this.service = service;
+        this.file = file;
+        this.codec = codec;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "CatalogLoader");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Delivers the snapshot, if there is one, then refreshes the catalog.
+     *
+     * @param listener Notified with the snapshot and with the refreshed catalog.
+     */
+    public void load(@NonNull final Listener listener) {
+        final int started = generation();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Catalog cached = readSnapshot();
+
+                if (cached != null) {
+                    deliver(listener, cached, started);
+                }
+
+                refreshNow(listener, started);
+            }
+        });
+    }
+
+    /**
+     * Fetches the catalog and delivers it if it differs from the snapshot.
+     *
+     * @param listener Notified with the refreshed catalog.
+     */
+    public void refresh(@NonNull final Listener listener) {
+        final int started = generation();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                readSnapshot();
+                refreshNow(listener, started);
+            }
+        });
+    }
+
+    /**
+     * Deletes the snapshot, for example when the user logs out. Loads and refreshes that are still
+     * running neither write their catalog nor deliver anything.
+     */
+    public synchronized void clear() {
+        generation++;
+
+        if (snapshot != null) {
+            snapshot.close();
+            snapshot = null;
+        }
+
+        snapshotRead = true;
+        file.delete();
+    }
+
+    private synchronized Catalog readSnapshot() {
+        if (!snapshotRead) {
+            snapshotRead = true;
+
+            try {
+                snapshot = CatalogSnapshot.open(file, codec);
+            } catch (IOException e) {
+                file.delete(); // Unreadable, it is replaced by the refresh.
+            }
+        }
+
+        if (snapshot == null) {
+            return null;
+        }
+
+        List<User> me = snapshot.getList(LIST_ME, EntityType.USER);
+        List<Track> favorites = snapshot.getList(LIST_FAVORITES, EntityType.TRACK);
+        List<Playlist> playlists = snapshot.getList(LIST_PLAYLISTS, EntityType.PLAYLIST);
+
+        if (me == null || me.size() != 1 || me.get(0) == null || favorites == null || playlists == null) {
+            return null;
+        }
+
+        return new Catalog(me.get(0), favorites, playlists, snapshot.getWrittenAt(), true);
+    }
+
+    private synchronized int generation() {
+        return generation;
+    }
+
+    private void refreshNow(final Listener listener, final int started) {
+        final Future<User> me = executor.submit(fetch(service.getMe()));
+        final Future<List<Track>> favorites = executor.submit(fetch(service.getMyFavorites()));
+        final Future<List<Playlist>> playlists = executor.submit(fetch(service.getMyPlaylists()));
+        final Catalog catalog;
+
+        try {
+            catalog = new Catalog(me.get(), favorites.get(), playlists.get(), System.currentTimeMillis(), false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(listener, e, started);
+            return;
+        } catch (ExecutionException e) {
+            fail(listener, e.getCause(), started);
+            return;
+        }
+
+        final boolean changed;
+
+        synchronized (this) {
+            if (started != generation) {
+                return; // Fetched for the account that was logged out.
+            }
+
+            changed = store(catalog);
+        }
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (started != generation()) {
+                    return;
+                }
+
+                if (changed) {
+                    listener.onCatalogLoaded(catalog);
+                }
+
+                listener.onRefreshFinished(changed);
+            }
+        });
+    }
+
+    /**
+     * Replaces the snapshot if the catalog differs from it.
+     *
+     * @return Whether the catalog differs from the snapshot.
+     */
+    private synchronized boolean store(Catalog catalog) {
+        try {
+            CatalogSnapshot.Writer writer = new CatalogSnapshot.Writer(codec)
+                    .putList(LIST_ME, Collections.singletonList(catalog.getMe()))
+                    .putList(LIST_FAVORITES, catalog.getFavorites())
+                    .putList(LIST_PLAYLISTS, catalog.getPlaylists());
+
+            if (writer.matches(snapshot)) {
+                return false;
+            }
+
+            writer.write(file);
+        } catch (IOException e) {
+            // The catalog is still delivered, only the next launch has to wait for the network.
+            return true;
+        }
+
+        if (snapshot != null) {
+            snapshot.close();
+        }
+
+        try {
+            snapshot = CatalogSnapshot.open(file, codec);
+        } catch (IOException e) {
+            snapshot = null;
+        }
+
+        return true;
+    }
+
+    private void deliver(final Listener listener, final Catalog catalog, final int started) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (started == generation()) {
+                    listener.onCatalogLoaded(catalog);
+                }
+            }
+        });
+    }
+
+    private void fail(final Listener listener, final Throwable throwable, final int started) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (started == generation()) {
+                    listener.onRefreshFailed(throwable);
+                }
+            }
+        });
+    }
+
+    private static <T> Callable<T> fetch(final Call<T> call) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                Response<T> response = call.execute();
+
+                if (!response.isSuccessful() || response.body() == null) {
+                    throw new IOException("Catalog request failed with HTTP " + response.code());
+                }
+
+                return response.body();
+            }
+        };
+    }
+
+    /**
+     * The authenticated user with their favorites and playlists.
+     */
+    public static class Catalog {
+
+        private final User me;
+        private final List<Track> favorites;
+        private final List<Playlist> playlists;
+        private final long fetchedAt;
+        private final boolean fromSnapshot;
+
+        Catalog(User me, List<Track> favorites, List<Playlist> playlists, long fetchedAt, boolean fromSnapshot) {
+            this.me = me;
+            this.favorites = Collections.unmodifiableList(favorites);
+            this.playlists = Collections.unmodifiableList(playlists);
+            this.fetchedAt = fetchedAt;
+            this.fromSnapshot = fromSnapshot;
+        }
+
+        public User getMe() {
+            return me;
+        }
+
+        /**
+         * @return The favorites. Those of a snapshot are decoded as they are accessed.
+         */
+        public List<Track> getFavorites() {
+            return favorites;
+        }
+
+        /**
+         * @return The playlists. Those of a snapshot are decoded as they are accessed.
+         */
+        public List<Playlist> getPlaylists() {
+            return playlists;
+        }
+
+        /**
+         * @return When the catalog was fetched, in milliseconds since the epoch.
+         */
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        /**
+         * @return Whether the catalog was read from the snapshot rather than fetched.
+         */
+        public boolean isFromSnapshot() {
+            return fromSnapshot;
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * Called with the snapshot, then again with the fetched catalog if it differs.
+         */
+        void onCatalogLoaded(@NonNull Catalog catalog);
+
+        /**
+         * Called once a refresh has completed.
+         *
+         * @param changed Whether the fetched catalog differed from the snapshot.
+         */
+        void onRefreshFinished(boolean changed);
+
+        /**
+         * Called when the catalog could not be fetched. The snapshot, if any, was delivered before.
+         */
+        void onRefreshFailed(@Nullable Throwable throwable);
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only set of entities and ID lists, stored in one file that is memory-mapped when opened.
+ * Opening a snapshot only validates its header: the index is searched in place and an entity is
+ * decoded from its slice of the mapping the first time it is requested, so the cost of opening
+ * does not grow with the number of entities.
+ * <p/>
+ * The file starts with a header and an index of fixed size slots sorted by a 64-bit hash of each
+ * record's key, followed by the records. A record holds its key, used to rule out hash collisions,
+ * and its payload: an entity encoded with an {@link EntityCodec}, or a list of entity IDs.
+ * <p/>
+ * Snapshots are written with a {@link Writer}, which replaces the file atomically. A snapshot that
+ * is open keeps reading the file it mapped.
+ */
+public class CatalogSnapshot implements Closeable {
+
+    private static final int MAGIC = 0x53434353; // "SCCS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final int SLOT_SIZE = 8 + 4 + 4;
+    private static final String CHARSET = "UTF-8";
+    private static final String LIST_PREFIX = "list:";
+
+    private final ByteBuffer buffer;
+    private final EntityCodec codec;
+    private final long writtenAt;
+    private final int slotCount;
+    private final Map<String, Object> decoded = new HashMap<>();
+
+    private CatalogSnapshot(ByteBuffer buffer, EntityCodec codec) throws IOException {
+        this.buffer = buffer;
+        this.codec = codec;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a catalog snapshot");
+        }
+
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + buffer.getInt(4));
+        }
+
+        writtenAt = buffer.getLong(8);
+        slotCount = buffer.getInt(16);
+
+        if (slotCount < 0 || HEADER_SIZE + (long) slotCount * SLOT_SIZE > buffer.capacity()) {
+            throw new IOException("Truncated catalog snapshot");
+        }
+    }
+
+    /**
+     * Maps a snapshot file.
+     *
+     * @param file  The file written by a {@link Writer}.
+     * @param codec The codec the entities were written with.
+     * @return The snapshot, or null if the file does not exist.
+     * @throws IOException if the file cannot be mapped or is not a valid snapshot.
+     */
+    @Nullable
+    @WorkerThread
+    public static CatalogSnapshot open(@NonNull File file, @NonNull EntityCodec codec) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+
+        try {
+            FileChannel channel = input.getChannel();
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // The mapping stays valid after the file is closed.
+            return new CatalogSnapshot(mapped, codec);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * @return The time the snapshot was written, in milliseconds since the epoch.
+     */
+    public long getWrittenAt() {
+        return writtenAt;
+    }
+
+    /**
+     * @return The number of entities and lists in the snapshot.
+     */
+    public int size() {
+        return slotCount;
+    }
+
+    /**
+     * Reads an entity. It is decoded on the first call and the same instance is returned after.
+     *
+     * @param type The type of the entity.
+     * @param id   The ID of the entity.
+     * @return The entity, or null if the snapshot does not hold it or its record cannot be decoded.
+     */
+    @Nullable
+    public <T> T get(@NonNull EntityType<T> type, @NonNull String id) {
+        String key = entityKey(type, id);
+
+        synchronized (decoded) {
+            Object entity = decoded.get(key);
+
+            if (entity != null) {
+                return type.getModelClass().cast(entity);
+            }
+        }
+
+        byte[] payload = payload(key);
+
+        if (payload == null) {
+            return null;
+        }
+
+        try {
+            T entity = codec.decode(type, payload);
+
+            synchronized (decoded) {
+                decoded.put(key, entity);
+            }
+
+            return entity;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the IDs of a list.
+     *
+     * @param name The name the list was written with.
+     * @return The IDs in their stored order, or null if the snapshot does not hold the list.
+     */
+    @Nullable
+    public List<String> getIds(@NonNull String name) {
+        byte[] payload = payload(LIST_PREFIX + name);
+
+        if (payload == null) {
+            return null;
+        }
+
+        try {
+            ByteBuffer in = ByteBuffer.wrap(payload);
+            String[] ids = new String[in.getInt()];
+
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = readString(in);
+            }
+
+            return Collections.unmodifiableList(Arrays.asList(ids));
+        } catch (IOException | BufferUnderflowException | NegativeArraySizeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a list of entities. The entities are decoded as elements are accessed, so showing the
+     * first screen of a long list only decodes the entities on it.
+     *
+     * @param name The name the list was written with.
+     * @param type The type of the entities in the list.
+     * @return The list, or null if the snapshot does not hold it. Entities that are missing from
+     * the snapshot are null.
+     */
+    @Nullable
+    public <T> List<T> getList(@NonNull String name, @NonNull final EntityType<T> type) {
+        final List<String> ids = getIds(name);
+
+        if (ids == null) {
+            return null;
+        }
+
+        return new AbstractList<T>() {
+            @Override
+            public T get(int index) {
+                return CatalogSnapshot.this.get(type, ids.get(index));
+            }
+
+            @Override
+            public int size() {
+                return ids.size();
+            }
+        };
+    }
+
+    /**
+     * Checks whether the snapshot holds a record with exactly the given payload, to find out
+     * whether refreshed data differs from the snapshot without decoding it.
+     */
+    boolean contains(String key, byte[] payload) {
+        byte[] stored = payload(key);
+
+        return stored != null && Arrays.equals(stored, payload);
+    }
+
+    /**
+     * Drops the decoded entities. The mapping itself is released once the snapshot is no longer
+     * referenced.
+     */
+    @Override
+    public void close() {
+        synchronized (decoded) {
+            decoded.clear();
+        }
+    }
+
+    /**
+     * Finds the payload of a record by binary search over the index, reading the mapping in place.
+     */
+    private byte[] payload(String key) {
+        long hash = hash(key);
+        int low = 0;
+        int high = slotCount - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long slotHash = buffer.getLong(slot(middle));
+
+            if (slotHash < hash) {
+                low = middle + 1;
+            } else if (slotHash > hash) {
+                high = middle - 1;
+            } else {
+                // Check every slot with the same hash, there may be collisions.
+                int first = middle;
+
+                while (first > 0 && buffer.getLong(slot(first - 1)) == hash) {
+                    first--;
+                }
+
+                for (int i = first; i < slotCount && buffer.getLong(slot(i)) == hash; i++) {
+                    byte[] payload = readRecord(i, key);
+
+                    if (payload != null) {
+                        return payload;
+                    }
+                }
+
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    private byte[] readRecord(int slot, String key) {
+        int offset = buffer.getInt(slot(slot) + 8);
+        int length = buffer.getInt(slot(slot) + 12);
+
+        if (offset < 0 || length < 0 || (long) offset + length > buffer.capacity()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset);
+            record.limit(offset + length);
+
+            if (!key.equals(readString(record))) {
+                return null;
+            }
+
+            byte[] payload = new byte[record.remaining()];
+            record.get(payload);
+
+            return payload;
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int slot(int index) {
+        return HEADER_SIZE + index * SLOT_SIZE;
+    }
+
+    private static String entityKey(EntityType<?> type, String id) {
+        return type.getName() + "/" + id;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters of a key.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+
+        return new String(bytes, CHARSET);
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(CHARSET);
+
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Key too long");
+        }
+
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Collects entities and lists and writes them as a snapshot file.
+     */
+    public static class Writer {
+
+        private final EntityCodec codec;
+        private final Map<String, byte[]> records = new LinkedHashMap<>();
+
+        public Writer(@NonNull EntityCodec codec) {
+            this.codec = codec;
+        }
+
+        /**
+         * Adds an entity, replacing one of the same type and ID.
+         *
+         * @param entity A track, user, playlist or group.
+         * @throws IOException if the entity cannot be encoded.
+         */
+        public Writer put(@NonNull Object entity) throws IOException {
+            EntityType<?> type = EntityType.of(entity);
+            String id = type != null ? type.idOfEntity(entity) : null;
+
+            if (id == null) {
+                throw new IOException("Cannot store " + entity.getClass().getSimpleName() + " without an ID");
+            }
+
+            records.put(entityKey(type, id), codec.encode(type, entity));
+
+            return this;
+        }
+
+        /**
+         * Adds a list of entities. The entities are stored on their own and the list as their IDs,
+         * so an entity that is in several lists is stored once.
+         *
+         * @param name     The name to read the list back with.
+         * @param entities The entities in the list.
+         * @throws IOException if an entity cannot be encoded.
+         */
+        public Writer putList(@NonNull String name, @NonNull List<?> entities) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            List<String> ids = new ArrayList<>(entities.size());
+
+            for (Object entity : entities) {
+                EntityType<?> type = entity != null ? EntityType.of(entity) : null;
+                String id = type != null ? type.idOfEntity(entity) : null;
+
+                if (id != null) {
+                    put(entity);
+                    ids.add(id);
+                }
+            }
+
+            out.writeInt(ids.size());
+
+            for (String id : ids) {
+                writeString(out, id);
+            }
+
+            records.put(LIST_PREFIX + name, bytes.toByteArray());
+
+            return this;
+        }
+
+        /**
+         * Checks whether a snapshot holds exactly the records of this writer.
+         *
+         * @param snapshot The snapshot to compare with, or null.
+         * @return true if writing would not change the snapshot's contents.
+         */
+        public boolean matches(@Nullable CatalogSnapshot snapshot) {
+            if (snapshot == null || snapshot.size() != records.size()) {
+                return false;
+            }
+
+            for (Map.Entry<String, byte[]> record : records.entrySet()) {
+                if (!snapshot.contains(record.getKey(), record.getValue())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Writes the snapshot to a temporary file and renames it over the target.
+         *
+         * @param file The snapshot file to replace.
+         * @throws IOException if the file cannot be written.
+         */
+        @WorkerThread
+        public void write(@NonNull File file) throws IOException {
+            final List<String> keys = new ArrayList<>(records.keySet());
+            final Map<String, Long> hashes = new HashMap<>();
+
+            for (String key : keys) {
+                hashes.put(key, hash(key));
+            }
+
+            Collections.sort(keys, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    long hashA = hashes.get(a);
+                    long hashB = hashes.get(b);
+
+                    return hashA < hashB ? -1 : hashA == hashB ? 0 : 1;
+                }
+            });
+
+            File temp = new File(file.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(System.currentTimeMillis());
+                out.writeInt(keys.size());
+
+                long offset = HEADER_SIZE + (long) keys.size() * SLOT_SIZE;
+                List<byte[]> encodedKeys = new ArrayList<>(keys.size());
+
+                for (String key : keys) {
+                    byte[] encodedKey = key.getBytes(CHARSET);
+
+                    if (encodedKey.length > 0xFFFF) {
+                        throw new IOException("Key too long");
+                    }
+
+                    int length = 2 + encodedKey.length + records.get(key).length;
+
+                    if (offset + length > Integer.MAX_VALUE) {
+                        throw new IOException("Snapshot too large");
+                    }
+
+                    out.writeLong(hashes.get(key));
+                    out.writeInt((int) offset);
+                    out.writeInt(length);
+
+                    encodedKeys.add(encodedKey);
+                    offset += length;
+                }
+
+                for (int i = 0; i < keys.size(); i++) {
+                    out.writeShort(encodedKeys.get(i).length);
+                    out.write(encodedKeys.get(i));
+                    out.write(records.get(keys.get(i)));
+                }
+
+                out.close();
+                out = null;
+
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Could not replace " + file);
+                }
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException ignored) {
+                        // Already failing.
+                    }
+                }
+
+                temp.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * In-memory LRU of encoded entities, bounded by the bytes they take up. Not thread safe, the
+ * owning {@link EntityCache} guards it with its own lock.
+ */
+final class CompressedTier {
+
+    /**
+     * Approximate heap taken by an entry besides its data: the map entry, the key, the holder
+     * and the array header.
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Packed> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long bytes;
+
+    CompressedTier(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    Packed get(String key) {
+        return entries.get(key);
+    }
+
+    void put(String key, Packed packed) {
+        remove(key);
+
+        if (packed.weight() > maxBytes) {
+            return;
+        }
+
+        entries.put(key, packed);
+        bytes += packed.weight();
+
+        trimTo(maxBytes);
+    }
+
+    void remove(String key) {
+        Packed removed = entries.remove(key);
+
+        if (removed != null) {
+            bytes -= removed.weight();
+        }
+    }
+
+    void trimTo(long budget) {
+        Iterator<Packed> eldest = entries.values().iterator();
+
+        while (bytes > budget && eldest.hasNext()) {
+            bytes -= eldest.next().weight();
+            eldest.remove();
+        }
+    }
+
+    void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long bytes() {
+        return bytes;
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    static class Packed {
+
+        final byte[] data;
+        final long fetchedAt;
+        int hits;
+
+        Packed(byte[] data, long fetchedAt) {
+            this.data = data;
+            this.fetchedAt = fetchedAt;
+        }
+
+        int weight() {
+            return data.length + ENTRY_OVERHEAD;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes entities as JSON compressed with DEFLATE. API models are mostly repeated keys, URLs and
+ * short text, which typically shrink to a fifth of their JSON size and a small fraction of their
+ * size as objects.
+ */
+public class DeflatedJsonCodec implements EntityCodec {
+
+    private static final String CHARSET = "UTF-8";
+    private static final int BUFFER_SIZE = 1024;
+
+    private final Gson gson = new Gson();
+
+    @Override
+    public byte[] encode(@NonNull EntityType<?> type, @NonNull Object entity) throws IOException {
+        byte[] json = gson.toJson(entity).getBytes(CHARSET);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+
+        try {
+            deflater.setInput(json);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public <T> T decode(@NonNull EntityType<T> type, @NonNull byte[] data) throws IOException {
+        Inflater inflater = new Inflater(true);
+
+        try {
+            inflater.setInput(data);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated entity data");
+                }
+
+                out.write(buffer, 0, count);
+            }
+
+            T entity = gson.fromJson(out.toString(CHARSET), type.getModelClass());
+
+            if (entity == null) {
+                throw new IOException("Empty entity data");
+            }
+
+            return entity;
+        } catch (DataFormatException | JsonParseException e) {
+            throw new IOException("Invalid entity data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
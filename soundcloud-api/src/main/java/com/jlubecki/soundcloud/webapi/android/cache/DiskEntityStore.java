@@ -0,0 +1,292 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persistent tier of an {@link EntityCache}. Each entity is stored in its own file, prefixed with
+ * the time it was fetched and encoded with an {@link EntityCodec}, by default the
+ * {@link BinaryEntityCodec}. When the files grow past the byte budget, the least
+ * recently used ones are deleted.
+ * <p/>
+ * The store is best effort: files that cannot be read or decoded are deleted and treated as misses.
+ * This includes files written with a different codec.
+ */
+public class DiskEntityStore {
+
+    public static final long MAX_BYTES_DEFAULT = 10 * 1024 * 1024;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Share of the budget to trim down to, so that a full store is not trimmed on every write.
+     */
+    private static final double TRIM_RATIO = 0.9;
+
+    private final File directory;
+    private final long maxBytes;
+    private final EntityCodec codec;
+
+    private long size = -1;
+
+    /**
+     * @param directory Directory to store entities in, such as a folder in
+     *                  {@link android.content.Context#getCacheDir()}. Created if needed.
+     */
+    public DiskEntityStore(@NonNull File directory) {
+        this(directory, MAX_BYTES_DEFAULT);
+    }
+
+    /**
+     * @param directory Directory to store entities in. Created if needed.
+     * @param maxBytes  Number of bytes the stored files may take up.
+     */
+    public DiskEntityStore(@NonNull File directory, long maxBytes) {
+        this(directory, maxBytes, new BinaryEntityCodec());
+    }
+
+    /**
+     * @param directory Directory to store entities in. Created if needed.
+     * @param maxBytes  Number of bytes the stored files may take up.
+     * @param codec     Encodes the stored entities.
+     */
+    public DiskEntityStore(@NonNull File directory, long maxBytes, @NonNull EntityCodec codec) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.codec = codec;
+    }
+
+    /**
+     * Reads an entity and the time it was fetched.
+     *
+     * @return The entity, or null if it is not stored.
+     */
+    @Nullable
+    @WorkerThread
+    synchronized <T> Record<T> read(EntityType<T> type, String id) {
+        File file = fileFor(type, id);
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            long fetchedAt = in.readLong();
+            byte[] data = new byte[(int) file.length() - 8];
+            in.readFully(data);
+
+            T value = codec.decode(type, data);
+
+            // Marks the file as recently used for trimming.
+            file.setLastModified(System.currentTimeMillis());
+
+            return new Record<>(value, fetchedAt);
+        } catch (IOException | NegativeArraySizeException e) {
+            closeQuietly(in);
+            in = null;
+            remove(file);
+
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes an entity, replacing any stored copy.
+     */
+    @WorkerThread
+    synchronized void write(EntityType<?> type, String id, Object value, long fetchedAt) {
+        File file = fileFor(type, id);
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        long total = size();
+        DataOutputStream out = null;
+
+        try {
+            byte[] data = codec.encode(type, value);
+
+            if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+                return;
+            }
+
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeLong(fetchedAt);
+            out.write(data);
+            out.close();
+            out = null;
+
+            long previous = file.length();
+
+            if (temp.renameTo(file)) {
+                size = total - previous + file.length();
+            } else {
+                delete(temp);
+            }
+        } catch (IOException e) {
+            closeQuietly(out);
+            delete(temp);
+        }
+
+        if (size > maxBytes) {
+            trim((long) (maxBytes * TRIM_RATIO));
+        }
+    }
+
+    @WorkerThread
+    synchronized void remove(EntityType<?> type, String id) {
+        remove(fileFor(type, id));
+    }
+
+    /**
+     * Deletes every stored entity.
+     */
+    @WorkerThread
+    public synchronized void clear() {
+        for (File file : listFiles()) {
+            delete(file);
+        }
+
+        size = 0;
+    }
+
+    /**
+     * @return The number of bytes taken up by stored entities.
+     */
+    @WorkerThread
+    public synchronized long size() {
+        if (size < 0) {
+            long total = 0;
+
+            for (File file : listFiles()) {
+                total += file.length();
+            }
+
+            size = total;
+        }
+
+        return size;
+    }
+
+    private void trim(long targetBytes) {
+        List<File> files = listFiles();
+        final long[] lastModified = new long[files.size()];
+        Integer[] order = new Integer[files.size()];
+
+        // Read each timestamp once, they may change while sorting.
+        for (int i = 0; i < order.length; i++) {
+            lastModified[i] = files.get(i).lastModified();
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return lastModified[a] < lastModified[b] ? -1 : lastModified[a] == lastModified[b] ? 0 : 1;
+            }
+        });
+
+        for (int i = 0; i < order.length && size > targetBytes; i++) {
+            File file = files.get(order[i]);
+            long length = file.length();
+
+            if (delete(file)) {
+                size -= length;
+            }
+        }
+    }
+
+    private void remove(File file) {
+        long total = size();
+        long length = file.length();
+
+        if (delete(file)) {
+            size = total - length;
+        }
+    }
+
+    private List<File> listFiles() {
+        List<File> files = new ArrayList<>();
+
+        for (EntityType<?> type : EntityType.values()) {
+            File[] typeFiles = new File(directory, type.getName()).listFiles();
+
+            if (typeFiles != null) {
+                files.addAll(Arrays.asList(typeFiles));
+            }
+        }
+
+        return files;
+    }
+
+    private File fileFor(EntityType<?> type, String id) {
+        return new File(new File(directory, type.getName()), id.replaceAll("[^A-Za-z0-9_-]", "_"));
+    }
+
+    private static boolean delete(File file) {
+        return file.delete();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // Nothing left to do.
+            }
+        }
+    }
+
+    static class Record<T> {
+
+        final T value;
+        final long fetchedAt;
+
+        Record(T value, long fetchedAt) {
+            this.value = value;
+            this.fetchedAt = fetchedAt;
+        }
+    }
+}
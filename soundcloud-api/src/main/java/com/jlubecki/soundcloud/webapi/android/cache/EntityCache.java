@@ -0,0 +1,821 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.google.gson.Gson;
+import com.jlubecki.soundcloud.webapi.android.models.Playlist;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.models.User;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of API entities by type and ID. Entities are kept in an in-memory LRU in front of an
+ * optional {@link DiskEntityStore}, so they survive process restarts. The memory tier is bounded
+ * by the estimated heap retained by its entities, see {@link SizeEstimator}, so a playlist with
+ * hundreds of tracks weighs more than a single user.
+ * <p/>
+ * With a compressed tier, see {@link Builder#setCompressedTier(long, EntityCodec)}, entities are
+ * first held as encoded bytes, which take a fraction of the memory of live objects. They are
+ * decoded on each access and promoted to object form once accessed repeatedly. Objects evicted
+ * from the memory tier are demoted back to bytes.
+ * <p/>
+ * Each {@link EntityType} has a TTL after which a cached entity is stale, and a stale time during
+ * which a stale entity is still returned so it can be shown while it is refreshed. Entities past
+ * both are dropped.
+ * <p/>
+ * The cache is filled with {@link #put(Object)} and {@link #putAll(Object)}, usually by a
+ * {@link CachingConverterFactory} that sees every response of the API, and read through an
+ * {@link EntityLoader}. List responses are kept as lists of IDs, see {@link #getList(EntityType, String)}.
+ * <p/>
+ * Successful mutations seen by a {@link CacheInterceptor} are written through: a created track is
+ * added to the cached track lists of its owner and their track count is incremented, a deleted
+ * entity is removed from every cached list, and lists below a mutated "me" collection are dropped.
+ */
+public class EntityCache implements Trimmable {
+
+    public static final long MAX_BYTES_DEFAULT = 4 * 1024 * 1024;
+    public static final int LISTS_DEFAULT = 64;
+
+    /**
+     * Number of lookups after which an encoded entity is kept as an object.
+     */
+    public static final int PROMOTE_HITS_DEFAULT = 2;
+
+    private final long maxBytes;
+    private final DiskEntityStore disk;
+    private final NegativeCache negativeCache;
+    private final ResourceLists lists;
+    private final CompressedTier compressed;
+    private final EntityCodec codec;
+    private final int promoteHits;
+    private final Map<EntityType<?>, Policy> policies = new HashMap<>();
+    private final Map<EntityType<?>, Long> footprints = new HashMap<>();
+    private final LinkedHashMap<String, CachedEntity<?>> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final Gson gson = new Gson();
+
+    private long totalBytes;
+    private String myId;
+
+    private EntityCache(Builder builder) {
+        maxBytes = builder.maxBytes;
+        disk = builder.disk;
+        negativeCache = builder.negativeCache;
+        lists = new ResourceLists(builder.maxLists);
+        compressed = builder.compressedBytes > 0 ? new CompressedTier(builder.compressedBytes) : null;
+        codec = builder.codec;
+        promoteHits = builder.promoteHits;
+
+        for (EntityType<?> type : EntityType.values()) {
+            Policy policy = builder.policies.get(type);
+            policies.put(type, policy != null
+                    ? policy
+                    : new Policy(type.getDefaultTtl(), type.getDefaultStaleTime()));
+            footprints.put(type, 0L);
+        }
+    }
+
+    /**
+     * Looks up an entity in memory only. Safe to call from the main thread.
+     *
+     * @param type The type of the entity.
+     * @param id   The ID of the entity.
+     * @return The cached entity, which may be stale, or null if it is not in memory.
+     */
+    @Nullable
+    public <T> CachedEntity<T> peek(@NonNull EntityType<T> type, @NonNull String id) {
+        String key = key(type, id);
+        long now = System.currentTimeMillis();
+        CompressedTier.Packed packed;
+
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            CachedEntity<T> cached = (CachedEntity<T>) memory.get(key);
+
+            if (cached != null) {
+                if (!cached.isExpired(now)) {
+                    return cached;
+                }
+
+                removeFromMemory(key);
+                return null;
+            }
+
+            packed = compressed != null ? compressed.get(key) : null;
+
+            if (packed == null) {
+                return null;
+            }
+        }
+
+        Policy policy = policies.get(type);
+        T value;
+
+        try {
+            value = codec.decode(type, packed.data);
+        } catch (IOException e) {
+            value = null;
+        }
+
+        CachedEntity<T> cached = value != null
+                ? new CachedEntity<>(value, packed.fetchedAt, policy.ttlMillis, policy.staleMillis, 0)
+                : null;
+
+        synchronized (this) {
+            if (cached == null || cached.isExpired(now)) {
+                compressed.remove(key);
+                return null;
+            }
+
+            if (++packed.hits >= promoteHits && compressed.get(key) == packed) {
+                // Hot enough to keep as an object. Weighed now, while it is still small work.
+                compressed.remove(key);
+                cached = new CachedEntity<>(value, packed.fetchedAt, policy.ttlMillis, policy.staleMillis);
+                addToMemory(key, type, cached);
+            }
+        }
+
+        return cached;
+    }
+
+    /**
+     * Looks up an entity in memory, then on disk. Entities found on disk are moved to memory.
+     *
+     * @param type The type of the entity.
+     * @param id   The ID of the entity.
+     * @return The cached entity, which may be stale, or null if it is not cached.
+     */
+    @Nullable
+    @WorkerThread
+    public <T> CachedEntity<T> get(@NonNull EntityType<T> type, @NonNull String id) {
+        CachedEntity<T> cached = peek(type, id);
+
+        if (cached != null || disk == null) {
+            return cached;
+        }
+
+        // Read from disk, so the entity is in use: keep it as an object.
+
+        DiskEntityStore.Record<T> record = disk.read(type, id);
+
+        if (record == null) {
+            return null;
+        }
+
+        Policy policy = policies.get(type);
+        cached = new CachedEntity<>(record.value, record.fetchedAt, policy.ttlMillis, policy.staleMillis);
+
+        if (cached.isExpired(System.currentTimeMillis())) {
+            disk.remove(type, id);
+            return null;
+        }
+
+        synchronized (this) {
+            // Keep a copy that was fetched while the disk was read.
+            if (!memory.containsKey(key(type, id)) && (compressed == null || compressed.get(key(type, id)) == null)) {
+                addToMemory(key(type, id), type, cached);
+            }
+        }
+
+        return cached;
+    }
+
+    /**
+     * Looks up a cached list response. Lists are only returned while every entity in them is
+     * cached.
+     *
+     * @param type     The type of the entities in the list.
+     * @param resource The path of the list, with its query if it had one, such as "/me/tracks" or
+     *                 "/users/123/tracks?limit=50&offset=0".
+     * @return The list, which may be stale, or null if it is not cached.
+     */
+    @Nullable
+    @WorkerThread
+    public <T> CachedEntity<List<T>> getList(@NonNull EntityType<T> type, @NonNull String resource) {
+        ResourceLists.ListEntry entry = lists.get(resource);
+
+        if (entry == null || entry.type != type) {
+            return null;
+        }
+
+        Policy policy = policies.get(type);
+        List<T> entities = new ArrayList<>(entry.ids.size());
+
+        for (String id : entry.ids) {
+            CachedEntity<T> cached = get(type, id);
+
+            if (cached == null) {
+                lists.remove(resource);
+                return null;
+            }
+
+            entities.add(cached.getValue());
+        }
+
+        CachedEntity<List<T>> list = new CachedEntity<>(Collections.unmodifiableList(entities),
+                entry.fetchedAt, policy.ttlMillis, policy.staleMillis, 0);
+
+        if (list.isExpired(System.currentTimeMillis())) {
+            lists.remove(resource);
+            return null;
+        }
+
+        return list;
+    }
+
+    /**
+     * Caches an entity as fetched now, along with the tracks of a playlist. Objects of types that
+     * are not cached are ignored.
+     *
+     * @param entity A {@link Track}, {@link com.jlubecki.soundcloud.webapi.android.models.User},
+     *               {@link Playlist} or {@link com.jlubecki.soundcloud.webapi.android.models.Group}.
+     */
+    @WorkerThread
+    public void put(@NonNull Object entity) {
+        long now = System.currentTimeMillis();
+
+        store(entity, now);
+
+        if (entity instanceof Playlist && ((Playlist) entity).tracks != null) {
+            for (Track track : ((Playlist) entity).tracks) {
+                if (track != null) {
+                    store(track, now);
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches every entity in a response body, which may be a single entity or a list of them.
+     *
+     * @param body A decoded response body.
+     */
+    @WorkerThread
+    public void putAll(@Nullable Object body) {
+        if (body instanceof Iterable) {
+            for (Object entity : (Iterable<?>) body) {
+                if (entity != null) {
+                    put(entity);
+                }
+            }
+        } else if (body != null) {
+            put(body);
+        }
+    }
+
+    /**
+     * Removes an entity from memory and disk.
+     */
+    @WorkerThread
+    public void remove(@NonNull EntityType<?> type, @NonNull String id) {
+        synchronized (this) {
+            removeFromMemory(key(type, id));
+        }
+
+        if (disk != null) {
+            disk.remove(type, id);
+        }
+    }
+
+    /**
+     * Removes every entity from memory and disk.
+     */
+    @WorkerThread
+    public void clear() {
+        lists.clear();
+
+        synchronized (this) {
+            memory.clear();
+            totalBytes = 0;
+
+            if (compressed != null) {
+                compressed.clear();
+            }
+
+            for (EntityType<?> type : EntityType.values()) {
+                footprints.put(type, 0L);
+            }
+        }
+
+        if (disk != null) {
+            disk.clear();
+        }
+    }
+
+    /**
+     * Forgets everything that belongs to the authenticated user: the lists under "/me", the user
+     * itself and the remembered 404 and 403 answers. Call when the token changes, so a new account
+     * does not see the collections of the previous one. Other entities are shared and are kept.
+     */
+    @WorkerThread
+    public void clearAccount() {
+        String me;
+
+        synchronized (this) {
+            me = myId;
+            myId = null;
+        }
+
+        lists.invalidate("/me");
+
+        if (me != null) {
+            remove(EntityType.USER, me);
+        }
+
+        if (negativeCache != null) {
+            negativeCache.clear(); // 403 answers depend on the token.
+        }
+    }
+
+    /**
+     * Evicts entities from memory down to a share of the byte budget. Entities on disk are kept,
+     * so evicted entities are restored from disk on their next lookup.
+     *
+     * @param level How much memory to give back.
+     */
+    @Override
+    public synchronized void trim(@NonNull TrimLevel level) {
+        evictTo(level.apply(maxBytes), false);
+        lists.trim(level);
+
+        if (compressed != null) {
+            compressed.trimTo(level.apply(compressed.maxBytes()));
+        }
+    }
+
+    /**
+     * @return The number of entities in memory.
+     */
+    public synchronized int size() {
+        return memory.size();
+    }
+
+    /**
+     * @return The estimated bytes retained by all entities held as objects.
+     */
+    public synchronized long getFootprint() {
+        return totalBytes;
+    }
+
+    /**
+     * @return The number of entities held as encoded bytes.
+     */
+    public synchronized int getCompressedSize() {
+        return compressed != null ? compressed.size() : 0;
+    }
+
+    /**
+     * @return The bytes taken up by entities held as encoded bytes.
+     */
+    public synchronized long getCompressedFootprint() {
+        return compressed != null ? compressed.bytes() : 0;
+    }
+
+    /**
+     * @param type The type of entity.
+     * @return The estimated bytes retained by entities of one type in memory.
+     */
+    public synchronized long getFootprint(@NonNull EntityType<?> type) {
+        return footprints.get(type);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return The cache of 404 and 403 answers, or null if none was set.
+     */
+    @Nullable
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
+
+    /**
+     * Stores the IDs of a list response.
+     */
+    void putList(String path, String query, EntityType<?> type, List<?> entities) {
+        List<String> ids = new ArrayList<>(entities.size());
+
+        for (Object entity : entities) {
+            String id = entity != null ? type.idOfEntity(entity) : null;
+
+            if (id == null) {
+                return; // Cannot be rebuilt from the entity cache.
+            }
+
+            ids.add(id);
+        }
+
+        lists.put(path, query, type, ids, System.currentTimeMillis());
+    }
+
+    /**
+     * Remembers the ID of the authenticated user, whose collections live under "/me".
+     */
+    synchronized void setMyId(String myId) {
+        this.myId = myId;
+    }
+
+    /**
+     * Writes a created entity through to the lists it belongs to.
+     */
+    @WorkerThread
+    void onCreated(Object entity) {
+        put(entity);
+
+        if (entity instanceof Track) {
+            Track track = (Track) entity;
+            String ownerId = ownerOf(track);
+
+            if (track.id == null) {
+                return;
+            }
+
+            lists.insertFirst("/me/tracks", EntityType.TRACK, track.id);
+
+            if (ownerId != null) {
+                lists.insertFirst("/users/" + ownerId + "/tracks", EntityType.TRACK, track.id);
+                adjustTrackCount(ownerId, 1);
+            }
+        }
+    }
+
+    /**
+     * Replaces an updated entity, or drops it if the response did not contain it.
+     */
+    @WorkerThread
+    void onUpdated(EntityType<?> type, String id, @Nullable Object entity) {
+        if (entity != null) {
+            put(entity);
+        } else {
+            remove(type, id);
+        }
+    }
+
+    /**
+     * Removes a deleted entity from the cache and from every cached list.
+     */
+    @WorkerThread
+    void onDeleted(EntityType<?> type, String id) {
+        if (type == EntityType.TRACK) {
+            CachedEntity<Track> track = peek(EntityType.TRACK, id);
+            String ownerId = track != null ? ownerOf(track.getValue()) : null;
+
+            if (ownerId != null) {
+                adjustTrackCount(ownerId, -1);
+            }
+        }
+
+        remove(type, id);
+        lists.removeEverywhere(type, id);
+    }
+
+    /**
+     * Drops the lists at or below a path after a mutation that cannot be patched in, and the
+     * authenticated user if the path is one of their collections, since their counts changed.
+     */
+    @WorkerThread
+    void invalidate(String path) {
+        lists.invalidate(path);
+
+        String me;
+
+        synchronized (this) {
+            me = myId;
+        }
+
+        if (me != null && (path.equals("/me") || path.startsWith("/me/"))) {
+            remove(EntityType.USER, me);
+        }
+    }
+
+    /**
+     * Replaces a cached user with a copy that has its track count adjusted. The cached object is
+     * never changed in place, since callers may be reading it on another thread.
+     */
+    private void adjustTrackCount(String userId, int delta) {
+        String key = key(EntityType.USER, userId);
+        CachedEntity<User> cached;
+
+        synchronized (this) {
+            @SuppressWarnings("unchecked")
+            CachedEntity<User> live = (CachedEntity<User>) memory.get(key);
+            cached = live;
+
+            if (compressed != null) {
+                compressed.remove(key); // Encoded copies are not patched.
+            }
+        }
+
+        CachedEntity<User> patched = cached != null ? withTrackCount(cached, delta) : null;
+
+        if (patched != null) {
+            synchronized (this) {
+                if (memory.get(key) != cached) {
+                    return; // Replaced by a newer copy meanwhile, which was written to disk too.
+                }
+
+                addToMemory(key, EntityType.USER, patched);
+            }
+        }
+
+        if (disk == null) {
+            return;
+        }
+
+        if (patched != null) {
+            disk.write(EntityType.USER, userId, patched.getValue(), patched.getFetchedAt());
+        } else {
+            disk.remove(EntityType.USER, userId); // Not a live object, so the stored count is stale.
+        }
+    }
+
+    @Nullable
+    private CachedEntity<User> withTrackCount(CachedEntity<User> cached, int delta) {
+        User user = cached.getValue();
+        int count;
+
+        try {
+            count = Integer.parseInt(user.track_count) + delta;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        User copy = gson.fromJson(gson.toJsonTree(user), User.class);
+        copy.track_count = String.valueOf(count);
+
+        Policy policy = policies.get(EntityType.USER);
+
+        return new CachedEntity<>(copy, cached.getFetchedAt(), policy.ttlMillis, policy.staleMillis);
+    }
+
+    private static String ownerOf(Track track) {
+        return track.user != null && track.user.id != null ? track.user.id : track.userid;
+    }
+
+    private void store(Object entity, long now) {
+        EntityType<?> type = EntityType.of(entity);
+        String id = type != null ? type.idOfEntity(entity) : null;
+
+        if (id == null) {
+            return;
+        }
+
+        String key = key(type, id);
+        Policy policy = policies.get(type);
+
+        synchronized (this) {
+            CachedEntity<?> current = memory.get(key);
+
+            if (current != null && current.getValue() == entity) {
+                return; // Already cached from the same response.
+            }
+        }
+
+        CompressedTier.Packed packed = compressed != null ? pack(type, entity, now) : null;
+
+        if (packed != null) {
+            synchronized (this) {
+                if (memory.containsKey(key)) {
+                    removeFromMemory(key); // Replaced by the newer copy.
+                }
+
+                compressed.put(key, packed);
+            }
+        } else {
+            // Weighed outside the lock, large playlists take a while.
+            CachedEntity<?> cached = new CachedEntity<>(entity, now, policy.ttlMillis, policy.staleMillis);
+
+            synchronized (this) {
+                addToMemory(key, type, cached);
+            }
+        }
+
+        if (disk != null) {
+            disk.write(type, id, entity, now);
+        }
+    }
+
+    private CompressedTier.Packed pack(EntityType<?> type, Object entity, long fetchedAt) {
+        try {
+            return new CompressedTier.Packed(codec.encode(type, entity), fetchedAt);
+        } catch (IOException e) {
+            return null; // Kept as an object instead.
+        }
+    }
+
+    private void addToMemory(String key, EntityType<?> type, CachedEntity<?> cached) {
+        removeFromMemory(key);
+
+        if (cached.bytes > maxBytes) {
+            return; // Would evict everything else, and itself next.
+        }
+
+        memory.put(key, cached);
+        account(type, cached.bytes);
+
+        evictTo(maxBytes, true);
+    }
+
+    /**
+     * Evicts the least recently used objects until the rest fit in a budget.
+     *
+     * @param demote Whether to move evicted objects to the compressed tier, if there is one.
+     */
+    private void evictTo(long budget, boolean demote) {
+        Iterator<Map.Entry<String, CachedEntity<?>>> eldest = memory.entrySet().iterator();
+
+        while (totalBytes > budget && eldest.hasNext()) {
+            Map.Entry<String, CachedEntity<?>> entry = eldest.next();
+            CachedEntity<?> evicted = entry.getValue();
+            EntityType<?> type = EntityType.of(evicted.getValue());
+
+            eldest.remove();
+            account(type, -evicted.bytes);
+
+            if (demote && compressed != null) {
+                CompressedTier.Packed packed = pack(type, evicted.getValue(), evicted.getFetchedAt());
+
+                if (packed != null) {
+                    compressed.put(entry.getKey(), packed);
+                }
+            }
+        }
+    }
+
+    private void removeFromMemory(String key) {
+        CachedEntity<?> removed = memory.remove(key);
+
+        if (removed != null) {
+            account(EntityType.of(removed.getValue()), -removed.bytes);
+        }
+
+        if (compressed != null) {
+            compressed.remove(key);
+        }
+    }
+
+    private void account(EntityType<?> type, long bytes) {
+        totalBytes += bytes;
+        footprints.put(type, footprints.get(type) + bytes);
+    }
+
+    private static String key(EntityType<?> type, String id) {
+        return type.getName() + '/' + id;
+    }
+
+    private static class Policy {
+
+        final long ttlMillis;
+        final long staleMillis;
+
+        Policy(long ttlMillis, long staleMillis) {
+            this.ttlMillis = ttlMillis;
+            this.staleMillis = staleMillis;
+        }
+    }
+
+    public static class Builder {
+
+        private long maxBytes = MAX_BYTES_DEFAULT;
+        private DiskEntityStore disk;
+        private NegativeCache negativeCache;
+        private int maxLists = LISTS_DEFAULT;
+        private long compressedBytes;
+        private EntityCodec codec;
+        private int promoteHits = PROMOTE_HITS_DEFAULT;
+        private final Map<EntityType<?>, Policy> policies = new HashMap<>();
+
+        /**
+         * Sets the budget of the memory tier. The least recently used entities are evicted once the
+         * estimated size of all entities exceeds it.
+         *
+         * @param maxBytes Number of bytes.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setMaxBytes(@IntRange(from = 1) long maxBytes) {
+            this.maxBytes = maxBytes;
+
+            return this;
+        }
+
+        /**
+         * Sets how many list responses are kept. Lists only hold IDs, their entities count
+         * towards the byte budget.
+         *
+         * @param maxLists Number of lists.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setMaxLists(@IntRange(from = 1) int maxLists) {
+            this.maxLists = maxLists;
+
+            return this;
+        }
+
+        /**
+         * Adds an in-memory tier that holds entities as encoded bytes. New entities enter this
+         * tier and are promoted to objects once looked up repeatedly.
+         *
+         * @param maxBytes Number of bytes the encoded entities may take up.
+         * @param codec    The encoding to use, such as {@link DeflatedJsonCodec}.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setCompressedTier(@IntRange(from = 1) long maxBytes, @NonNull EntityCodec codec) {
+            this.compressedBytes = maxBytes;
+            this.codec = codec;
+
+            return this;
+        }
+
+        /**
+         * Sets how many lookups promote an encoded entity to an object.
+         *
+         * @param promoteHits Number of lookups. 1 promotes on first access.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setPromoteHits(@IntRange(from = 1) int promoteHits) {
+            this.promoteHits = promoteHits;
+
+            return this;
+        }
+
+        /**
+         * Sets the persistent tier. Without one, entities are only cached in memory.
+         *
+         * @param disk The store to read and write entities.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setDiskStore(@Nullable DiskEntityStore disk) {
+            this.disk = disk;
+
+            return this;
+        }
+
+        /**
+         * Sets a cache of 404 and 403 answers, which keeps requests for deleted or private
+         * resources from being repeated.
+         *
+         * @param negativeCache The cache to consult before requests are made.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setNegativeCache(@Nullable NegativeCache negativeCache) {
+            this.negativeCache = negativeCache;
+
+            return this;
+        }
+
+        /**
+         * Overrides how long entities of a type are used for.
+         *
+         * @param type        The type of entity.
+         * @param ttlMillis   How long a fetched entity is fresh, in milliseconds.
+         * @param staleMillis How long a stale entity is still returned while it is refreshed, in
+         *                    milliseconds.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setTtl(@NonNull EntityType<?> type, long ttlMillis, long staleMillis) {
+            policies.put(type, new Policy(ttlMillis, staleMillis));
+
+            return this;
+        }
+
+        public EntityCache build() {
+            return new EntityCache(this);
+        }
+    }
+}
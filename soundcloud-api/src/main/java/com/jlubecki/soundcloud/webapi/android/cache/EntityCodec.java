@@ -0,0 +1,52 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Turns cached entities into bytes and back, for the tiers of an {@link EntityCache} that do not
+ * hold live objects.
+ */
+public interface EntityCodec {
+
+    /**
+     * @param type   The type of the entity.
+     * @param entity The entity to encode.
+     * @return The encoded entity.
+     * @throws IOException if the entity cannot be encoded.
+     */
+    byte[] encode(@NonNull EntityType<?> type, @NonNull Object entity) throws IOException;
+
+    /**
+     * @param type The type of the entity.
+     * @param data Bytes returned by {@link #encode(EntityType, Object)}.
+     * @return The decoded entity.
+     * @throws IOException if the bytes are not a valid encoding of the type.
+     */
+    <T> T decode(@NonNull EntityType<T> type, @NonNull byte[] data) throws IOException;
+}
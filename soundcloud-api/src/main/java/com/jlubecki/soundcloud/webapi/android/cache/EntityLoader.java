@@ -0,0 +1,257 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Group;
+import com.jlubecki.soundcloud.webapi.android.models.Playlist;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.models.User;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Loads entities by ID through an {@link EntityCache}, following stale-while-revalidate:
+ * <ul>
+ * <li>A fresh cached entity is delivered without a request.</li>
+ * <li>A stale cached entity is delivered at once and refreshed in the background. The callback is
+ * then called again with the refreshed entity.</li>
+ * <li>Otherwise the entity is fetched, and concurrent loads of the same entity share one request.</li>
+ * </ul>
+ * Entities held in memory are delivered before the load method returns. All other results are
+ * delivered on the main thread.
+ */
+public class EntityLoader {
+
+    private final SoundCloudService service;
+    private final EntityCache cache;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService diskExecutor;
+    private final Map<String, List<Waiter<?>>> inFlight = new HashMap<>();
+
+    public EntityLoader(@NonNull SoundCloudService service, @NonNull EntityCache cache) {
+        this.service = service;
+        this.cache = cache;
+        this.diskExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "EntityLoader");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    public void getTrack(@NonNull String trackId, @NonNull Callback<Track> callback) {
+        load(EntityType.TRACK, trackId, callback);
+    }
+
+    public void getUser(@NonNull String userId, @NonNull Callback<User> callback) {
+        load(EntityType.USER, userId, callback);
+    }
+
+    public void getPlaylist(@NonNull String playlistId, @NonNull Callback<Playlist> callback) {
+        load(EntityType.PLAYLIST, playlistId, callback);
+    }
+
+    public void getGroup(@NonNull String groupId, @NonNull Callback<Group> callback) {
+        load(EntityType.GROUP, groupId, callback);
+    }
+
+    /**
+     * Loads an entity of any cached type.
+     *
+     * @param type     The type of the entity.
+     * @param id       The ID of the entity.
+     * @param callback Notified with the entity, possibly twice when a stale copy is refreshed.
+     */
+    public <T> void load(@NonNull final EntityType<T> type, @NonNull final String id,
+                         @NonNull final Callback<T> callback) {
+        CachedEntity<T> cached = cache.peek(type, id);
+
+        if (cached != null) {
+            boolean stale = cached.isStale();
+            callback.onLoaded(id, cached.getValue(), stale);
+
+            if (stale) {
+                fetch(type, id, new Waiter<>(callback, true));
+            }
+
+            return;
+        }
+
+        diskExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CachedEntity<T> stored = cache.get(type, id);
+
+                if (stored == null) {
+                    fetch(type, id, new Waiter<>(callback, false));
+                    return;
+                }
+
+                final boolean stale = stored.isStale();
+
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLoaded(id, stored.getValue(), stale);
+                    }
+                });
+
+                if (stale) {
+                    fetch(type, id, new Waiter<>(callback, true));
+                }
+            }
+        });
+    }
+
+    private <T> void fetch(final EntityType<T> type, final String id, Waiter<T> waiter) {
+        final String key = type.getName() + '/' + id;
+
+        synchronized (inFlight) {
+            List<Waiter<?>> waiters = inFlight.get(key);
+
+            if (waiters != null) {
+                waiters.add(waiter);
+                return;
+            }
+
+            waiters = new ArrayList<>();
+            waiters.add(waiter);
+            inFlight.put(key, waiters);
+        }
+
+        type.fetch(service, id).enqueue(new retrofit2.Callback<T>() {
+            @Override
+            public void onResponse(Call<T> call, Response<T> response) {
+                final T body = response.body();
+
+                if (response.code() == NegativeCache.HTTP_NOT_FOUND) {
+                    diskExecutor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            cache.remove(type, id); // Deleted, drop any stale copy.
+                        }
+                    });
+                }
+
+                if (!response.isSuccessful() || body == null) {
+                    fail(new IllegalStateException(
+                            "Request for " + key + " failed with HTTP " + response.code()));
+                    return;
+                }
+
+                diskExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        cache.put(body);
+                    }
+                });
+
+                for (Waiter<T> waiter : EntityLoader.this.<T>complete(key)) {
+                    waiter.callback.onLoaded(id, body, false);
+                }
+            }
+
+            @Override
+            public void onFailure(Call<T> call, Throwable t) {
+                fail(t);
+            }
+
+            private void fail(Throwable throwable) {
+                for (Waiter<T> waiter : EntityLoader.this.<T>complete(key)) {
+                    // Callers holding a stale copy keep using it.
+                    if (!waiter.servedStale) {
+                        waiter.callback.onFailed(id, throwable);
+                    }
+                }
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> List<Waiter<T>> complete(String key) {
+        List<Waiter<?>> waiters;
+
+        synchronized (inFlight) {
+            waiters = inFlight.remove(key);
+        }
+
+        List<Waiter<T>> typed = new ArrayList<>();
+
+        if (waiters != null) {
+            for (Waiter<?> waiter : waiters) {
+                typed.add((Waiter<T>) waiter);
+            }
+        }
+
+        return typed;
+    }
+
+    private static class Waiter<T> {
+
+        final Callback<T> callback;
+        final boolean servedStale;
+
+        Waiter(Callback<T> callback, boolean servedStale) {
+            this.callback = callback;
+            this.servedStale = servedStale;
+        }
+    }
+
+    public interface Callback<T> {
+
+        /**
+         * Called with the loaded entity.
+         *
+         * @param id     The ID that was loaded.
+         * @param entity The entity.
+         * @param stale  Whether the entity is a stale cached copy that is being refreshed. If so,
+         *               this method is called again once the refreshed entity arrives.
+         */
+        void onLoaded(String id, T entity, boolean stale);
+
+        /**
+         * Called when the entity is not cached and could not be fetched. Not called when only the
+         * refresh of a stale copy fails.
+         */
+        void onFailed(String id, Throwable throwable);
+    }
+}
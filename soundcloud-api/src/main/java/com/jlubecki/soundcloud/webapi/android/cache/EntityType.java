@@ -0,0 +1,213 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Group;
+import com.jlubecki.soundcloud.webapi.android.models.Playlist;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.models.User;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+
+/**
+ * A kind of entity that can be cached by ID, with the endpoint it is fetched from and how long a
+ * fetched copy is used for by default.
+ *
+ * @param <T> The model class of the entity.
+ */
+public abstract class EntityType<T> {
+
+    public static final EntityType<Track> TRACK = new EntityType<Track>("tracks", Track.class,
+            TimeUnit.MINUTES.toMillis(10), TimeUnit.DAYS.toMillis(7)) {
+        @Override
+        public String idOf(@NonNull Track track) {
+            return track.id;
+        }
+
+        @Override
+        Call<Track> fetch(SoundCloudService service, String id) {
+            return service.getTrack(id);
+        }
+    };
+
+    public static final EntityType<User> USER = new EntityType<User>("users", User.class,
+            TimeUnit.MINUTES.toMillis(10), TimeUnit.DAYS.toMillis(7)) {
+        @Override
+        public String idOf(@NonNull User user) {
+            return user.id;
+        }
+
+        @Override
+        Call<User> fetch(SoundCloudService service, String id) {
+            return service.getUser(id);
+        }
+    };
+
+    public static final EntityType<Playlist> PLAYLIST = new EntityType<Playlist>("playlists", Playlist.class,
+            TimeUnit.MINUTES.toMillis(2), TimeUnit.DAYS.toMillis(7)) {
+        @Override
+        public String idOf(@NonNull Playlist playlist) {
+            return playlist.id;
+        }
+
+        @Override
+        Call<Playlist> fetch(SoundCloudService service, String id) {
+            return service.getPlaylist(id);
+        }
+    };
+
+    public static final EntityType<Group> GROUP = new EntityType<Group>("groups", Group.class,
+            TimeUnit.MINUTES.toMillis(30), TimeUnit.DAYS.toMillis(7)) {
+        @Override
+        public String idOf(@NonNull Group group) {
+            return group.getId();
+        }
+
+        @Override
+        Call<Group> fetch(SoundCloudService service, String id) {
+            return service.getGroup(id);
+        }
+    };
+
+    private static final List<EntityType<?>> VALUES = Collections.unmodifiableList(
+            Arrays.<EntityType<?>>asList(TRACK, USER, PLAYLIST, GROUP));
+
+    private final String name;
+    private final Class<T> modelClass;
+    private final long ttlMillis;
+    private final long staleMillis;
+
+    private EntityType(String name, Class<T> modelClass, long ttlMillis, long staleMillis) {
+        this.name = name;
+        this.modelClass = modelClass;
+        this.ttlMillis = ttlMillis;
+        this.staleMillis = staleMillis;
+    }
+
+    /**
+     * @return Every cacheable type.
+     */
+    public static List<EntityType<?>> values() {
+        return VALUES;
+    }
+
+    /**
+     * Finds the type of a model object.
+     *
+     * @param entity The object to look up.
+     * @return The type, or null if objects of this class are not cached.
+     */
+    @Nullable
+    public static EntityType<?> of(@NonNull Object entity) {
+        return forClass(entity.getClass());
+    }
+
+    /**
+     * Finds the type of a model class.
+     *
+     * @param modelClass The class to look up.
+     * @return The type, or null if objects of this class are not cached.
+     */
+    @Nullable
+    public static EntityType<?> forClass(@NonNull Class<?> modelClass) {
+        for (EntityType<?> type : VALUES) {
+            if (type.modelClass == modelClass) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Finds a type by the name of its API resource.
+     *
+     * @param name A resource name such as "tracks".
+     * @return The type, or null if there is no cached type with this name.
+     */
+    @Nullable
+    public static EntityType<?> forName(@NonNull String name) {
+        for (EntityType<?> type : VALUES) {
+            if (type.name.equals(name)) {
+                return type;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return The name of the API resource, such as "tracks".
+     */
+    public String getName() {
+        return name;
+    }
+
+    public Class<T> getModelClass() {
+        return modelClass;
+    }
+
+    /**
+     * @return How long a fetched entity is fresh for by default, in milliseconds.
+     */
+    public long getDefaultTtl() {
+        return ttlMillis;
+    }
+
+    /**
+     * @return How long an entity is still served while it is refreshed after its TTL passed, in
+     * milliseconds.
+     */
+    public long getDefaultStaleTime() {
+        return staleMillis;
+    }
+
+    @Nullable
+    public abstract String idOf(@NonNull T entity);
+
+    abstract Call<T> fetch(SoundCloudService service, String id);
+
+    /**
+     * Casts an object of this type's model class and returns its ID.
+     */
+    @Nullable
+    String idOfEntity(Object entity) {
+        return idOf(modelClass.cast(entity));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls heap usage and signals a {@link MemoryPressure} dispatcher when it crosses a threshold. For
+ * processes without {@code onTrimMemory}, such as servers. A level is signalled on every poll while
+ * usage stays above its threshold, so caches that refill in between are trimmed again.
+ */
+public class HeapWatcher {
+
+    public static final long INTERVAL_DEFAULT_MILLIS = 5000;
+    public static final double MODERATE_DEFAULT = 0.70;
+    public static final double HIGH_DEFAULT = 0.85;
+    public static final double CRITICAL_DEFAULT = 0.95;
+
+    private final MemoryPressure pressure;
+    private final long intervalMillis;
+    private final double moderate;
+    private final double high;
+    private final double critical;
+    private final Runtime runtime = Runtime.getRuntime();
+
+    private ScheduledExecutorService scheduler;
+
+    public HeapWatcher(@NonNull MemoryPressure pressure) {
+        this(pressure, INTERVAL_DEFAULT_MILLIS, MODERATE_DEFAULT, HIGH_DEFAULT, CRITICAL_DEFAULT);
+    }
+
+    /**
+     * @param pressure       The dispatcher to signal.
+     * @param intervalMillis How often to check heap usage, in milliseconds.
+     * @param moderate       Share of the maximum heap in use above which caches are trimmed
+     *                       {@link TrimLevel#MODERATE moderately}.
+     * @param high           Threshold for {@link TrimLevel#HIGH}.
+     * @param critical       Threshold for {@link TrimLevel#CRITICAL}.
+     */
+    public HeapWatcher(@NonNull MemoryPressure pressure, long intervalMillis,
+                       double moderate, double high, double critical) {
+        this.pressure = pressure;
+        this.intervalMillis = intervalMillis;
+        this.moderate = moderate;
+        this.high = high;
+        this.critical = critical;
+    }
+
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "HeapWatcher");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Checks heap usage once and signals the matching level, if any.
+     *
+     * @return The level that was signalled, or null if usage is below every threshold.
+     */
+    public TrimLevel check() {
+        TrimLevel level = levelFor(getHeapUsage());
+
+        if (level != null) {
+            pressure.trim(level);
+        }
+
+        return level;
+    }
+
+    /**
+     * @return The share of the maximum heap that is in use, between 0 and 1.
+     */
+    public double getHeapUsage() {
+        long used = runtime.totalMemory() - runtime.freeMemory();
+
+        return (double) used / runtime.maxMemory();
+    }
+
+    TrimLevel levelFor(double usage) {
+        if (usage >= critical) {
+            return TrimLevel.CRITICAL;
+        } else if (usage >= high) {
+            return TrimLevel.HIGH;
+        } else if (usage >= moderate) {
+            return TrimLevel.MODERATE;
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Passes memory pressure signals on to registered caches. Register it with
+ * {@link android.content.Context#registerComponentCallbacks(android.content.ComponentCallbacks)}
+ * to follow the system's trim requests, attach a {@link HeapWatcher} to follow heap usage, or call
+ * {@link #trim(TrimLevel)} directly.
+ */
+public class MemoryPressure implements ComponentCallbacks2 {
+
+    private final CopyOnWriteArrayList<Trimmable> caches = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds a cache to trim. Caches are held strongly, so unregister caches that are discarded.
+     *
+     * @param cache The cache to trim.
+     */
+    public void register(@NonNull Trimmable cache) {
+        caches.addIfAbsent(cache);
+    }
+
+    public void unregister(@NonNull Trimmable cache) {
+        caches.remove(cache);
+    }
+
+    /**
+     * Trims every registered cache.
+     *
+     * @param level How much memory to give back.
+     */
+    public void trim(@NonNull TrimLevel level) {
+        for (Trimmable cache : caches) {
+            cache.trim(level);
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trim(TrimLevel.fromTrimMemory(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(TrimLevel.CRITICAL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        // Not related to memory.
+    }
+}
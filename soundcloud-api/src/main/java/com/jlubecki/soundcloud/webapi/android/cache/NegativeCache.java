@@ -0,0 +1,246 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Remembers tracks, users, playlists and groups that recently answered 404 Not Found or 403
+ * Forbidden, such as deleted or private tracks that still appear in old playlists. While an answer
+ * is remembered, GET requests for the entity are answered locally with the same status instead of
+ * making a round trip. A successful PUT, POST or DELETE of the entity forgets its answer.
+ * <p/>
+ * Installed as an OkHttp interceptor by {@link com.jlubecki.soundcloud.webapi.android.SoundCloudAPI}
+ * when set on the {@link EntityCache}. Only "/{type}/{id}" requests are remembered, keyed by type
+ * and ID, and answers are forgotten when the token changes.
+ */
+public class NegativeCache implements Interceptor, Trimmable {
+
+    public static final int HTTP_FORBIDDEN = 403;
+    public static final int HTTP_NOT_FOUND = 404;
+
+    public static final long NOT_FOUND_TTL_DEFAULT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    public static final long FORBIDDEN_TTL_DEFAULT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    public static final int SIZE_DEFAULT = 1024;
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    private final long notFoundTtlNanos;
+    private final long forbiddenTtlNanos;
+    private final int maxEntries;
+    private final LinkedHashMap<String, Answer> answers;
+
+    private long savedCount;
+    private long recordedCount;
+
+    public NegativeCache() {
+        this(NOT_FOUND_TTL_DEFAULT_MILLIS, FORBIDDEN_TTL_DEFAULT_MILLIS, SIZE_DEFAULT);
+    }
+
+    /**
+     * @param notFoundTtlMillis  How long a 404 is remembered, in milliseconds.
+     * @param forbiddenTtlMillis How long a 403 is remembered, in milliseconds.
+     * @param maxEntries         Number of resources to remember. The least recently used are
+     *                           forgotten first.
+     */
+    public NegativeCache(long notFoundTtlMillis, long forbiddenTtlMillis, @IntRange(from = 1) final int maxEntries) {
+        this.notFoundTtlNanos = TimeUnit.MILLISECONDS.toNanos(notFoundTtlMillis);
+        this.forbiddenTtlNanos = TimeUnit.MILLISECONDS.toNanos(forbiddenTtlMillis);
+        this.maxEntries = maxEntries;
+        this.answers = new LinkedHashMap<String, Answer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Answer> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        String key = keyOf(request);
+
+        if (key == null) {
+            return chain.proceed(request);
+        }
+
+        if (!"GET".equals(request.method())) {
+            Response response = chain.proceed(request);
+
+            if (response.isSuccessful()) {
+                forget(key); // The entity exists again, or its visibility may have changed.
+            }
+
+            return response;
+        }
+
+        int cachedCode = lookup(key);
+
+        if (cachedCode != -1) {
+            return new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .code(cachedCode)
+                    .message(cachedCode == HTTP_NOT_FOUND ? "Not Found" : "Forbidden")
+                    .body(ResponseBody.create(JSON, "{}"))
+                    .build();
+        }
+
+        Response response = chain.proceed(request);
+
+        if (response.code() == HTTP_NOT_FOUND || response.code() == HTTP_FORBIDDEN) {
+            record(key, response.code());
+        }
+
+        return response;
+    }
+
+    /**
+     * Checks whether an entity is known to be missing or hidden. A positive answer counts as a
+     * saved call.
+     *
+     * @param type The type of the entity.
+     * @param id   The ID of the entity.
+     * @return true if a request for the entity recently answered 404 or 403.
+     */
+    public boolean isMissing(@NonNull EntityType<?> type, @NonNull String id) {
+        return lookup(keyOf(type, id)) != -1;
+    }
+
+    /**
+     * Forgets the answer for an entity, for example because it was just created.
+     */
+    public void forget(@NonNull EntityType<?> type, @NonNull String id) {
+        forget(keyOf(type, id));
+    }
+
+    /**
+     * Forgets every answer. Called when the token changes, since 403 answers depend on it.
+     */
+    public synchronized void clear() {
+        answers.clear();
+    }
+
+    @Override
+    public synchronized void trim(@NonNull TrimLevel level) {
+        long budget = level.apply(maxEntries);
+        Iterator<Answer> eldest = answers.values().iterator();
+
+        while (answers.size() > budget && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return The number of requests that were answered locally.
+     */
+    public synchronized long getSavedCount() {
+        return savedCount;
+    }
+
+    /**
+     * @return The number of 404 and 403 answers that were remembered.
+     */
+    public synchronized long getRecordedCount() {
+        return recordedCount;
+    }
+
+    public synchronized int size() {
+        return answers.size();
+    }
+
+    private synchronized int lookup(String key) {
+        Answer answer = answers.get(key);
+
+        if (answer == null) {
+            return -1;
+        }
+
+        if (System.nanoTime() - answer.expiresAt > 0) {
+            answers.remove(key);
+            return -1;
+        }
+
+        savedCount++;
+
+        return answer.code;
+    }
+
+    private synchronized void forget(String key) {
+        answers.remove(key);
+    }
+
+    private synchronized void record(String key, int code) {
+        long ttl = code == HTTP_NOT_FOUND ? notFoundTtlNanos : forbiddenTtlNanos;
+
+        answers.put(key, new Answer(code, System.nanoTime() + ttl));
+        recordedCount++;
+    }
+
+    /**
+     * @return The key of a request for a single entity, such as "/tracks/123", or null for any
+     * other request. Relationship checks such as "/me/favorites/123" answer 404 to mean "no", and
+     * that answer changes as soon as the relationship is created, so they are never remembered.
+     */
+    @Nullable
+    private static String keyOf(Request request) {
+        List<String> segments = request.url().pathSegments();
+        EntityType<?> type = segments.size() == 2 ? EntityType.forName(segments.get(0)) : null;
+
+        return type != null && !segments.get(1).isEmpty() ? keyOf(type, segments.get(1)) : null;
+    }
+
+    private static String keyOf(EntityType<?> type, String id) {
+        return '/' + type.getName() + '/' + id;
+    }
+
+    private static class Answer {
+
+        final int code;
+        final long expiresAt;
+
+        Answer(int code, long expiresAt) {
+            this.code = code;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
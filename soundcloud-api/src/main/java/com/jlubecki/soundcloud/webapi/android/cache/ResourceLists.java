@@ -0,0 +1,201 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * In-memory store of list responses, such as "/me/tracks", kept as the IDs of their entities so
+ * that each entity is stored once in the {@link EntityCache}. Lists are keyed by path and query,
+ * and can be patched in place when a mutation adds or removes one of their entities.
+ */
+final class ResourceLists {
+
+    private final int maxLists;
+    private final LinkedHashMap<String, ListEntry> lists = new LinkedHashMap<>(16, 0.75f, true);
+
+    ResourceLists(int maxLists) {
+        this.maxLists = maxLists;
+    }
+
+    /**
+     * @return A copy of the list stored for a resource, or null if none is stored.
+     */
+    synchronized ListEntry get(String resource) {
+        ListEntry entry = lists.get(resource);
+
+        return entry != null ? new ListEntry(entry) : null;
+    }
+
+    synchronized void remove(String resource) {
+        lists.remove(resource);
+    }
+
+    synchronized void put(String path, String query, EntityType<?> type, List<String> ids, long fetchedAt) {
+        lists.put(key(path, query), new ListEntry(path, query, type, new ArrayList<>(ids), fetchedAt));
+
+        Iterator<ListEntry> eldest = lists.values().iterator();
+
+        while (lists.size() > maxLists && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Adds an entity to the front of the lists at a path, which is where the API lists new items.
+     * Only first pages are patched. Later pages shift by one and are dropped.
+     */
+    synchronized void insertFirst(String path, EntityType<?> type, String id) {
+        Iterator<ListEntry> entries = lists.values().iterator();
+
+        while (entries.hasNext()) {
+            ListEntry entry = entries.next();
+
+            if (!entry.path.equals(path) || entry.type != type) {
+                continue;
+            }
+
+            if (entry.offset > 0) {
+                entries.remove();
+                continue;
+            }
+
+            if (!entry.ids.contains(id)) {
+                entry.ids.add(0, id);
+
+                if (entry.limit > 0 && entry.ids.size() > entry.limit) {
+                    entry.ids.remove(entry.ids.size() - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes an entity from every list containing it. Pages after a patched page are dropped.
+     */
+    synchronized void removeEverywhere(EntityType<?> type, String id) {
+        List<String> shiftedPaths = new ArrayList<>();
+
+        for (ListEntry entry : lists.values()) {
+            if (entry.type == type && entry.ids.remove(id)) {
+                shiftedPaths.add(entry.path);
+            }
+        }
+
+        Iterator<ListEntry> entries = lists.values().iterator();
+
+        while (entries.hasNext()) {
+            ListEntry entry = entries.next();
+
+            if (entry.offset > 0 && shiftedPaths.contains(entry.path)) {
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops every list whose path is the given path or below it.
+     */
+    synchronized void invalidate(String pathPrefix) {
+        Iterator<ListEntry> entries = lists.values().iterator();
+
+        while (entries.hasNext()) {
+            String path = entries.next().path;
+
+            if (path.equals(pathPrefix) || path.startsWith(pathPrefix + '/')) {
+                entries.remove();
+            }
+        }
+    }
+
+    synchronized void trim(TrimLevel level) {
+        long budget = level.apply(maxLists);
+        Iterator<ListEntry> eldest = lists.values().iterator();
+
+        while (lists.size() > budget && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    synchronized void clear() {
+        lists.clear();
+    }
+
+    static String key(String path, String query) {
+        return query != null ? path + '?' + query : path;
+    }
+
+    static class ListEntry {
+
+        final String path;
+        final EntityType<?> type;
+        final List<String> ids;
+        final long fetchedAt;
+        final int offset;
+        final int limit;
+
+        ListEntry(String path, String query, EntityType<?> type, List<String> ids, long fetchedAt) {
+            this.path = path;
+            this.type = type;
+            this.ids = ids;
+            this.fetchedAt = fetchedAt;
+            this.offset = intParameter(query, "offset");
+            this.limit = intParameter(query, "limit");
+        }
+
+        private ListEntry(ListEntry source) {
+            this.path = source.path;
+            this.type = source.type;
+            this.ids = Collections.unmodifiableList(new ArrayList<>(source.ids));
+            this.fetchedAt = source.fetchedAt;
+            this.offset = source.offset;
+            this.limit = source.limit;
+        }
+
+        private static int intParameter(String query, String name) {
+            if (query == null) {
+                return -1;
+            }
+
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(name + '=')) {
+                    try {
+                        return Integer.parseInt(parameter.substring(name.length() + 1));
+                    } catch (NumberFormatException e) {
+                        return -1;
+                    }
+                }
+            }
+
+            return -1;
+        }
+    }
+}
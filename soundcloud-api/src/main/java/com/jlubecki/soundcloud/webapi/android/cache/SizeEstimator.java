@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates the heap retained by model objects from the lengths of their fields, assuming a 32-bit
+ * or compressed-pointer layout: 12 byte object headers, 4 byte references and 8 byte alignment.
+ * <p/>
+ * The estimate is meant to weigh cache entries against each other, not to be exact. Objects shared
+ * between several entries, such as the tracks of a playlist that are also cached on their own, are
+ * counted for each entry.
+ */
+public final class SizeEstimator {
+
+    private static final int HEADER = 12;
+    private static final int REFERENCE = 4;
+    private static final int ARRAY_HEADER = 16;
+    private static final int STRING_SHALLOW = 24;
+    private static final int LIST_SHALLOW = 24;
+
+    private static final Map<Class<?>, Shape> SHAPES = new HashMap<>();
+
+    private SizeEstimator() {
+    }
+
+    /**
+     * Estimates the bytes retained by a model object, its strings, lists and nested models.
+     *
+     * @param value The object to weigh.
+     * @return The estimated size in bytes.
+     */
+    public static long estimate(@Nullable Object value) {
+        if (value == null) {
+            return 0;
+        }
+
+        if (value instanceof String) {
+            return STRING_SHALLOW + align(ARRAY_HEADER + 2L * ((String) value).length());
+        }
+
+        if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            long size = LIST_SHALLOW + align(ARRAY_HEADER + (long) REFERENCE * collection.size());
+
+            for (Object element : collection) {
+                size += estimate(element);
+            }
+
+            return size;
+        }
+
+        if (value instanceof Enum) {
+            return 0; // Constants are shared.
+        }
+
+        if (value instanceof Number || value instanceof Boolean) {
+            return 16;
+        }
+
+        Shape shape = shapeOf(value.getClass());
+        long size = shape.shallowSize;
+
+        for (Field field : shape.references) {
+            try {
+                size += estimate(field.get(value));
+            } catch (IllegalAccessException e) {
+                // Made accessible when the shape was built.
+            }
+        }
+
+        return size;
+    }
+
+    private static Shape shapeOf(Class<?> type) {
+        synchronized (SHAPES) {
+            Shape shape = SHAPES.get(type);
+
+            if (shape == null) {
+                shape = new Shape(type);
+                SHAPES.put(type, shape);
+            }
+
+            return shape;
+        }
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * The fields of a class, read once with reflection.
+     */
+    private static class Shape {
+
+        final long shallowSize;
+        final List<Field> references = new ArrayList<>();
+
+        Shape(Class<?> type) {
+            long size = HEADER;
+
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        continue;
+                    }
+
+                    Class<?> fieldType = field.getType();
+
+                    if (fieldType == long.class || fieldType == double.class) {
+                        size += 8;
+                    } else if (fieldType == int.class || fieldType == float.class) {
+                        size += 4;
+                    } else if (fieldType == short.class || fieldType == char.class) {
+                        size += 2;
+                    } else if (fieldType == boolean.class || fieldType == byte.class) {
+                        size += 1;
+                    } else {
+                        size += REFERENCE;
+                        field.setAccessible(true);
+                        references.add(field);
+                    }
+                }
+            }
+
+            shallowSize = align(size);
+        }
+    }
+}
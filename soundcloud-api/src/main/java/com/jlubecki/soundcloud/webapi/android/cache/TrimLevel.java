@@ -0,0 +1,93 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.content.ComponentCallbacks2;
+
+/**
+ * How much memory caches should give back. Each level shrinks a cache to a share of its normal
+ * budget. After trimming, caches fill up to their normal budget again as they are used.
+ */
+public enum TrimLevel {
+
+    /**
+     * Memory is getting tight. Caches shrink to half of their budget.
+     */
+    MODERATE(0.5),
+
+    /**
+     * Memory is low. Caches shrink to a quarter of their budget.
+     */
+    HIGH(0.25),
+
+    /**
+     * The process is about to be killed or the heap is nearly full. Caches drop every entry they
+     * can rebuild.
+     */
+    CRITICAL(0);
+
+    private final double budgetFraction;
+
+    TrimLevel(double budgetFraction) {
+        this.budgetFraction = budgetFraction;
+    }
+
+    /**
+     * @return The share of its normal budget a cache may keep at this level.
+     */
+    public double getBudgetFraction() {
+        return budgetFraction;
+    }
+
+    /**
+     * Applies this level to a budget.
+     *
+     * @param budget The normal budget, in bytes or entries.
+     * @return The budget to trim to.
+     */
+    public long apply(long budget) {
+        return (long) (budget * budgetFraction);
+    }
+
+    /**
+     * Maps a level passed to {@link ComponentCallbacks2#onTrimMemory(int)}.
+     *
+     * @param level One of the {@code TRIM_MEMORY_*} constants.
+     * @return The matching level.
+     */
+    public static TrimLevel fromTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return CRITICAL;
+        }
+
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ||
+                level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return HIGH;
+        }
+
+        return MODERATE;
+    }
+}
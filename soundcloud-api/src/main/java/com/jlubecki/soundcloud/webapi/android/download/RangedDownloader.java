@@ -0,0 +1,911 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.download;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Downloads large files, such as the originals behind {@link Track#download_url}, over several
+ * connections at once:
+ * <ul>
+ * <li>The file is split into ranges fetched in parallel with HTTP range requests. A connection
+ * that finishes early takes over half of the largest remaining range.</li>
+ * <li>Bytes are written straight to their position in a file preallocated to the full size, so no
+ * range is buffered in memory or copied afterwards.</li>
+ * <li>The ranges and how far each got are saved next to the file. A download interrupted by a
+ * failure, a cancellation or the process dying continues where it stopped, as long as the server
+ * still has the same file.</li>
+ * <li>The finished file must have the length announced by the server and, when known, the size
+ * the API reported. Only then is it moved to its destination.</li>
+ * </ul>
+ * Servers without range support are downloaded over a single connection. The {@link Listener} is
+ * notified on the main thread.
+ */
+public class RangedDownloader {
+
+    public static final int CONNECTIONS_DEFAULT = 4;
+    public static final long MIN_RANGE_SIZE_DEFAULT = 4 * 1024 * 1024;
+    public static final int MAX_ATTEMPTS_DEFAULT = 3;
+    public static final long RETRY_DELAY_DEFAULT_MILLIS = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long CHECKPOINT_INTERVAL_MILLIS = 1000;
+    private static final int STATE_VERSION = 1;
+    private static final String PARTIAL_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".part-state";
+
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+
+    private final OkHttpClient client;
+    private final int connections;
+    private final long minRangeSize;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final ExecutorService executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private RangedDownloader(Builder builder) {
+        client = builder.client;
+        connections = builder.connections;
+        minRangeSize = builder.minRangeSize;
+        maxAttempts = builder.maxAttempts;
+        retryDelayMillis = builder.retryDelayMillis;
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "RangedDownloader");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Downloads the original file of a track.
+     *
+     * @param track    A downloadable track.
+     * @param target   Where to store the file. Downloading to the same file again resumes.
+     * @param listener Notified on the main thread.
+     * @return The task of the download, which can be cancelled.
+     * @throws IllegalArgumentException if the track cannot be downloaded.
+     */
+    public DownloadTask download(@NonNull Track track, @NonNull File target, @NonNull Listener listener) {
+        if (!track.is_downloadable || track.download_url == null) {
+            throw new IllegalArgumentException("Track " + track.id + " is not downloadable");
+        }
+
+        long expectedSize = -1;
+
+        try {
+            if (track.original_file_size != null) {
+                expectedSize = Long.parseLong(track.original_file_size);
+            }
+        } catch (NumberFormatException ignored) {
+            // Verified against the server's length only.
+        }
+
+        return download(track.download_url, target, expectedSize, listener);
+    }
+
+    /**
+     * Downloads a file.
+     *
+     * @param url          The URL of the file. Redirects are followed once, and the ranges are
+     *                     fetched from the final URL.
+     * @param target       Where to store the file. Downloading to the same file again resumes.
+     * @param expectedSize Size the file must have, or -1 to only check the length sent by the server.
+     * @param listener     Notified on the main thread.
+     * @return The task of the download, which can be cancelled.
+     */
+    public DownloadTask download(@NonNull String url, @NonNull File target, long expectedSize,
+                                 @NonNull Listener listener) {
+        final DownloadTask task = new DownloadTask(url, target, expectedSize, listener);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                execute(task);
+            }
+        });
+
+        return task;
+    }
+
+    /**
+     * Stops the background threads once the running downloads have finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private void execute(final DownloadTask task) {
+        try {
+            Probe probe = probe(task);
+
+            if (task.expectedSize >= 0 && probe.length >= 0 && probe.length != task.expectedSize) {
+                throw new IOException("The server offers " + probe.length + " bytes, expected " + task.expectedSize);
+            }
+
+            File partial = new File(task.target.getPath() + PARTIAL_SUFFIX);
+
+            if (probe.length > 0 && probe.acceptsRanges) {
+                downloadRanges(task, probe, partial);
+            } else {
+                downloadWhole(task, probe, partial);
+            }
+
+            long expected = probe.length >= 0 ? probe.length : task.expectedSize;
+
+            if (expected >= 0 && partial.length() != expected) {
+                partial.delete();
+                throw new IOException("Downloaded " + partial.length() + " bytes, expected " + expected);
+            }
+
+            if (task.target.exists() && !task.target.delete() || !partial.renameTo(task.target)) {
+                throw new IOException("Could not move the download to " + task.target);
+            }
+
+            new File(task.target.getPath() + STATE_SUFFIX).delete();
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    task.listener.onDownloadFinished(task, task.target);
+                }
+            });
+        } catch (final IOException | RuntimeException e) {
+            if (task.isCanceled()) {
+                return; // The state is kept, so the download can be resumed later.
+            }
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    task.listener.onDownloadFailed(task, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Requests the first byte to learn the length, whether ranges are supported, the final URL
+     * after redirects and the validator that identifies this version of the file.
+     */
+    private Probe probe(DownloadTask task) throws IOException {
+        Request request = new Request.Builder()
+                .url(task.url)
+                .header("Range", "bytes=0-0")
+                .build();
+
+        Response response = client.newCall(request).execute();
+
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("Download failed with HTTP " + response.code());
+            }
+
+            Probe probe = new Probe();
+            probe.url = response.request().url().toString();
+            probe.validator = validatorOf(response);
+
+            if (response.code() == HTTP_PARTIAL_CONTENT) {
+                String range = response.header("Content-Range");
+                int slash = range != null ? range.lastIndexOf('/') : -1;
+
+                if (slash != -1 && !range.endsWith("*")) {
+                    probe.length = Long.parseLong(range.substring(slash + 1).trim());
+                    probe.acceptsRanges = true;
+                }
+            } else {
+                probe.length = response.body().contentLength();
+            }
+
+            return probe;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Range " + response.header("Content-Range"), e);
+        } finally {
+            response.close();
+        }
+    }
+
+    private void downloadRanges(final DownloadTask task, final Probe probe, File partial) throws IOException {
+        final File stateFile = new File(task.target.getPath() + STATE_SUFFIX);
+        State state = readState(stateFile);
+
+        if (state == null || state.length != probe.length || !equal(state.validator, probe.validator) ||
+                partial.length() != probe.length) {
+            state = new State(probe.length, probe.validator, split(probe.length));
+            partial.delete();
+        }
+
+        RandomAccessFile file = new RandomAccessFile(partial, "rw");
+
+        try {
+            file.setLength(probe.length);
+
+            final FileChannel channel = file.getChannel();
+            final State current = state;
+            final Progress progress = new Progress(task, probe.length, state.downloaded());
+
+            writeState(stateFile, state);
+
+            List<Future<?>> workers = new ArrayList<>();
+
+            for (int i = 0; i < connections; i++) {
+                workers.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Range range;
+
+                        while (!task.isStopped() && (range = current.claim(minRangeSize)) != null) {
+                            try {
+                                fetch(task, probe, range, channel, current, stateFile, progress);
+                            } catch (IOException | RuntimeException e) {
+                                task.fail(e);
+                            } finally {
+                                current.release(range);
+                            }
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException e) {
+                    task.cancel();
+                    throw new InterruptedIOException("Interrupted while downloading");
+                } catch (ExecutionException e) {
+                    task.fail(e.getCause());
+                }
+            }
+
+            checkpoint(channel, current, stateFile, true);
+
+            if (task.failure != null) {
+                if (task.failure instanceof FileChangedException) {
+                    stateFile.delete();
+                    partial.delete();
+                }
+
+                throw task.failure instanceof IOException ? (IOException) task.failure :
+                        new IOException("Download failed", task.failure);
+            }
+
+            checkStopped(task);
+
+            if (!current.isComplete()) {
+                throw new IOException("The download ended with missing ranges");
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Fetches one range, retrying from the last written byte after a failure.
+     */
+    private void fetch(DownloadTask task, Probe probe, Range range, FileChannel channel, State state,
+                       File stateFile, Progress progress) throws IOException {
+        int failures = 0;
+
+        while (true) {
+            long from;
+            long to;
+
+            synchronized (state) {
+                from = range.position;
+                to = range.end;
+            }
+
+            if (from >= to) {
+                return;
+            }
+
+            Request.Builder request = new Request.Builder()
+                    .url(probe.url)
+                    .header("Range", "bytes=" + from + "-" + (to - 1));
+
+            if (probe.validator != null) {
+                request.header("If-Range", probe.validator);
+            }
+
+            try {
+                Response response = client.newCall(request.build()).execute();
+
+                try {
+                    if (response.code() != HTTP_PARTIAL_CONTENT) {
+                        if (response.isSuccessful()) {
+                            throw new FileChangedException();
+                        }
+
+                        throw new IOException("Range request failed with HTTP " + response.code());
+                    }
+
+                    copy(task, response.body().byteStream(), range, channel, state, stateFile, progress);
+                    return;
+                } finally {
+                    response.close();
+                }
+            } catch (FileChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (task.isStopped() || ++failures >= maxAttempts) {
+                    throw e;
+                }
+            }
+
+            backOff(failures);
+        }
+    }
+
+    private void copy(DownloadTask task, InputStream input, Range range, FileChannel channel, State state,
+                      File stateFile, Progress progress) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        while (true) {
+            checkStopped(task);
+
+            long position;
+            int max;
+
+            synchronized (state) {
+                position = range.position;
+                max = (int) Math.min(BUFFER_SIZE, range.end - position); // The end moves when the range is split.
+            }
+
+            if (max <= 0) {
+                return;
+            }
+
+            int read = input.read(buffer.array(), 0, max);
+
+            if (read == -1) {
+                throw new EOFException("The range ended early at " + position);
+            }
+
+            buffer.position(0);
+            buffer.limit(read);
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+
+            synchronized (state) {
+                range.position = position + read;
+            }
+
+            progress.add(read);
+            checkpoint(channel, state, stateFile, false);
+        }
+    }
+
+    private void downloadWhole(DownloadTask task, Probe probe, File partial) throws IOException {
+        int failures = 0;
+
+        while (true) {
+            Request request = new Request.Builder()
+                    .url(probe.url)
+                    .build();
+
+            try {
+                Response response = client.newCall(request).execute();
+
+                try {
+                    if (!response.isSuccessful()) {
+                        throw new IOException("Download failed with HTTP " + response.code());
+                    }
+
+                    writeWhole(task, response.body().byteStream(), partial, probe.length);
+                    return;
+                } finally {
+                    response.close();
+                }
+            } catch (IOException e) {
+                if (task.isStopped() || ++failures >= maxAttempts) {
+                    throw e;
+                }
+            }
+
+            backOff(failures);
+        }
+    }
+
+    private void writeWhole(DownloadTask task, InputStream input, File partial, long length) throws IOException {
+        Progress progress = new Progress(task, length, 0);
+        FileOutputStream output = new FileOutputStream(partial);
+
+        try {
+            FileChannel channel = output.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int read;
+
+            while ((read = input.read(buffer.array())) != -1) {
+                checkStopped(task);
+
+                buffer.position(0);
+                buffer.limit(read);
+
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+
+                progress.add(read);
+            }
+
+            channel.force(false);
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Saves how far each range got. The data is forced to disk first, so the saved state never
+     * claims bytes that a crash could lose.
+     */
+    private static void checkpoint(FileChannel channel, State state, File stateFile, boolean now) throws IOException {
+        synchronized (state) {
+            long time = System.currentTimeMillis();
+
+            if (!now && time - state.savedAt < CHECKPOINT_INTERVAL_MILLIS) {
+                return;
+            }
+
+            state.savedAt = time;
+        }
+
+        // Workers keep claiming and writing ranges while the state is saved, but only one thread
+        // writes the temporary state file at a time. The copy is taken under the same lock, so a
+        // slower save never replaces a newer one.
+        synchronized (state.saveLock) {
+            State snapshot = state.copy();
+
+            channel.force(false);
+            writeState(stateFile, snapshot);
+        }
+    }
+
+    private List<Range> split(long length) {
+        int count = (int) Math.max(1, Math.min(connections, length / minRangeSize));
+        long size = length / count;
+        List<Range> ranges = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            long start = i * size;
+            ranges.add(new Range(start, i == count - 1 ? length : start + size, start));
+        }
+
+        return ranges;
+    }
+
+    private void backOff(int failures) throws InterruptedIOException {
+        try {
+            Thread.sleep(retryDelayMillis << Math.min(failures - 1, 16));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry the download");
+        }
+    }
+
+    private static void checkStopped(DownloadTask task) throws IOException {
+        if (task.isCanceled()) {
+            throw new IOException("Canceled");
+        }
+
+        if (task.failure != null) {
+            throw new IOException("Another range failed", task.failure);
+        }
+    }
+
+    private static String validatorOf(Response response) {
+        String eTag = response.header("ETag");
+
+        // Weak ETags cannot be used with If-Range.
+        if (eTag != null && !eTag.startsWith("W/")) {
+            return eTag;
+        }
+
+        return response.header("Last-Modified");
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static State readState(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new FileInputStream(file));
+
+            try {
+                if (input.readInt() != STATE_VERSION) {
+                    return null;
+                }
+
+                long length = input.readLong();
+                String validator = input.readBoolean() ? input.readUTF() : null;
+                int count = input.readInt();
+                List<Range> ranges = new ArrayList<>(count);
+
+                for (int i = 0; i < count; i++) {
+                    ranges.add(new Range(input.readLong(), input.readLong(), input.readLong()));
+                }
+
+                return new State(length, validator, ranges);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null; // Unreadable state only costs starting over.
+        }
+    }
+
+    private static void writeState(File file, State state) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(temp));
+
+        try {
+            output.writeInt(STATE_VERSION);
+            output.writeLong(state.length);
+            output.writeBoolean(state.validator != null);
+
+            if (state.validator != null) {
+                output.writeUTF(state.validator);
+            }
+
+            output.writeInt(state.ranges.size());
+
+            for (Range range : state.ranges) {
+                output.writeLong(range.start);
+                output.writeLong(range.end);
+                output.writeLong(range.position);
+            }
+        } finally {
+            output.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static class Probe {
+
+        String url;
+        String validator;
+        long length = -1;
+        boolean acceptsRanges;
+    }
+
+    /**
+     * A range of the file from start to end, exclusive, written up to position.
+     */
+    private static class Range {
+
+        final long start;
+        long end;
+        long position;
+        boolean claimed;
+
+        Range(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+    }
+
+    /**
+     * The ranges of a download. Ranges are guarded by the state's monitor.
+     */
+    private static class State {
+
+        final long length;
+        final String validator;
+        final List<Range> ranges;
+        final Object saveLock = new Object();
+
+        long savedAt;
+
+        State(long length, String validator, List<Range> ranges) {
+            this.length = length;
+            this.validator = validator;
+            this.ranges = ranges;
+        }
+
+        /**
+         * Hands out an unfinished range nobody works on, or else splits the largest remaining range
+         * and hands out its second half.
+         */
+        synchronized Range claim(long minRangeSize) {
+            Range largest = null;
+
+            for (Range range : ranges) {
+                if (range.position >= range.end) {
+                    continue;
+                }
+
+                if (!range.claimed) {
+                    range.claimed = true;
+                    return range;
+                }
+
+                if (largest == null || range.end - range.position > largest.end - largest.position) {
+                    largest = range;
+                }
+            }
+
+            if (largest == null || largest.end - largest.position < 2 * minRangeSize) {
+                return null;
+            }
+
+            long middle = largest.position + (largest.end - largest.position) / 2;
+            Range stolen = new Range(middle, largest.end, middle);
+            stolen.claimed = true;
+            largest.end = middle;
+            ranges.add(stolen);
+
+            return stolen;
+        }
+
+        synchronized void release(Range range) {
+            range.claimed = false;
+        }
+
+        synchronized long downloaded() {
+            long downloaded = 0;
+
+            for (Range range : ranges) {
+                downloaded += range.position - range.start;
+            }
+
+            return downloaded;
+        }
+
+        synchronized boolean isComplete() {
+            return downloaded() == length;
+        }
+
+        synchronized State copy() {
+            List<Range> copies = new ArrayList<>(ranges.size());
+
+            for (Range range : ranges) {
+                copies.add(new Range(range.start, range.end, range.position));
+            }
+
+            return new State(length, validator, copies);
+        }
+    }
+
+    /**
+     * Sums the bytes written by every connection and reports each new percent.
+     */
+    private class Progress {
+
+        final DownloadTask task;
+        final long length;
+        final AtomicLong downloaded;
+
+        private long reported = -1;
+
+        Progress(DownloadTask task, long length, long downloaded) {
+            this.task = task;
+            this.length = length;
+            this.downloaded = new AtomicLong(downloaded);
+        }
+
+        void add(long bytes) {
+            final long total = downloaded.addAndGet(bytes);
+            long step = length > 0 ? total * 100 / length : total / MIN_RANGE_SIZE_DEFAULT;
+
+            synchronized (this) {
+                if (step == reported) {
+                    return;
+                }
+
+                reported = step;
+            }
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    task.listener.onDownloadProgress(task, total, length);
+                }
+            });
+        }
+    }
+
+    /**
+     * Thrown when the server answers a range request with the whole file, because the file
+     * changed since the download started.
+     */
+    private static class FileChangedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        FileChangedException() {
+            super("The file changed on the server, the download has to start over");
+        }
+    }
+
+    /**
+     * A queued or running download.
+     */
+    public static class DownloadTask {
+
+        private final String url;
+        private final File target;
+        private final long expectedSize;
+        private final Listener listener;
+
+        private volatile boolean canceled;
+        private volatile Throwable failure;
+
+        DownloadTask(String url, File target, long expectedSize, Listener listener) {
+            this.url = url;
+            this.target = target;
+            this.expectedSize = expectedSize;
+            this.listener = listener;
+        }
+
+        public File getTarget() {
+            return target;
+        }
+
+        /**
+         * Stops the download without notifying the listener. Downloading to the same file again
+         * continues where it stopped.
+         */
+        public void cancel() {
+            canceled = true;
+        }
+
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        synchronized void fail(Throwable throwable) {
+            if (failure == null) {
+                failure = throwable;
+            }
+        }
+
+        boolean isStopped() {
+            return canceled || failure != null;
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * @param downloadedBytes Number of bytes stored so far, including earlier attempts.
+         * @param totalBytes      Length of the file, or -1 if it is unknown.
+         */
+        void onDownloadProgress(DownloadTask task, long downloadedBytes, long totalBytes);
+
+        void onDownloadFinished(DownloadTask task, File file);
+
+        void onDownloadFailed(DownloadTask task, Throwable throwable);
+    }
+
+    public static class Builder {
+
+        private final OkHttpClient client;
+        private int connections = CONNECTIONS_DEFAULT;
+        private long minRangeSize = MIN_RANGE_SIZE_DEFAULT;
+        private int maxAttempts = MAX_ATTEMPTS_DEFAULT;
+        private long retryDelayMillis = RETRY_DELAY_DEFAULT_MILLIS;
+
+        /**
+         * @param client The client to download with, such as
+         *               {@link com.jlubecki.soundcloud.webapi.android.SoundCloudAPI#getMediaClient()}.
+         */
+        public Builder(@NonNull OkHttpClient client) {
+            this.client = client;
+        }
+
+        public Builder setConnections(@IntRange(from = 1) int connections) {
+            this.connections = connections;
+
+            return this;
+        }
+
+        /**
+         * Sets the smallest range worth its own connection. Smaller files use fewer connections,
+         * and ranges are only split while both halves stay at least this large.
+         *
+         * @param minRangeSize Number of bytes.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setMinRangeSize(@IntRange(from = 1) long minRangeSize) {
+            this.minRangeSize = minRangeSize;
+
+            return this;
+        }
+
+        /**
+         * Sets how many times a request is attempted before the download fails.
+         *
+         * @param maxAttempts Number of attempts per request.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setMaxAttempts(@IntRange(from = 1) int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+
+            return this;
+        }
+
+        /**
+         * Sets the delay before the first retry. It doubles with every further failure.
+         *
+         * @param retryDelayMillis Delay in milliseconds.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setRetryDelay(long retryDelayMillis) {
+            this.retryDelayMillis = retryDelayMillis;
+
+            return this;
+        }
+
+        public RangedDownloader build() {
+            return new RangedDownloader(this);
+        }
+    }
+}
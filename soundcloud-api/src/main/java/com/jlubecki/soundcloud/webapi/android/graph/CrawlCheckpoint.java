@@ -0,0 +1,71 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.graph;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Persists the progress of a {@link SocialGraphCrawler} so that an interrupted crawl can resume
+ * without fetching users that were already expanded.
+ */
+public interface CrawlCheckpoint {
+
+    /**
+     * Replays every expansion recorded so far, in the order they were recorded.
+     *
+     * @param replay Receives each recorded expansion.
+     * @throws IOException if the checkpoint could not be read.
+     */
+    void restore(Replay replay) throws IOException;
+
+    /**
+     * Records that a user's neighbors were fetched completely.
+     *
+     * @param userId      ID of the expanded user.
+     * @param depth       Distance of the user from the closest seed.
+     * @param neighborIds IDs of the followers and followings that were found.
+     * @throws IOException if the checkpoint could not be written.
+     */
+    void record(String userId, int depth, List<String> neighborIds) throws IOException;
+
+    /**
+     * Discards everything recorded so far.
+     *
+     * @throws IOException if the checkpoint could not be cleared.
+     */
+    void clear() throws IOException;
+
+    /**
+     * Releases any resources held by the checkpoint.
+     *
+     * @throws IOException if the checkpoint could not be closed.
+     */
+    void close() throws IOException;
+
+    interface Replay {
+        void onExpanded(String userId, int depth, List<String> neighborIds);
+    }
+}
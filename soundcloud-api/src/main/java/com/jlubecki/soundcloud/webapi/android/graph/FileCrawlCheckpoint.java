@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.graph;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link CrawlCheckpoint} backed by an append-only file. Every expansion is written as a
+ * length-prefixed record and flushed immediately, so at most the record being written when the
+ * process died is lost. A torn record at the end of the file is dropped on {@link #restore(Replay)}.
+ */
+public class FileCrawlCheckpoint implements CrawlCheckpoint {
+
+    private final File file;
+    private DataOutputStream output;
+
+    /**
+     * Creates a checkpoint that reads and appends to the given file.
+     *
+     * @param file File to store the crawl progress in. Created on the first record.
+     */
+    public FileCrawlCheckpoint(@NonNull File file) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized void restore(Replay replay) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        long fileLength = file.length();
+        long validLength = 0;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            while (true) {
+                byte[] payload;
+
+                try {
+                    int length = input.readInt();
+
+                    if (length < 0 || validLength + 4 + length > fileLength) {
+                        break; // Record that was only partially written.
+                    }
+
+                    payload = new byte[length];
+                    input.readFully(payload);
+                } catch (EOFException e) {
+                    break; // End of file.
+                }
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                String userId = record.readUTF();
+                int depth = record.readInt();
+                int count = record.readInt();
+
+                List<String> neighborIds = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    neighborIds.add(record.readUTF());
+                }
+
+                validLength += 4 + payload.length;
+                replay.onExpanded(userId, depth, neighborIds);
+            }
+        } finally {
+            input.close();
+        }
+
+        if (validLength < fileLength) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void record(String userId, int depth, List<String> neighborIds) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+
+        record.writeUTF(userId);
+        record.writeInt(depth);
+        record.writeInt(neighborIds.size());
+        for (String id : neighborIds) {
+            record.writeUTF(id);
+        }
+        record.flush();
+
+        if (output == null) {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        }
+
+        output.writeInt(bytes.size());
+        bytes.writeTo(output);
+        output.flush();
+    }
+
+    @Override
+    public synchronized void clear() throws IOException {
+        close();
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete checkpoint file " + file);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+}
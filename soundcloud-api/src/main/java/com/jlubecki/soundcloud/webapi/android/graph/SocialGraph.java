@@ -0,0 +1,473 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.graph;
+
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.models.User;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable follower graph over numeric user IDs stored in compressed sparse row form. Users are
+ * numbered in ascending ID order and every adjacency list is sorted, so membership checks are
+ * binary searches and mutual-follower queries are merges of two sorted int ranges.
+ * <p/>
+ * An edge {@code a -> b} means that user {@code a} follows user {@code b}. Graphs are assembled
+ * with a {@link Builder}, which can be fed from {@code getUserFollowers}, {@code getUserFollowings},
+ * {@code getMyFollowers}, {@code getMyFollowings} or used directly as a
+ * {@link SocialGraphCrawler.Listener}.
+ */
+public class SocialGraph {
+
+    private static final long[] EMPTY = new long[0];
+
+    /**
+     * Intersections switch from a linear merge to binary searches when one side is this many
+     * times larger than the other.
+     */
+    private static final int GALLOP_RATIO = 32;
+
+    private final long[] ids;
+    private final int[] followingOffsets;
+    private final int[] followings;
+    private final int[] followerOffsets;
+    private final int[] followers;
+
+    private SocialGraph(long[] ids, int[] followingOffsets, int[] followings,
+                        int[] followerOffsets, int[] followers) {
+        this.ids = ids;
+        this.followingOffsets = followingOffsets;
+        this.followings = followings;
+        this.followerOffsets = followerOffsets;
+        this.followers = followers;
+    }
+
+    /**
+     * @return The number of users in the graph.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return The number of distinct follow relationships in the graph.
+     */
+    public int edgeCount() {
+        return followings.length;
+    }
+
+    public boolean contains(long userId) {
+        return indexOf(userId) >= 0;
+    }
+
+    /**
+     * @return Whether {@code followerId} follows {@code userId}.
+     */
+    public boolean isFollowing(long followerId, long userId) {
+        int from = indexOf(followerId);
+        int to = indexOf(userId);
+
+        return from >= 0 && to >= 0 &&
+                Arrays.binarySearch(followings, followingOffsets[from], followingOffsets[from + 1], to) >= 0;
+    }
+
+    public int followerCount(long userId) {
+        int index = indexOf(userId);
+
+        return index < 0 ? 0 : followerOffsets[index + 1] - followerOffsets[index];
+    }
+
+    public int followingCount(long userId) {
+        int index = indexOf(userId);
+
+        return index < 0 ? 0 : followingOffsets[index + 1] - followingOffsets[index];
+    }
+
+    /**
+     * @return IDs of the users following the given user, in ascending order.
+     */
+    public long[] getFollowers(long userId) {
+        int index = indexOf(userId);
+
+        return index < 0 ? EMPTY : toIds(followers, followerOffsets[index], followerOffsets[index + 1]);
+    }
+
+    /**
+     * @return IDs of the users the given user follows, in ascending order.
+     */
+    public long[] getFollowings(long userId) {
+        int index = indexOf(userId);
+
+        return index < 0 ? EMPTY : toIds(followings, followingOffsets[index], followingOffsets[index + 1]);
+    }
+
+    /**
+     * @return IDs of the users that follow both {@code a} and {@code b}, in ascending order.
+     */
+    public long[] getMutualFollowers(long a, long b) {
+        int first = indexOf(a);
+        int second = indexOf(b);
+
+        if (first < 0 || second < 0) {
+            return EMPTY;
+        }
+
+        return intersect(followers, followerOffsets[first], followerOffsets[first + 1],
+                followers, followerOffsets[second], followerOffsets[second + 1]);
+    }
+
+    /**
+     * @return IDs of the users that both {@code a} and {@code b} follow, in ascending order.
+     */
+    public long[] getMutualFollowings(long a, long b) {
+        int first = indexOf(a);
+        int second = indexOf(b);
+
+        if (first < 0 || second < 0) {
+            return EMPTY;
+        }
+
+        return intersect(followings, followingOffsets[first], followingOffsets[first + 1],
+                followings, followingOffsets[second], followingOffsets[second + 1]);
+    }
+
+    /**
+     * Answers "who among the users I follow also follows X".
+     *
+     * @param userId   ID of the user whose followings are searched.
+     * @param targetId ID of the user that must be followed.
+     * @return IDs of the followings of {@code userId} that follow {@code targetId}, in ascending order.
+     */
+    public long[] getFollowingsWhoFollow(long userId, long targetId) {
+        int user = indexOf(userId);
+        int target = indexOf(targetId);
+
+        if (user < 0 || target < 0) {
+            return EMPTY;
+        }
+
+        return intersect(followings, followingOffsets[user], followingOffsets[user + 1],
+                followers, followerOffsets[target], followerOffsets[target + 1]);
+    }
+
+    /**
+     * Finds every user reachable within a number of hops.
+     *
+     * @param userId    ID of the user to start from.
+     * @param hops      Maximum number of edges to traverse.
+     * @param direction Edges to traverse. {@link SocialGraphCrawler.Direction#FOLLOWINGS} walks
+     *                  from followers to the users they follow.
+     * @return IDs of the reachable users, excluding the starting user, in ascending order.
+     */
+    public long[] getNeighborhood(long userId, int hops, @NonNull SocialGraphCrawler.Direction direction) {
+        int start = indexOf(userId);
+
+        if (start < 0 || hops <= 0) {
+            return EMPTY;
+        }
+
+        boolean[] visited = new boolean[ids.length];
+        int[] queue = new int[ids.length];
+        int head = 0;
+        int tail = 0;
+
+        visited[start] = true;
+        queue[tail++] = start;
+
+        for (int hop = 0; hop < hops && head < tail; hop++) {
+            int levelEnd = tail;
+
+            while (head < levelEnd) {
+                int current = queue[head++];
+
+                if (direction != SocialGraphCrawler.Direction.FOLLOWERS) {
+                    tail = enqueue(followings, followingOffsets[current], followingOffsets[current + 1],
+                            visited, queue, tail);
+                }
+
+                if (direction != SocialGraphCrawler.Direction.FOLLOWINGS) {
+                    tail = enqueue(followers, followerOffsets[current], followerOffsets[current + 1],
+                            visited, queue, tail);
+                }
+            }
+        }
+
+        long[] result = new long[tail - 1];
+        for (int i = 1; i < tail; i++) {
+            result[i - 1] = ids[queue[i]];
+        }
+        Arrays.sort(result);
+
+        return result;
+    }
+
+    private int indexOf(long userId) {
+        return Arrays.binarySearch(ids, userId);
+    }
+
+    private long[] toIds(int[] indices, int from, int to) {
+        long[] result = new long[to - from];
+
+        for (int i = from; i < to; i++) {
+            result[i - from] = ids[indices[i]];
+        }
+
+        return result;
+    }
+
+    private long[] intersect(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        int aLength = aTo - aFrom;
+        int bLength = bTo - bFrom;
+
+        if (aLength > bLength) {
+            return intersect(b, bFrom, bTo, a, aFrom, aTo);
+        }
+
+        int[] matches = new int[aLength];
+        int count = 0;
+
+        if ((long) aLength * GALLOP_RATIO < bLength) {
+            int lower = bFrom;
+
+            for (int i = aFrom; i < aTo; i++) {
+                int found = Arrays.binarySearch(b, lower, bTo, a[i]);
+
+                if (found >= 0) {
+                    matches[count++] = a[i];
+                    lower = found + 1;
+                } else {
+                    lower = -found - 1;
+                }
+            }
+        } else {
+            int i = aFrom;
+            int j = bFrom;
+
+            while (i < aTo && j < bTo) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    matches[count++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+
+        return toIds(matches, 0, count);
+    }
+
+    private static int enqueue(int[] adjacency, int from, int to, boolean[] visited, int[] queue, int tail) {
+        for (int i = from; i < to; i++) {
+            int next = adjacency[i];
+
+            if (!visited[next]) {
+                visited[next] = true;
+                queue[tail++] = next;
+            }
+        }
+
+        return tail;
+    }
+
+    /**
+     * Collects follow relationships and compacts them into a {@link SocialGraph}. Edges are kept
+     * as two growing primitive arrays until {@link #build()} is called, so duplicates are cheap to
+     * add and are removed during the build. Methods are synchronized so a builder can be fed from
+     * several crawler workers at once.
+     */
+    public static class Builder implements SocialGraphCrawler.Listener {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private long[] sources = new long[INITIAL_CAPACITY];
+        private long[] targets = new long[INITIAL_CAPACITY];
+        private int edgeCount;
+
+        /**
+         * Records that {@code followerId} follows {@code userId}.
+         *
+         * @return The instance of the builder that was just updated.
+         */
+        public synchronized Builder addEdge(long followerId, long userId) {
+            if (followerId == userId) {
+                return this;
+            }
+
+            if (edgeCount == sources.length) {
+                sources = Arrays.copyOf(sources, edgeCount * 2);
+                targets = Arrays.copyOf(targets, edgeCount * 2);
+            }
+
+            sources[edgeCount] = followerId;
+            targets[edgeCount] = userId;
+            edgeCount++;
+
+            return this;
+        }
+
+        /**
+         * Adds the result of {@code getUserFollowers(userId)} or, with the authenticated user's
+         * ID, {@code getMyFollowers()}. Users without a numeric ID are skipped.
+         *
+         * @return The instance of the builder that was just updated.
+         */
+        public synchronized Builder addFollowers(String userId, List<User> followers) {
+            long user = parseId(userId);
+
+            if (user >= 0 && followers != null) {
+                for (User follower : followers) {
+                    long followerId = follower != null ? parseId(follower.id) : -1;
+
+                    if (followerId >= 0) {
+                        addEdge(followerId, user);
+                    }
+                }
+            }
+
+            return this;
+        }
+
+        /**
+         * Adds the result of {@code getUserFollowings(userId)} or, with the authenticated user's
+         * ID, {@code getMyFollowings()}. Users without a numeric ID are skipped.
+         *
+         * @return The instance of the builder that was just updated.
+         */
+        public synchronized Builder addFollowings(String userId, List<User> followings) {
+            long user = parseId(userId);
+
+            if (user >= 0 && followings != null) {
+                for (User following : followings) {
+                    long followingId = following != null ? parseId(following.id) : -1;
+
+                    if (followingId >= 0) {
+                        addEdge(user, followingId);
+                    }
+                }
+            }
+
+            return this;
+        }
+
+        @Override
+        public void onUserCrawled(String userId, int depth, List<User> followers, List<User> followings) {
+            addFollowers(userId, followers);
+            addFollowings(userId, followings);
+        }
+
+        @Override
+        public void onUserFailed(String userId, Throwable throwable) {
+            // Nothing to add.
+        }
+
+        public synchronized SocialGraph build() {
+            long[] ids = new long[edgeCount * 2];
+            System.arraycopy(sources, 0, ids, 0, edgeCount);
+            System.arraycopy(targets, 0, ids, edgeCount, edgeCount);
+            Arrays.sort(ids);
+            ids = unique(ids);
+
+            int[] from = new int[edgeCount];
+            int[] to = new int[edgeCount];
+            for (int i = 0; i < edgeCount; i++) {
+                from[i] = Arrays.binarySearch(ids, sources[i]);
+                to[i] = Arrays.binarySearch(ids, targets[i]);
+            }
+
+            int[] followingOffsets = new int[ids.length + 1];
+            int[] followings = compress(from, to, followingOffsets);
+            int[] followerOffsets = new int[ids.length + 1];
+            int[] followers = compress(to, from, followerOffsets);
+
+            return new SocialGraph(ids, followingOffsets, followings, followerOffsets, followers);
+        }
+
+        private static long parseId(String id) {
+            if (id == null) {
+                return -1;
+            }
+
+            try {
+                return Long.parseLong(id);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private static long[] unique(long[] sorted) {
+            int count = 0;
+
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[count++] = sorted[i];
+                }
+            }
+
+            return Arrays.copyOf(sorted, count);
+        }
+
+        /**
+         * Groups edges by {@code rows} with a counting sort, then sorts and de-duplicates every row.
+         * Fills {@code offsets} and returns the adjacency array it indexes into.
+         */
+        private static int[] compress(int[] rows, int[] columns, int[] offsets) {
+            int[] counts = new int[offsets.length];
+            for (int row : rows) {
+                counts[row + 1]++;
+            }
+            for (int i = 1; i < counts.length; i++) {
+                counts[i] += counts[i - 1];
+            }
+
+            int[] adjacency = new int[rows.length];
+            int[] cursor = Arrays.copyOf(counts, counts.length);
+            for (int i = 0; i < rows.length; i++) {
+                adjacency[cursor[rows[i]]++] = columns[i];
+            }
+
+            int write = 0;
+            for (int row = 0; row < offsets.length - 1; row++) {
+                int start = counts[row];
+                int end = counts[row + 1];
+                Arrays.sort(adjacency, start, end);
+
+                offsets[row] = write;
+                for (int i = start; i < end; i++) {
+                    if (i == start || adjacency[i] != adjacency[i - 1]) {
+                        adjacency[write++] = adjacency[i];
+                    }
+                }
+            }
+            offsets[offsets.length - 1] = write;
+
+            return Arrays.copyOf(adjacency, write);
+        }
+    }
+}
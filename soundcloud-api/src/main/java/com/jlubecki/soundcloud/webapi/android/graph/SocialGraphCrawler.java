@@ -0,0 +1,422 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.graph;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.User;
+import com.jlubecki.soundcloud.webapi.android.query.Pager;
+import com.jlubecki.soundcloud.webapi.android.query.QueryParameters;
+import com.jlubecki.soundcloud.webapi.android.util.RateLimiter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Breadth-first crawler over the follower graph. Starting from one or more seed users, every user
+ * within {@code maxDepth} hops is expanded exactly once by fetching their followers and/or
+ * followings. Requests are made by a bounded pool of workers and are spaced out by a
+ * {@link RateLimiter}.
+ * <p/>
+ * When a {@link CrawlCheckpoint} is set, each completed expansion is recorded so that calling
+ * {@link #crawl(String...)} again after an interruption skips users that were already expanded.
+ * Expansions are recorded after the {@link Listener} is notified, so a user may be reported twice
+ * if the process dies in between.
+ */
+public class SocialGraphCrawler {
+
+    public static final int DEPTH_DEFAULT = 2;
+    public static final int CONCURRENCY_DEFAULT = 4;
+    public static final int MAX_PAGES_DEFAULT = 10;
+    public static final double REQUESTS_PER_SECOND_DEFAULT = 10;
+
+    private static final long CANCEL_POLL_MILLIS = 250;
+
+    private final SoundCloudService service;
+    private final Direction direction;
+    private final int maxDepth;
+    private final int concurrency;
+    private final int pageSize;
+    private final int maxPagesPerUser;
+    private final RateLimiter rateLimiter;
+    private final CrawlCheckpoint checkpoint;
+    private final Listener listener;
+
+    private final Map<String, Integer> depths = new HashMap<>();
+    private final Set<String> expanded = new HashSet<>();
+
+    private volatile boolean cancelled;
+    private volatile ExecutorService workers;
+
+    private SocialGraphCrawler(Builder builder) {
+        service = builder.service;
+        direction = builder.direction;
+        maxDepth = builder.maxDepth;
+        concurrency = builder.concurrency;
+        pageSize = builder.pageSize;
+        maxPagesPerUser = builder.maxPagesPerUser;
+        rateLimiter = builder.rateLimiter != null
+                ? builder.rateLimiter
+                : new RateLimiter(REQUESTS_PER_SECOND_DEFAULT);
+        checkpoint = builder.checkpoint;
+        listener = builder.listener;
+    }
+
+    /**
+     * Crawls the graph around the given seed users. Blocks until every user within the maximum
+     * depth has been expanded or {@link #cancel()} is called.
+     *
+     * @param seedIds IDs of the users to start from.
+     * @throws IOException          if the checkpoint could not be read or written.
+     * @throws InterruptedException if the calling thread is interrupted.
+     */
+    @WorkerThread
+    public void crawl(String... seedIds) throws IOException, InterruptedException {
+        cancelled = false;
+
+        synchronized (this) {
+            depths.clear();
+            expanded.clear();
+
+            if (checkpoint != null) {
+                checkpoint.restore(new CrawlCheckpoint.Replay() {
+                    @Override
+                    public void onExpanded(String userId, int depth, List<String> neighborIds) {
+                        markExpanded(userId, depth, neighborIds);
+                    }
+                });
+            }
+
+            for (String seedId : seedIds) {
+                depths.put(seedId, 0);
+            }
+        }
+
+        workers = Executors.newFixedThreadPool(concurrency);
+
+        try {
+            for (int depth = 0; depth < maxDepth && !cancelled; depth++) {
+                expandLevel(pendingAt(depth), depth);
+            }
+        } finally {
+            workers.shutdownNow();
+
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+        }
+    }
+
+    /**
+     * Stops a running crawl. Users that were being expanded are not recorded and will be fetched
+     * again when the crawl is resumed.
+     */
+    public void cancel() {
+        cancelled = true;
+
+        ExecutorService current = workers;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    /**
+     * @return The number of distinct users discovered so far, including seeds and users that are
+     * beyond the maximum depth and will not be expanded.
+     */
+    public synchronized int getDiscoveredCount() {
+        return depths.size();
+    }
+
+    /**
+     * @return The number of users whose neighbors have been fetched.
+     */
+    public synchronized int getExpandedCount() {
+        return expanded.size();
+    }
+
+    private synchronized List<String> pendingAt(int depth) {
+        List<String> pending = new ArrayList<>();
+
+        for (Map.Entry<String, Integer> entry : depths.entrySet()) {
+            if (entry.getValue() == depth && !expanded.contains(entry.getKey())) {
+                pending.add(entry.getKey());
+            }
+        }
+
+        return pending;
+    }
+
+    private void expandLevel(List<String> userIds, final int depth) throws InterruptedException {
+        final CountDownLatch remaining = new CountDownLatch(userIds.size());
+
+        for (final String userId : userIds) {
+            try {
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            expand(userId, depth);
+                        } finally {
+                            remaining.countDown();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                return; // Cancelled while the level was being queued.
+            }
+        }
+
+        // Queued tasks are dropped when the pool is shut down, so poll instead of waiting forever.
+        while (!cancelled && !remaining.await(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            // Keep waiting.
+        }
+    }
+
+    private void expand(String userId, int depth) {
+        try {
+            List<User> followers = direction != Direction.FOLLOWINGS
+                    ? fetchAll(userId, true)
+                    : Collections.<User>emptyList();
+            List<User> followings = direction != Direction.FOLLOWERS
+                    ? fetchAll(userId, false)
+                    : Collections.<User>emptyList();
+
+            if (cancelled) {
+                return;
+            }
+
+            List<String> neighborIds = new ArrayList<>(followers.size() + followings.size());
+            addIds(followers, neighborIds);
+            addIds(followings, neighborIds);
+
+            // Checkpointed first, so a user that could not be recorded is only reported as failed.
+            synchronized (this) {
+                if (checkpoint != null) {
+                    checkpoint.record(userId, depth, neighborIds);
+                }
+
+                markExpanded(userId, depth, neighborIds);
+            }
+
+            if (listener != null) {
+                listener.onUserCrawled(userId, depth, followers, followings);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (listener != null && !cancelled) {
+                listener.onUserFailed(userId, e);
+            }
+        }
+    }
+
+    private void markExpanded(String userId, int depth, List<String> neighborIds) {
+        expanded.add(userId);
+
+        if (!depths.containsKey(userId)) {
+            depths.put(userId, depth);
+        }
+
+        for (String neighborId : neighborIds) {
+            if (!depths.containsKey(neighborId)) {
+                depths.put(neighborId, depth + 1);
+            }
+        }
+    }
+
+    private List<User> fetchAll(String userId, boolean followers)
+            throws IOException, InterruptedException {
+        List<User> users = new ArrayList<>();
+
+        for (int page = 0; page < maxPagesPerUser && !cancelled; page++) {
+            Map<String, String> pageMap = QueryParameters.EMPTY.page(pageSize, page * pageSize);
+
+            Call<List<User>> call = followers
+                    ? service.getUserFollowers(userId, pageMap)
+                    : service.getUserFollowings(userId, pageMap);
+
+            Response<List<User>> response = rateLimiter.execute(call);
+
+            if (!response.isSuccessful()) {
+                throw new IOException("Request for user " + userId + " failed with HTTP " + response.code());
+            }
+
+            List<User> body = response.body();
+
+            if (body == null) {
+                break;
+            }
+
+            users.addAll(body);
+
+            if (body.size() < pageSize) {
+                break;
+            }
+        }
+
+        return users;
+    }
+
+    private static void addIds(List<User> users, List<String> ids) {
+        for (User user : users) {
+            if (user != null && user.id != null) {
+                ids.add(user.id);
+            }
+        }
+    }
+
+    /**
+     * Which edges of the follower graph to follow when expanding a user.
+     */
+    public enum Direction {
+        FOLLOWERS,
+        FOLLOWINGS,
+        BOTH
+    }
+
+    /**
+     * Receives the results of a crawl. Methods are called from worker threads.
+     */
+    public interface Listener {
+
+        /**
+         * Called once for each expanded user. Lists are empty for directions that are not crawled.
+         */
+        void onUserCrawled(String userId, int depth, List<User> followers, List<User> followings);
+
+        /**
+         * Called when a user could not be expanded. The user is retried when the crawl is resumed.
+         */
+        void onUserFailed(String userId, Throwable throwable);
+    }
+
+    public static class Builder {
+
+        private final SoundCloudService service;
+        private Direction direction = Direction.BOTH;
+        private int maxDepth = DEPTH_DEFAULT;
+        private int concurrency = CONCURRENCY_DEFAULT;
+        private int pageSize = Pager.LIMIT_MAX;
+        private int maxPagesPerUser = MAX_PAGES_DEFAULT;
+        private RateLimiter rateLimiter;
+        private CrawlCheckpoint checkpoint;
+        private Listener listener;
+
+        public Builder(@NonNull SoundCloudService service) {
+            this.service = service;
+        }
+
+        public Builder setDirection(@NonNull Direction direction) {
+            this.direction = direction;
+
+            return this;
+        }
+
+        /**
+         * Sets how many hops away from the seeds users are expanded. A depth of 1 only expands the
+         * seeds themselves.
+         *
+         * @param maxDepth Number of levels to expand.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setMaxDepth(@IntRange(from = 1) int maxDepth) {
+            this.maxDepth = maxDepth;
+
+            return this;
+        }
+
+        public Builder setConcurrency(@IntRange(from = 1) int concurrency) {
+            this.concurrency = concurrency;
+
+            return this;
+        }
+
+        public Builder setPageSize(@IntRange(from = 1, to = 200) int pageSize) {
+            this.pageSize = pageSize;
+
+            return this;
+        }
+
+        /**
+         * Caps the number of pages fetched per user and direction, which keeps users with very
+         * large followings from dominating a crawl.
+         *
+         * @param maxPagesPerUser Maximum number of pages to fetch.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setMaxPagesPerUser(@IntRange(from = 1) int maxPagesPerUser) {
+            this.maxPagesPerUser = maxPagesPerUser;
+
+            return this;
+        }
+
+        /**
+         * Sets the limiter used to space out requests. Share a limiter between components to keep
+         * their combined request rate under the API limit.
+         *
+         * @param rateLimiter The limiter to acquire permits from.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+
+            return this;
+        }
+
+        public Builder setCheckpoint(CrawlCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+
+            return this;
+        }
+
+        public Builder setListener(Listener listener) {
+            this.listener = listener;
+
+            return this;
+        }
+
+        public SocialGraphCrawler build() {
+            return new SocialGraphCrawler(this);
+        }
+    }
+}
@@ -51,4 +51,8 @@ public class Group {
     private String permalink_url;
 
     private MiniUser creator;
+
+    public String getId() {
+        return id;
+    }
 }
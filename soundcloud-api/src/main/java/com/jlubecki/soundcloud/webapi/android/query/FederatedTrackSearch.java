@@ -0,0 +1,487 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.query;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.util.RateLimiter;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import retrofit2.Response;
+
+/**
+ * Runs a wide {@link TrackQuery} as several narrower sub-queries in parallel and merges their
+ * results. A query is partitioned by genre when it lists several genres, or otherwise into equal
+ * time windows when it has both creation date limits. Each sub-query is paged on its own, with
+ * pages of all partitions interleaved on a bounded pool of workers.
+ * <p/>
+ * Results are merged into a single stream without duplicates. The merge assumes each sub-query
+ * returns tracks in the configured order, which for the default {@link #NEWEST_FIRST} is the
+ * order the API uses, and only releases a track once every unfinished partition has a buffered
+ * track to compare it with.
+ */
+public class FederatedTrackSearch {
+
+    public static final int CONCURRENCY_DEFAULT = 4;
+    public static final int DATE_WINDOWS_DEFAULT = 4;
+    public static final int MAX_PAGES_DEFAULT = 10;
+    public static final double REQUESTS_PER_SECOND_DEFAULT = 10;
+
+    /**
+     * Orders tracks by creation date, newest first. Ties are broken by ID.
+     */
+    public static final Comparator<Track> NEWEST_FIRST = new Comparator<Track>() {
+        @Override
+        public int compare(Track a, Track b) {
+            String dateA = TrackQueryMatcher.normalizeDate(a.created_at);
+            String dateB = TrackQueryMatcher.normalizeDate(b.created_at);
+
+            if (dateA == null || dateB == null) {
+                if (dateA != dateB) {
+                    return dateA == null ? 1 : -1;
+                }
+            } else if (!dateA.equals(dateB)) {
+                return dateB.compareTo(dateA);
+            }
+
+            String idA = a.id != null ? a.id : "";
+            String idB = b.id != null ? b.id : "";
+
+            return idA.length() != idB.length() ? idB.length() - idA.length() : idB.compareTo(idA);
+        }
+    };
+
+    private static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss";
+    private static final long CANCEL_POLL_MILLIS = 250;
+
+    private final SoundCloudService service;
+    private final int concurrency;
+    private final int dateWindows;
+    private final int pageSize;
+    private final int maxPagesPerPartition;
+    private final RateLimiter rateLimiter;
+    private final Comparator<Track> order;
+
+    private volatile boolean cancelled;
+    private volatile ExecutorService workers;
+
+    private FederatedTrackSearch(Builder builder) {
+        service = builder.service;
+        concurrency = builder.concurrency;
+        dateWindows = builder.dateWindows;
+        pageSize = builder.pageSize;
+        maxPagesPerPartition = builder.maxPagesPerPartition;
+        rateLimiter = builder.rateLimiter != null
+                ? builder.rateLimiter
+                : new RateLimiter(REQUESTS_PER_SECOND_DEFAULT);
+        order = builder.order;
+    }
+
+    /**
+     * Splits a query into the sub-queries that are run in parallel. Sub-queries do not overlap,
+     * except for tracks tagged with more than one of the listed genres.
+     *
+     * @param query The query to split.
+     * @return The sub-queries, or a list holding only the query itself if it cannot be split.
+     */
+    public List<TrackQuery> partition(@NonNull TrackQuery query) {
+        List<TrackQuery> partitions = new ArrayList<>();
+        String[] genres = query.getGenres();
+
+        if (genres != null && genres.length > 1) {
+            for (String genre : genres) {
+                partitions.add(query.newBuilder().setGenres(genre).build());
+            }
+
+            return partitions;
+        }
+
+        if (dateWindows > 1 && query.getCreatedAtFrom() != null && query.getCreatedAtTo() != null) {
+            SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT, Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+            try {
+                long from = format.parse(query.getCreatedAtFrom()).getTime();
+                long to = format.parse(query.getCreatedAtTo()).getTime();
+                long second = 1000;
+                long span = (to - from) / dateWindows;
+
+                if (span >= second) {
+                    // Newest window first, matching the default order of the merged stream.
+                    for (int i = dateWindows - 1; i >= 0; i--) {
+                        long start = from + i * span;
+                        long end = i == dateWindows - 1 ? to : start + span - second;
+
+                        partitions.add(query.newBuilder()
+                                .setCreationDateLimits(format.format(new Date(start)), format.format(new Date(end)))
+                                .build());
+                    }
+
+                    return partitions;
+                }
+            } catch (ParseException e) {
+                partitions.clear(); // Dates in another format are passed through unsplit.
+            }
+        }
+
+        partitions.add(query);
+
+        return partitions;
+    }
+
+    /**
+     * Runs a query as parallel sub-queries and streams the merged results to a listener. Blocks
+     * until every partition is exhausted, {@link #cancel()} is called, or a request fails.
+     *
+     * @param query    The query to run.
+     * @param listener Receives the merged tracks in order.
+     * @return The number of distinct tracks delivered.
+     * @throws IOException          if a request failed. Tracks delivered before are kept.
+     * @throws RuntimeException     if a response could not be converted or the listener threw.
+     * @throws InterruptedException if the calling thread is interrupted.
+     */
+    @WorkerThread
+    public int execute(@NonNull TrackQuery query, @NonNull Listener listener)
+            throws IOException, InterruptedException {
+        cancelled = false;
+
+        Run run = new Run(partition(query), listener);
+        workers = Executors.newFixedThreadPool(concurrency);
+
+        try {
+            for (Partition partition : run.partitions) {
+                submit(run, partition);
+            }
+
+            synchronized (run) {
+                while (run.remaining > 0 && run.failure == null && !cancelled) {
+                    run.wait(CANCEL_POLL_MILLIS);
+                }
+
+                if (run.failure instanceof IOException) {
+                    throw (IOException) run.failure;
+                } else if (run.failure != null) {
+                    throw (RuntimeException) run.failure;
+                }
+
+                return run.seen.size();
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a query and collects the merged results.
+     *
+     * @param query The query to run.
+     * @return The distinct matching tracks, in order.
+     * @throws IOException          if a request failed.
+     * @throws InterruptedException if the calling thread is interrupted.
+     */
+    @WorkerThread
+    public List<Track> executeAll(@NonNull TrackQuery query) throws IOException, InterruptedException {
+        final List<Track> tracks = new ArrayList<>();
+
+        execute(query, new Listener() {
+            @Override
+            public void onTracks(List<Track> batch) {
+                tracks.addAll(batch);
+            }
+        });
+
+        return tracks;
+    }
+
+    /**
+     * Stops a running query. Pages that were already fetched but not yet merged are dropped.
+     */
+    public void cancel() {
+        cancelled = true;
+
+        ExecutorService current = workers;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    private void submit(final Run run, final Partition partition) {
+        try {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fetchPage(run, partition);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Cancelled or failed, the waiting thread has already been released.
+        }
+    }
+
+    private void fetchPage(Run run, Partition partition) {
+        if (cancelled) {
+            return;
+        }
+
+        List<Track> body;
+
+        try {
+            Response<List<Track>> response = rateLimiter.execute(
+                    service.searchTracks(partition.query.page(pageSize, partition.page * pageSize)));
+
+            if (!response.isSuccessful()) {
+                throw new IOException("Track search failed with HTTP " + response.code());
+            }
+
+            body = response.body() != null ? response.body() : Collections.<Track>emptyList();
+        } catch (IOException | RuntimeException e) {
+            fail(run, e);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        synchronized (run) {
+            if (run.failure != null || cancelled) {
+                return;
+            }
+
+            for (Track track : body) {
+                if (track != null) {
+                    partition.buffered.add(track);
+                }
+            }
+
+            partition.page++;
+            partition.done = body.size() < pageSize || partition.page >= maxPagesPerPartition;
+
+            if (partition.done) {
+                run.remaining--;
+            }
+
+            try {
+                run.drain(order);
+            } catch (RuntimeException e) {
+                fail(run, e); // Thrown by the listener.
+                return;
+            }
+
+            run.notifyAll();
+        }
+
+        if (!partition.done) {
+            // Queued behind the pages of the other partitions, so all of them make progress.
+            submit(run, partition);
+        }
+    }
+
+    /**
+     * Ends the run with a failure, which {@link #execute(TrackQuery, Listener)} throws.
+     */
+    private static void fail(Run run, Exception e) {
+        synchronized (run) {
+            if (run.failure == null) {
+                run.failure = e;
+            }
+
+            run.notifyAll();
+        }
+    }
+
+    private static class Partition {
+
+        final TrackQuery query;
+        final ArrayDeque<Track> buffered = new ArrayDeque<>();
+        int page;
+        boolean done;
+
+        Partition(TrackQuery query) {
+            this.query = query;
+        }
+    }
+
+    private static class Run {
+
+        final List<Partition> partitions = new ArrayList<>();
+        final Set<String> seen = new HashSet<>();
+        final Listener listener;
+        int remaining;
+
+        // An IOException or RuntimeException.
+        Exception failure;
+
+        Run(List<TrackQuery> queries, Listener listener) {
+            for (TrackQuery query : queries) {
+                partitions.add(new Partition(query));
+            }
+
+            this.listener = listener;
+            this.remaining = partitions.size();
+        }
+
+        /**
+         * Merges buffered tracks for as long as every unfinished partition has one to compare.
+         * Must be called while holding the lock of this run.
+         */
+        void drain(Comparator<Track> order) {
+            List<Track> batch = new ArrayList<>();
+
+            while (true) {
+                Partition next = null;
+
+                for (Partition partition : partitions) {
+                    if (partition.buffered.isEmpty()) {
+                        if (!partition.done) {
+                            deliver(batch);
+                            return;
+                        }
+                    } else if (next == null || order.compare(partition.buffered.peek(), next.buffered.peek()) < 0) {
+                        next = partition;
+                    }
+                }
+
+                if (next == null) {
+                    deliver(batch);
+                    return;
+                }
+
+                Track track = next.buffered.poll();
+
+                if (track.id == null || seen.add(track.id)) {
+                    batch.add(track);
+                }
+            }
+        }
+
+        private void deliver(List<Track> batch) {
+            if (!batch.isEmpty()) {
+                listener.onTracks(Collections.unmodifiableList(batch));
+            }
+        }
+    }
+
+    /**
+     * Receives merged results. Called from worker threads, one batch at a time and in order.
+     */
+    public interface Listener {
+
+        void onTracks(List<Track> tracks);
+    }
+
+    public static class Builder {
+
+        private final SoundCloudService service;
+        private int concurrency = CONCURRENCY_DEFAULT;
+        private int dateWindows = DATE_WINDOWS_DEFAULT;
+        private int pageSize = Pager.LIMIT_MAX;
+        private int maxPagesPerPartition = MAX_PAGES_DEFAULT;
+        private RateLimiter rateLimiter;
+        private Comparator<Track> order = NEWEST_FIRST;
+
+        public Builder(@NonNull SoundCloudService service) {
+            this.service = service;
+        }
+
+        public Builder setConcurrency(@IntRange(from = 1) int concurrency) {
+            this.concurrency = concurrency;
+
+            return this;
+        }
+
+        /**
+         * Sets how many time windows a query with both creation date limits is split into.
+         *
+         * @param dateWindows Number of windows. 1 disables splitting by date.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setDateWindows(@IntRange(from = 1) int dateWindows) {
+            this.dateWindows = dateWindows;
+
+            return this;
+        }
+
+        public Builder setPageSize(@IntRange(from = 1, to = 200) int pageSize) {
+            this.pageSize = pageSize;
+
+            return this;
+        }
+
+        public Builder setMaxPagesPerPartition(@IntRange(from = 1) int maxPagesPerPartition) {
+            this.maxPagesPerPartition = maxPagesPerPartition;
+
+            return this;
+        }
+
+        /**
+         * Sets the limiter used to space out requests. Share a limiter between components to keep
+         * their combined request rate under the API limit.
+         *
+         * @param rateLimiter The limiter to acquire permits from.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setRateLimiter(RateLimiter rateLimiter) {
+            this.rateLimiter = rateLimiter;
+
+            return this;
+        }
+
+        /**
+         * Sets the order of the merged stream. Sub-query results must already be in this order.
+         *
+         * @param order The comparator to merge by.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setOrder(@NonNull Comparator<Track> order) {
+            this.order = order;
+
+            return this;
+        }
+
+        public FederatedTrackSearch build() {
+            return new FederatedTrackSearch(this);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.query;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Immutable query for the "groups" endpoint. Use with
+ * {@link com.jlubecki.soundcloud.webapi.android.SoundCloudService#searchGroups(java.util.Map)}.
+ */
+public class GroupQuery extends Query {
+
+    private final String query;
+
+    private GroupQuery(Builder builder) {
+        super(new QueryParameters.Builder()
+                .put("q", builder.query)
+                .build());
+
+        query = builder.query;
+    }
+
+    @Nullable
+    public String getQuery() {
+        return query;
+    }
+
+    public static class Builder {
+
+        private String query;
+
+        public Builder setQuery(String query) {
+            this.query = query;
+
+            return this;
+        }
+
+        public GroupQuery build() {
+            return new GroupQuery(this);
+        }
+    }
+}
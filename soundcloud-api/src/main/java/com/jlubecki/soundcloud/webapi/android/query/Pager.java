@@ -26,10 +26,9 @@ package com.jlubecki.soundcloud.webapi.android.query;
 
 import android.support.annotation.IntRange;
 
-import java.util.HashMap;
-
 /**
- * Wraps a {@link Query} object to create a simple paging object.
+ * Wraps a {@link Query} object to create a simple paging object. The query itself is never
+ * modified; each call returns a lightweight page view of its parameters.
  */
 public class Pager {
 
@@ -39,49 +38,54 @@ public class Pager {
     public static final int LIMIT_DEFAULT = 50;
     public static final int LIMIT_MAX = 200;
 
-    private HashMap<String, String> queryMap;
+    private final Query query;
     private int limit = LIMIT_DEFAULT;
     private int offset = 0;
 
     public Pager(Query query) {
-        this.queryMap = query.createMap();
-
-        updateLimit(limit);
-        updateOffset(offset);
+        this.query = query;
     }
 
     public Pager(Query query, @IntRange(from = 1, to = 200) int pageSize) {
-        this.queryMap = query.createMap();
-
+        this.query = query;
         this.limit = pageSize;
+    }
 
-        updateLimit(limit);
-        updateOffset(offset);
+    /**
+     * @return The query parameters for the current page.
+     */
+    public QueryParameters.Page current() {
+        return query.page(limit, offset);
     }
 
     /**
      * Updates the query offset by subtracting the page size from the current offset.
      *
-     * @return The updated query map to get the previous result set.
+     * @return The query parameters to get the previous result set.
      */
-    public HashMap<String, String> previous() {
-        updateOffset(offset - limit);
+    public QueryParameters.Page previous() {
+        setOffset(offset - limit);
 
-        return queryMap;
+        return current();
     }
 
-    public HashMap<String, String> next() {
-        updateOffset(offset + limit);
+    /**
+     * Updates the query offset by adding the page size to the current offset.
+     *
+     * @return The query parameters to get the next result set.
+     */
+    public QueryParameters.Page next() {
+        setOffset(offset + limit);
 
-        return queryMap;
+        return current();
     }
 
-    public void setPageSize(int pageSize) {
-        updateLimit(pageSize);
+    public void setPageSize(@IntRange(from = 1, to = 200) int pageSize) {
+        this.limit = pageSize;
     }
 
     public void setOffset(int offset) {
-        updateOffset(offset);
+        this.offset = offset;
 
         if (offset < 0) {
             returnToStart();
@@ -89,23 +93,11 @@ public class Pager {
     }
 
     public void reset() {
-        updateOffset(0);
-        updateLimit(LIMIT_DEFAULT);
+        offset = 0;
+        limit = LIMIT_DEFAULT;
     }
 
     public void returnToStart() {
-        updateOffset(0);
-    }
-
-    private void updateLimit(@IntRange(from = 1, to = 200) int limit) {
-        this.limit = limit;
-
-        queryMap.put(LIMIT, String.valueOf(limit));
-    }
-
-    private void updateOffset(int offset) {
-        this.offset = offset;
-
-        queryMap.put(OFFSET, String.valueOf(offset));
+        offset = 0;
     }
 }
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.query;
+
+import android.support.annotation.Nullable;
+
+/**
+ * Immutable query for the "playlists" endpoint. Use with
+ * {@link com.jlubecki.soundcloud.webapi.android.SoundCloudService#getPlaylists(java.util.Map)}.
+ */
+public class PlaylistQuery extends Query {
+
+    private final String query;
+    private final Representation representation;
+
+    private PlaylistQuery(Builder builder) {
+        super(new QueryParameters.Builder()
+                .put("q", builder.query)
+                .put("representation", builder.representation)
+                .build());
+
+        query = builder.query;
+        representation = builder.representation;
+    }
+
+    @Nullable
+    public String getQuery() {
+        return query;
+    }
+
+    @Nullable
+    public Representation getRepresentation() {
+        return representation;
+    }
+
+    /**
+     * Describes how much of each playlist is returned. When not set, playlists are returned with
+     * every track fully embedded.
+     */
+    public enum Representation {
+        COMPACT("compact"),
+        ID("id");
+
+        private final String representation;
+
+        Representation(String representation) {
+            this.representation = representation;
+        }
+
+        @Override
+        public String toString() {
+            return representation;
+        }
+    }
+
+    public static class Builder {
+
+        private String query;
+        private Representation representation;
+
+        public Builder setQuery(String query) {
+            this.query = query;
+
+            return this;
+        }
+
+        public Builder setRepresentation(Representation representation) {
+            this.representation = representation;
+
+            return this;
+        }
+
+        public PlaylistQuery build() {
+            return new PlaylistQuery(this);
+        }
+    }
+}
@@ -25,16 +25,103 @@
 package com.jlubecki.soundcloud.webapi.android.query;
 
 import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Immutable set of filters for one of the SoundCloud search endpoints. Parameters are converted
+ * and encoded once when the query is built, so a query can be shared between threads, reused for
+ * every page of results and used as a key for caching or de-duplicating requests. Two queries are
+ * equal when they are of the same type and have the same parameters.
+ */
 public abstract class Query {
 
+    /**
+     * @deprecated Unused. Pages are requested with {@link #page(int, int)} or a {@link Pager}.
+     */
+    @Deprecated
     protected int limit = 50;
+
+    /**
+     * @deprecated Unused. Pages are requested with {@link #page(int, int)} or a {@link Pager}.
+     */
+    @Deprecated
     protected int offset = 50;
 
+    private QueryParameters parameters;
+
+    /**
+     * For subclasses that only override {@link #createMap()}. Their parameters are read from it
+     * the first time they are needed.
+     */
+    protected Query() {
+    }
+
+    protected Query(QueryParameters parameters) {
+        this.parameters = parameters;
+    }
+
+    /**
+     * Gets the parameters of this query. The returned map is immutable and holds the plain values;
+     * use {@link #page(int, int)} to pass the parameters to the encoded QueryMap methods of
+     * {@link com.jlubecki.soundcloud.webapi.android.SoundCloudService}.
+     *
+     * @return The query parameters, without paging parameters.
+     */
+    public QueryParameters parameters() {
+        if (parameters == null) {
+            QueryParameters.Builder builder = new QueryParameters.Builder();
+
+            for (Map.Entry<String, String> entry : createMap().entrySet()) {
+                if (!Pager.LIMIT.equals(entry.getKey()) && !Pager.OFFSET.equals(entry.getKey())) {
+                    builder.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            parameters = builder.build();
+        }
+
+        return parameters;
+    }
+
+    /**
+     * Gets the encoded parameters of this query for a single page of results. The page shares the
+     * parameters of this query instead of copying them.
+     *
+     * @param limit  Number of results per page.
+     * @param offset Index of the first result to return.
+     * @return The query parameters with "limit" and "offset" added.
+     */
+    public QueryParameters.Page page(int limit, int offset) {
+        return parameters().page(limit, offset);
+    }
+
     /**
      * Creates a map that can be used as a QueryMap when querying the SoundCloud web API.
      *
-     * @return a map of query parameters and values.
+     * @return a new, mutable map of the plain query parameters and values, for the QueryMap methods
+     * that encode them, such as
+     * {@link com.jlubecki.soundcloud.webapi.android.SoundCloudService#searchTracks(HashMap)}.
+     * @deprecated Use {@link #parameters()} or {@link #page(int, int)}, which don't allocate a new
+     * map on every call.
      */
-    public abstract HashMap<String, String> createMap();
+    @Deprecated
+    public HashMap<String, String> createMap() {
+        return new HashMap<>(parameters != null ? parameters : QueryParameters.EMPTY);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o ||
+                o != null && getClass() == o.getClass() && parameters().equals(((Query) o).parameters());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * getClass().getName().hashCode() + parameters().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "{" + parameters().encoded() + "}";
+    }
 }
@@ -0,0 +1,364 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.query;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Immutable map of query parameters sorted by name. The parameters are converted to strings and
+ * URL encoded once, when the map is built, so the same instance can be passed to any number of
+ * calls, shared between threads and used as a cache key.
+ * <p/>
+ * The map itself holds the plain values. {@link #page(int, int)} returns a lightweight view of the
+ * encoded names and values with "limit" and "offset" added, without copying them. That view is
+ * what the {@code @QueryMap(encoded = true)} methods of
+ * {@link com.jlubecki.soundcloud.webapi.android.SoundCloudService} expect, so Retrofit appends the
+ * parameters as they are instead of encoding them again on every call.
+ */
+public final class QueryParameters extends AbstractMap<String, String> {
+
+    public static final QueryParameters EMPTY = new Builder().build();
+
+    private final String[] names;
+    private final String[] values;
+    private final String[] encodedNames;
+    private final String[] encodedValues;
+    private final String encoded;
+    private final int hashCode;
+
+    private Set<Entry<String, String>> entrySet;
+
+    private QueryParameters(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+        this.encodedNames = new String[names.length];
+        this.encodedValues = new String[values.length];
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < names.length; i++) {
+            encodedNames[i] = encode(names[i]);
+            encodedValues[i] = encode(values[i]);
+
+            if (i > 0) {
+                builder.append('&');
+            }
+
+            builder.append(encodedNames[i]).append('=').append(encodedValues[i]);
+        }
+
+        this.encoded = builder.toString();
+        this.hashCode = super.hashCode();
+    }
+
+    /**
+     * @return The parameters as an URL encoded query string, e.g. {@code "genres=rock&q=hello%20world"}.
+     */
+    public String encoded() {
+        return encoded;
+    }
+
+    /**
+     * Creates a view of the encoded parameters with paging parameters added.
+     *
+     * @param limit  Number of results per page.
+     * @param offset Index of the first result to return.
+     * @return A map of encoded names and values that can be used as an encoded QueryMap for one
+     * page of results.
+     */
+    public Page page(int limit, int offset) {
+        return new Page(this, String.valueOf(limit), String.valueOf(offset));
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return names.length;
+    }
+
+    @NonNull
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, String>>() {
+                @NonNull
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new EntryIterator(names.length) {
+                        @Override
+                        Entry<String, String> entry(int index) {
+                            return new SimpleImmutableEntry<>(names[index], values[index]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return names.length;
+                }
+            };
+        }
+
+        return entrySet;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o instanceof QueryParameters) {
+            QueryParameters other = (QueryParameters) o;
+
+            return hashCode == other.hashCode &&
+                    Arrays.equals(names, other.names) &&
+                    Arrays.equals(values, other.values);
+        }
+
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return encoded;
+    }
+
+    private int indexOf(Object key) {
+        return key instanceof String ? Arrays.binarySearch(names, key) : -1;
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e); // UTF-8 is always supported.
+        }
+    }
+
+    /**
+     * Collects parameters for a {@link QueryParameters} map. Parameters with a null value are
+     * skipped so optional fields can be added unconditionally.
+     */
+    public static class Builder {
+
+        private final TreeMap<String, String> parameters = new TreeMap<>();
+
+        public Builder put(@NonNull String name, @Nullable Object value) {
+            if (Pager.LIMIT.equals(name) || Pager.OFFSET.equals(name)) {
+                throw new IllegalArgumentException("Paging parameters are added with page(int, int).");
+            }
+
+            if (value != null) {
+                parameters.put(name, value.toString());
+            }
+
+            return this;
+        }
+
+        public Builder putAll(@NonNull Map<String, String> values) {
+            for (Entry<String, String> entry : values.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+
+            return this;
+        }
+
+        public QueryParameters build() {
+            String[] names = parameters.keySet().toArray(new String[parameters.size()]);
+            String[] values = parameters.values().toArray(new String[parameters.size()]);
+
+            return new QueryParameters(names, values);
+        }
+    }
+
+    /**
+     * A page of a {@link QueryParameters} map. Shares the encoded parameter arrays of its base map
+     * and inserts the paging parameters at their sorted positions while iterating. Keys and values
+     * are in their encoded form; the paging values are plain numbers, which need no encoding.
+     */
+    public static final class Page extends AbstractMap<String, String> {
+
+        private final QueryParameters base;
+        private final String limit;
+        private final String offset;
+        private final int limitIndex;
+        private final int offsetIndex;
+
+        private Set<Entry<String, String>> entrySet;
+
+        private Page(QueryParameters base, String limit, String offset) {
+            this.base = base;
+            this.limit = limit;
+            this.offset = offset;
+
+            // Positions of the paging entries once inserted. "limit" sorts before "offset".
+            this.limitIndex = insertionPoint(base.names, Pager.LIMIT);
+            this.offsetIndex = insertionPoint(base.names, Pager.OFFSET) + 1;
+        }
+
+        @Override
+        public String get(Object key) {
+            if (Pager.LIMIT.equals(key)) {
+                return limit;
+            } else if (Pager.OFFSET.equals(key)) {
+                return offset;
+            }
+
+            int index = indexOf(key);
+
+            return index >= 0 ? base.encodedValues[index] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return Pager.LIMIT.equals(key) || Pager.OFFSET.equals(key) || indexOf(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return base.size() + 2;
+        }
+
+        @NonNull
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Entry<String, String>>() {
+                    @NonNull
+                    @Override
+                    public Iterator<Entry<String, String>> iterator() {
+                        return new EntryIterator(size()) {
+                            @Override
+                            Entry<String, String> entry(int index) {
+                                if (index == limitIndex) {
+                                    return new SimpleImmutableEntry<>(Pager.LIMIT, limit);
+                                } else if (index == offsetIndex) {
+                                    return new SimpleImmutableEntry<>(Pager.OFFSET, offset);
+                                }
+
+                                int baseIndex = index;
+                                if (index > limitIndex) {
+                                    baseIndex--;
+                                }
+                                if (index > offsetIndex) {
+                                    baseIndex--;
+                                }
+
+                                return new SimpleImmutableEntry<>(base.encodedNames[baseIndex],
+                                        base.encodedValues[baseIndex]);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return Page.this.size();
+                    }
+                };
+            }
+
+            return entrySet;
+        }
+
+        /**
+         * Encoded names are not necessarily in the same order as the plain ones, so this is a
+         * linear scan. Query maps only hold a handful of parameters.
+         */
+        private int indexOf(Object key) {
+            for (int i = 0; i < base.encodedNames.length; i++) {
+                if (base.encodedNames[i].equals(key)) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        private static int insertionPoint(String[] names, String name) {
+            int index = Arrays.binarySearch(names, name);
+
+            return index >= 0 ? index : -index - 1;
+        }
+    }
+
+    private abstract static class EntryIterator implements Iterator<Entry<String, String>> {
+
+        private final int size;
+        private int next;
+
+        EntryIterator(int size) {
+            this.size = size;
+        }
+
+        abstract Entry<String, String> entry(int index);
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Entry<String, String> next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+
+            return entry(next++);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Query parameters are immutable.");
+        }
+    }
+}
@@ -28,32 +28,33 @@ import android.support.annotation.IntRange;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
-import java.util.HashMap;
-
 import static com.jlubecki.soundcloud.webapi.android.models.Track.Filter;
 import static com.jlubecki.soundcloud.webapi.android.models.Track.License;
 import static com.jlubecki.soundcloud.webapi.android.models.Track.Type;
 
 /**
- * Created by Jacob on 9/17/15.
+ * Immutable query for the "tracks" endpoint. Use with
+ * {@link com.jlubecki.soundcloud.webapi.android.SoundCloudService#searchTracks(QueryParameters.Page)}.
  */
 public class TrackQuery extends Query {
 
-    private String query;
-    private String tags;
-    private Filter filter;
-    private License license;
-    private int bpmFrom = -1;
-    private int bpmTo = -1;
-    private int durationFrom = -1;
-    private int durationTo = -1;
-    private String createdAtFrom;
-    private String createdAtTo;
-    private String ids;
-    private String genres;
-    private String types;
+    private final String query;
+    private final String[] tags;
+    private final Filter filter;
+    private final License license;
+    private final int bpmFrom;
+    private final int bpmTo;
+    private final int durationFrom;
+    private final int durationTo;
+    private final String createdAtFrom;
+    private final String createdAtTo;
+    private final String[] ids;
+    private final String[] genres;
+    private final Type[] types;
 
     private TrackQuery(Builder builder) {
+        super(encode(builder));
+
         query = builder.query;
         tags = builder.tags;
         filter = builder.filter;
@@ -69,81 +70,112 @@ public class TrackQuery extends Query {
         types = builder.types;
     }
 
-    /**
-     * Creates a hashmap that can be used to query the SoundCloud API for tracks.
-     *
-     * @return The map containing all query parameters specified by the TrackQuery {@link Builder}.
-     */
-    @Override
-    public HashMap<String, String> createMap() {
-
-        HashMap<String, String> queryMap = new HashMap<>();
+    private static QueryParameters encode(Builder builder) {
+        return new QueryParameters.Builder()
+                .put("q", builder.query)
+                .put("tags", join(builder.tags))
+                .put("filter", builder.filter)
+                .put("license", builder.license)
+                .put("bpm[from]", builder.bpmFrom != -1 ? builder.bpmFrom : null)
+                .put("bpm[to]", builder.bpmTo != -1 ? builder.bpmTo : null)
+                .put("duration[from]", builder.durationFrom != -1 ? builder.durationFrom : null)
+                .put("duration[to]", builder.durationTo != -1 ? builder.durationTo : null)
+                .put("created_at[from]", builder.createdAtFrom)
+                .put("created_at[to]", builder.createdAtTo)
+                .put("ids", join(builder.ids))
+                .put("genres", join(builder.genres))
+                .put("types", join(builder.types))
+                .build();
+    }
 
-        if (query != null) {
-            queryMap.put("q", query);
-        }
+    private static String join(Object[] values) {
+        return values != null ? TextUtils.join(", ", values) : null;
+    }
 
-        if (tags != null) {
-            queryMap.put("tags", tags);
-        }
+    @Nullable
+    public String getQuery() {
+        return query;
+    }
 
-        if (filter != null) {
-            queryMap.put("filter", filter.toString());
-        }
+    @Nullable
+    public String[] getTags() {
+        return tags != null ? tags.clone() : null;
+    }
 
-        if (license != null) {
-            queryMap.put("license", license.toString());
-        }
+    @Nullable
+    public Filter getFilter() {
+        return filter;
+    }
 
-        if (bpmFrom != -1) {
-            queryMap.put("bpm[from]", String.valueOf(bpmFrom));
-        }
+    @Nullable
+    public License getLicense() {
+        return license;
+    }
 
-        if (bpmTo != -1) {
-            queryMap.put("bpm[to]", String.valueOf(bpmTo));
-        }
+    /**
+     * @return The minimum bpm, or -1 if not set.
+     */
+    public int getBpmFrom() {
+        return bpmFrom;
+    }
 
-        if (durationFrom != -1) {
-            queryMap.put("duration[from]", String.valueOf(durationFrom));
-        }
+    /**
+     * @return The maximum bpm, or -1 if not set.
+     */
+    public int getBpmTo() {
+        return bpmTo;
+    }
 
-        if (durationTo != -1) {
-            queryMap.put("duration[to]", String.valueOf(durationTo));
-        }
+    /**
+     * @return The minimum duration, or -1 if not set.
+     */
+    public int getDurationFrom() {
+        return durationFrom;
+    }
 
-        if (createdAtFrom != null) {
-            queryMap.put("created_at[from]", createdAtFrom);
-        }
+    /**
+     * @return The maximum duration, or -1 if not set.
+     */
+    public int getDurationTo() {
+        return durationTo;
+    }
 
-        if (createdAtTo != null) {
-            queryMap.put("created_at[to]", createdAtTo);
-        }
+    @Nullable
+    public String getCreatedAtFrom() {
+        return createdAtFrom;
+    }
 
-        if (ids != null) {
-            queryMap.put("ids", ids);
-        }
+    @Nullable
+    public String getCreatedAtTo() {
+        return createdAtTo;
+    }
 
-        if (createdAtTo != null) {
-            queryMap.put("genres", genres);
-        }
+    @Nullable
+    public String[] getIds() {
+        return ids != null ? ids.clone() : null;
+    }
 
-        if (createdAtTo != null) {
-            queryMap.put("types", types);
-        }
+    @Nullable
+    public String[] getGenres() {
+        return genres != null ? genres.clone() : null;
+    }
 
-        if (queryMap.size() > 0) {
-            queryMap.put(Pager.LIMIT, String.valueOf(limit));
+    @Nullable
+    public Type[] getTypes() {
+        return types != null ? types.clone() : null;
+    }
 
-            return queryMap;
-        } else {
-            return null;
-        }
+    /**
+     * @return A builder initialized with the values of this query, for deriving similar queries.
+     */
+    public Builder newBuilder() {
+        return new Builder(this);
     }
 
     public static class Builder {
 
         private String query;
-        private String tags;
+        private String[] tags;
         private Filter filter;
         private License license;
         private int bpmFrom = -1;
@@ -152,9 +184,28 @@ public class TrackQuery extends Query {
         private int durationTo = -1;
         private String createdAtFrom;
         private String createdAtTo;
-        private String ids;
-        private String genres;
-        private String types;
+        private String[] ids;
+        private String[] genres;
+        private Type[] types;
+
+        public Builder() {
+        }
+
+        private Builder(TrackQuery source) {
+            query = source.query;
+            tags = source.tags;
+            filter = source.filter;
+            license = source.license;
+            bpmFrom = source.bpmFrom;
+            bpmTo = source.bpmTo;
+            durationFrom = source.durationFrom;
+            durationTo = source.durationTo;
+            createdAtFrom = source.createdAtFrom;
+            createdAtTo = source.createdAtTo;
+            ids = source.ids;
+            genres = source.genres;
+            types = source.types;
+        }
 
         public Builder setQuery(String query) {
             this.query = query;
@@ -163,7 +214,7 @@ public class TrackQuery extends Query {
         }
 
         public Builder setTags(String... tagArray) {
-            this.tags = TextUtils.join(", ", tagArray);
+            this.tags = tagArray.clone();
 
             return this;
         }
@@ -181,7 +232,7 @@ public class TrackQuery extends Query {
         }
 
         public Builder setTypes(Type... types) {
-            this.types = TextUtils.join(", ", types);
+            this.types = types.clone();
 
             return this;
         }
@@ -232,13 +283,13 @@ public class TrackQuery extends Query {
          * @return The instance of the builder that was just updated.
          */
         public Builder setIds(String... ids) {
-            this.ids = TextUtils.join(", ", ids);
+            this.ids = ids.clone();
 
             return this;
         }
 
         public Builder setGenres(String... genres) {
-            this.genres = TextUtils.join(", ", genres);
+            this.genres = genres.clone();
 
             return this;
         }
@@ -0,0 +1,209 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.query;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.cache.TrimLevel;
+import com.jlubecki.soundcloud.webapi.android.cache.Trimmable;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Caches the results of {@link TrackQuery} searches and answers narrower queries locally. A query
+ * is answered without a network call when it was cached itself, or when a cached query with a
+ * complete result set {@link TrackQueryMatcher#subsumes(TrackQuery, TrackQuery) subsumes} it. In
+ * the latter case the cached tracks are filtered with {@link TrackQueryMatcher}.
+ * <p/>
+ * A result set is complete when it holds every track matching its query, which is the case when
+ * the API returned fewer tracks than the page size.
+ */
+public class TrackQueryCache implements Trimmable {
+
+    public static final int SIZE_DEFAULT = 64;
+    public static final long TTL_DEFAULT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<TrackQuery, CachedResult> entries;
+
+    private int localHits;
+
+    public TrackQueryCache() {
+        this(SIZE_DEFAULT, TTL_DEFAULT_MILLIS);
+    }
+
+    /**
+     * @param maxEntries Number of result sets to keep. The least recently used is evicted first.
+     * @param ttlMillis  How long a result set is used for, in milliseconds.
+     */
+    public TrackQueryCache(@IntRange(from = 1) final int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<TrackQuery, CachedResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<TrackQuery, CachedResult> eldest) {
+                return size() > TrackQueryCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Stores the results of a query.
+     *
+     * @param query    The query the tracks were fetched for.
+     * @param tracks   The tracks returned by the API.
+     * @param complete Whether the tracks are every match of the query rather than the first page.
+     */
+    public synchronized void put(@NonNull TrackQuery query, @NonNull List<Track> tracks, boolean complete) {
+        entries.put(query, new CachedResult(tracks, complete, System.nanoTime()));
+    }
+
+    /**
+     * Answers a query from the cache.
+     *
+     * @param query The query to answer.
+     * @return The matching tracks, or null if the query cannot be answered locally.
+     */
+    @Nullable
+    public synchronized List<Track> get(@NonNull TrackQuery query) {
+        long now = System.nanoTime();
+        CachedResult exact = entries.get(query);
+
+        if (exact != null) {
+            if (now - exact.time <= ttlNanos) {
+                localHits++;
+                return exact.tracks;
+            }
+
+            entries.remove(query);
+        }
+
+        Iterator<Map.Entry<TrackQuery, CachedResult>> iterator = entries.entrySet().iterator();
+
+        while (iterator.hasNext()) {
+            Map.Entry<TrackQuery, CachedResult> cached = iterator.next();
+            CachedResult entry = cached.getValue();
+
+            if (now - entry.time > ttlNanos) {
+                iterator.remove();
+            } else if (entry.complete && TrackQueryMatcher.subsumes(cached.getKey(), query)) {
+                List<Track> tracks = TrackQueryMatcher.filter(query, entry.tracks);
+
+                // Remember the narrowed result, it is complete as well.
+                entries.put(query, new CachedResult(tracks, true, entry.time));
+                localHits++;
+
+                return Collections.unmodifiableList(tracks);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Answers a query from the cache if possible, or fetches the first page of results from the
+     * API and caches them. Blocks while the request is made.
+     *
+     * @param service  The service to query on a cache miss.
+     * @param query    The query to answer.
+     * @param pageSize Number of tracks to request.
+     * @return The matching tracks.
+     * @throws IOException if the request failed.
+     */
+    public List<Track> search(@NonNull SoundCloudService service, @NonNull TrackQuery query,
+                              @IntRange(from = 1, to = 200) int pageSize) throws IOException {
+        List<Track> cached = get(query);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        Call<List<Track>> call = service.searchTracks(query.page(pageSize, 0));
+        Response<List<Track>> response = call.execute();
+
+        if (!response.isSuccessful()) {
+            throw new IOException("Track search failed with HTTP " + response.code());
+        }
+
+        List<Track> tracks = response.body() != null ? response.body() : Collections.<Track>emptyList();
+        put(query, tracks, tracks.size() < pageSize);
+
+        return tracks;
+    }
+
+    /**
+     * @return How many queries were answered without a network call.
+     */
+    public synchronized int getLocalHitCount() {
+        return localHits;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Drops the least recently used result sets down to a share of the maximum number of entries.
+     *
+     * @param level How much memory to give back.
+     */
+    @Override
+    public synchronized void trim(@NonNull TrimLevel level) {
+        long budget = level.apply(maxEntries);
+        Iterator<CachedResult> eldest = entries.values().iterator();
+
+        while (entries.size() > budget && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private static class CachedResult {
+
+        final List<Track> tracks;
+        final boolean complete;
+        final long time;
+
+        CachedResult(List<Track> tracks, boolean complete, long time) {
+            this.tracks = Collections.unmodifiableList(tracks);
+            this.complete = complete;
+            this.time = time;
+        }
+    }
+}
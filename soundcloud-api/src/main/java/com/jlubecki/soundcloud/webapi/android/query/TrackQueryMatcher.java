@@ -0,0 +1,305 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.query;
+
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Evaluates the filters of a {@link TrackQuery} against tracks that are already in memory, and
+ * decides whether the results of one query are guaranteed to contain the results of another.
+ * <p/>
+ * The free text parameter "q" is matched by the API with its own relevance rules, so it is never
+ * evaluated locally. A query can only be answered from another one with the same text.
+ */
+public final class TrackQueryMatcher {
+
+    private static final int DATE_DIGITS = "yyyymmddhhmmss".length();
+
+    private TrackQueryMatcher() {
+    }
+
+    /**
+     * Checks whether a track satisfies every filter of a query except its search text.
+     *
+     * @param query The query whose filters to apply.
+     * @param track The track to check.
+     * @return true if the track passes all filters.
+     */
+    public static boolean matches(@NonNull TrackQuery query, @NonNull Track track) {
+        if (!inRange(parseNumber(track.bpm), query.getBpmFrom(), query.getBpmTo())) {
+            return false;
+        }
+
+        if (!inRange(parseNumber(track.duration), query.getDurationFrom(), query.getDurationTo())) {
+            return false;
+        }
+
+        if (query.getCreatedAtFrom() != null || query.getCreatedAtTo() != null) {
+            String created = normalizeDate(track.created_at);
+
+            if (created == null ||
+                    query.getCreatedAtFrom() != null && created.compareTo(normalizeDate(query.getCreatedAtFrom())) < 0 ||
+                    query.getCreatedAtTo() != null && created.compareTo(normalizeDate(query.getCreatedAtTo())) > 0) {
+                return false;
+            }
+        }
+
+        if (query.getLicense() != null && !query.getLicense().toString().equals(track.license)) {
+            return false;
+        }
+
+        if (query.getFilter() != null && query.getFilter() != Track.Filter.ALL &&
+                !query.getFilter().toString().equals(track.sharing)) {
+            return false;
+        }
+
+        if (query.getIds() != null && !Arrays.asList(query.getIds()).contains(track.id)) {
+            return false;
+        }
+
+        if (query.getGenres() != null && !lowerCase(query.getGenres()).contains(lowerCase(track.genre))) {
+            return false;
+        }
+
+        if (query.getTypes() != null && !lowerCase(query.getTypes()).contains(lowerCase(track.track_type))) {
+            return false;
+        }
+
+        if (query.getTags() != null) {
+            Set<String> tags = lowerCase(query.getTags());
+            boolean tagged = false;
+
+            for (String tag : parseTags(track.tags_list)) {
+                if (tags.contains(tag)) {
+                    tagged = true;
+                    break;
+                }
+            }
+
+            if (!tagged) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Applies {@link #matches(TrackQuery, Track)} to a list of tracks, keeping their order.
+     *
+     * @param query  The query whose filters to apply.
+     * @param tracks The tracks to filter.
+     * @return A new list containing the tracks that pass all filters.
+     */
+    public static List<Track> filter(@NonNull TrackQuery query, @NonNull List<Track> tracks) {
+        List<Track> matching = new ArrayList<>();
+
+        for (Track track : tracks) {
+            if (track != null && matches(query, track)) {
+                matching.add(track);
+            }
+        }
+
+        return matching;
+    }
+
+    /**
+     * Checks whether every track returned for {@code narrow} is also returned for {@code broad}.
+     * This is the case when both queries search for the same text and each filter of
+     * {@code broad} is unset or at least as permissive as the matching filter of {@code narrow}.
+     *
+     * @param broad  The query that may contain the other.
+     * @param narrow The query that may be contained.
+     * @return true if the results of {@code narrow} are provably a subset of those of {@code broad}.
+     */
+    public static boolean subsumes(@NonNull TrackQuery broad, @NonNull TrackQuery narrow) {
+        if (!equal(broad.getQuery(), narrow.getQuery())) {
+            return false;
+        }
+
+        if (!containsRange(broad.getBpmFrom(), broad.getBpmTo(), narrow.getBpmFrom(), narrow.getBpmTo()) ||
+                !containsRange(broad.getDurationFrom(), broad.getDurationTo(),
+                        narrow.getDurationFrom(), narrow.getDurationTo())) {
+            return false;
+        }
+
+        if (!containsDates(broad.getCreatedAtFrom(), narrow.getCreatedAtFrom(), true) ||
+                !containsDates(broad.getCreatedAtTo(), narrow.getCreatedAtTo(), false)) {
+            return false;
+        }
+
+        if (broad.getLicense() != null && broad.getLicense() != narrow.getLicense()) {
+            return false;
+        }
+
+        if (broad.getFilter() != null && broad.getFilter() != Track.Filter.ALL &&
+                broad.getFilter() != narrow.getFilter()) {
+            return false;
+        }
+
+        return containsAll(broad.getIds(), narrow.getIds()) &&
+                containsAll(broad.getGenres(), narrow.getGenres()) &&
+                containsAll(broad.getTypes(), narrow.getTypes()) &&
+                containsAll(broad.getTags(), narrow.getTags());
+    }
+
+    private static boolean inRange(double value, int from, int to) {
+        if (from == -1 && to == -1) {
+            return true;
+        }
+
+        return !Double.isNaN(value) && (from == -1 || value >= from) && (to == -1 || value <= to);
+    }
+
+    private static boolean containsRange(int broadFrom, int broadTo, int narrowFrom, int narrowTo) {
+        boolean lower = broadFrom == -1 || narrowFrom != -1 && narrowFrom >= broadFrom;
+        boolean upper = broadTo == -1 || narrowTo != -1 && narrowTo <= broadTo;
+
+        return lower && upper;
+    }
+
+    private static boolean containsDates(String broad, String narrow, boolean isLowerBound) {
+        if (broad == null) {
+            return true;
+        }
+
+        if (narrow == null) {
+            return false;
+        }
+
+        int comparison = normalizeDate(narrow).compareTo(normalizeDate(broad));
+
+        return isLowerBound ? comparison >= 0 : comparison <= 0;
+    }
+
+    private static boolean containsAll(Object[] broad, Object[] narrow) {
+        if (broad == null) {
+            return true;
+        }
+
+        return narrow != null && lowerCase(broad).containsAll(lowerCase(narrow));
+    }
+
+    private static double parseNumber(String value) {
+        if (value == null) {
+            return Double.NaN;
+        }
+
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Reduces dates to their digits so that query dates ("2016-01-31 23:59:59") and API dates
+     * ("2016/01/31 23:59:59 +0000") compare correctly as strings. Missing time digits are padded
+     * with zeros.
+     */
+    static String normalizeDate(String date) {
+        if (date == null) {
+            return null;
+        }
+
+        StringBuilder digits = new StringBuilder(DATE_DIGITS);
+
+        for (int i = 0; i < date.length() && digits.length() < DATE_DIGITS; i++) {
+            char c = date.charAt(i);
+
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+
+        while (digits.length() < DATE_DIGITS) {
+            digits.append('0');
+        }
+
+        return digits.toString();
+    }
+
+    /**
+     * Splits a tag list on spaces, keeping double quoted multiword tags together.
+     */
+    static List<String> parseTags(String tagList) {
+        List<String> tags = new ArrayList<>();
+
+        if (tagList == null) {
+            return tags;
+        }
+
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < tagList.length(); i++) {
+            char c = tagList.charAt(i);
+
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ' ' && !quoted) {
+                if (current.length() > 0) {
+                    tags.add(current.toString().toLowerCase(Locale.US));
+                    current.setLength(0);
+                }
+            } else {
+                current.append(c);
+            }
+        }
+
+        if (current.length() > 0) {
+            tags.add(current.toString().toLowerCase(Locale.US));
+        }
+
+        return tags;
+    }
+
+    private static Set<String> lowerCase(Object[] values) {
+        Set<String> set = new HashSet<>();
+
+        for (Object value : values) {
+            set.add(lowerCase(value.toString()));
+        }
+
+        return set;
+    }
+
+    private static String lowerCase(String value) {
+        return value != null ? value.trim().toLowerCase(Locale.US) : null;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.search;
+
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory full-text index over tracks that have already been fetched, so they can be searched
+ * without a network round trip. Indexes the title, tags, genre, description and uploader's
+ * username of each track.
+ * <p/>
+ * Every term of a query must match. The last term also matches as a prefix unless the query ends
+ * with a space, which makes the index suitable for search-as-you-type. Matches are ranked by which
+ * fields they were found in, with titles weighing the most.
+ * <p/>
+ * Tracks can be added at any time, for instance from the callbacks of {@code getMyFavorites} or
+ * {@code getUserTracks}. Adding a track with an ID that is already indexed replaces it. The index
+ * is safe to use from several threads.
+ */
+public class TrackIndex {
+
+    private static final int TITLE_WEIGHT = 8;
+    private static final int USERNAME_WEIGHT = 4;
+    private static final int GENRE_WEIGHT = 3;
+    private static final int TAGS_WEIGHT = 2;
+    private static final int DESCRIPTION_WEIGHT = 1;
+
+    /**
+     * Removed documents are only dropped from posting lists once there are at least this many of
+     * them and they make up at least half of the documents, at which point the index is rebuilt.
+     */
+    private static final int COMPACT_MIN_REMOVED = 64;
+
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final List<Track> documents = new ArrayList<>();
+    private final Map<String, Integer> documentIds = new HashMap<>();
+    private int removedCount;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Adds a track to the index, replacing any track with the same ID. Tracks without an ID are
+     * ignored.
+     *
+     * @param track The track to index.
+     */
+    public void add(@NonNull Track track) {
+        lock.writeLock().lock();
+
+        try {
+            addLocked(track);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds every track in a response to the index.
+     *
+     * @param tracks The tracks to index. May be null, for convenience when passing a response body.
+     */
+    public void addAll(Collection<Track> tracks) {
+        if (tracks == null) {
+            return;
+        }
+
+        lock.writeLock().lock();
+
+        try {
+            for (Track track : tracks) {
+                if (track != null) {
+                    addLocked(track);
+                }
+            }
+
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the track with the given ID from the index.
+     *
+     * @param trackId ID of the track to remove.
+     * @return Whether a track was removed.
+     */
+    public boolean remove(String trackId) {
+        lock.writeLock().lock();
+
+        try {
+            Integer document = documentIds.remove(trackId);
+
+            if (document == null) {
+                return false;
+            }
+
+            documents.set(document, null);
+            removedCount++;
+            compactIfNeeded();
+
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The number of tracks in the index.
+     */
+    public int size() {
+        lock.readLock().lock();
+
+        try {
+            return documentIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches the indexed tracks.
+     *
+     * @param query The search text.
+     * @param limit Maximum number of tracks to return.
+     * @return The matching tracks, best matches first.
+     */
+    public List<Track> search(@NonNull String query, int limit) {
+        List<String> tokens = tokenize(query);
+
+        if (tokens.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        boolean lastIsPrefix = !Character.isWhitespace(query.charAt(query.length() - 1));
+
+        lock.readLock().lock();
+
+        try {
+            List<Postings> lists = new ArrayList<>(tokens.size());
+
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                Postings postings = i == tokens.size() - 1 && lastIsPrefix
+                        ? prefixPostings(token)
+                        : terms.get(token);
+
+                if (postings == null || postings.size == 0) {
+                    return new ArrayList<>();
+                }
+
+                lists.add(postings);
+            }
+
+            // Intersect the shortest lists first to keep the candidate set small.
+            Collections.sort(lists, new Comparator<Postings>() {
+                @Override
+                public int compare(Postings a, Postings b) {
+                    return a.size - b.size;
+                }
+            });
+
+            Postings matches = lists.get(0);
+            for (int i = 1; i < lists.size() && matches.size > 0; i++) {
+                matches = matches.intersect(lists.get(i));
+            }
+
+            return topTracks(matches, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Suggests indexed terms that start with a prefix, most common first.
+     *
+     * @param prefix The start of the term.
+     * @param limit  Maximum number of terms to return.
+     * @return The matching terms.
+     */
+    public List<String> complete(@NonNull String prefix, int limit) {
+        final String normalized = prefix.trim().toLowerCase(Locale.US);
+        List<String> completions = new ArrayList<>();
+
+        if (normalized.isEmpty() || limit <= 0) {
+            return completions;
+        }
+
+        lock.readLock().lock();
+
+        try {
+            final Map<String, Postings> range = prefixRange(normalized);
+            completions.addAll(range.keySet());
+
+            Collections.sort(completions, new Comparator<String>() {
+                @Override
+                public int compare(String a, String b) {
+                    return range.get(b).size - range.get(a).size;
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return completions.size() > limit ? completions.subList(0, limit) : completions;
+    }
+
+    /**
+     * Adds remote search results to the index and combines them with the local results for the
+     * same query. Local matches come first, followed by remote results that did not match locally,
+     * without duplicates.
+     *
+     * @param query  The search text the remote results were fetched for.
+     * @param remote The tracks returned by the API.
+     * @param limit  Maximum number of tracks to return.
+     * @return The merged results.
+     */
+    public List<Track> merge(@NonNull String query, List<Track> remote, int limit) {
+        addAll(remote);
+
+        List<Track> merged = search(query, limit);
+
+        if (remote != null && merged.size() < limit) {
+            Set<String> seen = new HashSet<>();
+            for (Track track : merged) {
+                seen.add(track.id);
+            }
+
+            for (Track track : remote) {
+                if (merged.size() >= limit) {
+                    break;
+                }
+
+                if (track != null && seen.add(track.id)) {
+                    merged.add(track);
+                }
+            }
+        }
+
+        return merged;
+    }
+
+    private void addLocked(Track track) {
+        if (track.id == null) {
+            return;
+        }
+
+        Integer previous = documentIds.get(track.id);
+        if (previous != null) {
+            documents.set(previous, null);
+            removedCount++;
+        }
+
+        int document = documents.size();
+        documents.add(track);
+        documentIds.put(track.id, document);
+
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        weigh(weights, track.title, TITLE_WEIGHT);
+        weigh(weights, track.user != null ? track.user.username : null, USERNAME_WEIGHT);
+        weigh(weights, track.genre, GENRE_WEIGHT);
+        weigh(weights, track.tags_list, TAGS_WEIGHT);
+        weigh(weights, track.description, DESCRIPTION_WEIGHT);
+
+        for (Map.Entry<String, Integer> entry : weights.entrySet()) {
+            Postings postings = terms.get(entry.getKey());
+
+            if (postings == null) {
+                postings = new Postings(2);
+                terms.put(entry.getKey(), postings);
+            }
+
+            postings.add(document, entry.getValue());
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (removedCount < COMPACT_MIN_REMOVED || removedCount * 2 < documents.size()) {
+            return;
+        }
+
+        List<Track> live = new ArrayList<>(documentIds.size());
+        for (Track track : documents) {
+            if (track != null) {
+                live.add(track);
+            }
+        }
+
+        terms.clear();
+        documents.clear();
+        documentIds.clear();
+        removedCount = 0;
+
+        for (Track track : live) {
+            addLocked(track);
+        }
+    }
+
+    private SortedMap<String, Postings> prefixRange(String prefix) {
+        return terms.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    private Postings prefixPostings(String prefix) {
+        SortedMap<String, Postings> range = prefixRange(prefix);
+
+        if (range.size() == 1) {
+            return range.values().iterator().next();
+        }
+
+        return Postings.union(range.values());
+    }
+
+    private List<Track> topTracks(Postings matches, int limit) {
+        List<long[]> ranked = new ArrayList<>(matches.size);
+
+        for (int i = 0; i < matches.size; i++) {
+            if (documents.get(matches.documents[i]) != null) {
+                ranked.add(new long[]{matches.scores[i], matches.documents[i]});
+            }
+        }
+
+        Collections.sort(ranked, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                if (a[0] != b[0]) {
+                    return a[0] > b[0] ? -1 : 1;
+                }
+
+                return a[1] < b[1] ? -1 : (a[1] == b[1] ? 0 : 1);
+            }
+        });
+
+        List<Track> tracks = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            tracks.add(documents.get((int) ranked.get(i)[1]));
+        }
+
+        return tracks;
+    }
+
+    private static void weigh(Map<String, Integer> weights, String text, int weight) {
+        if (text == null) {
+            return;
+        }
+
+        for (String token : tokenize(text)) {
+            Integer current = weights.get(token);
+            weights.put(token, current == null ? weight : current + weight);
+        }
+    }
+
+    /**
+     * Splits text into lower case runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        String lower = text.toLowerCase(Locale.US);
+        int start = -1;
+
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                start = -1;
+            }
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Document IDs in ascending order with the score of the term in each document.
+     */
+    private static class Postings {
+
+        int[] documents;
+        int[] scores;
+        int size;
+
+        Postings(int capacity) {
+            documents = new int[capacity];
+            scores = new int[capacity];
+        }
+
+        void add(int document, int score) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+
+            documents[size] = document;
+            scores[size] = score;
+            size++;
+        }
+
+        Postings intersect(Postings other) {
+            Postings result = new Postings(Math.max(1, Math.min(size, other.size)));
+            int i = 0;
+            int j = 0;
+
+            while (i < size && j < other.size) {
+                if (documents[i] < other.documents[j]) {
+                    i++;
+                } else if (documents[i] > other.documents[j]) {
+                    j++;
+                } else {
+                    result.add(documents[i], scores[i] + other.scores[j]);
+                    i++;
+                    j++;
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Merges any number of lists in one pass, with a heap over the next document of each list.
+         * Documents found in several lists keep the highest score, since a prefix matching several
+         * terms in one document should not outrank an exact title match.
+         */
+        static Postings union(Collection<Postings> lists) {
+            int total = 0;
+            PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, lists.size()));
+
+            for (Postings postings : lists) {
+                if (postings.size > 0) {
+                    total += postings.size;
+                    heap.add(new Cursor(postings));
+                }
+            }
+
+            Postings result = new Postings(Math.max(1, total));
+
+            while (!heap.isEmpty()) {
+                Cursor cursor = heap.poll();
+                int document = cursor.document();
+                int score = cursor.score();
+
+                if (result.size > 0 && result.documents[result.size - 1] == document) {
+                    int last = result.size - 1;
+                    result.scores[last] = Math.max(result.scores[last], score);
+                } else {
+                    result.add(document, score);
+                }
+
+                if (cursor.advance()) {
+                    heap.add(cursor);
+                }
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Position in a {@link Postings} list, ordered by the document it points at.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+
+        private final Postings postings;
+        private int position;
+
+        Cursor(Postings postings) {
+            this.postings = postings;
+        }
+
+        int document() {
+            return postings.documents[position];
+        }
+
+        int score() {
+            return postings.scores[position];
+        }
+
+        boolean advance() {
+            return ++position < postings.size;
+        }
+
+        @Override
+        public int compareTo(@NonNull Cursor other) {
+            int a = document();
+            int b = other.document();
+
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+    }
+}
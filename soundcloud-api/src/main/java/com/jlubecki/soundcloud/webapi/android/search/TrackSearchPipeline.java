@@ -0,0 +1,392 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.search;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.IntRange;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.query.Pager;
+import com.jlubecki.soundcloud.webapi.android.query.TrackQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Turns a stream of search strings, such as the contents of a search box, into track results.
+ * <ul>
+ * <li>Input is debounced, so only a pause in typing triggers a search.</li>
+ * <li>A new search cancels the call of the search it replaces.</li>
+ * <li>Repeating the query that is in flight or was last delivered does nothing.</li>
+ * <li>Recent results are cached for a short time. When an earlier query is a prefix of the new
+ * one and returned every match, the new query is answered by filtering those results locally.</li>
+ * <li>Results are only delivered for the latest input, so a slow response never overwrites the
+ * results of a newer query.</li>
+ * </ul>
+ * All methods must be called on the main thread, where the {@link Listener} is notified as well.
+ */
+public class TrackSearchPipeline {
+
+    public static final long DEBOUNCE_DEFAULT_MILLIS = 300;
+    public static final long CACHE_TTL_DEFAULT_MILLIS = 60 * 1000;
+    public static final int CACHE_SIZE_DEFAULT = 32;
+
+    private final SoundCloudService service;
+    private final Listener listener;
+    private final long debounceMillis;
+    private final long cacheTtlMillis;
+    private final int pageSize;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<String, CachedResult> cache;
+
+    private final Runnable debounced = new Runnable() {
+        @Override
+        public void run() {
+            search(latestInput);
+        }
+    };
+
+    private String latestInput = "";
+    private String inFlightQuery;
+    private String deliveredQuery;
+    private Call<List<Track>> inFlight;
+
+    private TrackSearchPipeline(Builder builder) {
+        service = builder.service;
+        listener = builder.listener;
+        debounceMillis = builder.debounceMillis;
+        cacheTtlMillis = builder.cacheTtlMillis;
+        pageSize = builder.pageSize;
+
+        final int cacheSize = builder.cacheSize;
+        cache = new LinkedHashMap<String, CachedResult>(cacheSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Reports new input. A search starts once the input stops changing for the debounce period.
+     * Suitable for calling from {@link android.text.TextWatcher#afterTextChanged(android.text.Editable)}.
+     *
+     * @param text The current search text.
+     */
+    @MainThread
+    public void onQueryChanged(@NonNull CharSequence text) {
+        latestInput = normalize(text);
+
+        handler.removeCallbacks(debounced);
+        handler.postDelayed(debounced, debounceMillis);
+    }
+
+    /**
+     * Searches immediately, skipping the debounce period.
+     *
+     * @param text The search text.
+     */
+    @MainThread
+    public void search(@NonNull CharSequence text) {
+        handler.removeCallbacks(debounced);
+
+        final String query = normalize(text);
+        latestInput = query;
+
+        if (query.equals(inFlightQuery) || inFlightQuery == null && query.equals(deliveredQuery)) {
+            return; // Identical to what is being fetched or already shown.
+        }
+
+        cancelInFlight();
+
+        if (query.isEmpty()) {
+            deliver(query, Collections.<Track>emptyList(), true);
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        CachedResult exact = fresh(query, now);
+
+        if (exact != null) {
+            deliver(query, exact.tracks, true);
+            return;
+        }
+
+        CachedResult prefix = findPrefix(query, now);
+
+        if (prefix != null) {
+            List<Track> refined = refine(prefix.tracks, query);
+
+            if (prefix.complete) {
+                cache.put(query, new CachedResult(refined, true, prefix.time));
+                deliver(query, refined, true);
+                return;
+            }
+
+            // Show the locally refined results while the full results load.
+            listener.onSearchResults(query, refined, true);
+        }
+
+        TrackQuery trackQuery = new TrackQuery.Builder()
+                .setQuery(query)
+                .build();
+
+        inFlightQuery = query;
+        inFlight = service.searchTracks(trackQuery.page(pageSize, 0));
+        inFlight.enqueue(new Callback<List<Track>>() {
+            @Override
+            public void onResponse(Call<List<Track>> call, Response<List<Track>> response) {
+                if (call.isCanceled() || !query.equals(inFlightQuery)) {
+                    return;
+                }
+
+                inFlight = null;
+                inFlightQuery = null;
+
+                if (!response.isSuccessful()) {
+                    listener.onSearchFailed(query,
+                            new IllegalStateException("Search failed with HTTP " + response.code()));
+                    return;
+                }
+
+                List<Track> tracks = response.body() != null ? response.body() : Collections.<Track>emptyList();
+                cache.put(query, new CachedResult(tracks, tracks.size() < pageSize, SystemClock.elapsedRealtime()));
+
+                deliver(query, tracks, false);
+            }
+
+            @Override
+            public void onFailure(Call<List<Track>> call, Throwable t) {
+                if (call.isCanceled() || !query.equals(inFlightQuery)) {
+                    return;
+                }
+
+                inFlight = null;
+                inFlightQuery = null;
+
+                listener.onSearchFailed(query, t);
+            }
+        });
+    }
+
+    /**
+     * Cancels any pending or running search and empties the cache.
+     */
+    @MainThread
+    public void release() {
+        handler.removeCallbacks(debounced);
+        cancelInFlight();
+        cache.clear();
+        deliveredQuery = null;
+    }
+
+    private void cancelInFlight() {
+        if (inFlight != null) {
+            inFlight.cancel();
+            inFlight = null;
+        }
+
+        inFlightQuery = null;
+    }
+
+    private void deliver(String query, List<Track> tracks, boolean fromCache) {
+        deliveredQuery = query;
+        listener.onSearchResults(query, tracks, fromCache);
+    }
+
+    private CachedResult fresh(String query, long now) {
+        CachedResult result = cache.get(query);
+
+        if (result != null && now - result.time > cacheTtlMillis) {
+            cache.remove(query);
+            return null;
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds the freshest cached result for the longest prefix of the query, preferring complete
+     * results.
+     */
+    private CachedResult findPrefix(String query, long now) {
+        CachedResult best = null;
+        int bestLength = -1;
+
+        for (Map.Entry<String, CachedResult> entry : cache.entrySet()) {
+            String cached = entry.getKey();
+            CachedResult result = entry.getValue();
+
+            if (now - result.time > cacheTtlMillis || cached.isEmpty() || !query.startsWith(cached)) {
+                continue;
+            }
+
+            boolean better = best == null ||
+                    result.complete && !best.complete ||
+                    result.complete == best.complete && cached.length() > bestLength;
+
+            if (better) {
+                best = result;
+                bestLength = cached.length();
+            }
+        }
+
+        return best;
+    }
+
+    private static List<Track> refine(List<Track> tracks, String query) {
+        String[] terms = query.split(" ");
+        List<Track> refined = new ArrayList<>();
+
+        for (Track track : tracks) {
+            String text = searchableText(track);
+            boolean matches = true;
+
+            for (String term : terms) {
+                if (!text.contains(term)) {
+                    matches = false;
+                    break;
+                }
+            }
+
+            if (matches) {
+                refined.add(track);
+            }
+        }
+
+        return refined;
+    }
+
+    private static String searchableText(Track track) {
+        StringBuilder builder = new StringBuilder();
+
+        append(builder, track.title);
+        append(builder, track.user != null ? track.user.username : null);
+        append(builder, track.genre);
+        append(builder, track.tags_list);
+
+        return builder.toString().toLowerCase(Locale.US);
+    }
+
+    private static void append(StringBuilder builder, String value) {
+        if (value != null) {
+            builder.append(value).append(' ');
+        }
+    }
+
+    private static String normalize(CharSequence text) {
+        return text.toString().trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+    }
+
+    private static class CachedResult {
+
+        final List<Track> tracks;
+        final boolean complete;
+        final long time;
+
+        CachedResult(List<Track> tracks, boolean complete, long time) {
+            this.tracks = Collections.unmodifiableList(tracks);
+            this.complete = complete;
+            this.time = time;
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * Called with the results for the latest query.
+         *
+         * @param query     The normalized query the results belong to.
+         * @param tracks    The matching tracks.
+         * @param fromCache Whether the results were served or refined from the local cache. Refined
+         *                  results of an incomplete cached result are followed by the network results.
+         */
+        void onSearchResults(String query, List<Track> tracks, boolean fromCache);
+
+        void onSearchFailed(String query, Throwable throwable);
+    }
+
+    public static class Builder {
+
+        private final SoundCloudService service;
+        private final Listener listener;
+        private long debounceMillis = DEBOUNCE_DEFAULT_MILLIS;
+        private long cacheTtlMillis = CACHE_TTL_DEFAULT_MILLIS;
+        private int cacheSize = CACHE_SIZE_DEFAULT;
+        private int pageSize = Pager.LIMIT_DEFAULT;
+
+        public Builder(@NonNull SoundCloudService service, @NonNull Listener listener) {
+            this.service = service;
+            this.listener = listener;
+        }
+
+        public Builder setDebounce(long debounceMillis) {
+            this.debounceMillis = debounceMillis;
+
+            return this;
+        }
+
+        /**
+         * Sets how long results are reused for identical or refined queries.
+         *
+         * @param cacheTtlMillis Time to live of cached results, in milliseconds.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setCacheTtl(long cacheTtlMillis) {
+            this.cacheTtlMillis = cacheTtlMillis;
+
+            return this;
+        }
+
+        public Builder setCacheSize(@IntRange(from = 1) int cacheSize) {
+            this.cacheSize = cacheSize;
+
+            return this;
+        }
+
+        public Builder setPageSize(@IntRange(from = 1, to = 200) int pageSize) {
+            this.pageSize = pageSize;
+
+            return this;
+        }
+
+        public TrackSearchPipeline build() {
+            return new TrackSearchPipeline(this);
+        }
+    }
+}
@@ -0,0 +1,584 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.stream;
+
+import android.media.AudioManager;
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntRange;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.util.RateLimiter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import retrofit2.Response;
+
+/**
+ * Plays a list of tracks one after another through a {@link StreamProxy}, without a pause between
+ * them:
+ * <ul>
+ * <li>While a track plays, the first seconds of the next tracks are fetched into the stream cache
+ * in the background. Tracks without a stream_url are resolved first.</li>
+ * <li>Once the next track is cached, a second player prepares it from the cache and is handed to
+ * the current one with {@link MediaPlayer#setNextMediaPlayer(MediaPlayer)}, so it starts the moment
+ * the current track ends.</li>
+ * <li>Prefetching, and the second player until its track starts, are capped to a share of the
+ * bandwidth together and pause while the playing track waits for the network, so they never slow
+ * the current stream down.</li>
+ * </ul>
+ * All methods must be called on the main thread, where the {@link Listener} is notified as well.
+ */
+public class PlaybackQueue {
+
+    public static final int PREFETCH_SECONDS_DEFAULT = 15;
+    public static final int PREFETCH_TRACKS_DEFAULT = 2;
+    public static final long BANDWIDTH_CAP_DEFAULT = 64 * 1024;
+
+    /**
+     * Streams are 128 kbit/s MP3, which is 16 000 bytes per second of audio.
+     */
+    private static final long STREAM_BYTES_PER_SECOND = 128 * 1000 / 8;
+
+    private final StreamProxy proxy;
+    private final SoundCloudService service;
+    private final Listener listener;
+    private final int prefetchSeconds;
+    private final int prefetchTracks;
+    private final RateLimiter limiter;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService prefetcher;
+
+    private List<Track> tracks = Collections.emptyList();
+    private int index = -1;
+
+    private MediaPlayer current;
+    private boolean currentPrepared;
+    private boolean paused;
+
+    private MediaPlayer next;
+    private String nextUrl;
+    private boolean nextPrepared;
+
+    private Future<?> prefetch;
+    private AtomicBoolean prefetchCanceled;
+
+    private PlaybackQueue(Builder builder) {
+        proxy = builder.proxy;
+        service = builder.service;
+        listener = builder.listener;
+        prefetchSeconds = builder.prefetchSeconds;
+        prefetchTracks = builder.prefetchTracks;
+        limiter = new RateLimiter((double) builder.bandwidthCap / StreamProxy.BUFFER_SIZE);
+        prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "PlaybackQueue");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Replaces the queue and starts playing one of its tracks.
+     *
+     * @param tracks The tracks to play, in order.
+     * @param start  Index of the track to start with.
+     */
+    @MainThread
+    public void play(@NonNull List<Track> tracks, int start) {
+        this.tracks = new ArrayList<>(tracks);
+        skipTo(start);
+    }
+
+    /**
+     * Starts playing another track of the queue.
+     *
+     * @param position Index of the track.
+     */
+    @MainThread
+    public void skipTo(int position) {
+        stop();
+
+        if (position < 0 || position >= tracks.size()) {
+            return;
+        }
+
+        index = position;
+        paused = false;
+
+        Track track = tracks.get(index);
+
+        if (track.stream_url == null) {
+            // Not resolved yet, start once the prefetcher has resolved it.
+            schedulePrefetch(true);
+            return;
+        }
+
+        startCurrent();
+        schedulePrefetch(false);
+    }
+
+    @MainThread
+    public void skipToNext() {
+        skipTo(index + 1);
+    }
+
+    @MainThread
+    public void skipToPrevious() {
+        skipTo(Math.max(0, index - 1));
+    }
+
+    @MainThread
+    public void pause() {
+        paused = true;
+
+        if (current != null && current.isPlaying()) {
+            current.pause();
+        }
+    }
+
+    @MainThread
+    public void resume() {
+        paused = false;
+
+        if (current != null && currentPrepared && !current.isPlaying()) {
+            current.start();
+        }
+    }
+
+    @MainThread
+    public boolean isPlaying() {
+        return current != null && currentPrepared && current.isPlaying();
+    }
+
+    /**
+     * @return Index of the track that is playing or about to play, or -1 if the queue is stopped.
+     */
+    @MainThread
+    public int getIndex() {
+        return index;
+    }
+
+    @MainThread
+    @Nullable
+    public Track getCurrentTrack() {
+        return index >= 0 && index < tracks.size() ? tracks.get(index) : null;
+    }
+
+    /**
+     * Stops playback and releases the players. The queue can be played again afterwards.
+     */
+    @MainThread
+    public void stop() {
+        cancelPrefetch();
+        releaseNext();
+
+        if (current != null) {
+            current.release();
+            current = null;
+        }
+
+        currentPrepared = false;
+        index = -1;
+    }
+
+    /**
+     * Stops playback and the prefetching thread. The queue cannot be used afterwards.
+     */
+    @MainThread
+    public void release() {
+        stop();
+        prefetcher.shutdown();
+    }
+
+    private void startCurrent() {
+        Track track = tracks.get(index);
+        final MediaPlayer player = newPlayer(track, proxy.getUrl(track.stream_url));
+
+        if (player == null) {
+            return;
+        }
+
+        current = player;
+        currentPrepared = false;
+
+        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                if (player != current) {
+                    return;
+                }
+
+                currentPrepared = true;
+
+                if (!paused) {
+                    player.start();
+                }
+
+                linkNext();
+            }
+        });
+
+        player.prepareAsync();
+        listener.onTrackChanged(index, tracks.get(index));
+    }
+
+    /**
+     * Prepares the following track from the cache, once its start has been prefetched.
+     */
+    private void prepareNext() {
+        if (next != null || current == null || index + 1 >= tracks.size()) {
+            return;
+        }
+
+        // Until it plays, the player streams the rest of its track under the prefetching cap.
+        Track track = tracks.get(index + 1);
+        String url = proxy.getThrottledUrl(track.stream_url, limiter);
+        final MediaPlayer player = newPlayer(track, url);
+
+        if (player == null) {
+            return;
+        }
+
+        next = player;
+        nextUrl = url;
+        nextPrepared = false;
+
+        player.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                if (player == next) {
+                    nextPrepared = true;
+                    linkNext();
+                }
+            }
+        });
+
+        player.prepareAsync();
+    }
+
+    /**
+     * Hands the prepared next player to the current one, which starts it when it completes.
+     */
+    private void linkNext() {
+        if (current != null && currentPrepared && next != null && nextPrepared) {
+            current.setNextMediaPlayer(next);
+        }
+    }
+
+    private void onCompletion(MediaPlayer player) {
+        if (player != current) {
+            return;
+        }
+
+        index++;
+
+        if (next != null && nextPrepared) {
+            // The framework already started the next player.
+            proxy.unthrottle(nextUrl);
+            current = next;
+            currentPrepared = true;
+            next = null;
+            nextUrl = null;
+            player.release();
+
+            listener.onTrackChanged(index, tracks.get(index));
+            schedulePrefetch(false);
+            return;
+        }
+
+        player.release();
+        current = null;
+        releaseNext();
+
+        if (index >= tracks.size()) {
+            index = -1;
+            listener.onQueueFinished();
+            return;
+        }
+
+        // The next track was not ready in time, start it normally.
+        skipTo(index);
+    }
+
+    private MediaPlayer newPlayer(final Track track, String url) {
+        final MediaPlayer player = new MediaPlayer();
+        player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+
+        player.setOnCompletionListener(new MediaPlayer.OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer mp) {
+                PlaybackQueue.this.onCompletion(player);
+            }
+        });
+
+        player.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+            @Override
+            public boolean onError(MediaPlayer mp, int what, int extra) {
+                if (player == next) {
+                    releaseNext(); // Retried normally when the current track ends.
+                } else if (player == current) {
+                    listener.onPlaybackError(track, what, extra);
+                }
+
+                return true;
+            }
+        });
+
+        try {
+            player.setDataSource(url);
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            player.release();
+            listener.onPlaybackError(track, MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+
+            return null;
+        }
+
+        return player;
+    }
+
+    private void releaseNext() {
+        if (next != null) {
+            if (current != null) {
+                current.setNextMediaPlayer(null);
+            }
+
+            next.release();
+            next = null;
+            nextUrl = null;
+        }
+
+        nextPrepared = false;
+    }
+
+    /**
+     * Stops the prefetch with its flag. Interrupting the thread would cut off the request and
+     * could fail I/O shared with the players.
+     */
+    private void cancelPrefetch() {
+        if (prefetch != null) {
+            prefetchCanceled.set(true);
+            prefetch.cancel(false);
+            prefetch = null;
+            prefetchCanceled = null;
+        }
+    }
+
+    /**
+     * Resolves and prefetches the tracks after the current one, replacing any earlier prefetch.
+     *
+     * @param startWhenResolved Whether the current track itself is unresolved and must be started
+     *                          once it is.
+     */
+    private void schedulePrefetch(final boolean startWhenResolved) {
+        cancelPrefetch();
+
+        final AtomicBoolean canceled = new AtomicBoolean();
+        final int from = index;
+        final int to = Math.min(tracks.size() - 1, index + prefetchTracks);
+        final List<Track> queued = new ArrayList<>(tracks.subList(from, to + 1));
+
+        prefetchCanceled = canceled;
+        prefetch = prefetcher.submit(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < queued.size() && !canceled.get(); i++) {
+                    final int position = from + i;
+                    final Track track = resolve(queued.get(i));
+
+                    if (i == 0) {
+                        if (startWhenResolved) {
+                            post(position, track, true);
+                        }
+
+                        continue; // The player fetches the current track itself.
+                    }
+
+                    if (track == null || track.stream_url == null) {
+                        continue;
+                    }
+
+                    try {
+                        proxy.prefetch(track.stream_url, prefetchSeconds * STREAM_BYTES_PER_SECOND, limiter, canceled);
+                    } catch (IOException e) {
+                        continue; // The player will try again when the track is due.
+                    }
+
+                    if (i == 1) {
+                        post(position, track, false);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Reports a resolved or prefetched track to the main thread, unless the queue moved on.
+     */
+    private void post(final int position, final Track track, final boolean start) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (start) {
+                    if (position != index || current != null) {
+                        return;
+                    }
+
+                    if (track == null || track.stream_url == null) {
+                        listener.onPlaybackError(tracks.get(position), MediaPlayer.MEDIA_ERROR_UNKNOWN, 0);
+                        return;
+                    }
+
+                    tracks.set(position, track);
+                    startCurrent();
+                    schedulePrefetch(false);
+                } else if (position == index + 1) {
+                    tracks.set(position, track);
+                    prepareNext();
+                }
+            }
+        });
+    }
+
+    /**
+     * Looks up the stream URL of a track that only has its ID, such as one of a lazily loaded
+     * playlist. Runs on the prefetching thread.
+     */
+    private Track resolve(Track track) {
+        if (track.stream_url != null || service == null || track.id == null) {
+            return track;
+        }
+
+        try {
+            Response<Track> response = service.getTrack(track.id).execute();
+
+            return response.isSuccessful() && response.body() != null ? response.body() : track;
+        } catch (IOException e) {
+            return track;
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * Called when a track starts, including when the queue moved on to it by itself.
+         */
+        void onTrackChanged(int index, @NonNull Track track);
+
+        /**
+         * Called when a track cannot be played. The queue stays on the track.
+         *
+         * @param what  One of the MediaPlayer.MEDIA_ERROR_ constants.
+         * @param extra Additional error code from the player.
+         */
+        void onPlaybackError(@NonNull Track track, int what, int extra);
+
+        void onQueueFinished();
+    }
+
+    public static class Builder {
+
+        private final StreamProxy proxy;
+        private final Listener listener;
+        private SoundCloudService service;
+        private int prefetchSeconds = PREFETCH_SECONDS_DEFAULT;
+        private int prefetchTracks = PREFETCH_TRACKS_DEFAULT;
+        private long bandwidthCap = BANDWIDTH_CAP_DEFAULT;
+
+        public Builder(@NonNull StreamProxy proxy, @NonNull Listener listener) {
+            this.proxy = proxy;
+            this.listener = listener;
+        }
+
+        /**
+         * Sets the service used to resolve queued tracks that have no stream_url.
+         *
+         * @param service The service, or null to skip such tracks.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setService(@Nullable SoundCloudService service) {
+            this.service = service;
+
+            return this;
+        }
+
+        /**
+         * Sets how much of each upcoming track is fetched ahead of time.
+         *
+         * @param prefetchSeconds Seconds of audio from the start of the track.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setPrefetchSeconds(@IntRange(from = 1) int prefetchSeconds) {
+            this.prefetchSeconds = prefetchSeconds;
+
+            return this;
+        }
+
+        /**
+         * Sets how many upcoming tracks are prefetched.
+         *
+         * @param prefetchTracks Number of tracks after the current one.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setPrefetchTracks(@IntRange(from = 1) int prefetchTracks) {
+            this.prefetchTracks = prefetchTracks;
+
+            return this;
+        }
+
+        /**
+         * Sets the most bandwidth prefetching and the player of the next track may use together.
+         *
+         * @param bytesPerSecond Number of bytes per second.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setBandwidthCap(@IntRange(from = 1) long bytesPerSecond) {
+            this.bandwidthCap = bytesPerSecond;
+
+            return this;
+        }
+
+        public PlaybackQueue build() {
+            return new PlaybackQueue(this);
+        }
+    }
+}
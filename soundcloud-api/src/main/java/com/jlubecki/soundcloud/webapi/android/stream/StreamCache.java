@@ -0,0 +1,509 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.stream;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.cache.TrimLevel;
+import com.jlubecki.soundcloud.webapi.android.cache.Trimmable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the byte ranges of streamed audio on disk. Each stream is kept in a sparse file of its
+ * full length, next to a small file listing which ranges of it have been fetched, so a track that
+ * was partially played, skipped through or seeked in keeps every byte that was downloaded.
+ * <p/>
+ * The total size of the cached ranges is kept under a byte budget by deleting the least recently
+ * used streams. Streams that are open are never deleted. The index is rebuilt from the directory
+ * when the cache is created, so cached audio survives restarts.
+ */
+public class StreamCache implements Trimmable {
+
+    public static final long MAX_BYTES_DEFAULT = 200 * 1024 * 1024;
+
+    private static final int META_VERSION = 1;
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size;
+
+    /**
+     * @param directory Directory to store the audio in. Created if missing.
+     * @param maxBytes  Budget for the cached bytes of every stream together.
+     */
+    public StreamCache(@NonNull File directory, @IntRange(from = 1) long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Could not create " + directory);
+        }
+
+        load();
+    }
+
+    /**
+     * Opens a stream for reading and writing, creating it if it is not cached. Every call must be
+     * followed by {@link Entry#close()}.
+     *
+     * @param key Identifies the stream, such as the track's stream_url without its query.
+     * @return The entry of the stream.
+     * @throws IOException if its file could not be opened.
+     */
+    public synchronized Entry open(@NonNull String key) throws IOException {
+        String name = nameOf(key);
+        Entry entry = entries.get(name);
+
+        if (entry == null) {
+            entry = new Entry(name);
+            entries.put(name, entry);
+        }
+
+        entry.acquire();
+
+        return entry;
+    }
+
+    /**
+     * @param key Identifies the stream.
+     * @return Number of bytes cached from the start of the stream.
+     */
+    public synchronized long getCachedPrefix(@NonNull String key) {
+        Entry entry = entries.get(nameOf(key));
+
+        return entry != null ? entry.cachedFrom(0) : 0;
+    }
+
+    /**
+     * @return Number of bytes cached for every stream together.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxBytes;
+    }
+
+    /**
+     * Deletes every stream that is not open.
+     */
+    public synchronized void clear() {
+        evict(0);
+    }
+
+    /**
+     * Deletes the least recently used streams down to a share of the budget.
+     *
+     * @param level How much space to give back.
+     */
+    @Override
+    public synchronized void trim(@NonNull TrimLevel level) {
+        evict(level.apply(maxBytes));
+    }
+
+    private void evict(long budget) {
+        Iterator<Entry> eldest = entries.values().iterator();
+
+        while (size > budget && eldest.hasNext()) {
+            Entry entry = eldest.next();
+
+            if (entry.users > 0) {
+                continue;
+            }
+
+            eldest.remove();
+            size -= entry.cachedBytes();
+            entry.delete();
+        }
+    }
+
+    /**
+     * Restores the index from the meta files, least recently used first. Data files without a
+     * readable meta file, such as those of a stream the process was killed during before its meta
+     * file was first written, and leftover temporary files are deleted, since nothing would ever
+     * count or evict them.
+     */
+    private void load() {
+        File[] metas = directory.listFiles();
+
+        if (metas == null) {
+            return;
+        }
+
+        Arrays.sort(metas, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long modifiedA = a.lastModified();
+                long modifiedB = b.lastModified();
+
+                return modifiedA < modifiedB ? -1 : modifiedA == modifiedB ? 0 : 1;
+            }
+        });
+
+        for (File meta : metas) {
+            String fileName = meta.getName();
+
+            if (!fileName.endsWith(META_SUFFIX)) {
+                continue;
+            }
+
+            Entry entry = new Entry(fileName.substring(0, fileName.length() - META_SUFFIX.length()));
+
+            if (entry.readMeta()) {
+                entries.put(entry.name, entry);
+                size += entry.cachedBytes();
+            } else {
+                entry.delete();
+            }
+        }
+
+        for (File file : metas) {
+            String fileName = file.getName();
+
+            if (fileName.endsWith(TEMP_SUFFIX) || (fileName.endsWith(DATA_SUFFIX) &&
+                    !entries.containsKey(fileName.substring(0, fileName.length() - DATA_SUFFIX.length())))) {
+                file.delete();
+            }
+        }
+
+        evict(maxBytes);
+    }
+
+    /**
+     * Turns a key into a file name. Keys are hashed, so they may contain any character.
+     */
+    private static String nameOf(String key) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return Long.toHexString(hash);
+    }
+
+    /**
+     * A cached stream. Several connections can use an entry at once. All state is guarded by the
+     * cache's monitor, the file position by a lock of the entry.
+     */
+    public class Entry {
+
+        private final String name;
+
+        // Sorted, non-overlapping and non-adjacent ranges of cached bytes, as start and end pairs.
+        private final List<long[]> ranges = new ArrayList<>();
+
+        // Reads and writes seek the file rather than use its channel: an interrupt during channel
+        // I/O closes the channel, which would fail every other connection using the entry.
+        private final Object io = new Object();
+
+        private long length = -1;
+        private String contentType;
+        private int users;
+        private RandomAccessFile file;
+        private boolean dirty;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return Length of the stream, or -1 if it is not known yet.
+         */
+        public long getLength() {
+            synchronized (StreamCache.this) {
+                return length;
+            }
+        }
+
+        @Nullable
+        public String getContentType() {
+            synchronized (StreamCache.this) {
+                return contentType;
+            }
+        }
+
+        /**
+         * Records the length and type of the stream once the server reported them. A stream whose
+         * length changed is dropped, since its cached bytes belong to another version.
+         */
+        public void setLength(long length, @Nullable String contentType) throws IOException {
+            synchronized (StreamCache.this) {
+                if (this.length == length) {
+                    return;
+                }
+
+                if (this.length != -1) {
+                    size -= cachedBytes();
+                    ranges.clear();
+                }
+
+                this.length = length;
+                this.contentType = contentType;
+
+                synchronized (io) {
+                    file.setLength(0);
+                    file.setLength(length);
+                }
+
+                dirty = true;
+            }
+        }
+
+        /**
+         * @param position A position in the stream.
+         * @return Number of bytes cached without a gap from the position on.
+         */
+        public long cachedFrom(long position) {
+            synchronized (StreamCache.this) {
+                for (long[] range : ranges) {
+                    if (range[0] <= position && position < range[1]) {
+                        return range[1] - position;
+                    }
+                }
+
+                return 0;
+            }
+        }
+
+        /**
+         * @param position A position that is not cached.
+         * @return Start of the next cached range after the position, or the length of the stream
+         * if there is none.
+         */
+        public long nextCached(long position) {
+            synchronized (StreamCache.this) {
+                for (long[] range : ranges) {
+                    if (range[0] > position) {
+                        return range[0];
+                    }
+                }
+
+                return length;
+            }
+        }
+
+        public boolean isComplete() {
+            synchronized (StreamCache.this) {
+                return length >= 0 && cachedFrom(0) == length;
+            }
+        }
+
+        /**
+         * Reads cached bytes. The caller must check with {@link #cachedFrom(long)} that they are cached.
+         */
+        public int read(long position, byte[] buffer, int offset, int count) throws IOException {
+            synchronized (io) {
+                file.seek(position);
+
+                int read = 0;
+
+                while (read < count) {
+                    int n = file.read(buffer, offset + read, count - read);
+
+                    if (n == -1) {
+                        break;
+                    }
+
+                    read += n;
+                }
+
+                return read;
+            }
+        }
+
+        /**
+         * Stores bytes fetched from the server and marks them as cached.
+         */
+        public void write(long position, byte[] buffer, int offset, int count) throws IOException {
+            synchronized (io) {
+                file.seek(position);
+                file.write(buffer, offset, count);
+            }
+
+            synchronized (StreamCache.this) {
+                long before = cachedBytes();
+                addRange(position, position + count);
+                size += cachedBytes() - before;
+                dirty = true;
+
+                evict(maxBytes);
+            }
+        }
+
+        /**
+         * Releases the entry. Its ranges are saved when the last user closes it.
+         */
+        public void close() throws IOException {
+            synchronized (StreamCache.this) {
+                if (--users > 0) {
+                    return;
+                }
+
+                try {
+                    if (dirty) {
+                        writeMeta();
+                        dirty = false;
+                    } else {
+                        // Keeps the order of use across restarts.
+                        new File(directory, name + META_SUFFIX).setLastModified(System.currentTimeMillis());
+                    }
+                } finally {
+                    file.close();
+                    file = null;
+                }
+            }
+        }
+
+        private void acquire() throws IOException {
+            if (users++ == 0) {
+                try {
+                    file = new RandomAccessFile(new File(directory, name + DATA_SUFFIX), "rw");
+                } catch (IOException e) {
+                    users--;
+                    throw e;
+                }
+            }
+        }
+
+        private void addRange(long start, long end) {
+            int i = 0;
+
+            while (i < ranges.size() && ranges.get(i)[1] < start) {
+                i++;
+            }
+
+            // Merge every range that overlaps or touches the new one.
+            while (i < ranges.size() && ranges.get(i)[0] <= end) {
+                long[] range = ranges.remove(i);
+                start = Math.min(start, range[0]);
+                end = Math.max(end, range[1]);
+            }
+
+            ranges.add(i, new long[]{start, end});
+        }
+
+        private long cachedBytes() {
+            long bytes = 0;
+
+            for (long[] range : ranges) {
+                bytes += range[1] - range[0];
+            }
+
+            return bytes;
+        }
+
+        private boolean readMeta() {
+            try {
+                DataInputStream input = new DataInputStream(new FileInputStream(new File(directory, name + META_SUFFIX)));
+
+                try {
+                    if (input.readInt() != META_VERSION) {
+                        return false;
+                    }
+
+                    length = input.readLong();
+                    contentType = input.readBoolean() ? input.readUTF() : null;
+
+                    int count = input.readInt();
+
+                    for (int i = 0; i < count; i++) {
+                        ranges.add(new long[]{input.readLong(), input.readLong()});
+                    }
+
+                    return new File(directory, name + DATA_SUFFIX).length() == length;
+                } finally {
+                    input.close();
+                }
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Saves the ranges. The data is forced to disk first, so the saved ranges never claim bytes
+         * that a crash could lose.
+         */
+        private void writeMeta() throws IOException {
+            file.getFD().sync();
+
+            File meta = new File(directory, name + META_SUFFIX);
+            File temp = new File(meta.getPath() + TEMP_SUFFIX);
+            DataOutputStream output = new DataOutputStream(new FileOutputStream(temp));
+
+            try {
+                output.writeInt(META_VERSION);
+                output.writeLong(length);
+                output.writeBoolean(contentType != null);
+
+                if (contentType != null) {
+                    output.writeUTF(contentType);
+                }
+
+                output.writeInt(ranges.size());
+
+                for (long[] range : ranges) {
+                    output.writeLong(range[0]);
+                    output.writeLong(range[1]);
+                }
+            } finally {
+                output.close();
+            }
+
+            if (!temp.renameTo(meta)) {
+                temp.delete();
+                throw new IOException("Could not replace " + meta);
+            }
+        }
+
+        private void delete() {
+            new File(directory, name + DATA_SUFFIX).delete();
+            new File(directory, name + META_SUFFIX).delete();
+        }
+    }
+}
@@ -0,0 +1,736 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.stream;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.jlubecki.soundcloud.webapi.android.util.RateLimiter;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * A local HTTP server that plays streams through a {@link StreamCache}. A player such as
+ * {@link android.media.MediaPlayer} is given the URL from {@link #getUrl(String)} instead of the
+ * stream_url. For each request, including the range requests made when seeking, the proxy:
+ * <ul>
+ * <li>serves the cached ranges from disk,</li>
+ * <li>fetches the gaps between them from the server with range requests, passing the bytes on as
+ * they arrive while storing them in the cache.</li>
+ * </ul>
+ * Replaying a track or seeking back therefore does not download the audio again. The server only
+ * listens on the loopback interface, and only answers the unguessable URLs it handed out.
+ * <p/>
+ * Streams can also be {@link #prefetch(String, long, RateLimiter) prefetched} into the cache in the
+ * background, and a player that is prepared ahead of time can be given a
+ * {@link #getThrottledUrl(String, RateLimiter) throttled URL}. Both pause whenever another player
+ * is waiting for bytes from the server.
+ */
+public class StreamProxy {
+
+    /**
+     * Number of bytes read from the server at a time. {@link #prefetch(String, long, RateLimiter)}
+     * and throttled URLs take one permit of their limiter per buffer.
+     */
+    public static final int BUFFER_SIZE = 16 * 1024;
+
+    private static final long YIELD_MILLIS = 50;
+    private static final String CONTENT_TYPE_DEFAULT = "audio/mpeg";
+    private static final String CHARSET = "ISO-8859-1";
+
+    private static final int HTTP_PARTIAL_CONTENT = 206;
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * Number of streams the proxy has URLs for. Asking for the URL of another stream forgets the
+     * least recently used one.
+     */
+    private static final int MAX_URLS = 64;
+    private static final int TOKEN_BYTES = 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final OkHttpClient client;
+    private final StreamCache cache;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, String> paths = new HashMap<>();
+    private final Map<String, RateLimiter> limiters = new HashMap<>();
+    private final Map<String, String> upstreams = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            if (size() <= MAX_URLS) {
+                return false;
+            }
+
+            // Throttled URLs are not the path of their stream.
+            if (eldest.getKey().equals(paths.get(eldest.getValue()))) {
+                paths.remove(eldest.getValue());
+            }
+
+            limiters.remove(eldest.getKey());
+
+            return true;
+        }
+    };
+    private final AtomicInteger playerFetches = new AtomicInteger();
+
+    /**
+     * Starts the server on a free port.
+     *
+     * @param client The client to fetch streams with, such as
+     *               {@link com.jlubecki.soundcloud.webapi.android.SoundCloudAPI#getMediaClient()}.
+     * @param cache  The cache to store the streams in.
+     * @throws IOException if no port could be opened.
+     */
+    public StreamProxy(@NonNull OkHttpClient client, @NonNull StreamCache cache) throws IOException {
+        this.client = client;
+        this.cache = cache;
+
+        serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "StreamProxy");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * Gives the local URL that plays a stream through the cache. The path of the URL is random, so
+     * other apps on the device cannot guess it and play the stream with this app's credentials.
+     * Only the URLs of the last streams asked for are kept, older ones answer 404.
+     *
+     * @param streamUrl The stream_url of a track, or any other URL of audio.
+     * @return A URL on the loopback interface.
+     */
+    public synchronized String getUrl(@NonNull String streamUrl) {
+        String path = paths.get(streamUrl);
+
+        if (path == null) {
+            path = newToken();
+            paths.put(streamUrl, path);
+        }
+
+        // Also marks the stream as recently used.
+        upstreams.put(path, streamUrl);
+
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + path;
+    }
+
+    /**
+     * Gives a URL like {@link #getUrl(String)} for a player that is prepared before it plays, such
+     * as the next track of a queue. Its fetches from the server keep to the limiter and pause while
+     * another player waits for the network, until {@link #unthrottle(String)} is called. Each call
+     * gives a new URL.
+     *
+     * @param streamUrl The stream_url of a track, or any other URL of audio.
+     * @param limiter   Limits how fast bytes are fetched, one permit per {@link #BUFFER_SIZE} bytes.
+     * @return A URL on the loopback interface.
+     */
+    public synchronized String getThrottledUrl(@NonNull String streamUrl, @NonNull RateLimiter limiter) {
+        String path = newToken();
+        upstreams.put(path, streamUrl);
+        limiters.put(path, limiter);
+
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/" + path;
+    }
+
+    /**
+     * Lifts the limit of a URL from {@link #getThrottledUrl(String, RateLimiter)}, for example once
+     * its player starts playing. Fetches in progress speed up with their next buffer.
+     *
+     * @param url The throttled URL.
+     */
+    public synchronized void unthrottle(@NonNull String url) {
+        limiters.remove(url.substring(url.lastIndexOf('/') + 1));
+    }
+
+    /**
+     * The key a stream is cached under: its URL without the query, so that a client ID, token or
+     * signature in it does not split the cache.
+     *
+     * @param streamUrl The URL of a stream.
+     * @return The cache key.
+     */
+    public static String keyOf(@NonNull String streamUrl) {
+        int query = streamUrl.indexOf('?');
+
+        return query != -1 ? streamUrl.substring(0, query) : streamUrl;
+    }
+
+    /**
+     * Stores the start of a stream in the cache, so that a player can start it without waiting for
+     * the network. Bytes that are cached already are not fetched again. Blocks until done.
+     *
+     * @param streamUrl The URL of the stream.
+     * @param bytes     Number of bytes from the start of the stream to cache.
+     * @param limiter   Limits how fast bytes are fetched, one permit per {@link #BUFFER_SIZE}
+     *                  bytes, or null to fetch as fast as possible.
+     * @return Number of bytes cached from the start of the stream.
+     * @throws IOException if the stream could not be fetched or the thread was interrupted.
+     */
+    @WorkerThread
+    public long prefetch(@NonNull String streamUrl, long bytes, @Nullable RateLimiter limiter) throws IOException {
+        return prefetch(streamUrl, bytes, limiter, null);
+    }
+
+    /**
+     * Same as {@link #prefetch(String, long, RateLimiter)}, but stops before the next buffer once
+     * the flag is set. Prefer the flag over interrupting the thread, which cuts off the request.
+     *
+     * @param streamUrl The URL of the stream.
+     * @param bytes     Number of bytes from the start of the stream to cache.
+     * @param limiter   Limits how fast bytes are fetched, or null to fetch as fast as possible.
+     * @param canceled  Set to stop prefetching, or null.
+     * @return Number of bytes cached from the start of the stream.
+     * @throws IOException if the stream could not be fetched, or the prefetch was canceled or
+     *                     interrupted.
+     */
+    @WorkerThread
+    public long prefetch(@NonNull String streamUrl, long bytes, @Nullable RateLimiter limiter,
+                         @Nullable AtomicBoolean canceled) throws IOException {
+        StreamCache.Entry entry = cache.open(keyOf(streamUrl));
+
+        try {
+            Exchange exchange = new Exchange(streamUrl, null, entry, null, false);
+            exchange.limiter = limiter;
+            exchange.canceled = canceled;
+
+            return exchange.prefetch(bytes);
+        } finally {
+            entry.close();
+        }
+    }
+
+    public StreamCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Stops the server. Responses in progress are cut off.
+     */
+    public void shutdown() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // Closing anyway.
+        }
+
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            OutputStream output = socket.getOutputStream();
+
+            String[] requestLine = readLine(input).split(" ");
+            String rangeHeader = null;
+            String line;
+
+            while (!(line = readLine(input)).isEmpty()) {
+                int colon = line.indexOf(':');
+
+                if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                    rangeHeader = line.substring(colon + 1).trim();
+                }
+            }
+
+            String method = requestLine[0];
+            String path = requestLine.length > 1 ? requestLine[1].substring(1) : null;
+            String upstream;
+
+            synchronized (this) {
+                upstream = path != null ? upstreams.get(path) : null;
+            }
+
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                writeStatus(output, 405, "Method Not Allowed");
+            } else if (upstream == null) {
+                writeStatus(output, 404, "Not Found");
+            } else {
+                StreamCache.Entry entry = cache.open(keyOf(upstream));
+
+                try {
+                    new Exchange(upstream, path, entry, output, "HEAD".equals(method)).respond(rangeHeader);
+                } finally {
+                    entry.close();
+                }
+            }
+        } catch (IOException ignored) {
+            // The player disconnected, or the server failed and the player sees the connection drop.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Closing anyway.
+            }
+        }
+    }
+
+    private String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+
+        char[] hex = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+
+        while ((c = input.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+
+        if (c == -1 && line.length() == 0) {
+            throw new SocketException("The player closed the connection");
+        }
+
+        return line.toString();
+    }
+
+    private static void writeStatus(OutputStream output, int code, String message) throws IOException {
+        String head = "HTTP/1.1 " + code + " " + message + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+        output.write(head.getBytes(CHARSET));
+        output.flush();
+    }
+
+    /**
+     * Answers one request of the player.
+     */
+    private class Exchange {
+
+        final String url;
+        final String path;
+        final StreamCache.Entry entry;
+        final OutputStream output;
+        final boolean headOnly;
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        // Set while prefetching, when there is no player to send the bytes to.
+        RateLimiter limiter;
+        AtomicBoolean canceled;
+
+        // A response from the server that is still open, and the stream position of its next byte.
+        Response upstream;
+        InputStream upstreamInput;
+        long upstreamPosition;
+        boolean upstreamWhole;
+
+        Exchange(String url, String path, StreamCache.Entry entry, OutputStream output, boolean headOnly) {
+            this.url = url;
+            this.path = path;
+            this.entry = entry;
+            this.output = output;
+            this.headOnly = headOnly;
+        }
+
+        void respond(String rangeHeader) throws IOException {
+            try {
+                long[] range = parseRange(rangeHeader);
+
+                if (entry.getLength() < 0) {
+                    // The first request of the stream learns its length from the server.
+                    openUpstream(Math.max(range[0], 0), range[0] >= 0 ? range[1] : -1);
+                }
+
+                long length = entry.getLength();
+                long start = range[0] >= 0 ? range[0] : Math.max(0, length + range[0]); // Suffix ranges are negative.
+                long end = range[0] >= 0 && range[1] >= 0 ? Math.min(range[1], length - 1) : length - 1;
+
+                if (start >= length) {
+                    String head = "HTTP/1.1 416 Range Not Satisfiable\r\nContent-Range: bytes */" + length +
+                            "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+                    output.write(head.getBytes(CHARSET));
+                    return;
+                }
+
+                writeHead(rangeHeader != null, start, end, length);
+
+                if (!headOnly) {
+                    copy(start, end + 1);
+                }
+
+                output.flush();
+            } finally {
+                closeUpstream();
+            }
+        }
+
+        long prefetch(long bytes) throws IOException {
+            try {
+                if (entry.getLength() < 0) {
+                    openUpstream(0, bytes - 1);
+                }
+
+                long end = Math.min(bytes, entry.getLength());
+                long position = 0;
+
+                while (position < end) {
+                    long cached = entry.cachedFrom(position);
+
+                    if (cached > 0) {
+                        position += cached;
+                        continue;
+                    }
+
+                    long gapEnd = Math.min(entry.nextCached(position), end);
+
+                    if (!reaches(position)) {
+                        openUpstream(position, gapEnd - 1);
+                    }
+
+                    position = fill(position, gapEnd);
+                }
+
+                return Math.min(entry.cachedFrom(0), end);
+            } finally {
+                closeUpstream();
+            }
+        }
+
+        private void writeHead(boolean partial, long start, long end, long length) throws IOException {
+            String contentType = entry.getContentType() != null ? entry.getContentType() : CONTENT_TYPE_DEFAULT;
+            StringBuilder head = new StringBuilder();
+
+            head.append(partial ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n")
+                    .append("Content-Type: ").append(contentType).append("\r\n")
+                    .append("Content-Length: ").append(end - start + 1).append("\r\n")
+                    .append("Accept-Ranges: bytes\r\n");
+
+            if (partial) {
+                head.append("Content-Range: bytes ").append(start).append('-').append(end)
+                        .append('/').append(length).append("\r\n");
+            }
+
+            head.append("Connection: close\r\n\r\n");
+            output.write(head.toString().getBytes(CHARSET));
+        }
+
+        /**
+         * Sends the bytes from start to end, exclusive, from the cache where possible.
+         */
+        private void copy(long start, long end) throws IOException {
+            long position = start;
+
+            while (position < end) {
+                long cached = entry.cachedFrom(position);
+
+                if (cached > 0) {
+                    int count = (int) Math.min(Math.min(cached, end - position), buffer.length);
+                    int read = entry.read(position, buffer, 0, count);
+
+                    if (read <= 0) {
+                        throw new IOException("Cached stream is shorter than its ranges");
+                    }
+
+                    output.write(buffer, 0, read);
+                    position += read;
+                    continue;
+                }
+
+                long gapEnd = Math.min(entry.nextCached(position), end);
+
+                if (!reaches(position)) {
+                    openUpstream(position, gapEnd - 1);
+                }
+
+                position = fill(position, gapEnd);
+            }
+        }
+
+        /**
+         * Copies bytes of the open response into the cache until the gap is filled, passing those
+         * from the position on to the player, if there is one. Prefetches and throttled players
+         * fetch a buffer at a time, yielding to other players and keeping to their limiter.
+         *
+         * @return The position after the last byte sent.
+         */
+        private long fill(long position, long gapEnd) throws IOException {
+            while (upstreamPosition < gapEnd) {
+                RateLimiter limiter = limiter();
+
+                if (output != null && limiter == null) {
+                    playerFetches.incrementAndGet();
+
+                    try {
+                        return fillFor(position, gapEnd);
+                    } finally {
+                        playerFetches.decrementAndGet();
+                    }
+                }
+
+                awaitTurn(limiter);
+                position = fillFor(position, Math.min(gapEnd, upstreamPosition + buffer.length));
+            }
+
+            return position;
+        }
+
+        /**
+         * @return The limiter of the prefetch or of the throttled URL, checked again for every
+         * buffer since the URL may be unthrottled at any time.
+         */
+        private RateLimiter limiter() {
+            if (output == null) {
+                return limiter;
+            }
+
+            synchronized (StreamProxy.this) {
+                return limiters.get(path);
+            }
+        }
+
+        /**
+         * Waits until no other player is fetching and the limiter allows another buffer.
+         */
+        private void awaitTurn(RateLimiter limiter) throws IOException {
+            try {
+                while (playerFetches.get() > 0) {
+                    checkCanceled();
+                    TimeUnit.MILLISECONDS.sleep(YIELD_MILLIS);
+                }
+
+                if (limiter != null) {
+                    limiter.acquire();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to fetch");
+            }
+
+            checkCanceled();
+        }
+
+        private void checkCanceled() throws IOException {
+            if (canceled != null && canceled.get()) {
+                throw new IOException("Prefetch canceled");
+            }
+        }
+
+        private long fillFor(long position, long gapEnd) throws IOException {
+            while (upstreamPosition < gapEnd) {
+                int count = (int) Math.min(buffer.length, gapEnd - upstreamPosition);
+                int read = upstreamInput.read(buffer, 0, count);
+
+                if (read == -1) {
+                    throw new IOException("The stream ended early at " + upstreamPosition);
+                }
+
+                entry.write(upstreamPosition, buffer, 0, read);
+
+                // A server without range support starts before the position.
+                long skip = Math.max(0, position - upstreamPosition);
+
+                if (skip < read && output != null) {
+                    output.write(buffer, (int) skip, (int) (read - skip));
+                }
+
+                upstreamPosition += read;
+            }
+
+            return Math.max(position, upstreamPosition);
+        }
+
+        /**
+         * Requests the stream from start to end, inclusive, or to its end if end is -1.
+         */
+        private void openUpstream(long start, long end) throws IOException {
+            closeUpstream();
+
+            Request request = new Request.Builder()
+                    .url(url)
+                    .header("Range", "bytes=" + start + "-" + (end >= 0 ? String.valueOf(end) : ""))
+                    .build();
+
+            Response response = client.newCall(request).execute();
+
+            if (response.code() == HTTP_RANGE_NOT_SATISFIABLE && entry.getLength() < 0) {
+                // The range starts past the end, which the caller answers once it knows the length.
+                long length = totalLength(response);
+                response.close();
+
+                if (length < 0) {
+                    throw new IOException("The server did not report the length of the stream");
+                }
+
+                entry.setLength(length, null);
+                return;
+            }
+
+            if (!response.isSuccessful()) {
+                response.close();
+                throw new IOException("Stream request failed with HTTP " + response.code());
+            }
+
+            long length;
+
+            if (response.code() == HTTP_PARTIAL_CONTENT) {
+                length = totalLength(response);
+                upstreamPosition = start;
+                upstreamWhole = false;
+            } else {
+                length = response.body().contentLength();
+                upstreamPosition = 0;
+                upstreamWhole = true;
+            }
+
+            if (length < 0) {
+                response.close();
+                throw new IOException("The server did not report the length of the stream");
+            }
+
+            upstream = response;
+            upstreamInput = response.body().byteStream();
+            entry.setLength(length, response.header("Content-Type"));
+        }
+
+        /**
+         * @return Whether the open response gets to the position without a new request. A server
+         * that ignores ranges sends the stream from its start, which is read through to the position.
+         */
+        private boolean reaches(long position) {
+            return upstream != null && (upstreamPosition == position || upstreamWhole && upstreamPosition < position);
+        }
+
+        /**
+         * @return The length of the stream from the Content-Range header, or -1 if it is missing.
+         */
+        private long totalLength(Response response) {
+            String contentRange = response.header("Content-Range");
+            int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+
+            try {
+                return slash != -1 ? Long.parseLong(contentRange.substring(slash + 1).trim()) : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        private void closeUpstream() {
+            if (upstream != null) {
+                upstream.close();
+                upstream = null;
+                upstreamInput = null;
+            }
+        }
+
+        /**
+         * @return The first and last requested byte. The last is -1 if open ended, and a suffix
+         * range of n bytes is returned as -n.
+         */
+        private long[] parseRange(String rangeHeader) {
+            if (rangeHeader == null || !rangeHeader.toLowerCase(Locale.US).startsWith("bytes=")) {
+                return new long[]{0, -1};
+            }
+
+            String spec = rangeHeader.substring("bytes=".length());
+            int comma = spec.indexOf(',');
+
+            if (comma != -1) {
+                spec = spec.substring(0, comma); // Only the first range is served.
+            }
+
+            int dash = spec.indexOf('-');
+
+            try {
+                if (dash == 0) {
+                    return new long[]{-Long.parseLong(spec.substring(1).trim()), -1};
+                }
+
+                long first = Long.parseLong(spec.substring(0, dash).trim());
+                String last = spec.substring(dash + 1).trim();
+
+                return new long[]{first, last.isEmpty() ? -1 : Long.parseLong(last)};
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                return new long[]{0, -1};
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.sync;
+
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Comment;
+import com.jlubecki.soundcloud.webapi.android.models.User;
+
+import java.util.List;
+import java.util.Map;
+
+import retrofit2.Call;
+
+/**
+ * A list resource that can be watched for new and removed entries with a {@link ChangeFeedPoller}.
+ * Feeds are equal when they poll the same resource.
+ *
+ * @param <T> The model class of the entries.
+ */
+public abstract class ChangeFeed<T> {
+
+    private final String path;
+
+    private ChangeFeed(String path) {
+        this.path = path;
+    }
+
+    /**
+     * @return A feed of the users following the authenticated user.
+     */
+    public static ChangeFeed<User> myFollowers() {
+        return new ChangeFeed<User>("me/followers") {
+            @Override
+            Call<List<User>> fetch(SoundCloudService service, Map<String, String> page, String eTag) {
+                return service.getMyFollowers(page, eTag);
+            }
+
+            @Override
+            String idOf(User user) {
+                return user.id;
+            }
+        };
+    }
+
+    /**
+     * @return A feed of the comments of the authenticated user.
+     */
+    public static ChangeFeed<Comment> myComments() {
+        return new ChangeFeed<Comment>("me/comments") {
+            @Override
+            Call<List<Comment>> fetch(SoundCloudService service, Map<String, String> page, String eTag) {
+                return service.getMyComments(page, eTag);
+            }
+
+            @Override
+            String idOf(Comment comment) {
+                return comment.id;
+            }
+        };
+    }
+
+    /**
+     * @param trackId ID of the track.
+     * @return A feed of the comments on a track.
+     */
+    public static ChangeFeed<Comment> trackComments(@NonNull final String trackId) {
+        return new ChangeFeed<Comment>("tracks/" + trackId + "/comments") {
+            @Override
+            Call<List<Comment>> fetch(SoundCloudService service, Map<String, String> page, String eTag) {
+                return service.getTrackComments(trackId, page, eTag);
+            }
+
+            @Override
+            String idOf(Comment comment) {
+                return comment.id;
+            }
+        };
+    }
+
+    /**
+     * @return The path of the polled resource, such as "me/followers".
+     */
+    public String getPath() {
+        return path;
+    }
+
+    abstract Call<List<T>> fetch(SoundCloudService service, Map<String, String> page, String eTag);
+
+    abstract String idOf(T entry);
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ChangeFeed && path.equals(((ChangeFeed<?>) o).path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,480 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.query.Pager;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Response;
+
+/**
+ * Polls {@link ChangeFeed}s and reports only what changed between polls. Each feed is polled on
+ * its own schedule:
+ * <ul>
+ * <li>Every poll is a conditional request with the ETag of the previous response, so a feed that
+ * has not changed costs a 304 without a body.</li>
+ * <li>Entries are compared with the previous poll by ID. Listeners receive the added entries and
+ * the IDs of removed ones.</li>
+ * <li>The interval backs off exponentially while a feed is quiet. Once it changes, the interval
+ * follows the average time between its changes, so an active feed is polled several times per
+ * change and a feed that changes once a day is not polled every few seconds.</li>
+ * </ul>
+ * The first poll of a feed only records its entries. Listeners are notified on the main thread.
+ */
+public class ChangeFeedPoller {
+
+    public static final long MIN_INTERVAL_DEFAULT_MILLIS = TimeUnit.SECONDS.toMillis(15);
+    public static final long MAX_INTERVAL_DEFAULT_MILLIS = TimeUnit.MINUTES.toMillis(15);
+    public static final double BACKOFF_DEFAULT = 2;
+    public static final int PAGE_SIZE_DEFAULT = Pager.LIMIT_DEFAULT;
+
+    /**
+     * Number of polls to aim for between two changes of an active feed.
+     */
+    private static final int POLLS_PER_CHANGE = 4;
+
+    /**
+     * Weight of the latest time between changes in their running average.
+     */
+    private static final double GAP_WEIGHT = 0.5;
+
+    /**
+     * Random share of the interval added or removed, so feeds started together drift apart.
+     */
+    private static final double JITTER = 0.1;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private final SoundCloudService service;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final double backoff;
+    private final int pageSize;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private final ScheduledExecutorService scheduler;
+    private final Map<ChangeFeed<?>, Watch<?>> watches = new HashMap<>();
+
+    private ChangeFeedPoller(Builder builder) {
+        service = builder.service;
+        minIntervalMillis = builder.minIntervalMillis;
+        maxIntervalMillis = builder.maxIntervalMillis;
+        backoff = builder.backoff;
+        pageSize = builder.pageSize;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "ChangeFeedPoller");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts polling a feed, replacing any earlier watch of the same feed. The first poll is made
+     * right away.
+     *
+     * @param feed     The feed to poll.
+     * @param listener Notified of the changes of the feed.
+     */
+    public synchronized <T> void watch(@NonNull ChangeFeed<T> feed, @NonNull Listener<T> listener) {
+        unwatch(feed);
+
+        Watch<T> watch = new Watch<>(feed, listener);
+        watches.put(feed, watch);
+        schedule(watch, 0);
+    }
+
+    /**
+     * Stops polling a feed.
+     *
+     * @param feed The feed to stop polling.
+     */
+    public synchronized void unwatch(@NonNull ChangeFeed<?> feed) {
+        Watch<?> watch = watches.remove(feed);
+
+        if (watch != null) {
+            watch.cancel();
+        }
+    }
+
+    /**
+     * Polls a feed right away and resets its interval to the minimum, for example when the user
+     * opens the screen that shows it. If the feed is being polled, it is polled again as soon as
+     * that poll completes.
+     *
+     * @param feed A watched feed.
+     */
+    public synchronized void pollNow(@NonNull ChangeFeed<?> feed) {
+        Watch<?> watch = watches.get(feed);
+
+        if (watch == null) {
+            return;
+        }
+
+        watch.intervalMillis = minIntervalMillis;
+
+        if (watch.polling) {
+            // The running poll reschedules itself when it completes, which would cancel this one.
+            watch.pollRequested = true;
+        } else {
+            schedule(watch, 0);
+        }
+    }
+
+    /**
+     * @param feed A watched feed.
+     * @return The current polling interval of the feed in milliseconds, or -1 if it is not watched.
+     */
+    public synchronized long getInterval(@NonNull ChangeFeed<?> feed) {
+        Watch<?> watch = watches.get(feed);
+
+        return watch != null ? watch.intervalMillis : -1;
+    }
+
+    /**
+     * Stops polling every feed.
+     */
+    public synchronized void shutdown() {
+        for (Watch<?> watch : watches.values()) {
+            watch.cancel();
+        }
+
+        watches.clear();
+        scheduler.shutdownNow();
+    }
+
+    private void schedule(final Watch<?> watch, long delayMillis) {
+        if (watch.next != null) {
+            watch.next.cancel(false);
+        }
+
+        watch.next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                watch.poll();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private Map<String, String> firstPage() {
+        Map<String, String> page = new HashMap<>();
+        page.put(Pager.LIMIT, String.valueOf(pageSize));
+        page.put(Pager.OFFSET, "0");
+
+        return page;
+    }
+
+    private long clamp(double intervalMillis) {
+        return (long) Math.max(minIntervalMillis, Math.min(maxIntervalMillis, intervalMillis));
+    }
+
+    /**
+     * The state of one watched feed. Polls run on the scheduler thread only.
+     */
+    private class Watch<T> {
+
+        final ChangeFeed<T> feed;
+        final Listener<T> listener;
+
+        long intervalMillis = minIntervalMillis;
+        ScheduledFuture<?> next;
+        boolean polling;
+        boolean pollRequested;
+
+        private boolean cancelled;
+        private List<String> ids;
+        private boolean idsFull;
+        private String eTag;
+        private long lastChangeAt;
+        private double meanGapMillis;
+
+        Watch(ChangeFeed<T> feed, Listener<T> listener) {
+            this.feed = feed;
+            this.listener = listener;
+        }
+
+        void cancel() {
+            cancelled = true;
+
+            if (next != null) {
+                next.cancel(false);
+            }
+        }
+
+        void poll() {
+            boolean changed = false;
+
+            synchronized (ChangeFeedPoller.this) {
+                if (cancelled) {
+                    return;
+                }
+
+                polling = true;
+            }
+
+            try {
+                Response<List<T>> response = feed.fetch(service, firstPage(), eTag).execute();
+
+                if (response.code() != HTTP_NOT_MODIFIED) {
+                    if (!response.isSuccessful()) {
+                        throw new IOException("Polling " + feed + " failed with HTTP " + response.code());
+                    }
+
+                    eTag = response.headers().get("ETag");
+
+                    List<T> entries = response.body() != null ? response.body() : new ArrayList<T>(0);
+                    changed = diff(entries, entries.size() >= pageSize);
+                }
+            } catch (final IOException | RuntimeException e) {
+                // Runtime exceptions include responses Gson could not convert.
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isCancelled()) {
+                            listener.onPollFailed(feed, e);
+                        }
+                    }
+                });
+            } finally {
+                reschedule(changed);
+            }
+        }
+
+        /**
+         * Adapts the interval to the outcome of a poll and schedules the next one.
+         */
+        private void reschedule(boolean changed) {
+            synchronized (ChangeFeedPoller.this) {
+                polling = false;
+
+                if (cancelled) {
+                    return;
+                }
+
+                adapt(changed, System.currentTimeMillis());
+
+                if (pollRequested) {
+                    pollRequested = false;
+                    intervalMillis = minIntervalMillis;
+                    schedule(this, 0);
+                    return;
+                }
+
+                double jitter = 1 + JITTER * (2 * random.nextDouble() - 1);
+                schedule(this, (long) (intervalMillis * jitter));
+            }
+        }
+
+        /**
+         * Compares the entries with the previous poll and notifies the listener.
+         *
+         * @param full Whether the page was full, in which case entries at its end may have been
+         *             pushed onto the next page rather than removed, or pulled back from it rather
+         *             than added.
+         * @return Whether anything changed.
+         */
+        private boolean diff(List<T> entries, boolean full) {
+            List<String> current = new ArrayList<>(entries.size());
+            Set<String> currentSet = new HashSet<>();
+
+            for (T entry : entries) {
+                String id = entry != null ? feed.idOf(entry) : null;
+
+                if (id != null && currentSet.add(id)) {
+                    current.add(id);
+                }
+            }
+
+            List<String> previous = ids;
+            boolean previousFull = idsFull;
+            ids = current;
+            idsFull = full;
+
+            if (previous == null) {
+                return false; // First poll.
+            }
+
+            Set<String> previousSet = new HashSet<>(previous);
+            int lastKept = -1;
+
+            for (int i = 0; i < current.size(); i++) {
+                if (previousSet.contains(current.get(i))) {
+                    lastKept = i;
+                }
+            }
+
+            // New entries are listed first. Unknown entries after the last known one moved up from
+            // the next page, which was not polled.
+            int addedUntil = previousFull && lastKept >= 0 ? lastKept : current.size();
+            final List<T> added = new ArrayList<>();
+
+            for (T entry : entries) {
+                String id = entry != null ? feed.idOf(entry) : null;
+
+                if (id != null && !previousSet.contains(id) && current.indexOf(id) < addedUntil) {
+                    added.add(entry);
+                }
+            }
+
+            int pushedFrom = full ? previous.size() - added.size() : previous.size();
+            final List<String> removed = new ArrayList<>();
+
+            for (int i = 0; i < pushedFrom; i++) {
+                if (!currentSet.contains(previous.get(i))) {
+                    removed.add(previous.get(i));
+                }
+            }
+
+            if (added.isEmpty() && removed.isEmpty()) {
+                return false;
+            }
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        listener.onFeedChanged(feed, added, removed);
+                    }
+                }
+            });
+
+            return true;
+        }
+
+        private void adapt(boolean changed, long now) {
+            if (!changed) {
+                intervalMillis = clamp(intervalMillis * backoff);
+                return;
+            }
+
+            if (lastChangeAt > 0) {
+                long gap = now - lastChangeAt;
+                meanGapMillis = meanGapMillis > 0 ? GAP_WEIGHT * gap + (1 - GAP_WEIGHT) * meanGapMillis : gap;
+                intervalMillis = clamp(meanGapMillis / POLLS_PER_CHANGE);
+            } else {
+                intervalMillis = minIntervalMillis;
+            }
+
+            lastChangeAt = now;
+        }
+
+        private boolean isCancelled() {
+            synchronized (ChangeFeedPoller.this) {
+                return cancelled;
+            }
+        }
+    }
+
+    public interface Listener<T> {
+
+        /**
+         * Called when a poll found changes.
+         *
+         * @param feed       The feed that changed.
+         * @param added      Entries that were not in the previous poll.
+         * @param removedIds IDs of entries that are no longer in the feed.
+         */
+        void onFeedChanged(@NonNull ChangeFeed<T> feed, @NonNull List<T> added, @NonNull List<String> removedIds);
+
+        void onPollFailed(@NonNull ChangeFeed<T> feed, @NonNull Throwable throwable);
+    }
+
+    public static class Builder {
+
+        private final SoundCloudService service;
+        private long minIntervalMillis = MIN_INTERVAL_DEFAULT_MILLIS;
+        private long maxIntervalMillis = MAX_INTERVAL_DEFAULT_MILLIS;
+        private double backoff = BACKOFF_DEFAULT;
+        private int pageSize = PAGE_SIZE_DEFAULT;
+
+        public Builder(@NonNull SoundCloudService service) {
+            this.service = service;
+        }
+
+        /**
+         * Sets the bounds of the polling interval.
+         *
+         * @param minIntervalMillis Interval of an active feed, in milliseconds.
+         * @param maxIntervalMillis Interval of a quiet feed, in milliseconds.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setInterval(long minIntervalMillis, long maxIntervalMillis) {
+            this.minIntervalMillis = minIntervalMillis;
+            this.maxIntervalMillis = maxIntervalMillis;
+
+            return this;
+        }
+
+        /**
+         * Sets the factor the interval grows by after each poll without changes.
+         *
+         * @param backoff A factor greater than 1.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setBackoff(double backoff) {
+            this.backoff = backoff;
+
+            return this;
+        }
+
+        /**
+         * Sets how many of the newest entries of a feed are compared.
+         *
+         * @param pageSize Number of entries per poll.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setPageSize(@IntRange(from = 1, to = 200) int pageSize) {
+            this.pageSize = pageSize;
+
+            return this;
+        }
+
+        public ChangeFeedPoller build() {
+            return new ChangeFeedPoller(this);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.sync;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The entries of a mirrored collection that changed in one sync, by ID.
+ */
+public class CollectionChanges {
+
+    static final CollectionChanges NONE = new CollectionChanges(Collections.<String>emptyList(),
+            Collections.<String>emptyList(), Collections.<String>emptyList(), Collections.<String>emptyList());
+
+    private final List<String> added;
+    private final List<String> removed;
+    private final List<String> moved;
+    private final List<String> updated;
+
+    CollectionChanges(List<String> added, List<String> removed, List<String> moved, List<String> updated) {
+        this.added = Collections.unmodifiableList(added);
+        this.removed = Collections.unmodifiableList(removed);
+        this.moved = Collections.unmodifiableList(moved);
+        this.updated = Collections.unmodifiableList(updated);
+    }
+
+    /**
+     * @return Entries that are new to the collection.
+     */
+    public List<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return Entries that are no longer in the collection.
+     */
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return Entries that changed position, such as a track that was favorited again.
+     */
+    public List<String> getMoved() {
+        return moved;
+    }
+
+    /**
+     * @return Entries whose data changed, such as a renamed playlist.
+     */
+    public List<String> getUpdated() {
+        return updated;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty() && moved.isEmpty() && updated.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "CollectionChanges{added=" + added.size() + ", removed=" + removed.size() +
+                ", moved=" + moved.size() + ", updated=" + updated.size() + "}";
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.sync;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.jlubecki.soundcloud.webapi.android.cache.EntityCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Local copy of one {@link MeCollection}: the IDs of its entries in API order and the encoded
+ * entries themselves.
+ * <p/>
+ * The mirror is stored as an append-only log. Each sync appends one length-prefixed record that
+ * replaces the head of the list and carries the entries that are new or changed, so applying a
+ * sync is a single append and a record that was torn by the process dying is dropped on the next
+ * load, leaving the previous state. Entries are read from the log on demand, and the log is
+ * rewritten as a single record once most of it is outdated.
+ */
+public class CollectionMirror<T> {
+
+    private static final int RECORD_VERSION = 1;
+    private static final long COMPACT_MIN_BYTES = 256 * 1024;
+
+    final Object syncLock = new Object();
+
+    private final MeCollection<T> collection;
+    private final File file;
+    private final EntityCodec codec;
+
+    private List<String> ids = Collections.emptyList();
+    private final Map<String, Location> locations = new HashMap<>();
+    private String eTag;
+    private long syncedAt;
+    private long fullSyncedAt;
+    private long liveBytes;
+    private boolean loaded;
+    private RandomAccessFile reader;
+
+    CollectionMirror(MeCollection<T> collection, File file, EntityCodec codec) {
+        this.collection = collection;
+        this.file = file;
+        this.codec = codec;
+    }
+
+    public MeCollection<T> getCollection() {
+        return collection;
+    }
+
+    /**
+     * @return The IDs of the entries, newest first.
+     */
+    public synchronized List<String> getIds() {
+        return ids;
+    }
+
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return When the collection was last checked for changes, in milliseconds since the epoch, or
+     * 0 if it has not been synced since the mirror was loaded.
+     */
+    public synchronized long getSyncedAt() {
+        return syncedAt;
+    }
+
+    /**
+     * @return When the collection was last listed in full, in milliseconds since the epoch.
+     */
+    public synchronized long getFullSyncedAt() {
+        return fullSyncedAt;
+    }
+
+    /**
+     * Reads an entry from disk.
+     *
+     * @param id The ID of the entry.
+     * @return The entry, or null if it is not in the collection or cannot be read.
+     */
+    @Nullable
+    @WorkerThread
+    public T get(@NonNull String id) {
+        byte[] data = read(id);
+
+        if (data == null) {
+            return null;
+        }
+
+        try {
+            return codec.decode(collection.getType(), data);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return The entries as they are now, read from disk as they are accessed.
+     */
+    @WorkerThread
+    public List<T> getEntries() {
+        final List<String> current = getIds();
+
+        return new AbstractList<T>() {
+            @Override
+            public T get(int index) {
+                return CollectionMirror.this.get(current.get(index));
+            }
+
+            @Override
+            public int size() {
+                return current.size();
+            }
+        };
+    }
+
+    synchronized String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Records a check that found no changes.
+     */
+    synchronized void markSynced(long time) {
+        syncedAt = time;
+    }
+
+    /**
+     * @return The encoded entry, or null if it is not in the collection.
+     */
+    synchronized byte[] read(String id) {
+        Location location = locations.get(id);
+
+        if (location == null) {
+            return null;
+        }
+
+        try {
+            if (reader == null) {
+                reader = new RandomAccessFile(file, "r");
+            }
+
+            byte[] data = new byte[location.length];
+            reader.seek(location.offset);
+            reader.readFully(data);
+
+            return data;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the log, dropping a torn record at its end. Does nothing once loaded.
+     */
+    @WorkerThread
+    synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+
+        loaded = true;
+
+        if (!file.exists()) {
+            return;
+        }
+
+        long fileLength = file.length();
+        long validLength = 0;
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            while (true) {
+                byte[] payload;
+
+                try {
+                    int length = input.readInt();
+
+                    if (length < 0 || validLength + 4 + length > fileLength) {
+                        break; // Record that was only partially written.
+                    }
+
+                    payload = new byte[length];
+                    input.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                replay(payload, validLength + 4);
+                validLength += 4 + payload.length;
+            }
+        } finally {
+            input.close();
+        }
+
+        if (validLength < fileLength) {
+            truncate(validLength);
+        }
+    }
+
+    /**
+     * Appends a sync to the log and applies it. The first {@code replacedPrefix} IDs are replaced
+     * by {@code prefix}. Entries of the prefix that also appear after it are moved to the prefix.
+     *
+     * @param replacedPrefix Number of IDs at the head of the list that were re-fetched.
+     * @param prefix         The IDs that replace them.
+     * @param entities       Encoded entries that are new or changed.
+     * @param eTag           ETag of the first page, or null.
+     * @param syncedAt       Time of the sync.
+     * @param fullSyncedAt   Time the collection was last listed in full.
+     */
+    @WorkerThread
+    synchronized void apply(int replacedPrefix, List<String> prefix, Map<String, byte[]> entities,
+                            String eTag, long syncedAt, long fullSyncedAt) throws IOException {
+        byte[] payload = encode(replacedPrefix, prefix, entities, eTag, syncedAt, fullSyncedAt);
+        long start = file.length();
+
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Could not create " + file.getParentFile());
+        }
+
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+
+            try {
+                output.writeInt(payload.length);
+                output.write(payload);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            // Loading stops at a torn record, which would drop every sync appended after it.
+            try {
+                truncate(start);
+            } catch (IOException ignored) {
+                // The next load drops the torn record and whatever follows it.
+            }
+
+            throw e;
+        }
+
+        replay(payload, start + 4);
+
+        if (file.length() > 2 * liveBytes + COMPACT_MIN_BYTES) {
+            compact();
+        }
+    }
+
+    /**
+     * Deletes the mirror.
+     */
+    @WorkerThread
+    synchronized void clear() {
+        closeReader();
+        file.delete();
+
+        ids = Collections.emptyList();
+        locations.clear();
+        eTag = null;
+        syncedAt = 0;
+        fullSyncedAt = 0;
+        liveBytes = 0;
+    }
+
+    private void truncate(long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void replay(byte[] payload, long payloadOffset) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+
+        if (in.readByte() != RECORD_VERSION) {
+            throw new IOException("Unsupported mirror record");
+        }
+
+        long recordSyncedAt = in.readLong();
+        long recordFullSyncedAt = in.readLong();
+        String recordETag = in.readUTF();
+        int replacedPrefix = in.readInt();
+        List<String> prefix = new ArrayList<>();
+
+        for (int i = in.readInt(); i > 0; i--) {
+            prefix.add(in.readUTF());
+        }
+
+        Map<String, Location> written = new HashMap<>();
+
+        for (int i = in.readInt(); i > 0; i--) {
+            String id = in.readUTF();
+            int length = in.readInt();
+            long offset = payloadOffset + payload.length - in.available();
+
+            if (in.skipBytes(length) != length) {
+                throw new EOFException("Truncated mirror record");
+            }
+
+            written.put(id, new Location(offset, length));
+        }
+
+        List<String> merged = merge(ids, Math.min(replacedPrefix, ids.size()), prefix);
+        Set<String> live = new HashSet<>(merged);
+
+        for (String id : ids) {
+            if (!live.contains(id)) {
+                remove(id);
+            }
+        }
+
+        for (Map.Entry<String, Location> entry : written.entrySet()) {
+            if (live.contains(entry.getKey())) {
+                remove(entry.getKey());
+                locations.put(entry.getKey(), entry.getValue());
+                liveBytes += entry.getValue().length;
+            }
+        }
+
+        ids = Collections.unmodifiableList(merged);
+        eTag = recordETag.isEmpty() ? null : recordETag;
+        syncedAt = recordSyncedAt;
+        fullSyncedAt = recordFullSyncedAt;
+    }
+
+    private void remove(String id) {
+        Location location = locations.remove(id);
+
+        if (location != null) {
+            liveBytes -= location.length;
+        }
+    }
+
+    /**
+     * Rewrites the log as a single record holding the current state.
+     */
+    private void compact() throws IOException {
+        Map<String, byte[]> entities = new HashMap<>();
+
+        for (String id : ids) {
+            byte[] data = read(id);
+
+            if (data != null) {
+                entities.put(id, data);
+            }
+        }
+
+        byte[] payload = encode(0, ids, entities, eTag, syncedAt, fullSyncedAt);
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+
+        try {
+            output.writeInt(payload.length);
+            output.write(payload);
+        } finally {
+            output.close();
+        }
+
+        closeReader();
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return; // The old log is still valid.
+        }
+
+        ids = Collections.emptyList();
+        locations.clear();
+        liveBytes = 0;
+        replay(payload, 4);
+    }
+
+    private void closeReader() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // Nothing left to do.
+            }
+
+            reader = null;
+        }
+    }
+
+    private static byte[] encode(int replacedPrefix, List<String> prefix, Map<String, byte[]> entities,
+                                 String eTag, long syncedAt, long fullSyncedAt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeByte(RECORD_VERSION);
+        out.writeLong(syncedAt);
+        out.writeLong(fullSyncedAt);
+        out.writeUTF(eTag != null ? eTag : "");
+        out.writeInt(replacedPrefix);
+        out.writeInt(prefix.size());
+
+        for (String id : prefix) {
+            out.writeUTF(id);
+        }
+
+        out.writeInt(entities.size());
+
+        for (Map.Entry<String, byte[]> entity : entities.entrySet()) {
+            out.writeUTF(entity.getKey());
+            out.writeInt(entity.getValue().length);
+            out.write(entity.getValue());
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces the head of a list, dropping entries of the new head from the rest of the list.
+     */
+    static List<String> merge(List<String> ids, int replacedPrefix, List<String> prefix) {
+        Set<String> head = new HashSet<>(prefix);
+        List<String> merged = new ArrayList<>(prefix.size() + ids.size() - replacedPrefix);
+        merged.addAll(prefix);
+
+        for (int i = replacedPrefix; i < ids.size(); i++) {
+            if (!head.contains(ids.get(i))) {
+                merged.add(ids.get(i));
+            }
+        }
+
+        return merged;
+    }
+
+    private static class Location {
+
+        final long offset;
+        final int length;
+
+        Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
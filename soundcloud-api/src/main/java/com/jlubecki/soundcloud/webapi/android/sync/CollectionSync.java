@@ -0,0 +1,516 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.sync;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.cache.BinaryEntityCodec;
+import com.jlubecki.soundcloud.webapi.android.cache.EntityCodec;
+import com.jlubecki.soundcloud.webapi.android.cache.EntityType;
+import com.jlubecki.soundcloud.webapi.android.query.Pager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Response;
+
+/**
+ * Keeps a {@link CollectionMirror} of each {@link MeCollection} up to date while downloading as
+ * little as possible:
+ * <ul>
+ * <li>The first page is requested with the ETag of the previous sync. A 304 Not Modified answer
+ * ends the sync without a body.</li>
+ * <li>Otherwise pages are fetched from the head of the collection until a run of entries is found
+ * in the same order as in the mirror. Everything after that run is assumed unchanged, so a sync
+ * after a few new favorites costs one page, not the whole collection.</li>
+ * <li>The fetched head is compared with the mirror by ID to find added, removed and moved entries,
+ * and by encoded content to find updated ones. The result is applied to the mirror atomically.</li>
+ * <li>Removals deeper in the collection than the fetched head cannot be seen this way, so the
+ * collection is listed in full and compared by ID set once per full sync interval.</li>
+ * </ul>
+ * Listeners are notified of the changes of each sync on the main thread.
+ */
+public class CollectionSync {
+
+    public static final int PAGE_SIZE_DEFAULT = Pager.LIMIT_MAX;
+    public static final long FULL_SYNC_INTERVAL_DEFAULT_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Number of entries that must match the mirror in order before the rest is assumed unchanged.
+     */
+    private static final int ANCHOR_LENGTH = 5;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    private final SoundCloudService service;
+    private final File directory;
+    private final EntityCodec codec;
+    private final int pageSize;
+    private final long fullSyncIntervalMillis;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ExecutorService executor;
+    private final Map<MeCollection<?>, CollectionMirror<?>> mirrors = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private CollectionSync(Builder builder) {
+        service = builder.service;
+        directory = builder.directory;
+        codec = builder.codec;
+        pageSize = builder.pageSize;
+        fullSyncIntervalMillis = builder.fullSyncIntervalMillis;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "CollectionSync");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    public void addListener(@NonNull Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(@NonNull Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the mirror of a collection. Its contents are available once it has been synced, or
+     * loaded from disk with {@link #load(MeCollection)}.
+     *
+     * @param collection The collection to get the mirror of.
+     * @return The mirror.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> CollectionMirror<T> getMirror(@NonNull MeCollection<T> collection) {
+        CollectionMirror<T> mirror = (CollectionMirror<T>) mirrors.get(collection);
+
+        if (mirror == null) {
+            mirror = new CollectionMirror<>(collection, new File(directory, collection.getName()), codec);
+            mirrors.put(collection, mirror);
+        }
+
+        return mirror;
+    }
+
+    /**
+     * Loads the mirror of a collection from disk without syncing it. A mirror that cannot be read is
+     * deleted and is rebuilt by the next sync.
+     *
+     * @param collection The collection to load.
+     * @return The loaded mirror.
+     */
+    @WorkerThread
+    public <T> CollectionMirror<T> load(@NonNull MeCollection<T> collection) {
+        CollectionMirror<T> mirror = getMirror(collection);
+
+        try {
+            mirror.load();
+        } catch (IOException e) {
+            mirror.clear();
+        }
+
+        return mirror;
+    }
+
+    /**
+     * Syncs every collection in the background, one after the other.
+     */
+    public void syncAll() {
+        for (MeCollection<?> collection : MeCollection.values()) {
+            sync(collection, false);
+        }
+    }
+
+    /**
+     * Syncs a collection in the background.
+     *
+     * @param collection The collection to sync.
+     * @param full       Whether to list the whole collection even if the full sync interval has not
+     *                   passed.
+     */
+    public void sync(@NonNull final MeCollection<?> collection, final boolean full) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    syncNow(collection, full);
+                } catch (final IOException e) {
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (Listener listener : listeners) {
+                                listener.onSyncFailed(collection, e);
+                            }
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Syncs a collection on the calling thread. Concurrent syncs of the same collection run one
+     * after the other.
+     *
+     * @param collection The collection to sync.
+     * @param full       Whether to list the whole collection even if the full sync interval has not
+     *                   passed.
+     * @return The changes that were applied to the mirror.
+     * @throws IOException if a request failed or the mirror could not be written. The mirror is
+     *                     left as it was.
+     */
+    @WorkerThread
+    public <T> CollectionChanges syncNow(@NonNull final MeCollection<T> collection, boolean full) throws IOException {
+        CollectionMirror<T> mirror = load(collection);
+        final CollectionChanges changes;
+
+        synchronized (mirror.syncLock) {
+            changes = sync(mirror, full);
+        }
+
+        if (!changes.isEmpty()) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener listener : listeners) {
+                        listener.onCollectionChanged(collection, changes);
+                    }
+                }
+            });
+        }
+
+        return changes;
+    }
+
+    /**
+     * Stops the background thread. Syncs that were already requested still complete.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private <T> CollectionChanges sync(CollectionMirror<T> mirror, boolean full) throws IOException {
+        MeCollection<T> collection = mirror.getCollection();
+        EntityType<T> type = collection.getType();
+        long now = System.currentTimeMillis();
+
+        full = full || now - mirror.getFullSyncedAt() >= fullSyncIntervalMillis;
+
+        List<String> old = mirror.getIds();
+        Map<String, Integer> oldIndex = new HashMap<>(old.size() * 2);
+
+        for (int i = 0; i < old.size(); i++) {
+            oldIndex.put(old.get(i), i);
+        }
+
+        List<String> fetchedIds = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        List<T> fetched = new ArrayList<>();
+        String eTag = null;
+        int[] anchor = null;
+
+        for (int offset = 0; ; offset += pageSize) {
+            String conditional = offset == 0 && !full ? mirror.getETag() : null;
+            Response<List<T>> response = collection.fetch(service, page(offset), conditional).execute();
+
+            if (response.code() == HTTP_NOT_MODIFIED) {
+                mirror.markSynced(now);
+                return CollectionChanges.NONE;
+            }
+
+            if (!response.isSuccessful()) {
+                throw new IOException("Sync of " + collection + " failed with HTTP " + response.code());
+            }
+
+            if (offset == 0) {
+                eTag = response.headers().get("ETag");
+            }
+
+            List<T> page = response.body() != null ? response.body() : new ArrayList<T>(0);
+
+            for (T entity : page) {
+                String id = entity != null ? type.idOf(entity) : null;
+
+                // Entries shift between pages when the collection changes during the sync.
+                if (id != null && seen.add(id)) {
+                    fetchedIds.add(id);
+                    fetched.add(entity);
+                }
+            }
+
+            if (!full) {
+                anchor = findAnchor(fetchedIds, old, oldIndex);
+
+                if (anchor != null) {
+                    break;
+                }
+            }
+
+            if (page.size() < pageSize) {
+                break;
+            }
+        }
+
+        // Without an anchor the whole collection was listed.
+        int prefixLength = anchor != null ? anchor[0] : fetchedIds.size();
+        int replacedPrefix = anchor != null ? anchor[1] : old.size();
+        long fullSyncedAt = anchor != null ? mirror.getFullSyncedAt() : now;
+
+        List<String> prefix = fetchedIds.subList(0, prefixLength);
+        Set<String> prefixSet = new HashSet<>(prefix);
+        Map<String, byte[]> entities = new LinkedHashMap<>();
+        List<String> added = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+        List<String> moved = new ArrayList<>();
+        List<String> updated = new ArrayList<>();
+        List<String> kept = new ArrayList<>();
+        List<Integer> keptIndexes = new ArrayList<>();
+
+        for (int i = 0; i < prefixLength; i++) {
+            String id = prefix.get(i);
+            byte[] data = codec.encode(type, fetched.get(i));
+            Integer index = oldIndex.get(id);
+
+            if (index == null) {
+                added.add(id);
+                entities.put(id, data);
+                continue;
+            }
+
+            if (index >= replacedPrefix) {
+                moved.add(id); // Jumped ahead from the part of the list that was not re-fetched.
+            } else {
+                kept.add(id);
+                keptIndexes.add(index);
+            }
+
+            if (!Arrays.equals(data, mirror.read(id))) {
+                updated.add(id);
+                entities.put(id, data);
+            }
+        }
+
+        // The fewest entries that explain the new order are the ones outside the longest run that
+        // kept its relative order.
+        boolean[] inOrder = longestIncreasing(keptIndexes);
+
+        for (int i = 0; i < kept.size(); i++) {
+            if (!inOrder[i]) {
+                moved.add(kept.get(i));
+            }
+        }
+
+        for (int i = 0; i < replacedPrefix; i++) {
+            if (!prefixSet.contains(old.get(i))) {
+                removed.add(old.get(i));
+            }
+        }
+
+        CollectionChanges changes = new CollectionChanges(added, removed, moved, updated);
+
+        if (changes.isEmpty() && fullSyncedAt == mirror.getFullSyncedAt() && equal(eTag, mirror.getETag())) {
+            mirror.markSynced(now);
+        } else if (changes.isEmpty()) {
+            // Only the ETag and sync times are new.
+            mirror.apply(0, new ArrayList<String>(0), entities, eTag, now, fullSyncedAt);
+        } else {
+            mirror.apply(replacedPrefix, prefix, entities, eTag, now, fullSyncedAt);
+        }
+
+        return changes;
+    }
+
+    /**
+     * Finds the first fetched entry that starts a run of entries in the same order as the mirror.
+     *
+     * @return The index of the entry in the fetched list and in the mirror, or null if there is no
+     * such run yet.
+     */
+    private static int[] findAnchor(List<String> fetchedIds, List<String> old, Map<String, Integer> oldIndex) {
+        for (int i = 0; i < fetchedIds.size(); i++) {
+            Integer j = oldIndex.get(fetchedIds.get(i));
+
+            if (j == null) {
+                continue;
+            }
+
+            int run = Math.min(ANCHOR_LENGTH, old.size() - j);
+
+            if (i + run > fetchedIds.size()) {
+                return null; // Needs the next page to tell.
+            }
+
+            boolean matches = true;
+
+            for (int k = 1; k < run && matches; k++) {
+                matches = fetchedIds.get(i + k).equals(old.get(j + k));
+            }
+
+            if (matches) {
+                return new int[]{i, j};
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Marks the members of a longest strictly increasing subsequence, in O(n log n).
+     */
+    private static boolean[] longestIncreasing(List<Integer> values) {
+        int n = values.size();
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+
+        for (int i = 0; i < n; i++) {
+            int low = 0;
+            int high = length;
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+
+                if (values.get(tails[middle]) < values.get(i)) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            length = Math.max(length, low + 1);
+        }
+
+        boolean[] members = new boolean[n];
+
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            members[i] = true;
+        }
+
+        return members;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private Map<String, String> page(int offset) {
+        Map<String, String> page = new HashMap<>();
+        page.put(Pager.LIMIT, String.valueOf(pageSize));
+        page.put(Pager.OFFSET, String.valueOf(offset));
+
+        return page;
+    }
+
+    public interface Listener {
+
+        /**
+         * Called after a sync changed a mirror.
+         */
+        void onCollectionChanged(@NonNull MeCollection<?> collection, @NonNull CollectionChanges changes);
+
+        void onSyncFailed(@NonNull MeCollection<?> collection, @NonNull Throwable throwable);
+    }
+
+    public static class Builder {
+
+        private final SoundCloudService service;
+        private final File directory;
+        private EntityCodec codec;
+        private int pageSize = PAGE_SIZE_DEFAULT;
+        private long fullSyncIntervalMillis = FULL_SYNC_INTERVAL_DEFAULT_MILLIS;
+
+        /**
+         * @param service   The service to sync with.
+         * @param directory Directory to store the mirrors in, such as a folder in
+         *                  {@link android.content.Context#getFilesDir()}.
+         */
+        public Builder(@NonNull SoundCloudService service, @NonNull File directory) {
+            this.service = service;
+            this.directory = directory;
+        }
+
+        /**
+         * Sets the codec entries are stored with. Defaults to {@link BinaryEntityCodec}.
+         *
+         * @param codec The codec.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setCodec(@NonNull EntityCodec codec) {
+            this.codec = codec;
+
+            return this;
+        }
+
+        public Builder setPageSize(@IntRange(from = ANCHOR_LENGTH, to = 200) int pageSize) {
+            this.pageSize = pageSize;
+
+            return this;
+        }
+
+        /**
+         * Sets how often a collection is listed in full to find entries removed deep in the list.
+         *
+         * @param fullSyncIntervalMillis Interval in milliseconds.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setFullSyncInterval(long fullSyncIntervalMillis) {
+            this.fullSyncIntervalMillis = fullSyncIntervalMillis;
+
+            return this;
+        }
+
+        public CollectionSync build() {
+            if (codec == null) {
+                codec = new BinaryEntityCodec();
+            }
+
+            return new CollectionSync(this);
+        }
+    }
+}
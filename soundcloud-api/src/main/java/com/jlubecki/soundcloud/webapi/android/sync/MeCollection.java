@@ -0,0 +1,116 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.sync;
+
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.cache.EntityType;
+import com.jlubecki.soundcloud.webapi.android.models.Playlist;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.models.User;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import retrofit2.Call;
+
+/**
+ * A collection of the authenticated user that can be mirrored locally. Each collection is listed
+ * by the API newest first, which lets a sync stop paging once it reaches entries it already has.
+ *
+ * @param <T> The model class of the entries.
+ */
+public abstract class MeCollection<T> {
+
+    public static final MeCollection<Track> FAVORITES = new MeCollection<Track>("favorites", EntityType.TRACK) {
+        @Override
+        Call<List<Track>> fetch(SoundCloudService service, Map<String, String> page, String eTag) {
+            return service.getMyFavorites(page, eTag);
+        }
+    };
+
+    public static final MeCollection<User> FOLLOWINGS = new MeCollection<User>("followings", EntityType.USER) {
+        @Override
+        Call<List<User>> fetch(SoundCloudService service, Map<String, String> page, String eTag) {
+            return service.getMyFollowings(page, eTag);
+        }
+    };
+
+    public static final MeCollection<Playlist> PLAYLISTS = new MeCollection<Playlist>("playlists", EntityType.PLAYLIST) {
+        @Override
+        Call<List<Playlist>> fetch(SoundCloudService service, Map<String, String> page, String eTag) {
+            return service.getMyPlaylists(page, eTag);
+        }
+    };
+
+    public static final MeCollection<Track> TRACKS = new MeCollection<Track>("tracks", EntityType.TRACK) {
+        @Override
+        Call<List<Track>> fetch(SoundCloudService service, Map<String, String> page, String eTag) {
+            return service.getMyTracks(page, eTag);
+        }
+    };
+
+    private static final List<MeCollection<?>> VALUES = Collections.unmodifiableList(
+            Arrays.<MeCollection<?>>asList(FAVORITES, FOLLOWINGS, PLAYLISTS, TRACKS));
+
+    private final String name;
+    private final EntityType<T> type;
+
+    private MeCollection(String name, EntityType<T> type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * @return Every collection that can be mirrored.
+     */
+    public static List<MeCollection<?>> values() {
+        return VALUES;
+    }
+
+    /**
+     * @return The name of the collection below "me/", such as "favorites".
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return The type of the entries of the collection.
+     */
+    public EntityType<T> getType() {
+        return type;
+    }
+
+    abstract Call<List<T>> fetch(SoundCloudService service, Map<String, String> page, String eTag);
+
+    @Override
+    public String toString() {
+        return "me/" + name;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import java.io.IOException;
+import java.util.Map;
+
+import okhttp3.RequestBody;
+
+/**
+ * The protocol {@link ResumableUploader} uses to send a file in chunks. A session is opened for a
+ * file, chunks are sent in order, and the server acknowledges how many bytes it has stored, so an
+ * interrupted upload continues from the last acknowledged byte. All methods block.
+ *
+ * @see ContentRangeTransport
+ */
+public interface ChunkTransport {
+
+    /**
+     * Opens an upload session.
+     *
+     * @param contentHash Hex encoded SHA-1 of the file.
+     * @param length      Length of the file in bytes.
+     * @param fields      Form fields describing the track, such as "track[title]".
+     * @return An opaque identifier of the session, stored to resume the upload later.
+     */
+    @WorkerThread
+    String open(@NonNull String contentHash, long length, @NonNull Map<String, String> fields) throws IOException;
+
+    /**
+     * @param session The session returned by {@link #open(String, long, Map)}.
+     * @param length  Length of the file in bytes.
+     * @return Number of bytes the server has stored, or -1 if the session no longer exists.
+     */
+    @WorkerThread
+    long getOffset(@NonNull String session, long length) throws IOException;
+
+    /**
+     * Sends a chunk starting at the given offset.
+     *
+     * @param session The session to send to.
+     * @param offset  Position of the first byte of the chunk in the file.
+     * @param length  Length of the file in bytes.
+     * @param chunk   The bytes to send, with a known content length.
+     * @return Number of bytes the server has stored after receiving the chunk.
+     */
+    @WorkerThread
+    long sendChunk(@NonNull String session, long offset, long length, @NonNull RequestBody chunk) throws IOException;
+
+    /**
+     * Completes a session whose bytes have all been acknowledged.
+     *
+     * @return The created track.
+     */
+    @WorkerThread
+    Track finish(@NonNull String session, long length) throws IOException;
+}
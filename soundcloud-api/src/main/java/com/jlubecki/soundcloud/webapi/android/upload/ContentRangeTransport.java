@@ -0,0 +1,203 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import android.support.annotation.NonNull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import java.io.IOException;
+import java.util.Map;
+
+import okhttp3.FormBody;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * A {@link ChunkTransport} for servers speaking the common resumable upload protocol based on
+ * "Content-Range":
+ * <ul>
+ * <li>A POST of the track fields to the endpoint, with the "X-Upload-Content-Length" and
+ * "X-Upload-Content-SHA1" headers, answers with the session URL in its "Location" header.</li>
+ * <li>Each chunk is a PUT to the session URL with "Content-Range: bytes first-last/length". The
+ * server answers 308 with "Range: bytes=0-last" while bytes are missing.</li>
+ * <li>A PUT without a body and "Content-Range: bytes &#42;/length" asks for the stored range, and
+ * once every byte is stored it answers 200 or 201 with the created track.</li>
+ * </ul>
+ * The client must authenticate its requests, for example with an interceptor adding the OAuth token.
+ */
+public class ContentRangeTransport implements ChunkTransport {
+
+    private static final int RESUME_INCOMPLETE = 308;
+
+    private static final RequestBody EMPTY = RequestBody.create(null, new byte[0]);
+
+    private final OkHttpClient client;
+    private final HttpUrl endpoint;
+    private final Gson gson = new Gson();
+
+    /**
+     * @param client   The client to send requests with.
+     * @param endpoint URL that opens upload sessions.
+     */
+    public ContentRangeTransport(@NonNull OkHttpClient client, @NonNull HttpUrl endpoint) {
+        this.client = client;
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public String open(@NonNull String contentHash, long length, @NonNull Map<String, String> fields)
+            throws IOException {
+        FormBody.Builder form = new FormBody.Builder();
+
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            form.add(field.getKey(), field.getValue());
+        }
+
+        Request request = new Request.Builder()
+                .url(endpoint)
+                .header("X-Upload-Content-Length", String.valueOf(length))
+                .header("X-Upload-Content-SHA1", contentHash)
+                .post(form.build())
+                .build();
+
+        Response response = client.newCall(request).execute();
+
+        try {
+            String location = response.header("Location");
+
+            if (!response.isSuccessful() || location == null) {
+                throw new IOException("Opening the upload session failed with HTTP " + response.code());
+            }
+
+            HttpUrl session = endpoint.resolve(location);
+
+            if (session == null) {
+                throw new IOException("Invalid upload session URL " + location);
+            }
+
+            return session.toString();
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public long getOffset(@NonNull String session, long length) throws IOException {
+        Response response = query(session, length);
+
+        try {
+            if (response.code() == 404 || response.code() == 410) {
+                return -1;
+            }
+
+            return acknowledged(response, length);
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public long sendChunk(@NonNull String session, long offset, long length, @NonNull RequestBody chunk)
+            throws IOException {
+        long last = offset + chunk.contentLength() - 1;
+
+        Request request = new Request.Builder()
+                .url(session)
+                .header("Content-Range", "bytes " + offset + "-" + last + "/" + length)
+                .put(chunk)
+                .build();
+
+        Response response = client.newCall(request).execute();
+
+        try {
+            return acknowledged(response, length);
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public Track finish(@NonNull String session, long length) throws IOException {
+        Response response = query(session, length);
+
+        try {
+            if (!response.isSuccessful()) {
+                throw new IOException("Completing the upload failed with HTTP " + response.code());
+            }
+
+            Track track = gson.fromJson(response.body().charStream(), Track.class);
+
+            if (track == null) {
+                throw new IOException("The server did not return the uploaded track");
+            }
+
+            return track;
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid track in upload response", e);
+        } finally {
+            response.close();
+        }
+    }
+
+    private Response query(String session, long length) throws IOException {
+        Request request = new Request.Builder()
+                .url(session)
+                .header("Content-Range", "bytes */" + length)
+                .put(EMPTY)
+                .build();
+
+        return client.newCall(request).execute();
+    }
+
+    private static long acknowledged(Response response, long length) throws IOException {
+        if (response.isSuccessful()) {
+            return length;
+        }
+
+        if (response.code() != RESUME_INCOMPLETE) {
+            throw new IOException("Upload request failed with HTTP " + response.code());
+        }
+
+        String range = response.header("Range");
+
+        if (range == null) {
+            return 0;
+        }
+
+        int dash = range.lastIndexOf('-');
+
+        try {
+            return Long.parseLong(range.substring(dash + 1).trim()) + 1;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Range header " + range, e);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Streams the contents of an {@link InputStream} into a request in fixed size buffers, so the
+ * memory used does not depend on the length of the stream. A stream can only be read once, so the
+ * body can only be written once as well. The stream is closed after it has been written.
+ */
+public class InputStreamRequestBody extends RequestBody {
+
+    public static final int BUFFER_SIZE = 8 * 1024;
+
+    private final MediaType contentType;
+    private final InputStream stream;
+    private final long length;
+
+    private boolean written;
+
+    /**
+     * @param contentType The media type of the stream, or null.
+     * @param stream      The stream to send.
+     * @param length      Number of bytes the stream holds, or -1 if it is unknown, in which case the
+     *                    request is sent with chunked transfer encoding.
+     */
+    public InputStreamRequestBody(@Nullable MediaType contentType, @NonNull InputStream stream, long length) {
+        this.contentType = contentType;
+        this.stream = stream;
+        this.length = length;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        synchronized (this) {
+            if (written) {
+                throw new IOException("The stream has already been sent and cannot be read again");
+            }
+
+            written = true;
+        }
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+
+        try {
+            while (remaining != 0) {
+                int max = remaining < 0 ? buffer.length : (int) Math.min(buffer.length, remaining);
+                int read = stream.read(buffer, 0, max);
+
+                if (read == -1) {
+                    break;
+                }
+
+                sink.write(buffer, 0, read);
+
+                if (remaining > 0) {
+                    remaining -= read;
+                }
+            }
+        } finally {
+            stream.close();
+        }
+
+        if (remaining > 0) {
+            throw new IOException("Stream ended " + remaining + " bytes before its declared length");
+        }
+    }
+}
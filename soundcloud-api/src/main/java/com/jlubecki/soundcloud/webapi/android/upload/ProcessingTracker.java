@@ -0,0 +1,509 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.batch.TrackBatchLoader;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.query.Pager;
+import com.jlubecki.soundcloud.webapi.android.query.TrackQuery;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Response;
+
+/**
+ * Waits for uploaded tracks to leave {@link Track.State#PROCESSING}. Instead of polling each track,
+ * the states of every track that is due are checked together in "tracks?ids=" requests:
+ * <ul>
+ * <li>Each track is checked less often the longer it processes, up to a maximum interval.</li>
+ * <li>The first check of a new track waits for most of the time recent tracks took to process.</li>
+ * <li>Tracks due soon join the batch of a check that is made anyway, so hundreds of uploads cost a
+ * few requests per interval.</li>
+ * <li>Failed requests, including rate limiting, back off every track until a request succeeds.</li>
+ * </ul>
+ * Tracks the search does not return, such as private ones, are looked for on the first pages of the
+ * user's own tracks, and the rest are looked up one by one. A failed lookup only delays the tracks
+ * that were not found yet. The {@link Listener} is notified on the main thread.
+ */
+public class ProcessingTracker {
+
+    public static final long INITIAL_INTERVAL_DEFAULT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    public static final long MAX_INTERVAL_DEFAULT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    public static final double BACKOFF_DEFAULT = 1.5;
+    public static final long TIMEOUT_DEFAULT_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Share of its interval by which a track may be checked early to join a batch.
+     */
+    private static final double EARLY_SHARE = 0.5;
+
+    /**
+     * Share of the average processing time to wait before the first check of a track.
+     */
+    private static final double FIRST_CHECK_SHARE = 0.75;
+
+    /**
+     * Weight of the latest processing time in their running average.
+     */
+    private static final double ESTIMATE_WEIGHT = 0.25;
+
+    private static final double JITTER = 0.1;
+    private static final int MAX_PENALTY = 16;
+    /**
+     * Pages of the user's own tracks searched for tracks the search did not return.
+     */
+    private static final int OWN_PAGES_MAX = 2;
+
+    private static final int SEPARATOR_LENGTH = "%2C%20".length();
+
+    private final SoundCloudService service;
+    private final long initialIntervalMillis;
+    private final long maxIntervalMillis;
+    private final double backoff;
+    private final long timeoutMillis;
+    private final int maxBatchSize;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Pending> pending = new LinkedHashMap<>();
+
+    private ScheduledFuture<?> next;
+    private long nextAt;
+    private double averageProcessingMillis;
+    private int penalty = 1;
+
+    private ProcessingTracker(Builder builder) {
+        service = builder.service;
+        initialIntervalMillis = builder.initialIntervalMillis;
+        maxIntervalMillis = builder.maxIntervalMillis;
+        backoff = builder.backoff;
+        timeoutMillis = builder.timeoutMillis;
+        maxBatchSize = builder.maxBatchSize;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "ProcessingTracker");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts tracking a track returned by an upload. A track that already finished or failed is
+     * reported right away.
+     *
+     * @param track    The uploaded track.
+     * @param listener Notified once the track has been processed.
+     */
+    public void track(@NonNull final Track track, @NonNull final Listener listener) {
+        if (Track.State.FINISHED.toString().equals(track.state) || Track.State.FAILED.toString().equals(track.state)) {
+            deliver(track.id, track, listener);
+            return;
+        }
+
+        track(track.id, listener);
+    }
+
+    /**
+     * Starts tracking a track by ID, replacing an earlier listener for the same track.
+     *
+     * @param trackId  ID of the uploaded track.
+     * @param listener Notified once the track has been processed.
+     */
+    public synchronized void track(@NonNull String trackId, @NonNull Listener listener) {
+        long now = System.currentTimeMillis();
+        long delay = (long) Math.max(initialIntervalMillis, averageProcessingMillis * FIRST_CHECK_SHARE);
+
+        Pending entry = new Pending(trackId, listener, now);
+        entry.dueAt = now + jitter(delay);
+        pending.put(trackId, entry);
+
+        reschedule(now);
+    }
+
+    /**
+     * Stops tracking a track without notifying its listener.
+     *
+     * @param trackId ID of the track.
+     */
+    public synchronized void untrack(@NonNull String trackId) {
+        pending.remove(trackId);
+    }
+
+    /**
+     * @return Number of tracks still processing.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stops tracking every track.
+     */
+    public synchronized void shutdown() {
+        pending.clear();
+        scheduler.shutdownNow();
+    }
+
+    private void reschedule(long now) {
+        long earliest = Long.MAX_VALUE;
+
+        for (Pending entry : pending.values()) {
+            earliest = Math.min(earliest, entry.dueAt);
+        }
+
+        if (earliest == Long.MAX_VALUE || next != null && nextAt <= earliest) {
+            return;
+        }
+
+        if (next != null) {
+            next.cancel(false);
+        }
+
+        nextAt = earliest;
+        next = scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, Math.max(0, earliest - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        List<List<String>> batches = new ArrayList<>();
+
+        synchronized (this) {
+            next = null;
+
+            long now = System.currentTimeMillis();
+            List<String> batch = new ArrayList<>();
+            int length = 0;
+
+            for (Pending entry : pending.values()) {
+                if (entry.dueAt - now > entry.intervalMillis * EARLY_SHARE) {
+                    continue;
+                }
+
+                int idLength = entry.trackId.length() + SEPARATOR_LENGTH;
+
+                if (!batch.isEmpty() && (batch.size() >= maxBatchSize ||
+                        length + idLength > TrackBatchLoader.MAX_IDS_LENGTH_DEFAULT)) {
+                    batches.add(batch);
+                    batch = new ArrayList<>();
+                    length = 0;
+                }
+
+                batch.add(entry.trackId);
+                length += idLength;
+            }
+
+            if (!batch.isEmpty()) {
+                batches.add(batch);
+            }
+        }
+
+        try {
+            for (List<String> ids : batches) {
+                Map<String, Track> tracks;
+
+                try {
+                    tracks = fetch(ids);
+                } catch (IOException | RuntimeException e) {
+                    tracks = null; // Runtime exceptions include responses Gson could not convert.
+                }
+
+                update(ids, tracks);
+            }
+        } finally {
+            synchronized (this) {
+                reschedule(System.currentTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Fetches the tracks in one search. Tracks it did not return, such as private ones, are looked
+     * for among the newest tracks of the user, and the rest one by one.
+     *
+     * @return The tracks that were checked, mapped to null if they no longer exist. A track is
+     * missing if it could not be checked.
+     * @throws IOException if the search failed.
+     */
+    private Map<String, Track> fetch(List<String> ids) throws IOException {
+        TrackQuery query = new TrackQuery.Builder()
+                .setIds(ids.toArray(new String[ids.size()]))
+                .build();
+
+        Response<List<Track>> response = service.searchTracks(query.page(ids.size(), 0)).execute();
+
+        if (!response.isSuccessful()) {
+            throw new IOException("Checking processing states failed with HTTP " + response.code());
+        }
+
+        Map<String, Track> tracks = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>(ids);
+
+        if (response.body() != null) {
+            for (Track track : response.body()) {
+                if (track != null && track.id != null && missing.remove(track.id)) {
+                    tracks.put(track.id, track);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            fetchOwn(missing, tracks);
+        }
+
+        for (String id : missing) {
+            Response<Track> single;
+
+            try {
+                single = service.getTrack(id).execute();
+            } catch (IOException e) {
+                break; // The remaining tracks are checked next time.
+            }
+
+            if (single.isSuccessful() && single.body() != null) {
+                tracks.put(id, single.body());
+            } else if (single.code() == 404) {
+                tracks.put(id, null);
+            } else if (single.code() == 429 || single.code() >= 500) {
+                break;
+            }
+        }
+
+        return tracks;
+    }
+
+    /**
+     * Looks for tracks among the newest tracks of the user, a page at a time. Tracks still
+     * processing were uploaded recently, so they are on the first pages if they are there at all.
+     *
+     * @param missing The tracks to look for. Tracks that are found are removed.
+     * @param tracks  The tracks found so far, which the tracks that are found are added to.
+     */
+    private void fetchOwn(Set<String> missing, Map<String, Track> tracks) {
+        for (int page = 0; page < OWN_PAGES_MAX && !missing.isEmpty(); page++) {
+            Map<String, String> parameters = new HashMap<>();
+            parameters.put(Pager.LIMIT, String.valueOf(Pager.LIMIT_MAX));
+            parameters.put(Pager.OFFSET, String.valueOf(page * Pager.LIMIT_MAX));
+
+            Response<List<Track>> response;
+
+            try {
+                response = service.getMyTracks(parameters, null).execute();
+            } catch (IOException e) {
+                return;
+            }
+
+            List<Track> body = response.body();
+
+            if (!response.isSuccessful() || body == null) {
+                return;
+            }
+
+            for (Track track : body) {
+                if (track != null && track.id != null && missing.remove(track.id)) {
+                    tracks.put(track.id, track);
+                }
+            }
+
+            if (body.size() < Pager.LIMIT_MAX) {
+                return; // The last page.
+            }
+        }
+    }
+
+    /**
+     * Applies the result of a check.
+     *
+     * @param tracks The tracks that were checked, mapped to null if they no longer exist, or null
+     *               if the check failed.
+     */
+    private synchronized void update(List<String> ids, @Nullable Map<String, Track> tracks) {
+        long now = System.currentTimeMillis();
+        penalty = tracks != null ? 1 : Math.min(penalty * 2, MAX_PENALTY);
+
+        for (String id : ids) {
+            Pending entry = pending.get(id);
+
+            if (entry == null) {
+                continue; // Untracked while the check was running.
+            }
+
+            boolean checked = tracks != null && tracks.containsKey(id);
+            Track track = checked ? tracks.get(id) : null;
+            String state = track != null ? track.state : null;
+
+            if (Track.State.FINISHED.toString().equals(state)) {
+                long took = now - entry.startedAt;
+                averageProcessingMillis = averageProcessingMillis > 0 ?
+                        ESTIMATE_WEIGHT * took + (1 - ESTIMATE_WEIGHT) * averageProcessingMillis : took;
+            }
+
+            if (Track.State.FINISHED.toString().equals(state) || Track.State.FAILED.toString().equals(state) ||
+                    checked && track == null || now - entry.startedAt > timeoutMillis) {
+                pending.remove(id);
+                deliver(id, track, entry.listener);
+                continue;
+            }
+
+            entry.intervalMillis = (long) Math.min(maxIntervalMillis, entry.intervalMillis * backoff);
+            entry.dueAt = now + jitter(entry.intervalMillis * penalty);
+        }
+    }
+
+    private void deliver(final String trackId, final Track track, final Listener listener) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (track != null && Track.State.FINISHED.toString().equals(track.state)) {
+                    listener.onProcessingFinished(track);
+                } else {
+                    listener.onProcessingFailed(trackId, track);
+                }
+            }
+        });
+    }
+
+    private long jitter(long delayMillis) {
+        return (long) (delayMillis * (1 + JITTER * (2 * random.nextDouble() - 1)));
+    }
+
+    private class Pending {
+
+        final String trackId;
+        final Listener listener;
+        final long startedAt;
+
+        long intervalMillis = initialIntervalMillis;
+        long dueAt;
+
+        Pending(String trackId, Listener listener, long startedAt) {
+            this.trackId = trackId;
+            this.listener = listener;
+            this.startedAt = startedAt;
+        }
+    }
+
+    public interface Listener {
+
+        void onProcessingFinished(@NonNull Track track);
+
+        /**
+         * Called when processing failed, the track was deleted, or it was still processing when the
+         * timeout ran out.
+         *
+         * @param trackId ID of the track.
+         * @param track   The last state of the track, or null if it was not found.
+         */
+        void onProcessingFailed(@NonNull String trackId, @Nullable Track track);
+    }
+
+    public static class Builder {
+
+        private final SoundCloudService service;
+        private long initialIntervalMillis = INITIAL_INTERVAL_DEFAULT_MILLIS;
+        private long maxIntervalMillis = MAX_INTERVAL_DEFAULT_MILLIS;
+        private double backoff = BACKOFF_DEFAULT;
+        private long timeoutMillis = TIMEOUT_DEFAULT_MILLIS;
+        private int maxBatchSize = Pager.LIMIT_MAX;
+
+        public Builder(@NonNull SoundCloudService service) {
+            this.service = service;
+        }
+
+        /**
+         * Sets the bounds of the interval between two checks of a track.
+         *
+         * @param initialIntervalMillis Interval after the track was added, in milliseconds.
+         * @param maxIntervalMillis     Interval of a track that has been processing for long.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setInterval(long initialIntervalMillis, long maxIntervalMillis) {
+            this.initialIntervalMillis = initialIntervalMillis;
+            this.maxIntervalMillis = maxIntervalMillis;
+
+            return this;
+        }
+
+        /**
+         * Sets the factor the interval of a track grows by after each check that finds it processing.
+         *
+         * @param backoff A factor of at least 1.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setBackoff(double backoff) {
+            this.backoff = backoff;
+
+            return this;
+        }
+
+        /**
+         * Sets how long a track may process before it is reported as failed.
+         *
+         * @param timeoutMillis Time in milliseconds.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setTimeout(long timeoutMillis) {
+            this.timeoutMillis = timeoutMillis;
+
+            return this;
+        }
+
+        public Builder setMaxBatchSize(@IntRange(from = 1, to = 200) int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+
+            return this;
+        }
+
+        public ProcessingTracker build() {
+            return new ProcessingTracker(this);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * Wraps a request body to count the bytes written to the connection and to stop writing when the
+ * upload is cancelled. OkHttp writes bodies in segments, so progress is reported every few
+ * kilobytes and a cancellation takes effect before the next segment is sent.
+ */
+public class ProgressRequestBody extends RequestBody {
+
+    private final RequestBody delegate;
+    private final ProgressListener listener;
+
+    private volatile boolean canceled;
+    private volatile long bytesWritten;
+
+    /**
+     * @param delegate The body to send.
+     * @param listener Notified on the thread writing the request every time bytes are sent.
+     */
+    public ProgressRequestBody(@NonNull RequestBody delegate, @NonNull ProgressListener listener) {
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return delegate.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return delegate.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        final long total = contentLength();
+        bytesWritten = 0;
+
+        BufferedSink counting = Okio.buffer(new ForwardingSink(sink) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                if (canceled) {
+                    throw new IOException("Canceled");
+                }
+
+                super.write(source, byteCount);
+
+                bytesWritten += byteCount;
+                listener.onProgress(bytesWritten, total);
+            }
+        });
+
+        delegate.writeTo(counting);
+        counting.flush();
+    }
+
+    /**
+     * Stops writing the body. The request fails with an {@link IOException} before its next segment.
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * @return Number of bytes written by the current or last attempt to send the body.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public interface ProgressListener {
+
+        /**
+         * @param bytesWritten Number of bytes sent so far.
+         * @param totalBytes   Length of the body, or -1 if it is unknown.
+         */
+        void onProgress(long bytesWritten, long totalBytes);
+    }
+}
@@ -0,0 +1,706 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import okhttp3.MediaType;
+import retrofit2.Response;
+
+/**
+ * Uploads tracks so that a failure does not start the upload over.
+ * <ul>
+ * <li>Each file is hashed before any bytes are sent. When this account already uploaded a file
+ * with the same content and the track still exists, that track is returned instead.</li>
+ * <li>With a {@link ChunkTransport}, the file is sent in chunks. The session of each upload is
+ * stored in the state directory, so an upload interrupted by a network failure, a cancellation or
+ * the process dying continues from the last chunk the server acknowledged.</li>
+ * <li>Without a transport the file is sent in a single {@link TrackUpload}, since the SoundCloud
+ * API only accepts whole files. Failed attempts are retried, but start from the beginning.</li>
+ * </ul>
+ * Failed requests are retried with exponential backoff. Uploads run one at a time on a background
+ * thread and the {@link Listener} is notified on the main thread.
+ * <p/>
+ * The state directory records which content was uploaded, so each account needs its own directory.
+ */
+public class ResumableUploader {
+
+    public static final int CHUNK_SIZE_DEFAULT = 1024 * 1024;
+    public static final int MAX_ATTEMPTS_DEFAULT = 5;
+    public static final long RETRY_DELAY_DEFAULT_MILLIS = 1000;
+
+    private static final int STATE_VERSION = 1;
+    private static final String STATE_SUFFIX = ".upload";
+    private static final String LEDGER_NAME = "uploaded";
+    private static final String CHARSET = "UTF-8";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    private final SoundCloudService service;
+    private final ChunkTransport transport;
+    private final File directory;
+    private final int chunkSize;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final ExecutorService executor;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Content hash to track ID. Only accessed on the executor thread.
+    private Map<String, String> uploaded;
+
+    private ResumableUploader(Builder builder) {
+        service = builder.service;
+        transport = builder.transport;
+        directory = builder.directory;
+        chunkSize = builder.chunkSize;
+        maxAttempts = builder.maxAttempts;
+        retryDelayMillis = builder.retryDelayMillis;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, "ResumableUploader");
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues an upload. Uploading a file whose previous upload was interrupted resumes it.
+     *
+     * @param audio    The audio file to upload.
+     * @param metadata The title and other properties of the track. Its audio is set by the uploader.
+     * @param listener Notified on the main thread.
+     * @return The task of the upload, which can be cancelled.
+     */
+    public UploadTask upload(@NonNull File audio, @NonNull TrackUpload.Builder metadata, @NonNull Listener listener) {
+        final UploadTask task = new UploadTask(audio, metadata, listener);
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                execute(task);
+            }
+        });
+
+        return task;
+    }
+
+    /**
+     * Uploads a file and waits for the upload to finish. The upload is queued behind the uploads
+     * already running, like one started with {@link #upload(File, TrackUpload.Builder, Listener)}.
+     *
+     * @param audio    The audio file to upload.
+     * @param metadata The title and other properties of the track. Its audio is set by the uploader.
+     * @return The uploaded track, or the track uploaded earlier with the same content.
+     * @throws IOException if the upload failed, or the calling thread was interrupted, in which
+     *                     case the upload is canceled and can be resumed later.
+     */
+    @WorkerThread
+    public Track execute(@NonNull File audio, @NonNull TrackUpload.Builder metadata) throws IOException {
+        final UploadTask task = new UploadTask(audio, metadata, null);
+
+        Future<Track> result = executor.submit(new Callable<Track>() {
+            @Override
+            public Track call() throws IOException {
+                return send(task);
+            }
+        });
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            task.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the upload");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IOException("Upload failed", e.getCause());
+        }
+    }
+
+    /**
+     * Stops the background thread once the queued uploads have finished.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Computes the hex encoded SHA-1 of a file, reading it in fixed size buffers.
+     *
+     * @param file The file to hash.
+     * @return The hash in lower case.
+     * @throws IOException if the file could not be read.
+     */
+    @WorkerThread
+    public static String hash(@NonNull File file) throws IOException {
+        MessageDigest digest;
+
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is not available", e);
+        }
+
+        InputStream input = new FileInputStream(file);
+
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+        }
+
+        byte[] bytes = digest.digest();
+        char[] hex = new char[bytes.length * 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+
+        return new String(hex);
+    }
+
+    private void execute(final UploadTask task) {
+        try {
+            Track track = send(task);
+
+            finished(task, track, task.duplicate);
+        } catch (final IOException | RuntimeException e) {
+            if (task.isCanceled()) {
+                return; // The state is kept, so the upload can be resumed later.
+            }
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    task.listener.onUploadFailed(task, e);
+                }
+            });
+        }
+    }
+
+    private Track send(UploadTask task) throws IOException {
+        checkCanceled(task);
+
+        String hash = hash(task.file);
+        Track existing = findUploaded(hash);
+
+        if (existing != null) {
+            task.duplicate = true;
+            return existing;
+        }
+
+        checkCanceled(task);
+
+        Track track = transport != null ? sendChunked(task, hash) : sendWhole(task);
+
+        if (track.id != null) {
+            remember(hash, track.id);
+        }
+
+        return track;
+    }
+
+    /**
+     * Looks for a track this account already uploaded with the same content. Tracks that were
+     * deleted since are forgotten.
+     */
+    private Track findUploaded(String hash) throws IOException {
+        String trackId = loadUploaded().get(hash);
+
+        if (trackId == null) {
+            return null;
+        }
+
+        Response<Track> response = service.getTrack(trackId).execute();
+
+        if (response.isSuccessful() && response.body() != null) {
+            return response.body();
+        }
+
+        if (response.code() != 404) {
+            throw new IOException("Checking for a previous upload failed with HTTP " + response.code());
+        }
+
+        uploaded.remove(hash);
+        saveUploaded();
+
+        return null;
+    }
+
+    private Track sendChunked(UploadTask task, String hash) throws IOException {
+        File stateFile = new File(directory, hash + STATE_SUFFIX);
+        Map<String, String> fields = task.metadata.getFields();
+        long length = task.file.length();
+
+        String session = null;
+        long offset = 0;
+        boolean resync = false;
+
+        SessionState state = readState(stateFile);
+
+        if (state != null && state.length == length) {
+            session = state.session;
+            offset = state.offset;
+            resync = true; // The server knows best how much it stored.
+        }
+
+        int failures = 0;
+
+        while (true) {
+            checkCanceled(task);
+
+            try {
+                if (session == null) {
+                    session = transport.open(hash, length, fields);
+                    offset = 0;
+                    writeState(stateFile, new SessionState(length, session, 0));
+                } else if (resync) {
+                    long acknowledged = transport.getOffset(session, length);
+
+                    if (acknowledged < 0) {
+                        session = null; // Expired, open a new session.
+                        continue;
+                    }
+
+                    offset = acknowledged;
+                    resync = false;
+                    progress(task, offset, length);
+                } else if (offset >= length) {
+                    Track track = transport.finish(session, length);
+                    stateFile.delete();
+
+                    return track;
+                } else {
+                    long size = Math.min(chunkSize, length - offset);
+                    long acknowledged = transport.sendChunk(session, offset, length,
+                            new FileRegionRequestBody(OCTET_STREAM, task.file, offset, size));
+
+                    if (acknowledged <= offset) {
+                        throw new IOException("The server did not store the chunk at " + offset);
+                    }
+
+                    // Only progress proves the connection works again.
+                    failures = 0;
+                    offset = acknowledged;
+                    writeState(stateFile, new SessionState(length, session, offset));
+                    progress(task, offset, length);
+                }
+            } catch (IOException e) {
+                if (task.isCanceled() || ++failures >= maxAttempts) {
+                    throw e;
+                }
+
+                resync = session != null;
+                backOff(failures);
+            }
+        }
+    }
+
+    private Track sendWhole(final UploadTask task) throws IOException {
+        int failures = 0;
+
+        while (true) {
+            TrackUpload upload = task.metadata
+                    .setAudio(task.file)
+                    .setProgressListener(task.listener == null ? null : new TrackUpload.ProgressListener() {
+                        @Override
+                        public void onUploadProgress(TrackUpload upload, long bytesSent, long totalBytes) {
+                            task.listener.onUploadProgress(task, bytesSent, totalBytes);
+                        }
+                    })
+                    .build();
+
+            task.setUpload(upload);
+
+            Response<Track> response = null;
+
+            try {
+                response = upload.execute(service);
+            } catch (IOException e) {
+                if (task.isCanceled() || ++failures >= maxAttempts) {
+                    throw e;
+                }
+            }
+
+            if (response != null) {
+                if (response.isSuccessful() && response.body() != null) {
+                    return response.body();
+                }
+
+                // Client errors will not go away by sending the file again.
+                if (response.code() < 500 || ++failures >= maxAttempts) {
+                    throw new IOException("Upload failed with HTTP " + response.code());
+                }
+            }
+
+            backOff(failures);
+            checkCanceled(task);
+        }
+    }
+
+    private void backOff(int failures) throws InterruptedIOException {
+        try {
+            Thread.sleep(retryDelayMillis << Math.min(failures - 1, 16));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry the upload");
+        }
+    }
+
+    private void progress(final UploadTask task, final long bytesSent, final long totalBytes) {
+        if (task.listener == null) {
+            return;
+        }
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                task.listener.onUploadProgress(task, bytesSent, totalBytes);
+            }
+        });
+    }
+
+    private void finished(final UploadTask task, final Track track, final boolean duplicate) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                task.listener.onUploadFinished(task, track, duplicate);
+            }
+        });
+    }
+
+    private static void checkCanceled(UploadTask task) throws IOException {
+        if (task.isCanceled()) {
+            throw new IOException("Canceled");
+        }
+    }
+
+    private static SessionState readState(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new FileInputStream(file));
+
+            try {
+                if (input.readInt() != STATE_VERSION) {
+                    return null;
+                }
+
+                long length = input.readLong();
+                String session = input.readUTF();
+                long offset = input.readLong();
+
+                return new SessionState(length, session, offset);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            return null; // Unreadable state only costs a new session.
+        }
+    }
+
+    private static void writeState(File file, SessionState state) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new FileOutputStream(temp));
+
+        try {
+            output.writeInt(STATE_VERSION);
+            output.writeLong(state.length);
+            output.writeUTF(state.session);
+            output.writeLong(state.offset);
+        } finally {
+            output.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private Map<String, String> loadUploaded() throws IOException {
+        if (uploaded != null) {
+            return uploaded;
+        }
+
+        uploaded = new HashMap<>();
+        File ledger = new File(directory, LEDGER_NAME);
+
+        if (!ledger.exists()) {
+            return uploaded;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(ledger), CHARSET));
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+
+                if (space > 0) {
+                    uploaded.put(line.substring(0, space), line.substring(space + 1));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return uploaded;
+    }
+
+    private void remember(String hash, String trackId) throws IOException {
+        loadUploaded().put(hash, trackId);
+
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, LEDGER_NAME), true), CHARSET);
+
+        try {
+            writer.write(hash + ' ' + trackId + '\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void saveUploaded() throws IOException {
+        File ledger = new File(directory, LEDGER_NAME);
+        File temp = new File(ledger.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temp), CHARSET);
+
+        try {
+            for (Map.Entry<String, String> entry : uploaded.entrySet()) {
+                writer.write(entry.getKey() + ' ' + entry.getValue() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (!temp.renameTo(ledger)) {
+            temp.delete();
+            throw new IOException("Could not replace " + ledger);
+        }
+    }
+
+    private static class SessionState {
+
+        final long length;
+        final String session;
+        final long offset;
+
+        SessionState(long length, String session, long offset) {
+            this.length = length;
+            this.session = session;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * A queued or running upload.
+     */
+    public static class UploadTask {
+
+        private final File file;
+        private final TrackUpload.Builder metadata;
+        private final Listener listener;
+
+        private volatile boolean canceled;
+        private TrackUpload upload;
+        private boolean duplicate;
+
+        UploadTask(File file, TrackUpload.Builder metadata, Listener listener) {
+            this.file = file;
+            this.metadata = metadata;
+            this.listener = listener;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Stops the upload without notifying the listener. Chunked uploads keep their state and
+         * continue where they stopped when the same file is uploaded again.
+         */
+        public void cancel() {
+            canceled = true;
+
+            TrackUpload current;
+
+            synchronized (this) {
+                current = upload;
+            }
+
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        private void setUpload(TrackUpload upload) {
+            synchronized (this) {
+                this.upload = upload;
+            }
+
+            if (canceled) {
+                upload.cancel();
+            }
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * @param bytesSent  Number of bytes sent, or acknowledged by the server for chunked uploads.
+         * @param totalBytes Length of the upload.
+         */
+        void onUploadProgress(UploadTask task, long bytesSent, long totalBytes);
+
+        /**
+         * @param track     The uploaded track.
+         * @param duplicate Whether the track was uploaded before and no bytes were sent.
+         */
+        void onUploadFinished(UploadTask task, Track track, boolean duplicate);
+
+        void onUploadFailed(UploadTask task, Throwable throwable);
+    }
+
+    public static class Builder {
+
+        private final SoundCloudService service;
+        private final File directory;
+        private ChunkTransport transport;
+        private int chunkSize = CHUNK_SIZE_DEFAULT;
+        private int maxAttempts = MAX_ATTEMPTS_DEFAULT;
+        private long retryDelayMillis = RETRY_DELAY_DEFAULT_MILLIS;
+
+        /**
+         * @param service   The service used to check previous uploads and to upload whole files.
+         * @param directory Directory for the upload state of one account. Created if missing.
+         */
+        public Builder(@NonNull SoundCloudService service, @NonNull File directory) {
+            this.service = service;
+            this.directory = directory;
+        }
+
+        /**
+         * Sets the protocol used to upload in chunks. Without a transport, files are uploaded whole.
+         *
+         * @param transport The chunk protocol, or null.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setTransport(@Nullable ChunkTransport transport) {
+            this.transport = transport;
+
+            return this;
+        }
+
+        public Builder setChunkSize(@IntRange(from = 1) int chunkSize) {
+            this.chunkSize = chunkSize;
+
+            return this;
+        }
+
+        /**
+         * Sets how many consecutive failed requests end an upload.
+         *
+         * @param maxAttempts Number of attempts per request.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setMaxAttempts(@IntRange(from = 1) int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+
+            return this;
+        }
+
+        /**
+         * Sets the delay before the first retry. It doubles with every further failure.
+         *
+         * @param retryDelayMillis Delay in milliseconds.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setRetryDelay(long retryDelayMillis) {
+            this.retryDelayMillis = retryDelayMillis;
+
+            return this;
+        }
+
+        public ResumableUploader build() {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IllegalStateException("Could not create " + directory);
+            }
+
+            return new ResumableUploader(this);
+        }
+    }
+}
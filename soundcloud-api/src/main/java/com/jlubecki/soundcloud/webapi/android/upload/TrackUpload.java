@@ -0,0 +1,332 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.RequestBody;
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+/**
+ * Uploads a track as a multipart request whose audio and artwork are streamed from a {@link File}
+ * or {@link InputStream}. Unlike {@link SoundCloudService#postUpload(Track)}, which sends the audio
+ * as a string, memory use stays constant regardless of the size of the file.
+ * <p/>
+ * Progress is reported on the main thread, at most once per percent of the upload, or once every
+ * {@link #PROGRESS_STEP_UNKNOWN_LENGTH} bytes when the length of a stream is unknown. An upload can
+ * only be sent once.
+ */
+public class TrackUpload {
+
+    public static final long PROGRESS_STEP_UNKNOWN_LENGTH = 256 * 1024;
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    private final ProgressRequestBody body;
+    private final ProgressListener progressListener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private Call<Track> call;
+    private long lastReported = -1;
+
+    private TrackUpload(Builder builder) {
+        MultipartBody.Builder multipart = new MultipartBody.Builder().setType(MultipartBody.FORM);
+
+        for (Map.Entry<String, String> field : builder.fields.entrySet()) {
+            multipart.addFormDataPart(field.getKey(), field.getValue());
+        }
+
+        multipart.addFormDataPart("track[asset_data]", builder.audioName, builder.audio);
+
+        if (builder.artwork != null) {
+            multipart.addFormDataPart("track[artwork_data]", builder.artworkName, builder.artwork);
+        }
+
+        progressListener = builder.progressListener;
+        body = new ProgressRequestBody(multipart.build(), new ProgressRequestBody.ProgressListener() {
+            @Override
+            public void onProgress(long bytesWritten, long totalBytes) {
+                report(bytesWritten, totalBytes);
+            }
+        });
+    }
+
+    /**
+     * Starts the upload asynchronously.
+     *
+     * @param service  The service to upload with.
+     * @param callback Notified with the created track, or the failure.
+     * @return The call of the upload.
+     */
+    public Call<Track> enqueue(@NonNull SoundCloudService service, @NonNull Callback<Track> callback) {
+        Call<Track> call = newCall(service);
+        call.enqueue(callback);
+
+        return call;
+    }
+
+    /**
+     * Uploads the track, blocking until the response is received.
+     *
+     * @param service The service to upload with.
+     * @return The response containing the created track.
+     * @throws IOException if the upload failed or was cancelled.
+     */
+    @WorkerThread
+    public Response<Track> execute(@NonNull SoundCloudService service) throws IOException {
+        return newCall(service).execute();
+    }
+
+    /**
+     * Cancels the upload. Sending stops before the next segment is written.
+     */
+    public void cancel() {
+        body.cancel();
+
+        Call<Track> current;
+
+        synchronized (this) {
+            current = call;
+        }
+
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    public boolean isCanceled() {
+        return body.isCanceled();
+    }
+
+    /**
+     * @return Number of bytes of the request sent so far.
+     */
+    public long getBytesSent() {
+        return body.getBytesWritten();
+    }
+
+    /**
+     * @return Length of the request, or -1 if the length of a streamed part is unknown.
+     */
+    public long getTotalBytes() {
+        try {
+            return body.contentLength();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private synchronized Call<Track> newCall(SoundCloudService service) {
+        if (call != null) {
+            throw new IllegalStateException("The upload has already been started");
+        }
+
+        call = service.postUpload(body);
+
+        return call;
+    }
+
+    private void report(final long bytesWritten, final long totalBytes) {
+        if (progressListener == null) {
+            return;
+        }
+
+        long step = totalBytes > 0 ? bytesWritten * 100 / totalBytes : bytesWritten / PROGRESS_STEP_UNKNOWN_LENGTH;
+
+        synchronized (this) {
+            if (step == lastReported && bytesWritten != totalBytes) {
+                return;
+            }
+
+            lastReported = step;
+        }
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                progressListener.onUploadProgress(TrackUpload.this, bytesWritten, totalBytes);
+            }
+        });
+    }
+
+    public interface ProgressListener {
+
+        /**
+         * Called on the main thread as the upload is sent.
+         *
+         * @param upload     The upload making progress.
+         * @param bytesSent  Number of bytes sent so far, including multipart headers.
+         * @param totalBytes Length of the request, or -1 if it is unknown.
+         */
+        void onUploadProgress(TrackUpload upload, long bytesSent, long totalBytes);
+    }
+
+    public static class Builder {
+
+        private final Map<String, String> fields = new LinkedHashMap<>();
+        private RequestBody audio;
+        private String audioName;
+        private RequestBody artwork;
+        private String artworkName;
+        private ProgressListener progressListener;
+
+        public Builder(@NonNull String title) {
+            fields.put("track[title]", title);
+        }
+
+        /**
+         * Sets the audio file to upload. The file is read from disk as it is sent.
+         *
+         * @param audio The audio file.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setAudio(@NonNull File audio) {
+            this.audio = RequestBody.create(OCTET_STREAM, audio);
+            this.audioName = audio.getName();
+
+            return this;
+        }
+
+        /**
+         * Sets the audio to upload from a stream, such as one opened from a content URI. The stream
+         * is read as it is sent and closed afterwards.
+         *
+         * @param audio    The audio stream.
+         * @param length   Number of bytes in the stream, or -1 if it is unknown.
+         * @param fileName Name of the file, used by SoundCloud to detect its format.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setAudio(@NonNull InputStream audio, long length, @NonNull String fileName) {
+            this.audio = new InputStreamRequestBody(OCTET_STREAM, audio, length);
+            this.audioName = fileName;
+
+            return this;
+        }
+
+        public Builder setArtwork(@NonNull File artwork) {
+            this.artwork = RequestBody.create(OCTET_STREAM, artwork);
+            this.artworkName = artwork.getName();
+
+            return this;
+        }
+
+        public Builder setArtwork(@NonNull InputStream artwork, long length, @NonNull String fileName) {
+            this.artwork = new InputStreamRequestBody(OCTET_STREAM, artwork, length);
+            this.artworkName = fileName;
+
+            return this;
+        }
+
+        public Builder setDescription(@Nullable String description) {
+            return setField("description", description);
+        }
+
+        public Builder setGenre(@Nullable String genre) {
+            return setField("genre", genre);
+        }
+
+        /**
+         * @param tagList Space separated tags. Tags with spaces are wrapped in double quotes.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setTagList(@Nullable String tagList) {
+            return setField("tag_list", tagList);
+        }
+
+        public Builder setSharing(@NonNull Track.Filter sharing) {
+            return setField("sharing", sharing == Track.Filter.ALL ? null : sharing.toString());
+        }
+
+        public Builder setLicense(@NonNull Track.License license) {
+            return setField("license", license.toString());
+        }
+
+        public Builder setType(@NonNull Track.Type type) {
+            return setField("track_type", type.toString());
+        }
+
+        public Builder setDownloadable(boolean downloadable) {
+            return setField("downloadable", String.valueOf(downloadable));
+        }
+
+        /**
+         * Sets any other property of the track, sent as "track[name]".
+         *
+         * @param name  Name of the property, as it appears in the API.
+         * @param value Value of the property, or null to remove it.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setField(@NonNull String name, @Nullable String value) {
+            String key = "track[" + name + "]";
+
+            if (value == null) {
+                fields.remove(key);
+            } else {
+                fields.put(key, value);
+            }
+
+            return this;
+        }
+
+        /**
+         * @param progressListener Notified on the main thread as the upload is sent.
+         * @return The instance of the builder that was just updated.
+         */
+        public Builder setProgressListener(@Nullable ProgressListener progressListener) {
+            this.progressListener = progressListener;
+
+            return this;
+        }
+
+        Map<String, String> getFields() {
+            return fields;
+        }
+
+        public TrackUpload build() {
+            if (audio == null) {
+                throw new IllegalStateException("No audio was set for the upload");
+            }
+
+            return new TrackUpload(this);
+        }
+    }
+}
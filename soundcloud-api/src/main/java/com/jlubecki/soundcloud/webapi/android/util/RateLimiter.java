@@ -0,0 +1,160 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.util;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.Call;
+import retrofit2.Response;
+
+/**
+ * Spaces out requests so that no more than a given number are started per second. A single
+ * limiter can be shared between threads and between components that talk to the same API.
+ * <p/>
+ * When the API answers with HTTP 429 the limiter pauses every caller, honoring the
+ * {@code Retry-After} header when present, before the request is retried.
+ */
+public class RateLimiter {
+
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    private static final int MAX_RETRIES_DEFAULT = 3;
+    private static final long BACKOFF_DEFAULT_MILLIS = 1000;
+
+    private final long intervalNanos;
+    private final int maxRetries;
+    private long nextPermitNanos;
+
+    /**
+     * Creates a limiter that allows {@code permitsPerSecond} requests to start every second.
+     *
+     * @param permitsPerSecond Number of requests allowed each second. Must be positive.
+     */
+    public RateLimiter(double permitsPerSecond) {
+        this(permitsPerSecond, MAX_RETRIES_DEFAULT);
+    }
+
+    /**
+     * Same as {@link #RateLimiter(double)} with a custom number of retries for throttled requests.
+     *
+     * @param permitsPerSecond Number of requests allowed each second. Must be positive.
+     * @param maxRetries       How many times a request answered with HTTP 429 is retried.
+     */
+    public RateLimiter(double permitsPerSecond, int maxRetries) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive.");
+        }
+
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.maxRetries = maxRetries;
+        this.nextPermitNanos = System.nanoTime();
+    }
+
+    /**
+     * Blocks until the next request is allowed to start.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+
+            if (nextPermitNanos < now) {
+                nextPermitNanos = now;
+            }
+
+            waitNanos = nextPermitNanos - now;
+            nextPermitNanos += intervalNanos;
+        }
+
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Holds back every caller of {@link #acquire()} for at least the given amount of time.
+     *
+     * @param millis Time to pause for, in milliseconds.
+     */
+    public synchronized void pause(long millis) {
+        long resumeAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+
+        if (resumeAt > nextPermitNanos) {
+            nextPermitNanos = resumeAt;
+        }
+    }
+
+    /**
+     * Executes a call synchronously once a permit is available. Throttled calls are cloned and
+     * retried until they succeed or the retry limit is reached, in which case the last throttled
+     * response is returned.
+     *
+     * @param call The call to execute.
+     * @param <T>  Type of the response body.
+     * @return The response of the last attempt.
+     * @throws IOException          if the request could not be executed.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public <T> Response<T> execute(Call<T> call) throws IOException, InterruptedException {
+        Call<T> attempt = call;
+        long backoff = BACKOFF_DEFAULT_MILLIS;
+
+        for (int retry = 0; ; retry++) {
+            acquire();
+
+            Response<T> response = attempt.execute();
+
+            if (response.code() != HTTP_TOO_MANY_REQUESTS || retry >= maxRetries) {
+                return response;
+            }
+
+            if (response.errorBody() != null) {
+                response.errorBody().close();
+            }
+
+            pause(retryAfterMillis(response, backoff));
+            backoff *= 2;
+            attempt = attempt.clone();
+        }
+    }
+
+    private static long retryAfterMillis(Response<?> response, long fallback) {
+        String retryAfter = response.headers().get("Retry-After");
+
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+            } catch (NumberFormatException e) {
+                // HTTP dates are not worth parsing here, fall back to exponential backoff.
+            }
+        }
+
+        return fallback;
+    }
+}
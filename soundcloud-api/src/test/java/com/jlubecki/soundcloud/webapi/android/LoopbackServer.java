@@ -0,0 +1,336 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Minimal HTTP/1.1 server on the loopback interface, standing in for the API or its CDN in tests.
+ * Each connection carries a single request and is closed after the response, so a subclass can
+ * also cut a connection off halfway through a request or a response.
+ */
+public abstract class LoopbackServer implements Closeable {
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final AtomicInteger requestCount = new AtomicInteger();
+
+    protected LoopbackServer() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, getClass().getSimpleName());
+                thread.setDaemon(true);
+
+                return thread;
+            }
+        });
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * @param path An absolute path, optionally with a query.
+     * @return The URL of the path on this server.
+     */
+    public HttpUrl url(String path) {
+        return HttpUrl.parse("http://127.0.0.1:" + serverSocket.getLocalPort() + path);
+    }
+
+    /**
+     * @return Number of requests received so far.
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Answers a request. The connection is closed once this returns.
+     */
+    protected abstract void handle(Exchange exchange) throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return; // Closed.
+            }
+
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            Exchange exchange = Exchange.read(socket);
+
+            if (exchange != null) {
+                requestCount.incrementAndGet();
+                handle(exchange);
+                exchange.out.flush();
+            }
+        } catch (IOException e) {
+            // The client went away.
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed.
+            }
+        }
+    }
+
+    /**
+     * A request and the means to answer it.
+     */
+    protected static class Exchange {
+
+        public final String method;
+        public final String path;
+        public final String query;
+
+        private final Socket socket;
+        private final Map<String, String> headers;
+        private final InputStream in;
+        private final OutputStream out;
+
+        private long remaining;
+        private boolean chunked;
+
+        private Exchange(Socket socket, String method, String target, Map<String, String> headers,
+                         InputStream in) throws IOException {
+            this.socket = socket;
+            this.method = method;
+            this.headers = headers;
+            this.in = in;
+            this.out = socket.getOutputStream();
+
+            int question = target.indexOf('?');
+            this.path = question >= 0 ? target.substring(0, question) : target;
+            this.query = question >= 0 ? target.substring(question + 1) : null;
+
+            String length = header("Content-Length");
+            this.chunked = "chunked".equalsIgnoreCase(header("Transfer-Encoding"));
+            this.remaining = length != null ? Long.parseLong(length) : 0;
+        }
+
+        static Exchange read(Socket socket) throws IOException {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String requestLine = readLine(in);
+
+            if (requestLine == null || requestLine.isEmpty()) {
+                return null;
+            }
+
+            String[] parts = requestLine.split(" ");
+            Map<String, String> headers = new HashMap<>();
+            String line;
+
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US), line.substring(colon + 1).trim());
+            }
+
+            return new Exchange(socket, parts[0], parts[1], headers, in);
+        }
+
+        public String header(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        /**
+         * Reads up to a number of bytes of the request body.
+         *
+         * @return The number of bytes read, or -1 at the end of the body.
+         */
+        public int readBody(byte[] buffer, int offset, int count) throws IOException {
+            if (remaining == 0 && chunked) {
+                String size = readLine(in);
+                remaining = size != null ? Long.parseLong(size.split(";")[0].trim(), 16) : 0;
+
+                if (remaining == 0) {
+                    chunked = false;
+
+                    while ((size = readLine(in)) != null && !size.isEmpty()) {
+                        // Trailers.
+                    }
+                }
+            }
+
+            if (remaining == 0) {
+                return -1;
+            }
+
+            int read = in.read(buffer, offset, (int) Math.min(count, remaining));
+
+            if (read < 0) {
+                throw new EOFException("Request body ended early");
+            }
+
+            remaining -= read;
+
+            if (remaining == 0 && chunked) {
+                readLine(in);
+            }
+
+            return read;
+        }
+
+        /**
+         * Reads the request body up to a number of bytes.
+         */
+        public byte[] readBody(long limit) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while (body.size() < limit &&
+                    (read = readBody(buffer, 0, (int) Math.min(buffer.length, limit - body.size()))) != -1) {
+                body.write(buffer, 0, read);
+            }
+
+            return body.toByteArray();
+        }
+
+        public byte[] readBody() throws IOException {
+            return readBody(Long.MAX_VALUE);
+        }
+
+        /**
+         * Sends a complete response.
+         *
+         * @param headers Names and values of response headers, in turn.
+         */
+        public void respond(int code, byte[] body, String... headers) throws IOException {
+            respondHeaders(code, body.length, headers).write(body);
+        }
+
+        /**
+         * Sends the status line and headers of a response.
+         *
+         * @param contentLength Length of the body that follows.
+         * @param headers       Names and values of response headers, in turn.
+         * @return The stream to write the body to.
+         */
+        public OutputStream respondHeaders(int code, long contentLength, String... headers) throws IOException {
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(code).append(' ').append(reason(code)).append("\r\n");
+
+            for (int i = 0; i < headers.length; i += 2) {
+                head.append(headers[i]).append(": ").append(headers[i + 1]).append("\r\n");
+            }
+
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+            head.append("Connection: close\r\n\r\n");
+
+            out.write(head.toString().getBytes("ISO-8859-1"));
+
+            return out;
+        }
+
+        /**
+         * Resets the connection without an answer, as a dropped network would.
+         */
+        public void drop() throws IOException {
+            out.flush();
+            socket.setSoLinger(true, 0);
+            socket.close();
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+
+            while ((c = in.read()) != -1 && c != '\n') {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+
+            return c == -1 && line.length() == 0 ? null : line.toString();
+        }
+
+        private static String reason(int code) {
+            switch (code) {
+                case 200:
+                    return "OK";
+                case 201:
+                    return "Created";
+                case 206:
+                    return "Partial Content";
+                case 308:
+                    return "Resume Incomplete";
+                case 404:
+                    return "Not Found";
+                case 410:
+                    return "Gone";
+                case 416:
+                    return "Range Not Satisfiable";
+                default:
+                    return code >= 500 ? "Server Error" : "Status";
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SoundCloudAPITest {
+
+    private final List<HttpUrl> sent = new ArrayList<>();
+
+    private SoundCloudAPI api;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() {
+        api = new SoundCloudAPI("client");
+        api.setToken("secret");
+
+        // Runs after the media interceptor and answers without going to the network.
+        client = api.getMediaClient().newBuilder()
+                .addInterceptor(new Interceptor() {
+                    @Override
+                    public Response intercept(Chain chain) throws IOException {
+                        sent.add(chain.request().url());
+
+                        return new Response.Builder()
+                                .request(chain.request())
+                                .protocol(Protocol.HTTP_1_1)
+                                .code(200)
+                                .body(ResponseBody.create(null, new byte[0]))
+                                .build();
+                    }
+                })
+                .build();
+    }
+
+    @Test
+    public void mediaClientAuthenticatesApiRequests() throws IOException {
+        HttpUrl url = send("https://api.soundcloud.com/tracks/1/stream");
+
+        assertEquals("client", url.queryParameter("client_id"));
+        assertEquals("secret", url.queryParameter("oauth_token"));
+    }
+
+    @Test
+    public void mediaClientSendsNoCredentialsToOtherHosts() throws IOException {
+        HttpUrl url = send("https://cf-media.sndcdn.com/abc.128.mp3?Policy=p&Signature=s");
+
+        assertNull(url.queryParameter("client_id"));
+        assertNull(url.queryParameter("oauth_token"));
+        assertEquals("p", url.queryParameter("Policy"));
+    }
+
+    @Test
+    public void mediaClientReplacesCredentialsOfEarlierUrls() throws IOException {
+        api.setToken("renewed");
+
+        HttpUrl url = send("https://api.soundcloud.com/tracks/1/download?client_id=client&oauth_token=secret");
+
+        assertEquals(Collections.singletonList("client"), url.queryParameterValues("client_id"));
+        assertEquals(Collections.singletonList("renewed"), url.queryParameterValues("oauth_token"));
+    }
+
+    private HttpUrl send(String url) throws IOException {
+        client.newCall(new Request.Builder().url(url).build()).execute().close();
+
+        return sent.get(sent.size() - 1);
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import com.google.gson.Gson;
+import com.jlubecki.soundcloud.webapi.android.models.Comment;
+import com.jlubecki.soundcloud.webapi.android.models.Connection;
+import com.jlubecki.soundcloud.webapi.android.models.CreatorApp;
+import com.jlubecki.soundcloud.webapi.android.models.Group;
+import com.jlubecki.soundcloud.webapi.android.models.Groups;
+import com.jlubecki.soundcloud.webapi.android.models.MiniUser;
+import com.jlubecki.soundcloud.webapi.android.models.Pager;
+import com.jlubecki.soundcloud.webapi.android.models.Playlist;
+import com.jlubecki.soundcloud.webapi.android.models.SecretToken;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.models.User;
+import com.jlubecki.soundcloud.webapi.android.models.WebProfile;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryEntityCodecTest {
+
+    /**
+     * Every class of the models package.
+     */
+    static final List<Class<?>> MODELS = Arrays.<Class<?>>asList(Comment.class, Connection.class,
+            CreatorApp.class, Group.class, Groups.class, MiniUser.class, Pager.class, Playlist.class,
+            SecretToken.class, Track.class, User.class, WebProfile.class);
+
+    private final BinaryEntityCodec codec = new BinaryEntityCodec();
+    private final Gson gson = new Gson();
+
+    @Test
+    public void roundTripsEveryModelWithEveryFieldSet() throws Exception {
+        for (Class<?> model : MODELS) {
+            Object filled = Models.filled(model);
+
+            assertRoundTrip(filled);
+        }
+    }
+
+    @Test
+    public void roundTripsEveryModelWithNullFields() throws Exception {
+        for (Class<?> model : MODELS) {
+            Object empty = Models.newInstance(model);
+            Object decoded = codec.decode(codec.encode(empty), model);
+
+            for (Field field : Models.fields(model)) {
+                if (field.getType() == boolean.class) {
+                    assertFalse(field.getName(), field.getBoolean(decoded));
+                } else {
+                    assertNull(model.getSimpleName() + "." + field.getName(), field.get(decoded));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void roundTripsEmptyLists() throws IOException {
+        Playlist playlist = new Playlist();
+        playlist.id = "1";
+        playlist.tracks = new ArrayList<>();
+        Groups groups = new Groups();
+        groups.groups = new ArrayList<>();
+
+        Playlist decodedPlaylist = codec.decode(codec.encode(playlist), Playlist.class);
+        Groups decodedGroups = codec.decode(codec.encode(groups), Groups.class);
+
+        assertNotNull(decodedPlaylist.tracks);
+        assertTrue(decodedPlaylist.tracks.isEmpty());
+        assertNotNull(decodedGroups.groups);
+        assertTrue(decodedGroups.groups.isEmpty());
+        assertTrue(codec.decode(codec.encode(new ArrayList<Track>()), List.class).isEmpty());
+    }
+
+    @Test
+    public void roundTripsNestedUsersAndTrackLists() throws Exception {
+        Playlist playlist = Models.playlist(50);
+        playlist.tracks.add(null);
+        playlist.tracks.get(3).user = null;
+        playlist.tracks.get(4).created_with = (CreatorApp) Models.filled(CreatorApp.class);
+
+        Playlist decoded = codec.decode(codec.encode(playlist), Playlist.class);
+
+        assertEquals(gson.toJson(playlist), gson.toJson(decoded));
+        assertEquals(51, decoded.tracks.size());
+        assertNull(decoded.tracks.get(50));
+        assertNull(decoded.tracks.get(3).user);
+        assertEquals(playlist.tracks.get(0).user.username, decoded.tracks.get(0).user.username);
+    }
+
+    @Test
+    public void roundTripsListsOfModels() throws Exception {
+        List<Track> tracks = Models.playlist(10).tracks;
+
+        @SuppressWarnings("unchecked")
+        List<Track> decoded = codec.decode(codec.encode(tracks), List.class);
+
+        assertEquals(gson.toJson(tracks), gson.toJson(decoded));
+    }
+
+    @Test
+    public void roundTripsThroughEntityTypes() throws Exception {
+        Track track = (Track) Models.filled(Track.class);
+
+        Track decoded = codec.decode(EntityType.TRACK, codec.encode(EntityType.TRACK, track));
+
+        assertEquals(gson.toJson(track), gson.toJson(decoded));
+    }
+
+    @Test
+    public void storesRepeatedStringsOnce() throws Exception {
+        Playlist small = Models.playlist(10);
+        Playlist large = Models.playlist(10);
+
+        for (Track track : large.tracks) {
+            track.description = "The same long description on every track of the playlist.";
+        }
+
+        int growth = codec.encode(large).length - codec.encode(small).length;
+
+        assertTrue("grew by " + growth, growth < 2 * large.tracks.get(0).description.length());
+    }
+
+    @Test
+    public void encodesPlaylistsInAFractionOfTheirJsonSize() throws Exception {
+        Playlist playlist = Models.playlist(100);
+
+        int json = gson.toJson(playlist).getBytes("UTF-8").length;
+        int compact = codec.encode(EntityType.PLAYLIST, playlist).length;
+
+        assertTrue(compact + " of " + json + " bytes", compact * 5 < json);
+    }
+
+    @Test
+    public void encodesSingleTracksInNoMoreThanTheirJsonSize() throws Exception {
+        Track track = (Track) Models.filled(Track.class);
+
+        int json = gson.toJson(track).getBytes("UTF-8").length;
+        int compact = codec.encode(EntityType.TRACK, track).length;
+
+        assertTrue(compact + " of " + json + " bytes", compact <= json);
+    }
+
+    @Test
+    public void skipsFieldsRemovedFromTheModel() throws IOException {
+        MiniUser user = new MiniUser();
+        user.id = "7";
+        user.username = "artist";
+        user.permalink = "artist-permalink";
+
+        // As if written when MiniUser had a "permalinX" field and no "permalink" field.
+        byte[] data = Models.renameString(codec.encode(user), "permalink", "permalinX");
+        MiniUser decoded = codec.decode(data, MiniUser.class);
+
+        assertEquals("7", decoded.id);
+        assertEquals("artist", decoded.username);
+        assertNull(decoded.permalink);
+    }
+
+    @Test
+    public void leavesFieldsAddedToTheModelAtTheirDefault() throws IOException {
+        Track track = new Track("Title", null);
+        track.id = "1";
+        track.is_streamable = true;
+        track.commentable = true;
+
+        // As if written before Track had its "is_streamable" field.
+        byte[] data = Models.renameString(codec.encode(track), "is_streamable", "is_streamablX");
+        Track decoded = codec.decode(data, Track.class);
+
+        assertEquals("1", decoded.id);
+        assertEquals("Title", decoded.title);
+        assertTrue(decoded.commentable);
+        assertFalse(decoded.is_streamable);
+    }
+
+    @Test
+    public void skipsNestedModelsThatNoLongerExist() throws Exception {
+        Track track = (Track) Models.filled(Track.class);
+
+        byte[] data = Models.renameString(codec.encode(track), "MiniUser", "MiniUsex");
+        Track decoded = codec.decode(data, Track.class);
+
+        assertNull(decoded.user);
+        assertEquals(track.title, decoded.title);
+        assertEquals(track.created_with.id, decoded.created_with.id);
+    }
+
+    @Test
+    public void rejectsBadMagic() throws IOException {
+        byte[] data = codec.encode(new Track("Title", null));
+        data[0] = '{';
+
+        assertRejected(data);
+        assertRejected(gson.toJson(new Track("Title", null)).getBytes("UTF-8"));
+        assertRejected(new byte[0]);
+    }
+
+    @Test
+    public void rejectsUnknownVersions() throws IOException {
+        byte[] data = codec.encode(new Track("Title", null));
+
+        data[1] = (byte) (BinaryEntityCodec.FORMAT_VERSION + 1);
+        assertRejected(data);
+
+        data[1] = 0;
+        assertRejected(data);
+    }
+
+    @Test
+    public void rejectsTruncatedAndTrailingData() throws Exception {
+        byte[] data = codec.encode(Models.playlist(5));
+
+        assertRejected(Arrays.copyOf(data, data.length - 1));
+        assertRejected(Arrays.copyOf(data, data.length / 2));
+        assertRejected(Arrays.copyOf(data, data.length + 1));
+    }
+
+    @Test
+    public void rejectsOtherModels() throws IOException {
+        try {
+            codec.decode(codec.encode(new Track("Title", null)), User.class);
+            fail();
+        } catch (IOException expected) {
+            // Expected.
+        }
+    }
+
+    private void assertRoundTrip(Object model) throws IOException {
+        Object decoded = codec.decode(codec.encode(model), model.getClass());
+
+        assertEquals(model.getClass().getSimpleName(), gson.toJson(model), gson.toJson(decoded));
+    }
+
+    private void assertRejected(byte[] data) {
+        try {
+            codec.decode(data, Track.class);
+            fail("Decoded " + data.length + " invalid bytes");
+        } catch (IOException expected) {
+            // Expected.
+        }
+    }
+
+    /**
+     * Builds populated model instances with reflection.
+     */
+    static class Models {
+
+        static List<Field> fields(Class<?> model) {
+            List<Field> fields = new ArrayList<>();
+
+            for (Field field : model.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                    field.setAccessible(true);
+                    fields.add(field);
+                }
+            }
+
+            return fields;
+        }
+
+        /**
+         * @return An instance with every field at its default, created the way Gson creates one,
+         * since not every model has a no-argument constructor.
+         */
+        static Object newInstance(Class<?> model) {
+            return new Gson().fromJson("{}", model);
+        }
+
+        /**
+         * @return An instance with every string, boolean, nested model and list set.
+         */
+        static Object filled(Class<?> model) throws Exception {
+            return filled(model, 0);
+        }
+
+        private static Object filled(Class<?> model, int depth) throws Exception {
+            Object instance = newInstance(model);
+
+            for (Field field : fields(model)) {
+                Class<?> type = field.getType();
+
+                if (type == String.class) {
+                    field.set(instance, model.getSimpleName() + " " + field.getName() + " " + depth);
+                } else if (type == boolean.class) {
+                    field.setBoolean(instance, true);
+                } else if (List.class.isAssignableFrom(type) && depth < 2) {
+                    Class<?> element = elementType(field.getGenericType());
+                    List<Object> list = new ArrayList<>();
+                    list.add(filled(element, depth + 1));
+                    list.add(filled(element, depth + 1));
+                    field.set(instance, list);
+                } else if (type.getPackage() == MiniUser.class.getPackage() && depth < 2) {
+                    field.set(instance, filled(type, depth + 1));
+                }
+            }
+
+            return instance;
+        }
+
+        private static Class<?> elementType(Type listType) {
+            if (listType instanceof ParameterizedType) {
+                Type element = ((ParameterizedType) listType).getActualTypeArguments()[0];
+
+                if (element instanceof Class) {
+                    return (Class<?>) element;
+                }
+            }
+
+            return Track.class; // Type variables, such as the collection of a Pager.
+        }
+
+        /**
+         * @return A playlist of tracks by a handful of users, as the API returns them.
+         */
+        static Playlist playlist(int size) throws Exception {
+            Playlist playlist = (Playlist) filled(Playlist.class, 1);
+            playlist.tracks = new ArrayList<>();
+
+            for (int i = 0; i < size; i++) {
+                Track track = (Track) filled(Track.class, 1);
+                track.id = String.valueOf(1000 + i);
+                track.title = "Track " + i;
+                track.permalink_url = "https://soundcloud.com/artist-" + i % 5 + "/track-" + i;
+                track.uri = "https://api.soundcloud.com/tracks/" + track.id;
+                track.stream_url = track.uri + "/stream";
+                track.description = "Description of track " + i + " on the playlist.";
+                track.user = (MiniUser) filled(MiniUser.class, 2);
+                track.user.id = String.valueOf(i % 5);
+                track.user.username = "Artist " + i % 5;
+                playlist.tracks.add(track);
+            }
+
+            return playlist;
+        }
+
+        /**
+         * Replaces an entry of the string table of an encoding with another string of the same
+         * length, which keeps every offset of the encoding valid.
+         */
+        static byte[] renameString(byte[] data, String from, String to) throws IOException {
+            byte[] search = from.getBytes("UTF-8");
+            byte[] replacement = to.getBytes("UTF-8");
+            assertEquals(search.length, replacement.length);
+
+            for (int i = 1; i + search.length <= data.length; i++) {
+                if ((data[i - 1] & 0xFF) == search.length &&
+                        Arrays.equals(Arrays.copyOfRange(data, i, i + search.length), search)) {
+                    byte[] renamed = data.clone();
+                    System.arraycopy(replacement, 0, renamed, i, replacement.length);
+
+                    return renamed;
+                }
+            }
+
+            throw new AssertionError(from + " is not in the string table");
+        }
+    }
+}
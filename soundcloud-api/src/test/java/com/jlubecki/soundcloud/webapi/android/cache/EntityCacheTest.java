@@ -0,0 +1,264 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import com.jlubecki.soundcloud.webapi.android.models.MiniUser;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.models.User;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EntityCacheTest {
+
+    private static final long MAX_BYTES = 64 * 1024;
+    private static final int TRACKS = 200;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EntityCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        cache = newCache();
+        fill(cache);
+    }
+
+    @Test
+    public void fillsUpToBudget() {
+        assertTrue(cache.getFootprint() <= MAX_BYTES);
+        assertTrue(cache.getFootprint() > TrimLevel.MODERATE.apply(MAX_BYTES));
+    }
+
+    @Test
+    public void trimShrinksToTieredBudgetAndRefillsFromDisk() throws IOException {
+        for (TrimLevel level : TrimLevel.values()) {
+            EntityCache cache = newCache();
+            fill(cache);
+
+            cache.trim(level);
+
+            assertTrue(level + " left " + cache.getFootprint() + " bytes",
+                    cache.getFootprint() <= level.apply(MAX_BYTES));
+
+            for (int i = 0; i < TRACKS; i++) {
+                CachedEntity<Track> cached = cache.get(EntityType.TRACK, id(i));
+
+                assertNotNull(level + " lost track " + i, cached);
+                assertEquals(title(i), cached.getValue().title);
+            }
+
+            assertTrue(cache.getFootprint() > level.apply(MAX_BYTES));
+            assertTrue(cache.getFootprint() <= MAX_BYTES);
+        }
+    }
+
+    @Test
+    public void trimModerateKeepsMostRecentlyUsed() {
+        int before = cache.size();
+        assertNotNull(cache.peek(EntityType.TRACK, id(TRACKS - before))); // Eldest, now newest.
+
+        cache.trim(TrimLevel.MODERATE);
+
+        assertTrue(cache.size() > 0);
+        assertTrue(cache.size() < before);
+        assertNotNull(cache.peek(EntityType.TRACK, id(TRACKS - before)));
+        assertNotNull(cache.peek(EntityType.TRACK, id(TRACKS - 1)));
+        assertNull(cache.peek(EntityType.TRACK, id(TRACKS - before + 1)));
+    }
+
+    @Test
+    public void trimCriticalEmptiesMemory() {
+        cache.trim(TrimLevel.CRITICAL);
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getFootprint());
+        assertEquals(0, cache.getFootprint(EntityType.TRACK));
+        assertNull(cache.peek(EntityType.TRACK, id(TRACKS - 1)));
+    }
+
+    @Test
+    public void refillAfterTrimWithoutDisk() {
+        EntityCache memoryOnly = new EntityCache.Builder().setMaxBytes(MAX_BYTES).build();
+        fill(memoryOnly);
+        int full = memoryOnly.size();
+
+        memoryOnly.trim(TrimLevel.CRITICAL);
+        assertNull(memoryOnly.get(EntityType.TRACK, id(TRACKS - 1)));
+
+        fill(memoryOnly);
+
+        assertEquals(full, memoryOnly.size());
+        assertNotNull(memoryOnly.peek(EntityType.TRACK, id(TRACKS - 1)));
+    }
+
+    @Test
+    public void trimShrinksLists() {
+        EntityCache lists = new EntityCache.Builder().setMaxLists(8).build();
+        List<Track> tracks = new ArrayList<>();
+
+        for (int i = 0; i < 8; i++) {
+            Track track = track(i);
+            tracks.add(track);
+            lists.put(track);
+            lists.putList("/users/" + i + "/tracks", null, EntityType.TRACK, tracks);
+        }
+
+        lists.trim(TrimLevel.MODERATE);
+
+        for (int i = 0; i < 8; i++) {
+            CachedEntity<List<Track>> list = lists.getList(EntityType.TRACK, "/users/" + i + "/tracks");
+
+            if (i < 4) {
+                assertNull(list);
+            } else {
+                assertNotNull(list);
+                assertEquals(i + 1, list.getValue().size());
+            }
+        }
+
+        lists.trim(TrimLevel.CRITICAL);
+
+        assertNull(lists.getList(EntityType.TRACK, "/users/7/tracks"));
+    }
+
+    @Test
+    public void trimShrinksCompressedTier() {
+        EntityCache compressed = new EntityCache.Builder()
+                .setMaxBytes(MAX_BYTES)
+                .setCompressedTier(MAX_BYTES, new DeflatedJsonCodec())
+                .build();
+        fill(compressed);
+        long full = compressed.getCompressedFootprint();
+
+        for (TrimLevel level : TrimLevel.values()) {
+            compressed.trim(level);
+
+            assertTrue(compressed.getCompressedFootprint() <= level.apply(MAX_BYTES));
+        }
+
+        assertEquals(0, compressed.getCompressedSize());
+
+        fill(compressed);
+
+        assertEquals(full, compressed.getCompressedFootprint());
+        assertNotNull(compressed.peek(EntityType.TRACK, id(0)));
+    }
+
+    @Test
+    public void createdTrackPatchesACopyOfItsOwner() {
+        User owner = new User();
+        owner.id = "42";
+        owner.username = "owner";
+        owner.track_count = "3";
+        cache.put(owner);
+        User before = cache.peek(EntityType.USER, "42").getValue();
+
+        Track created = track(TRACKS);
+        created.user = new MiniUser();
+        created.user.id = "42";
+        cache.onCreated(created);
+
+        User after = cache.get(EntityType.USER, "42").getValue();
+
+        assertEquals("3", before.track_count);
+        assertEquals("4", after.track_count);
+        assertEquals("owner", after.username);
+        assertNotSame(before, after);
+
+        cache.onDeleted(EntityType.TRACK, created.id);
+
+        assertEquals("4", after.track_count);
+        assertEquals("3", cache.get(EntityType.USER, "42").getValue().track_count);
+    }
+
+    @Test
+    public void clearAccountForgetsTheAuthenticatedUser() {
+        User me = new User();
+        me.id = "7";
+        cache.put(me);
+        cache.setMyId("7");
+        cache.put(track(0));
+        cache.putList("/me/favorites", null, EntityType.TRACK, Collections.singletonList(track(0)));
+        cache.putList("/users/7/tracks", null, EntityType.TRACK, Collections.singletonList(track(0)));
+
+        cache.clearAccount();
+
+        assertNull(cache.getList(EntityType.TRACK, "/me/favorites"));
+        assertNull(cache.get(EntityType.USER, "7"));
+        assertNotNull(cache.getList(EntityType.TRACK, "/users/7/tracks"));
+        assertNotNull(cache.get(EntityType.TRACK, id(0)));
+
+        // Mutations of the next account's collections no longer drop the previous user.
+        cache.put(me);
+        cache.invalidate("/me/tracks");
+
+        assertNotNull(cache.get(EntityType.USER, "7"));
+    }
+
+    private EntityCache newCache() throws IOException {
+        return new EntityCache.Builder()
+                .setMaxBytes(MAX_BYTES)
+                .setDiskStore(new DiskEntityStore(folder.newFolder()))
+                .build();
+    }
+
+    private static void fill(EntityCache cache) {
+        for (int i = 0; i < TRACKS; i++) {
+            cache.put(track(i));
+        }
+    }
+
+    private static Track track(int i) {
+        Track track = new Track(title(i), null);
+        track.id = id(i);
+        track.genre = "Electronic";
+        track.description = "Track number " + i + " of the trim test.";
+
+        return track;
+    }
+
+    private static String id(int i) {
+        return String.valueOf(1000 + i);
+    }
+
+    private static String title(int i) {
+        return "Track " + i;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HeapWatcherTest {
+
+    private final MemoryPressure pressure = new MemoryPressure();
+
+    @Test
+    public void mapsHeapUsageToLevelsWithDefaultThresholds() {
+        HeapWatcher watcher = new HeapWatcher(pressure);
+
+        assertNull(watcher.levelFor(0));
+        assertNull(watcher.levelFor(0.5));
+        assertNull(watcher.levelFor(0.6999));
+        assertEquals(TrimLevel.MODERATE, watcher.levelFor(0.70));
+        assertEquals(TrimLevel.MODERATE, watcher.levelFor(0.8));
+        assertEquals(TrimLevel.HIGH, watcher.levelFor(0.85));
+        assertEquals(TrimLevel.HIGH, watcher.levelFor(0.9));
+        assertEquals(TrimLevel.CRITICAL, watcher.levelFor(0.95));
+        assertEquals(TrimLevel.CRITICAL, watcher.levelFor(1));
+    }
+
+    @Test
+    public void mapsHeapUsageToLevelsWithCustomThresholds() {
+        HeapWatcher watcher = new HeapWatcher(pressure, 1000, 0.2, 0.4, 0.6);
+
+        assertNull(watcher.levelFor(0.19));
+        assertEquals(TrimLevel.MODERATE, watcher.levelFor(0.2));
+        assertEquals(TrimLevel.HIGH, watcher.levelFor(0.5));
+        assertEquals(TrimLevel.CRITICAL, watcher.levelFor(0.6));
+    }
+
+    @Test
+    public void checkSignalsTheMatchingLevel() {
+        RecordingTrimmable cache = new RecordingTrimmable();
+        pressure.register(cache);
+
+        // Any heap usage is above zero thresholds and below thresholds past 1.
+        HeapWatcher alwaysCritical = new HeapWatcher(pressure, 1000, 0, 0, 0);
+        HeapWatcher never = new HeapWatcher(pressure, 1000, 2, 2, 2);
+
+        assertEquals(TrimLevel.CRITICAL, alwaysCritical.check());
+        assertNull(never.check());
+        assertEquals(Collections.singletonList(TrimLevel.CRITICAL), cache.levels);
+    }
+
+    @Test
+    public void heapUsageIsAFraction() {
+        double usage = new HeapWatcher(pressure).getHeapUsage();
+
+        assertTrue(usage > 0);
+        assertTrue(usage <= 1);
+    }
+
+    private static class RecordingTrimmable implements Trimmable {
+
+        final List<TrimLevel> levels = new ArrayList<>();
+
+        @Override
+        public void trim(@NonNull TrimLevel level) {
+            levels.add(level);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import android.content.ComponentCallbacks2;
+import android.support.annotation.NonNull;
+
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+import com.jlubecki.soundcloud.webapi.android.query.TrackQuery;
+import com.jlubecki.soundcloud.webapi.android.query.TrackQueryCache;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryPressureTest {
+
+    private MemoryPressure pressure;
+    private RecordingTrimmable first;
+    private RecordingTrimmable second;
+
+    @Before
+    public void setUp() {
+        pressure = new MemoryPressure();
+        first = new RecordingTrimmable();
+        second = new RecordingTrimmable();
+
+        pressure.register(first);
+        pressure.register(second);
+    }
+
+    @Test
+    public void trimReachesEveryRegisteredCache() {
+        pressure.trim(TrimLevel.HIGH);
+
+        assertEquals(Collections.singletonList(TrimLevel.HIGH), first.levels);
+        assertEquals(Collections.singletonList(TrimLevel.HIGH), second.levels);
+    }
+
+    @Test
+    public void registeringTwiceTrimsOnce() {
+        pressure.register(first);
+        pressure.trim(TrimLevel.MODERATE);
+
+        assertEquals(1, first.levels.size());
+    }
+
+    @Test
+    public void unregisteredCachesAreNotTrimmed() {
+        pressure.unregister(first);
+        pressure.trim(TrimLevel.CRITICAL);
+
+        assertTrue(first.levels.isEmpty());
+        assertEquals(Collections.singletonList(TrimLevel.CRITICAL), second.levels);
+    }
+
+    @Test
+    public void mapsTrimMemoryLevels() {
+        pressure.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        pressure.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        pressure.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        pressure.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        pressure.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        pressure.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        pressure.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        pressure.onLowMemory();
+
+        List<TrimLevel> expected = new ArrayList<>();
+        Collections.addAll(expected,
+                TrimLevel.MODERATE,
+                TrimLevel.MODERATE,
+                TrimLevel.HIGH,
+                TrimLevel.MODERATE,
+                TrimLevel.HIGH,
+                TrimLevel.CRITICAL,
+                TrimLevel.CRITICAL,
+                TrimLevel.CRITICAL);
+
+        assertEquals(expected, first.levels);
+        assertEquals(expected, second.levels);
+    }
+
+    @Test
+    public void trimReachesLibraryCaches() {
+        EntityCache entities = new EntityCache.Builder().build();
+        TrackQueryCache queries = new TrackQueryCache();
+        Track track = new Track("Title", null);
+        track.id = "1";
+        TrackQuery query = new TrackQuery.Builder().setQuery("title").build();
+
+        entities.put(track);
+        queries.put(query, Collections.singletonList(track), false);
+        pressure.register(entities);
+        pressure.register(queries);
+
+        pressure.onLowMemory();
+
+        assertEquals(0, entities.size());
+        assertNull(queries.get(query));
+    }
+
+    private static class RecordingTrimmable implements Trimmable {
+
+        final List<TrimLevel> levels = new ArrayList<>();
+
+        @Override
+        public void trim(@NonNull TrimLevel level) {
+            levels.add(level);
+        }
+    }
+}
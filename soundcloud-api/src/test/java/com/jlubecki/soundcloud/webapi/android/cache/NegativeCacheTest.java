@@ -0,0 +1,138 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.cache;
+
+import com.jlubecki.soundcloud.webapi.android.LoopbackServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NegativeCacheTest {
+
+    private final NegativeCache cache = new NegativeCache();
+    private final Set<String> missing = new HashSet<>();
+
+    private LoopbackServer server;
+    private OkHttpClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LoopbackServer() {
+            @Override
+            protected void handle(Exchange exchange) throws IOException {
+                exchange.readBody();
+
+                if ("GET".equals(exchange.method) && isMissing(exchange.path)) {
+                    exchange.respond(404, "{}".getBytes("UTF-8"));
+                } else {
+                    exchange.respond(200, "{}".getBytes("UTF-8"));
+                }
+            }
+        };
+        client = new OkHttpClient.Builder().addInterceptor(cache).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void remembersMissingEntities() throws IOException {
+        setMissing("/tracks/1");
+
+        assertEquals(404, get("/tracks/1"));
+        assertEquals(404, get("/tracks/1"));
+        assertEquals(1, server.getRequestCount());
+        assertTrue(cache.isMissing(EntityType.TRACK, "1"));
+    }
+
+    @Test
+    public void ignoresRelationshipChecks() throws IOException {
+        setMissing("/me/favorites/1");
+        setMissing("/users/2/followings/3");
+
+        assertEquals(404, get("/me/favorites/1"));
+        assertEquals(404, get("/users/2/followings/3"));
+        assertEquals(0, cache.size());
+
+        setMissing(null);
+
+        assertEquals(200, get("/me/favorites/1"));
+        assertEquals(200, get("/users/2/followings/3"));
+        assertEquals(4, server.getRequestCount());
+    }
+
+    @Test
+    public void forgetsEntitiesAfterSuccessfulMutations() throws IOException {
+        setMissing("/playlists/5");
+        assertEquals(404, get("/playlists/5"));
+
+        setMissing(null);
+        Response response = client.newCall(new Request.Builder()
+                .url(server.url("/playlists/5"))
+                .put(RequestBody.create(MediaType.parse("application/json"), "{}"))
+                .build()).execute();
+        response.close();
+
+        assertFalse(cache.isMissing(EntityType.PLAYLIST, "5"));
+        assertEquals(200, get("/playlists/5"));
+        assertEquals(3, server.getRequestCount());
+    }
+
+    private synchronized boolean isMissing(String path) {
+        return missing.contains(path);
+    }
+
+    private synchronized void setMissing(String path) {
+        if (path == null) {
+            missing.clear();
+        } else {
+            missing.add(path);
+        }
+    }
+
+    private int get(String path) throws IOException {
+        Response response = client.newCall(new Request.Builder().url(server.url(path)).build()).execute();
+        response.close();
+
+        return response.code();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.query;
+
+import com.jlubecki.soundcloud.webapi.android.LoopbackServer;
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FederatedTrackSearchTest {
+
+    private final TrackQuery query = new TrackQuery.Builder()
+            .setQuery("rock")
+            .build();
+
+    private SearchServer server;
+    private FederatedTrackSearch search;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new SearchServer();
+
+        SoundCloudService service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .client(new OkHttpClient())
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(SoundCloudService.class);
+
+        search = new FederatedTrackSearch.Builder(service)
+                .setPageSize(2)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test(timeout = 10000)
+    public void deliversTracks() throws IOException, InterruptedException {
+        server.body = "[{\"id\":\"1\"},{\"id\":\"2\"}]";
+        server.lastBody = "[{\"id\":\"3\"}]";
+
+        List<Track> tracks = search.executeAll(query);
+
+        assertEquals(3, tracks.size());
+    }
+
+    @Test(timeout = 10000)
+    public void throwsConversionFailures() throws IOException, InterruptedException {
+        server.body = "{\"collection\":[]}";
+
+        try {
+            search.executeAll(query);
+            fail("The malformed response should end the search");
+        } catch (RuntimeException expected) {
+            // Gson's syntax error, passed on by Retrofit.
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void throwsListenerFailures() throws IOException, InterruptedException {
+        server.body = "[{\"id\":\"1\"}]";
+
+        try {
+            search.execute(query, new FederatedTrackSearch.Listener() {
+                @Override
+                public void onTracks(List<Track> tracks) {
+                    throw new IllegalStateException("Listener failed");
+                }
+            });
+            fail("The failing listener should end the search");
+        } catch (IllegalStateException expected) {
+            assertEquals("Listener failed", expected.getMessage());
+        }
+    }
+
+    /**
+     * Answers the first page with one body and later pages with another.
+     */
+    private static class SearchServer extends LoopbackServer {
+
+        volatile String body;
+        volatile String lastBody = "[]";
+
+        SearchServer() throws IOException {
+            super();
+        }
+
+        @Override
+        protected void handle(Exchange exchange) throws IOException {
+            String json = exchange.query != null && exchange.query.contains("offset=0") ? body : lastBody;
+
+            exchange.respond(200, json.getBytes("UTF-8"), "Content-Type", "application/json");
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.query;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+
+public class QueryTest {
+
+    private final SoundCloudService service = new Retrofit.Builder()
+            .baseUrl("https://api.soundcloud.com/")
+            .addConverterFactory(GsonConverterFactory.create())
+            .build()
+            .create(SoundCloudService.class);
+
+    @Test
+    public void rawMapsAreStillEncodedByRetrofit() {
+        HashMap<String, String> queries = new HashMap<>();
+        queries.put("q", "rock & roll+100%");
+
+        assertEquals("q=rock%20%26%20roll%2B100%25", queryOf(service.searchTracks(queries)));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void pagesAreEncodedOnce() {
+        TrackQuery query = new TrackQuery.Builder()
+                .setQuery("rock & roll+100%")
+                .build();
+
+        assertEquals("limit=10&offset=20&q=rock%20%26%20roll%2B100%25",
+                queryOf(service.searchTracks(query.page(10, 20))));
+        assertEquals("q=rock%20%26%20roll%2B100%25", queryOf(service.searchTracks(query.createMap())));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void subclassesOverridingCreateMapCanBePaged() {
+        Query query = new Query() {
+            @Override
+            public HashMap<String, String> createMap() {
+                HashMap<String, String> map = new HashMap<>();
+                map.put("q", "a&b");
+
+                return map;
+            }
+        };
+
+        assertEquals("a&b", query.parameters().get("q"));
+        assertEquals("limit=50&offset=0&q=a%26b", queryOf(service.searchTracks(new Pager(query).current())));
+    }
+
+    private static String queryOf(retrofit2.Call<?> call) {
+        return call.request().url().encodedQuery();
+    }
+}
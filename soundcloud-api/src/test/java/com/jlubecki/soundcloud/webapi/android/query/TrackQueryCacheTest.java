@@ -0,0 +1,110 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.query;
+
+import com.jlubecki.soundcloud.webapi.android.cache.TrimLevel;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TrackQueryCacheTest {
+
+    private static final int ENTRIES = 16;
+    private static final long TTL = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void trimShrinksToTieredBudgetAndRefills() {
+        for (TrimLevel level : TrimLevel.values()) {
+            TrackQueryCache cache = new TrackQueryCache(ENTRIES, TTL);
+            fill(cache);
+
+            cache.trim(level);
+
+            int budget = (int) level.apply(ENTRIES);
+            assertEquals(level.toString(), budget, countCached(cache));
+
+            // The most recently used result sets are the ones kept.
+            for (int i = 0; i < ENTRIES; i++) {
+                List<Track> cached = cache.get(query(i));
+
+                if (i < ENTRIES - budget) {
+                    assertNull(level + " kept query " + i, cached);
+                } else {
+                    assertNotNull(level + " dropped query " + i, cached);
+                }
+            }
+
+            fill(cache);
+
+            assertEquals(ENTRIES, countCached(cache));
+        }
+    }
+
+    @Test
+    public void trimKeepsRecentlyReadEntries() {
+        TrackQueryCache cache = new TrackQueryCache(ENTRIES, TTL);
+        fill(cache);
+
+        assertNotNull(cache.get(query(0)));
+        cache.trim(TrimLevel.HIGH);
+
+        assertNotNull(cache.get(query(0)));
+        assertNull(cache.get(query(ENTRIES - (int) TrimLevel.HIGH.apply(ENTRIES))));
+    }
+
+    private static void fill(TrackQueryCache cache) {
+        for (int i = 0; i < ENTRIES; i++) {
+            Track track = new Track("Track " + i, null);
+            track.id = String.valueOf(i);
+
+            // Incomplete results, so no entry answers another query by subsumption.
+            cache.put(query(i), Collections.singletonList(track), false);
+        }
+    }
+
+    private static int countCached(TrackQueryCache cache) {
+        int count = 0;
+
+        for (int i = 0; i < ENTRIES; i++) {
+            if (cache.get(query(i)) != null) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    private static TrackQuery query(int i) {
+        return new TrackQuery.Builder().setQuery("query " + i).build();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.stream;
+
+import com.jlubecki.soundcloud.webapi.android.LoopbackServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stands in for the media servers a stream_url redirects to. It serves fixed files, answers
+ * single byte ranges with 206 and ranges past the end with 416, and can be made to ignore ranges
+ * and always answer 200 with the whole file.
+ */
+class CdnServer extends LoopbackServer {
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final Map<String, byte[]> files = new HashMap<>();
+    private final List<String> ranges = new ArrayList<>();
+
+    private boolean ignoreRanges;
+    private long bytesSent;
+
+    CdnServer() throws IOException {
+        super();
+    }
+
+    synchronized void put(String path, byte[] content) {
+        files.put(path, content);
+    }
+
+    synchronized void setIgnoreRanges(boolean ignoreRanges) {
+        this.ignoreRanges = ignoreRanges;
+    }
+
+    /**
+     * @return The Range header of every request, or "" for requests without one, in order.
+     */
+    synchronized List<String> getRanges() {
+        return new ArrayList<>(ranges);
+    }
+
+    /**
+     * @return Body bytes written to clients.
+     */
+    synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    protected void handle(Exchange exchange) throws IOException {
+        String range = exchange.header("Range");
+        byte[] content;
+        boolean ignoreRanges;
+
+        synchronized (this) {
+            ranges.add(range != null ? range : "");
+            content = files.get(exchange.path);
+            ignoreRanges = this.ignoreRanges;
+        }
+
+        if (content == null) {
+            exchange.respond(404, new byte[0]);
+            return;
+        }
+
+        long length = content.length;
+
+        if (range == null || ignoreRanges) {
+            send(exchange.respondHeaders(200, length, "Content-Type", "audio/mpeg"), content, 0, length);
+            return;
+        }
+
+        String spec = range.substring("bytes=".length());
+        int dash = spec.indexOf('-');
+        long start;
+        long end;
+
+        if (dash == 0) {
+            start = Math.max(0, length - Long.parseLong(spec.substring(1)));
+            end = length - 1;
+        } else {
+            start = Long.parseLong(spec.substring(0, dash));
+            end = dash == spec.length() - 1 ? length - 1 : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+        }
+
+        if (start >= length) {
+            exchange.respond(416, new byte[0], "Content-Range", "bytes */" + length);
+            return;
+        }
+
+        OutputStream output = exchange.respondHeaders(206, end - start + 1,
+                "Content-Type", "audio/mpeg",
+                "Content-Range", "bytes " + start + "-" + end + "/" + length);
+
+        send(output, content, start, end + 1);
+    }
+
+    private void send(OutputStream output, byte[] content, long start, long end) throws IOException {
+        for (long position = start; position < end; position += BUFFER_SIZE) {
+            int count = (int) Math.min(BUFFER_SIZE, end - position);
+            output.write(content, (int) position, count);
+
+            synchronized (this) {
+                bytesSent += count;
+            }
+        }
+    }
+}
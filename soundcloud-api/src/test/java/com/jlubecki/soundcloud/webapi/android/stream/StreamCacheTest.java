@@ -0,0 +1,190 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamCacheTest {
+
+    private static final int LENGTH = 10000;
+    private static final long MAX_BYTES = 3 * LENGTH;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] content = new byte[LENGTH];
+
+    private File directory;
+    private StreamCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        new Random(49).nextBytes(content);
+
+        directory = folder.newFolder("streams");
+        cache = new StreamCache(directory, MAX_BYTES);
+    }
+
+    @Test
+    public void rebuildsIndexOnRestart() throws IOException {
+        StreamCache.Entry entry = cache.open("a");
+        entry.setLength(LENGTH, "audio/ogg");
+        write(entry, 0, 1000);
+        write(entry, 5000, 6000);
+        entry.close();
+
+        StreamCache restarted = new StreamCache(directory, MAX_BYTES);
+        StreamCache.Entry reopened = restarted.open("a");
+
+        try {
+            assertEquals(2000, restarted.getSize());
+            assertEquals(LENGTH, reopened.getLength());
+            assertEquals("audio/ogg", reopened.getContentType());
+            assertEquals(1000, reopened.cachedFrom(0));
+            assertEquals(5000, reopened.nextCached(1000));
+            assertEquals(1000, reopened.cachedFrom(5000));
+
+            byte[] buffer = new byte[1000];
+            assertEquals(1000, reopened.read(5000, buffer, 0, buffer.length));
+            assertArrayEquals(Arrays.copyOfRange(content, 5000, 6000), buffer);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void deletesDataWithoutMetaOnRestart() throws IOException {
+        fill("a");
+        File[] kept = directory.listFiles();
+
+        // Left by a process killed before the meta files were written.
+        FileOutputStream orphan = new FileOutputStream(new File(directory, "0123456789abcdef.data"));
+        orphan.write(content);
+        orphan.close();
+        assertTrue(new File(directory, "0123456789abcdef.meta.tmp").createNewFile());
+
+        StreamCache restarted = new StreamCache(directory, MAX_BYTES);
+
+        assertEquals(LENGTH, restarted.getSize());
+        assertEquals(LENGTH, restarted.getCachedPrefix("a"));
+        assertEquals(kept.length, directory.listFiles().length);
+    }
+
+    @Test
+    public void interruptedWritesDoNotCloseTheEntryForOtherUsers() throws IOException {
+        StreamCache.Entry first = cache.open("a");
+        StreamCache.Entry second = cache.open("a");
+        first.setLength(LENGTH, null);
+
+        try {
+            Thread.currentThread().interrupt();
+
+            try {
+                write(first, 0, 1000);
+            } finally {
+                Thread.interrupted();
+            }
+
+            write(second, 1000, 2000);
+
+            byte[] buffer = new byte[2000];
+            assertEquals(2000, second.read(0, buffer, 0, buffer.length));
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 2000), buffer);
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedStreamsUnderBudget() throws IOException {
+        fill("a");
+        fill("b");
+        fill("c");
+
+        // Reading "a" makes "b" the least recently used.
+        cache.open("a").close();
+        fill("d");
+
+        assertTrue(cache.getSize() <= MAX_BYTES);
+        assertEquals(LENGTH, cache.getCachedPrefix("a"));
+        assertEquals(0, cache.getCachedPrefix("b"));
+        assertEquals(LENGTH, cache.getCachedPrefix("c"));
+        assertEquals(LENGTH, cache.getCachedPrefix("d"));
+    }
+
+    @Test
+    public void neverEvictsOpenStreams() throws IOException {
+        StreamCache.Entry open = cache.open("a");
+        open.setLength(LENGTH, null);
+        write(open, 0, LENGTH);
+
+        try {
+            fill("b");
+            fill("c");
+            fill("d");
+            fill("e");
+
+            assertTrue(cache.getSize() <= MAX_BYTES);
+            assertEquals(LENGTH, cache.getCachedPrefix("a"));
+            assertTrue(open.isComplete());
+        } finally {
+            open.close();
+        }
+
+        // Once closed it can be deleted like any other stream.
+        cache.clear();
+
+        assertEquals(0, cache.getSize());
+    }
+
+    private void fill(String key) throws IOException {
+        StreamCache.Entry entry = cache.open(key);
+
+        try {
+            entry.setLength(LENGTH, null);
+            write(entry, 0, LENGTH);
+        } finally {
+            entry.close();
+        }
+    }
+
+    private void write(StreamCache.Entry entry, int start, int end) throws IOException {
+        entry.write(start, Arrays.copyOfRange(content, start, end), 0, end - start);
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.stream;
+
+import com.jlubecki.soundcloud.webapi.android.util.RateLimiter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class StreamProxyTest {
+
+    private static final int LENGTH = 200000;
+    private static final long MAX_BYTES = 10 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .retryOnConnectionFailure(false)
+            .build();
+
+    private CdnServer cdn;
+    private File directory;
+    private StreamProxy proxy;
+    private String streamUrl;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[LENGTH];
+        new Random(49).nextBytes(content);
+
+        cdn = new CdnServer();
+        cdn.put("/track.mp3", content);
+        streamUrl = cdn.url("/track.mp3").toString();
+
+        directory = folder.newFolder("streams");
+        proxy = new StreamProxy(client, new StreamCache(directory, MAX_BYTES));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        proxy.shutdown();
+        cdn.close();
+    }
+
+    @Test(timeout = 10000)
+    public void replayFetchesNothingFromUpstream() throws IOException {
+        Played first = play(null);
+
+        assertEquals(200, first.code);
+        assertArrayEquals(content, first.body);
+        assertEquals(LENGTH, cdn.getBytesSent());
+
+        int requests = cdn.getRequestCount();
+        Played replay = play(null);
+
+        assertEquals(200, replay.code);
+        assertArrayEquals(content, replay.body);
+        assertEquals(requests, cdn.getRequestCount());
+        assertEquals(LENGTH, cdn.getBytesSent());
+        assertEquals(LENGTH, proxy.getCache().getCachedPrefix(StreamProxy.keyOf(streamUrl)));
+    }
+
+    @Test(timeout = 10000)
+    public void seekFillsOnlyTheGap() throws IOException {
+        assertRange(play("bytes=0-9999"), 0, 9999);
+        assertRange(play("bytes=50000-59999"), 50000, 59999);
+
+        Played full = play(null);
+
+        assertArrayEquals(content, full.body);
+        assertEquals(Arrays.asList("bytes=0-9999", "bytes=50000-59999", "bytes=10000-49999",
+                "bytes=60000-" + (LENGTH - 1)), cdn.getRanges());
+        assertEquals("Each byte is fetched once", LENGTH, cdn.getBytesSent());
+    }
+
+    @Test(timeout = 10000)
+    public void servesSuffixRanges() throws IOException {
+        assertRange(play("bytes=-1000"), LENGTH - 1000, LENGTH - 1);
+
+        // Once cached, the suffix comes from disk.
+        int requests = cdn.getRequestCount();
+
+        assertRange(play("bytes=-1000"), LENGTH - 1000, LENGTH - 1);
+        assertEquals(requests, cdn.getRequestCount());
+    }
+
+    @Test(timeout = 10000)
+    public void answersRangesPastTheEndWith416() throws IOException {
+        play("bytes=0-99");
+
+        Played played = play("bytes=" + LENGTH + "-");
+
+        assertEquals(416, played.code);
+        assertEquals("bytes */" + LENGTH, played.contentRange);
+    }
+
+    @Test(timeout = 10000)
+    public void answersRangesPastTheEndOfUnknownStreamsWith416() throws IOException {
+        Played played = play("bytes=" + LENGTH + "-");
+
+        assertEquals(416, played.code);
+        assertEquals("bytes */" + LENGTH, played.contentRange);
+
+        // The length was learned, so the next request is answered without upstream.
+        int requests = cdn.getRequestCount();
+
+        assertEquals(416, play("bytes=" + (LENGTH + 10) + "-").code);
+        assertEquals(requests, cdn.getRequestCount());
+    }
+
+    @Test(timeout = 10000)
+    public void servesRangesOfUpstreamThatIgnoresThem() throws IOException {
+        cdn.setIgnoreRanges(true);
+
+        assertRange(play("bytes=30000-39999"), 30000, 39999);
+        assertEquals(1, cdn.getRequestCount());
+
+        // The bytes before the range arrived too, and were cached.
+        assertRange(play("bytes=0-39999"), 0, 39999);
+        assertEquals(1, cdn.getRequestCount());
+
+        Played full = play(null);
+
+        assertEquals(200, full.code);
+        assertArrayEquals(content, full.body);
+    }
+
+    @Test(timeout = 10000)
+    public void keepsStreamsAcrossRestarts() throws IOException {
+        // Prefetching returns once the ranges are saved, unlike a player's request.
+        assertEquals(50000, proxy.prefetch(streamUrl, 50000, null));
+        proxy.shutdown();
+
+        StreamCache cache = new StreamCache(directory, MAX_BYTES);
+        proxy = new StreamProxy(client, cache);
+
+        assertEquals(50000, cache.getSize());
+        assertEquals(50000, cache.getCachedPrefix(StreamProxy.keyOf(streamUrl)));
+
+        int requests = cdn.getRequestCount();
+
+        assertRange(play("bytes=10000-49999"), 10000, 49999);
+        assertEquals(requests, cdn.getRequestCount());
+    }
+
+    @Test(timeout = 10000)
+    public void canceledPrefetchStopsBeforeTheNextBuffer() throws IOException {
+        try {
+            proxy.prefetch(streamUrl, 50000, null, new AtomicBoolean(true));
+            fail("Prefetched although canceled");
+        } catch (IOException expected) {
+            // Stopped.
+        }
+
+        assertEquals(0, proxy.getCache().getCachedPrefix(StreamProxy.keyOf(streamUrl)));
+        assertArrayEquals(content, play(null).body);
+    }
+
+    @Test(timeout = 10000)
+    public void throttledUrlsKeepToTheirLimiter() throws IOException {
+        CountingLimiter limiter = new CountingLimiter();
+        String throttled = proxy.getThrottledUrl(streamUrl, limiter);
+
+        assertNotEquals(proxy.getUrl(streamUrl), throttled);
+        assertArrayEquals(content, get(throttled, null).body);
+        assertEquals((LENGTH + StreamProxy.BUFFER_SIZE - 1) / StreamProxy.BUFFER_SIZE, limiter.acquired.get());
+
+        String other = cdn.url("/other.mp3").toString();
+        cdn.put("/other.mp3", content);
+        CountingLimiter lifted = new CountingLimiter();
+        String unthrottled = proxy.getThrottledUrl(other, lifted);
+        proxy.unthrottle(unthrottled);
+
+        assertArrayEquals(content, get(unthrottled, null).body);
+        assertEquals(0, lifted.acquired.get());
+    }
+
+    @Test(timeout = 10000)
+    public void urlsAreUnguessable() throws IOException {
+        String url = proxy.getUrl(streamUrl);
+        String other = proxy.getUrl(cdn.url("/other.mp3").toString());
+        String token = HttpUrl.parse(url).encodedPath().substring(1);
+
+        assertEquals(url, proxy.getUrl(streamUrl));
+        assertNotEquals(url, other);
+        assertTrue(token, token.matches("[0-9a-f]{32}"));
+        assertEquals(404, get(HttpUrl.parse(url).resolve("/0").toString(), null).code);
+        assertEquals(404, get(HttpUrl.parse(url).resolve("/1").toString(), null).code);
+    }
+
+    @Test(timeout = 10000)
+    public void forgetsLeastRecentlyUsedUrls() throws IOException {
+        String first = proxy.getUrl(streamUrl);
+        String second = proxy.getUrl(streamUrl + "?2");
+
+        for (int i = 0; i < 63; i++) {
+            proxy.getUrl(streamUrl + "?other=" + i);
+        }
+
+        // Playing the second stream kept it in use, so the first was forgotten instead.
+        assertEquals(200, get(second, "bytes=0-0").code / 100 * 100);
+
+        proxy.getUrl(streamUrl + "?other=63");
+
+        assertEquals(404, get(first, null).code);
+        assertEquals(206, get(second, "bytes=0-0").code);
+        assertNotEquals(first, proxy.getUrl(streamUrl));
+    }
+
+    private Played play(String range) throws IOException {
+        return get(proxy.getUrl(streamUrl), range);
+    }
+
+    private Played get(String url, String range) throws IOException {
+        Request.Builder request = new Request.Builder().url(url);
+
+        if (range != null) {
+            request.header("Range", range);
+        }
+
+        Response response = client.newCall(request.build()).execute();
+
+        try {
+            return new Played(response.code(), response.header("Content-Range"), response.body().bytes());
+        } finally {
+            response.close();
+        }
+    }
+
+    private void assertRange(Played played, int first, int last) {
+        assertEquals(206, played.code);
+        assertEquals("bytes " + first + "-" + last + "/" + LENGTH, played.contentRange);
+        assertArrayEquals(Arrays.copyOfRange(content, first, last + 1), played.body);
+    }
+
+    private static class CountingLimiter extends RateLimiter {
+
+        final AtomicInteger acquired = new AtomicInteger();
+
+        CountingLimiter() {
+            super(1000);
+        }
+
+        @Override
+        public void acquire() throws InterruptedException {
+            acquired.incrementAndGet();
+            super.acquire();
+        }
+    }
+
+    private static class Played {
+
+        final int code;
+        final String contentRange;
+        final byte[] body;
+
+        Played(int code, String contentRange, byte[] body) {
+            this.code = code;
+            this.contentRange = contentRange;
+            this.body = body;
+        }
+    }
+}
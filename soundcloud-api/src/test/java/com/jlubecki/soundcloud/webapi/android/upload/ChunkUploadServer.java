@@ -0,0 +1,337 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import com.jlubecki.soundcloud.webapi.android.LoopbackServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stands in for a server speaking the protocol of {@link ContentRangeTransport}, and for the track
+ * endpoints {@link ResumableUploader} uses:
+ * <ul>
+ * <li>POST /uploads opens a session at /uploads/{session}.</li>
+ * <li>PUT /uploads/{session} stores a chunk or reports the stored range.</li>
+ * <li>GET /tracks/{id} answers with a track until it is deleted.</li>
+ * <li>POST /tracks takes a whole file.</li>
+ * </ul>
+ * Sessions can expire, chunk requests can fail or drop the connection midway, and tracks can be
+ * deleted.
+ */
+class ChunkUploadServer extends LoopbackServer {
+
+    static final String UPLOADS = "/uploads";
+
+    private static final String TRACKS = "/tracks";
+    private static final String CHARSET = "UTF-8";
+
+    private final Map<String, Session> sessions = new HashMap<>();
+    private final Set<String> deleted = new HashSet<>();
+    private final List<String> chunkRanges = new ArrayList<>();
+
+    private int nextId = 1;
+    private long bytesReceived;
+    private int wholeUploads;
+    private Session lastSession;
+
+    private int dropChunk = -1;
+    private int dropAfterBytes;
+    private int failingChunks;
+    private int chunkFailureCode;
+    private int failingUploads;
+    private int uploadFailureCode;
+
+    ChunkUploadServer() throws IOException {
+        super();
+    }
+
+    /**
+     * Drops the connection of a chunk request after storing part of its bytes.
+     *
+     * @param chunk      Index of the chunk request among all chunk requests, starting at 0.
+     * @param afterBytes Bytes of the chunk stored before the connection drops.
+     */
+    synchronized void dropChunk(int chunk, int afterBytes) {
+        dropChunk = chunk;
+        dropAfterBytes = afterBytes;
+    }
+
+    /**
+     * Answers the next chunk requests with an error, without storing their bytes.
+     */
+    synchronized void failChunks(int count, int code) {
+        failingChunks = count;
+        chunkFailureCode = code;
+    }
+
+    /**
+     * Answers the next whole file uploads with an error.
+     */
+    synchronized void failUploads(int count, int code) {
+        failingUploads = count;
+        uploadFailureCode = code;
+    }
+
+    /**
+     * Makes every open session answer with an error from now on.
+     */
+    synchronized void expireSessions(int code) {
+        for (Session session : sessions.values()) {
+            session.expiredCode = code;
+        }
+    }
+
+    synchronized void deleteTrack(String id) {
+        deleted.add(id);
+    }
+
+    synchronized int getSessionsOpened() {
+        return sessions.size();
+    }
+
+    /**
+     * @return The Content-Range of every chunk request, in order.
+     */
+    synchronized List<String> getChunkRanges() {
+        return new ArrayList<>(chunkRanges);
+    }
+
+    /**
+     * @return Bytes received by chunk requests, including bytes the server already had.
+     */
+    synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    synchronized int getWholeUploads() {
+        return wholeUploads;
+    }
+
+    /**
+     * @return The bytes stored by the last session opened.
+     */
+    synchronized byte[] getLastStored() {
+        return lastSession.stored.toByteArray();
+    }
+
+    @Override
+    protected void handle(Exchange exchange) throws IOException {
+        if (exchange.method.equals("POST") && exchange.path.equals(UPLOADS)) {
+            open(exchange);
+        } else if (exchange.method.equals("PUT") && exchange.path.startsWith(UPLOADS + "/")) {
+            put(exchange, exchange.path.substring(UPLOADS.length() + 1));
+        } else if (exchange.method.equals("GET") && exchange.path.startsWith(TRACKS + "/")) {
+            getTrack(exchange, exchange.path.substring(TRACKS.length() + 1));
+        } else if (exchange.method.equals("POST") && exchange.path.equals(TRACKS)) {
+            uploadWhole(exchange);
+        } else {
+            exchange.respond(404, new byte[0]);
+        }
+    }
+
+    private void open(Exchange exchange) throws IOException {
+        String form = new String(exchange.readBody(), CHARSET);
+        String id;
+
+        synchronized (this) {
+            Session session = new Session(Long.parseLong(exchange.header("X-Upload-Content-Length")),
+                    field(form, "track[title]"));
+
+            id = "s" + (sessions.size() + 1);
+            sessions.put(id, session);
+            lastSession = session;
+        }
+
+        exchange.respond(201, new byte[0], "Location", UPLOADS + "/" + id);
+    }
+
+    private void put(Exchange exchange, String id) throws IOException {
+        Session session;
+        int expiredCode;
+
+        synchronized (this) {
+            session = sessions.get(id);
+            expiredCode = session == null ? 404 : session.expiredCode;
+        }
+
+        if (expiredCode != 0) {
+            exchange.readBody();
+            exchange.respond(expiredCode, new byte[0]);
+            return;
+        }
+
+        String range = exchange.header("Content-Range");
+
+        if (range.startsWith("bytes */")) {
+            respondState(exchange, session);
+            return;
+        }
+
+        long first = Long.parseLong(range.substring("bytes ".length(), range.indexOf('-')));
+        boolean drop;
+        boolean fail;
+        int failureCode;
+
+        synchronized (this) {
+            drop = chunkRanges.size() == dropChunk;
+            fail = !drop && failingChunks > 0;
+            failureCode = chunkFailureCode;
+            chunkRanges.add(range);
+
+            if (fail) {
+                failingChunks--;
+            }
+        }
+
+        if (fail) {
+            exchange.readBody();
+            exchange.respond(failureCode, new byte[0]);
+            return;
+        }
+
+        byte[] body = exchange.readBody(drop ? dropAfterBytes : Long.MAX_VALUE);
+
+        synchronized (this) {
+            bytesReceived += body.length;
+
+            // Bytes the server already has are skipped, as a chunk may be sent again.
+            long skip = session.stored.size() - first;
+
+            if (skip >= 0 && skip < body.length) {
+                session.stored.write(body, (int) skip, body.length - (int) skip);
+            }
+        }
+
+        if (drop) {
+            exchange.drop();
+        } else {
+            respondState(exchange, session);
+        }
+    }
+
+    private void respondState(Exchange exchange, Session session) throws IOException {
+        long stored;
+        String trackId = null;
+
+        synchronized (this) {
+            stored = session.stored.size();
+
+            if (stored == session.length) {
+                if (session.trackId == null) {
+                    session.trackId = String.valueOf(nextId++);
+                }
+
+                trackId = session.trackId;
+            }
+        }
+
+        if (trackId != null) {
+            exchange.respond(201, trackJson(trackId, session.title), "Content-Type", "application/json");
+        } else if (stored > 0) {
+            exchange.respond(308, new byte[0], "Range", "bytes=0-" + (stored - 1));
+        } else {
+            exchange.respond(308, new byte[0]);
+        }
+    }
+
+    private void getTrack(Exchange exchange, String id) throws IOException {
+        boolean exists;
+
+        synchronized (this) {
+            exists = !deleted.contains(id) && Integer.parseInt(id) < nextId;
+        }
+
+        if (exists) {
+            exchange.respond(200, trackJson(id, null), "Content-Type", "application/json");
+        } else {
+            exchange.respond(404, new byte[0]);
+        }
+    }
+
+    private void uploadWhole(Exchange exchange) throws IOException {
+        exchange.readBody();
+
+        String id = null;
+        int failureCode;
+
+        synchronized (this) {
+            wholeUploads++;
+            failureCode = uploadFailureCode;
+
+            if (failingUploads > 0) {
+                failingUploads--;
+            } else {
+                id = String.valueOf(nextId++);
+            }
+        }
+
+        if (id != null) {
+            exchange.respond(201, trackJson(id, null), "Content-Type", "application/json");
+        } else {
+            exchange.respond(failureCode, new byte[0]);
+        }
+    }
+
+    private static byte[] trackJson(String id, String title) throws IOException {
+        String json = "{\"id\":\"" + id + "\"" + (title != null ? ",\"title\":\"" + title + "\"" : "") + "}";
+
+        return json.getBytes(CHARSET);
+    }
+
+    private static String field(String form, String name) throws IOException {
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+
+            if (equals > 0 && URLDecoder.decode(pair.substring(0, equals), CHARSET).equals(name)) {
+                return URLDecoder.decode(pair.substring(equals + 1), CHARSET);
+            }
+        }
+
+        return null;
+    }
+
+    private static class Session {
+
+        final long length;
+        final String title;
+        final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+
+        int expiredCode;
+        String trackId;
+
+        Session(long length, String title) {
+            this.length = length;
+            this.title = title;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.jlubecki.soundcloud.webapi.android.LoopbackServer;
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.OkHttpClient;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProcessingTrackerTest {
+
+    private static final ProcessingTracker.Listener IGNORED = new ProcessingTracker.Listener() {
+        @Override
+        public void onProcessingFinished(@NonNull Track track) {
+        }
+
+        @Override
+        public void onProcessingFailed(@NonNull String trackId, @Nullable Track track) {
+        }
+    };
+
+    private TrackServer server;
+    private ProcessingTracker tracker;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new TrackServer();
+
+        SoundCloudService service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .client(new OkHttpClient.Builder().retryOnConnectionFailure(false).build())
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(SoundCloudService.class);
+
+        tracker = new ProcessingTracker.Builder(service)
+                .setInterval(10, 10)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        tracker.shutdown();
+        server.close();
+    }
+
+    @Test(timeout = 10000)
+    public void findsPrivateTracksAmongOwnTracksBeforeLookingThemUp() throws InterruptedException {
+        server.search.put("1", "finished");
+        server.own.put("2", "finished");
+        server.singles.put("3", 403);
+        server.singles.put("4", 404);
+
+        track("1", "2", "3", "4");
+        awaitPending(1);
+
+        List<String> requests = server.getRequests();
+
+        assertEquals(1, count(requests, "/me/tracks"));
+        assertEquals(1, count(requests, "/tracks/3"));
+        assertEquals(1, count(requests, "/tracks/4"));
+        assertEquals(0, count(requests, "/tracks/1") + count(requests, "/tracks/2"));
+    }
+
+    @Test(timeout = 10000)
+    public void keepsFoundTracksWhenLookupsFail() throws InterruptedException {
+        server.search.put("1", "finished");
+        server.own.put("2", "failed");
+        server.ownCode = 500;
+        server.singles.put("3", 500);
+
+        track("1", "2", "3", "4");
+        awaitPending(2);
+
+        // Lookups stop at the first server error, and are tried again on the next check.
+        assertEquals(0, count(server.getRequests(), "/tracks/4"));
+    }
+
+    @Test(timeout = 10000)
+    public void checksAgainAfterAResponseThatCannotBeConverted() throws InterruptedException {
+        server.search.put("1", "finished");
+        server.malformedSearches = 1;
+
+        track("1");
+        awaitPending(0);
+
+        assertEquals(2, count(server.getRequests(), "/tracks"));
+    }
+
+    private void track(String... ids) {
+        for (String id : ids) {
+            tracker.track(id, IGNORED);
+        }
+    }
+
+    private void awaitPending(int count) throws InterruptedException {
+        while (tracker.getPendingCount() != count) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static int count(List<String> requests, String path) {
+        int count = 0;
+
+        for (String request : requests) {
+            if (request.equals(path)) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Answers the search, the user's own tracks and single tracks from fixed states.
+     */
+    private static class TrackServer extends LoopbackServer {
+
+        final Map<String, String> search = new HashMap<>();
+        final Map<String, String> own = new HashMap<>();
+        final Map<String, Integer> singles = new HashMap<>();
+        int ownCode = 200;
+        int malformedSearches;
+
+        private final List<String> requests = new ArrayList<>();
+
+        TrackServer() throws IOException {
+            super();
+        }
+
+        synchronized List<String> getRequests() {
+            return new ArrayList<>(requests);
+        }
+
+        @Override
+        protected void handle(Exchange exchange) throws IOException {
+            boolean malformed;
+
+            synchronized (this) {
+                requests.add(exchange.path);
+                malformed = exchange.path.equals("/tracks") && malformedSearches-- > 0;
+            }
+
+            if (malformed) {
+                exchange.respond(200, "{\"collection\":[]}".getBytes("UTF-8"), "Content-Type", "application/json");
+            } else if (exchange.path.equals("/tracks")) {
+                respond(exchange, 200, search);
+            } else if (exchange.path.equals("/me/tracks")) {
+                respond(exchange, ownCode, own);
+            } else {
+                Integer code = singles.get(exchange.path.substring("/tracks/".length()));
+                exchange.respond(code != null ? code : 404, new byte[0]);
+            }
+        }
+
+        private static void respond(Exchange exchange, int code, Map<String, String> states) throws IOException {
+            StringBuilder json = new StringBuilder("[");
+
+            for (Map.Entry<String, String> state : states.entrySet()) {
+                if (json.length() > 1) {
+                    json.append(',');
+                }
+
+                json.append("{\"id\":\"").append(state.getKey()).append("\",\"state\":\"")
+                        .append(state.getValue()).append("\"}");
+            }
+
+            exchange.respond(code, json.append(']').toString().getBytes("UTF-8"),
+                    "Content-Type", "application/json");
+        }
+    }
+}
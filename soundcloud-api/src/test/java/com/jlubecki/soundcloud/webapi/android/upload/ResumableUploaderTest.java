@@ -0,0 +1,315 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2016 Jacob Lubecki
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package com.jlubecki.soundcloud.webapi.android.upload;
+
+import com.jlubecki.soundcloud.webapi.android.SoundCloudService;
+import com.jlubecki.soundcloud.webapi.android.models.Track;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import retrofit2.Retrofit;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResumableUploaderTest {
+
+    private static final int CHUNK = 64 * 1024;
+    private static final int LENGTH = 4 * CHUNK + 1234;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ResumableUploader> uploaders = new ArrayList<>();
+
+    private ChunkUploadServer server;
+    private SoundCloudService service;
+    private ContentRangeTransport transport;
+    private File state;
+    private File audio;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ChunkUploadServer();
+
+        // Failures must reach the uploader rather than be retried by OkHttp.
+        OkHttpClient client = new OkHttpClient.Builder()
+                .retryOnConnectionFailure(false)
+                .readTimeout(5, TimeUnit.SECONDS)
+                .build();
+
+        service = new Retrofit.Builder()
+                .baseUrl(server.url("/"))
+                .client(client)
+                .addConverterFactory(GsonConverterFactory.create())
+                .build()
+                .create(SoundCloudService.class);
+
+        transport = new ContentRangeTransport(client, server.url(ChunkUploadServer.UPLOADS));
+        state = folder.newFolder("state");
+
+        content = new byte[LENGTH];
+        new Random(46).nextBytes(content);
+        audio = write("track.mp3", content);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (ResumableUploader uploader : uploaders) {
+            uploader.shutdown();
+        }
+
+        server.close();
+    }
+
+    @Test(timeout = 10000)
+    public void uploadsInChunks() throws IOException {
+        Track track = chunked(3).execute(audio, metadata());
+
+        assertEquals("1", track.id);
+        assertEquals("Title", track.title);
+        assertArrayEquals(content, server.getLastStored());
+        assertEquals(5, server.getChunkRanges().size());
+        assertEquals("bytes 0-65535/" + LENGTH, server.getChunkRanges().get(0));
+        assertEquals(LENGTH, server.getBytesReceived());
+        assertFalse(hasSessionState());
+        assertTrue(ledger().contains(" 1\n"));
+    }
+
+    @Test(timeout = 10000)
+    public void resumesFromAcknowledgedOffsetAfterDroppedConnection() throws IOException {
+        server.dropChunk(2, 1000);
+
+        Track track = chunked(3).execute(audio, metadata());
+
+        List<String> ranges = server.getChunkRanges();
+        long acknowledged = 2 * CHUNK + 1000;
+
+        assertEquals("1", track.id);
+        assertEquals(1, server.getSessionsOpened());
+        assertEquals("bytes " + acknowledged + "-" + (3 * CHUNK + 999) + "/" + LENGTH, ranges.get(3));
+        assertEquals(LENGTH, server.getBytesReceived());
+        assertArrayEquals(content, server.getLastStored());
+    }
+
+    @Test(timeout = 10000)
+    public void resumesAfterRestart() throws IOException {
+        server.dropChunk(1, 5000);
+
+        try {
+            chunked(1).execute(audio, metadata());
+            fail("The dropped connection should end the upload");
+        } catch (IOException expected) {
+            assertTrue(hasSessionState());
+        }
+
+        Track track = chunked(3).execute(audio, metadata());
+
+        assertEquals("1", track.id);
+        assertEquals(1, server.getSessionsOpened());
+        assertTrue(server.getChunkRanges().get(2).startsWith("bytes " + (CHUNK + 5000) + "-"));
+        assertEquals(LENGTH, server.getBytesReceived());
+        assertArrayEquals(content, server.getLastStored());
+        assertFalse(hasSessionState());
+    }
+
+    @Test(timeout = 10000)
+    public void reopensSessionThatWasNotFound() throws IOException {
+        reopensExpiredSession(404);
+    }
+
+    @Test(timeout = 10000)
+    public void reopensSessionThatIsGone() throws IOException {
+        reopensExpiredSession(410);
+    }
+
+    @Test(timeout = 10000)
+    public void givesUpChunksAfterMaxAttempts() throws IOException {
+        server.failChunks(Integer.MAX_VALUE, 503);
+
+        try {
+            chunked(3).execute(audio, metadata());
+            fail("The upload should fail");
+        } catch (IOException expected) {
+            assertEquals(3, server.getChunkRanges().size());
+            assertTrue(hasSessionState());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void retriesWholeUploadOnServerErrors() throws IOException {
+        server.failUploads(2, 503);
+
+        Track track = whole(3).execute(audio, metadata());
+
+        assertEquals("1", track.id);
+        assertEquals(3, server.getWholeUploads());
+    }
+
+    @Test(timeout = 10000)
+    public void givesUpWholeUploadAfterMaxAttempts() throws IOException {
+        server.failUploads(Integer.MAX_VALUE, 503);
+
+        try {
+            whole(3).execute(audio, metadata());
+            fail("The upload should fail");
+        } catch (IOException expected) {
+            assertEquals(3, server.getWholeUploads());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void doesNotRetryWholeUploadOnClientErrors() throws IOException {
+        server.failUploads(Integer.MAX_VALUE, 422);
+
+        try {
+            whole(3).execute(audio, metadata());
+            fail("The upload should fail");
+        } catch (IOException expected) {
+            assertEquals(1, server.getWholeUploads());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void returnsPreviousUploadOfSameContent() throws IOException {
+        Track first = chunked(3).execute(audio, metadata());
+        int requests = server.getRequestCount();
+
+        File copy = write("copy.mp3", content);
+        Track second = chunked(3).execute(copy, metadata());
+
+        assertEquals(first.id, second.id);
+        assertEquals(1, server.getSessionsOpened());
+        assertEquals("Only the track lookup is sent", requests + 1, server.getRequestCount());
+    }
+
+    @Test(timeout = 10000)
+    public void forgetsPreviousUploadOnceItsTrackIsDeleted() throws IOException {
+        Track first = chunked(3).execute(audio, metadata());
+
+        server.deleteTrack(first.id);
+
+        Track second = chunked(3).execute(audio, metadata());
+
+        assertNotEquals(first.id, second.id);
+        assertEquals(2, server.getSessionsOpened());
+        assertFalse(ledger().contains(" " + first.id + "\n"));
+        assertTrue(ledger().contains(" " + second.id + "\n"));
+    }
+
+    private void reopensExpiredSession(int code) throws IOException {
+        server.dropChunk(1, 0);
+
+        try {
+            chunked(1).execute(audio, metadata());
+            fail("The dropped connection should end the upload");
+        } catch (IOException expected) {
+            server.expireSessions(code);
+        }
+
+        Track track = chunked(3).execute(audio, metadata());
+
+        assertEquals("1", track.id);
+        assertEquals(2, server.getSessionsOpened());
+        assertArrayEquals(content, server.getLastStored());
+        assertFalse(hasSessionState());
+    }
+
+    private ResumableUploader chunked(int maxAttempts) {
+        return uploader(transport, maxAttempts);
+    }
+
+    private ResumableUploader whole(int maxAttempts) {
+        return uploader(null, maxAttempts);
+    }
+
+    private ResumableUploader uploader(ChunkTransport transport, int maxAttempts) {
+        ResumableUploader uploader = new ResumableUploader.Builder(service, state)
+                .setTransport(transport)
+                .setChunkSize(CHUNK)
+                .setMaxAttempts(maxAttempts)
+                .setRetryDelay(1)
+                .build();
+
+        uploaders.add(uploader);
+
+        return uploader;
+    }
+
+    private static TrackUpload.Builder metadata() {
+        return new TrackUpload.Builder("Title");
+    }
+
+    private File write(String name, byte[] bytes) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        OutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(bytes);
+        } finally {
+            output.close();
+        }
+
+        return file;
+    }
+
+    private boolean hasSessionState() {
+        String[] names = state.list();
+
+        for (String name : names) {
+            if (name.endsWith(".upload")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private String ledger() throws IOException {
+        return new String(Files.readAllBytes(new File(state, "uploaded").toPath()), Charset.forName("UTF-8"));
+    }
+}